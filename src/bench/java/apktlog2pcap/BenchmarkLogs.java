@@ -0,0 +1,103 @@
+package apktlog2pcap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BenchmarkLogs class builds the log lines the benchmarks work on: sipmsg.log frames
+ * (SIP messages with an SDP body, over each of TRANSPORTS, some of them VLAN-tagged) and daemon
+ * log events, in the format ApktLog parses. Frames are numbered, and frame n is logged n * 10
+ * milliseconds after midnight (July 4th), so they are in time order.
+ */
+public class BenchmarkLogs {
+
+	public static final String[] TRANSPORTS = {"UDP", "TCP", "TLS", "SCTP"};
+	public static final String SEPARATOR_LINE = "----------------------------------------";
+
+	/**
+	 * Returns the timestamp of a frame, as written in the header lines
+	 *
+	 * @param	n	the number of the frame
+	 * @return		the timestamp
+	 */
+	private static String timestamp(int n) {
+		long millis = (10L * n) % (24L * 3600 * 1000);
+		return String.format("Jul  4 %02d:%02d:%02d.%03d", millis / 3600000, (millis / 60000) % 60, (millis / 1000) % 60, millis % 1000);
+	}
+
+	/**
+	 * Returns the header line of a sipmsg.log frame
+	 *
+	 * @param	n	the number of the frame
+	 * @return		the header line
+	 */
+	public static String sipHeaderLine(int n) {
+		String vlan = (n % 2 == 0) ? "[1:" + (100 + n % 4) + "]" : "";
+		String local = "10.77.68." + (n % 250) + ":5060";
+		String remote = "10.38." + (n % 200) + "." + (n % 250) + ":" + (5060 + n % 3);
+		return timestamp(n) + " On " + vlan + local + ((n % 3 == 0) ? " received from " : " sent to ") + remote;
+	}
+
+	/**
+	 * Returns the header line of a daemon log event
+	 *
+	 * @param	n	the number of the event
+	 * @return		the header line
+	 */
+	public static String eventHeaderLine(int n) {
+		return timestamp(n) + " [SIP] (2) SipSession[" + n + "] call-" + n + "@host state changed to ESTABLISHED";
+	}
+
+	/**
+	 * Returns the lines of a sipmsg.log frame (from its header line to its separator line)
+	 *
+	 * @param	n			the number of the frame
+	 * @param	transport	the transport of its Via header (one of TRANSPORTS)
+	 * @return				the lines
+	 */
+	public static List<String> sipFrameLines(int n, String transport) {
+		String sdp = "v=0\r\no=- " + n + " 1 IN IP4 10.38.2." + (n % 250) + "\r\ns=-\r\nc=IN IP4 10.38.2." + (n % 250) + "\r\nt=0 0\r\nm=audio " + (20000 + 2 * (n % 5000)) + " RTP/AVP 8 0 101\r\na=rtpmap:8 PCMA/8000\r\na=rtpmap:0 PCMU/8000\r\na=rtpmap:101 telephone-event/8000\r\na=sendrecv\r\n";
+		return Arrays.asList(
+			sipHeaderLine(n),
+			"INVITE sip:+3491" + (1000000 + n) + "@10.77.68.92:5060;user=phone SIP/2.0",
+			"Via: SIP/2.0/" + transport + " 10.38.2." + (n % 250) + ":5060;branch=z9hG4bK" + Integer.toHexString(n * 7919),
+			"Max-Forwards: 69",
+			"From: <sip:+3460" + (2000000 + n) + "@10.38.2.1;user=phone>;tag=" + Integer.toHexString(n * 104729),
+			"To: <sip:+3491" + (1000000 + n) + "@10.77.68.92;user=phone>",
+			"Call-ID: " + Integer.toHexString(n * 15485863) + "-" + n + "@10.38.2.1",
+			"CSeq: 1 INVITE",
+			"Contact: <sip:+3460" + (2000000 + n) + "@10.38.2.1:5060;transport=" + transport.toLowerCase() + ">",
+			"Allow: INVITE, ACK, CANCEL, BYE, OPTIONS, PRACK, UPDATE",
+			"Content-Type: application/sdp",
+			"Content-Length: " + sdp.length(),
+			"",
+			"v=0",
+			"o=- " + n + " 1 IN IP4 10.38.2." + (n % 250),
+			"s=-",
+			"c=IN IP4 10.38.2." + (n % 250),
+			"t=0 0",
+			"m=audio " + (20000 + 2 * (n % 5000)) + " RTP/AVP 8 0 101",
+			"a=rtpmap:8 PCMA/8000",
+			"a=rtpmap:0 PCMU/8000",
+			"a=rtpmap:101 telephone-event/8000",
+			"a=sendrecv",
+			SEPARATOR_LINE
+		);
+	}
+
+	/**
+	 * Returns the lines of a sequence of sipmsg.log frames, with transports in turn
+	 *
+	 * @param	count	the number of frames
+	 * @return			the lines
+	 */
+	public static List<CharSequence> sipmsgLines(int count) {
+		List<CharSequence> lines = new ArrayList<CharSequence>();
+		for(int n = 0; n < count; n++) {
+			lines.addAll(sipFrameLines(n, TRANSPORTS[n % TRANSPORTS.length]));
+		};
+		return lines;
+	}
+
+}
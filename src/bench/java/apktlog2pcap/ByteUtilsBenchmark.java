@@ -0,0 +1,68 @@
+package apktlog2pcap;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ByteUtilsBenchmark measures the conversions of ByteUtils (between hex strings, integers and
+ * byte arrays), as used by the Pcap helpers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteUtilsBenchmark {
+
+	/*
+	 * Instance variables
+	 */
+	private String hexString;
+	private byte[] bytes;
+	private int intValue;
+	private long longValue;
+
+	@Setup
+	public void setUp() {
+		this.hexString = "0A0D0D0A1C0000004D3C2B1A01000000FFFFFFFFFFFFFFFF";
+		this.bytes = ByteUtils.hexStringToByteArray(this.hexString);
+		this.intValue = 0x1A2B3C4D;
+		this.longValue = 0x0102030405060708L;
+	}
+
+	@Benchmark
+	public byte[] hexStringToByteArray() {
+		return ByteUtils.hexStringToByteArray(this.hexString);
+	}
+
+	@Benchmark
+	public String bytesToHexString() {
+		return ByteUtils.bytesToHexString(this.bytes);
+	}
+
+	@Benchmark
+	public byte[] intToByteArray() {
+		return ByteUtils.intToByteArray(this.intValue, 4, true);
+	}
+
+	@Benchmark
+	public byte[] longToByteArray() {
+		return ByteUtils.longToByteArray(this.longValue, 8, false);
+	}
+
+	@Benchmark
+	public String reverseEndian() {
+		return ByteUtils.reverseEndian(this.hexString);
+	}
+
+}
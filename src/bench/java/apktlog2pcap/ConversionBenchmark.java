@@ -0,0 +1,117 @@
+package apktlog2pcap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ConversionBenchmark measures whole conversions (AppCore.processLogFiles()) of sipmsg.log files
+ * of fixed sizes, generated by LogGenerator (with a fixed seed) in a temporary directory, with one thread and with several of them
+ * (see ParallelConverter). Besides conversions per second, it reports the throughput in
+ * megabytes of log read per second and in frames per second (the megabytes and frames counters).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConversionBenchmark {
+
+	@Param({"16", "128"})
+	public int megabytes;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	/**
+	 * Counters object holds the amount of log converted, reported as rates
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public double megabytes;
+		public long frames;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.megabytes = 0;
+			this.frames = 0;
+		}
+	}
+
+	/**
+	 * QuietAppCore object runs the conversions, dropping their text output
+	 */
+	private static class QuietAppCore extends AppCore {
+		QuietAppCore(int threads) {
+			this.options.timeZone = TimeZone.getTimeZone("UTC");
+			this.options.threads = threads;
+		}
+		public void onTextOutput(String textOutput) {}
+		public void onFinish(int retValue) {}
+	}
+
+	/*
+	 * Instance variables
+	 */
+	private File dir;
+	private List<File> logFiles;
+	private File outputFile;
+	private double logMegabytes;
+	private long frameCount;
+	private QuietAppCore appCore;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.dir = File.createTempFile("apktlog2pcap-bench", "");
+		this.dir.delete();
+		this.dir.mkdir();
+		GeneratorOptions generatorOptions = new GeneratorOptions();
+		generatorOptions.size = this.megabytes * 1024L * 1024;
+		generatorOptions.rotateSize = generatorOptions.size;
+		generatorOptions.daemonLogs = false;
+		LogGenerator generator = new LogGenerator(generatorOptions);
+		File logFile = generator.generate(this.dir).get(0);
+		this.frameCount = generator.getFrameCount();
+		this.logMegabytes = logFile.length() / (1024.0 * 1024);
+		this.logFiles = new ArrayList<File>();
+		this.logFiles.add(logFile);
+		this.outputFile = new File(this.dir, "sipmsg.log.pcap");
+		this.appCore = new QuietAppCore(this.threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for(File file: this.dir.listFiles()) {
+			file.delete();
+		};
+		this.dir.delete();
+	}
+
+	@Benchmark
+	public long convert(Counters counters) {
+		this.appCore.processLogFiles(this.logFiles, ApktLog.LOGTYPE_SIPMSG, this.outputFile.getPath(), true, true);
+		counters.megabytes += this.logMegabytes;
+		counters.frames += this.frameCount;
+		return this.outputFile.length();
+	}
+
+}
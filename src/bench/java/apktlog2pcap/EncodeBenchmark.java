@@ -0,0 +1,66 @@
+package apktlog2pcap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import jfnlite.Fn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * EncodeBenchmark measures the encoding of SIP messages as PCAP frames, for each transport:
+ * into a reusable PcapFrameBuilder (AppCore.encodeLogFrame(), as conversions do) and into a
+ * new array per frame (AppCore.logFrameToPcapFrame()).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+	@Param({"UDP", "TCP", "SCTP"})
+	public String transport;
+
+	/*
+	 * Instance variables
+	 */
+	private ApktLog.LogFrame logFrame;
+	private PcapFrameBuilder builder;
+	private PcapSession session;
+	private Fn.Function<ApktLog.LogFrame,byte[]> logFrameToPcapFrame;
+
+	@Setup
+	public void setUp() {
+		List<CharSequence> lines = new ArrayList<CharSequence>(BenchmarkLogs.sipFrameLines(1, this.transport));
+		this.logFrame = ApktLog.parse(lines.iterator(), ApktLog.LOGTYPE_SIPMSG, TimeZone.getTimeZone("UTC")).next();
+		if(!this.transport.equals(this.logFrame.getTransportProtocol())) {
+			throw(new IllegalStateException("Frame inferred as " + this.logFrame.getTransportProtocol() + " rather than " + this.transport));
+		};
+		this.builder = new PcapFrameBuilder();
+		this.session = new PcapSession();
+		this.logFrameToPcapFrame = AppCore.logFrameToPcapFrame(this.session);
+	}
+
+	@Benchmark
+	public int encodeLogFrame() {
+		return AppCore.encodeLogFrame(this.logFrame, this.builder, this.session);
+	}
+
+	@Benchmark
+	public byte[] logFrameToPcapFrame() {
+		return this.logFrameToPcapFrame.apply(this.logFrame);
+	}
+
+}
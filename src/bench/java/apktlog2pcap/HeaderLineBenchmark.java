@@ -0,0 +1,60 @@
+package apktlog2pcap;
+
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HeaderLineBenchmark measures the parsing of header lines (ApktLog.parseHeaderLine()), those
+ * of SIP messages (with network data) and those of log events, and ApktLog.createDate().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderLineBenchmark {
+
+	/*
+	 * Instance variables
+	 */
+	private String sipHeaderLine;
+	private String eventHeaderLine;
+	private TimestampCalculator timestampCalculator;
+	private TimeZone timeZone;
+
+	@Setup
+	public void setUp() {
+		this.sipHeaderLine = BenchmarkLogs.sipHeaderLine(2);
+		this.eventHeaderLine = BenchmarkLogs.eventHeaderLine(2);
+		this.timeZone = TimeZone.getTimeZone("UTC");
+		this.timestampCalculator = new TimestampCalculator(this.timeZone);
+	}
+
+	@Benchmark
+	public ApktLog.ParsedHeaderLine parseSipHeaderLine() {
+		return ApktLog.parseHeaderLine(this.sipHeaderLine, this.timestampCalculator);
+	}
+
+	@Benchmark
+	public ApktLog.ParsedHeaderLine parseEventHeaderLine() {
+		return ApktLog.parseHeaderLine(this.eventHeaderLine, this.timestampCalculator);
+	}
+
+	@Benchmark
+	public Date createDate() {
+		return ApktLog.createDate(2017, 11, 27, 10, 30, 15, this.timeZone);
+	}
+
+}
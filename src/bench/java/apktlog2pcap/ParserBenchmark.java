@@ -0,0 +1,55 @@
+package apktlog2pcap;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ParserBenchmark measures the assembly of LogFrames out of log lines (LogProtoParser, through
+ * ApktLog.parse()), header lines parsing included. Scores are in frames per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	private static final int FRAMES = 1000;
+
+	/*
+	 * Instance variables
+	 */
+	private List<CharSequence> lines;
+	private TimeZone timeZone;
+
+	@Setup
+	public void setUp() {
+		this.lines = BenchmarkLogs.sipmsgLines(FRAMES);
+		this.timeZone = TimeZone.getTimeZone("UTC");
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public void parseSipmsgFrames(Blackhole blackhole) {
+		Iterator<ApktLog.LogFrame> logFrames = ApktLog.parse(this.lines.iterator(), ApktLog.LOGTYPE_SIPMSG, this.timeZone);
+		while(logFrames.hasNext()) {
+			blackhole.consume(logFrames.next());
+		};
+	}
+
+}
@@ -6,12 +6,10 @@ import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.Date;
 import java.util.TimeZone;
-import java.text.SimpleDateFormat;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Iterator;
-import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import jfnlite.Fn;
 
 /**
@@ -42,6 +40,10 @@ public class ApktLog {
 	private static int CAPTURE_GROUP_IPV4_O4 = 4;
 	private static int CAPTURE_GROUP_PORT = 5;
 	private static final Pattern IPV4_PORT_PATTERN = Pattern.compile(IPV4_PORT_REGEX);
+	private static final String IPV6_PORT_REGEX = "\\[([0-9a-fA-F:.]+)\\]:([0-9]{1,5})";
+	private static int CAPTURE_GROUP_IPV6 = 1;
+	private static int CAPTURE_GROUP_IPV6_PORT = 2;
+	private static final Pattern IPV6_PORT_PATTERN = Pattern.compile(IPV6_PORT_REGEX);
 	
 	public static final String LOGFRAMETYPE_SIPMSG_SIP = "SIPMSG_SIP";
 	public static final String LOGFRAMETYPE_SIPMSG_LOG = "SIPMSG_LOG";
@@ -49,10 +51,18 @@ public class ApktLog {
 	public static final String LOGFRAMETYPE_MBCD_LOG = "MBCD_LOG";
 	public static final String LOGFRAMETYPE_ALGD_LOG = "ALGD_LOG";
 
+	public static final String LOGTYPE_SIPMSG = "sipmsg.log";
+	public static final String LOGTYPE_SIPD = "log.sipd";
+	public static final String LOGTYPE_MBCD = "log.mbcd";
+	public static final String LOGTYPE_ALGD = "log.algd";
+	public static final String[] LOGTYPES = { LOGTYPE_SIPMSG, LOGTYPE_SIPD, LOGTYPE_MBCD, LOGTYPE_ALGD };
+
 	public static final String TRANSPORT_UDP = "UDP";
 	public static final String TRANSPORT_TCP = "TCP";
 	public static final String TRANSPORT_SCTP = "SCTP";
 	
+	private static final long ANY_ADDRESS_LOW = Pcap.ipv4MappedLow(0); // 0.0.0.0
+
 	static {
         MONTH_DICT.put("Jan", new Integer(1));
         MONTH_DICT.put("Feb", new Integer(2));
@@ -80,26 +90,19 @@ public class ApktLog {
 	 * @return			the date
 	 */
 	public static Date createDate(int year, int month, int day, int hours, int minutes, int seconds, TimeZone timeZone) {
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-		sdf.setTimeZone(timeZone);
-		String dateInString = Integer.toString(year)+"-"+Integer.toString(month)+"-"+Integer.toString(day)+" "+Integer.toString(hours)+":"+Integer.toString(minutes)+":"+Integer.toString(seconds);
-		Date date = null;
-		try {
-			date = sdf.parse(dateInString);
-		} catch (Exception e) {
-			// This exception should never take place, but it is mandatory to try-catch
-			System.err.println("Exception in createDate:");
-			System.err.println(e.toString());
-		};
-		return date;
+		return new Date((new TimestampCalculator(timeZone)).getTimeMillis(year, month, day, hours, minutes, seconds, 0));
 	};
 	
 	public static class ParsedHeaderLine {
-		public Date date;
+		public long timestamp; // epoch time in milliseconds (miliseconds component included)
 		public int miliseconds;
 		public String genericData;
-		public InetAddress srcIp = null;
-		public InetAddress dstIp = null;
+		// Addresses as the upper and lower 64 bits of an IPv6 address, IPv4 ones being mapped into IPv6 ones (see Pcap.IPV4_MAPPED_PREFIX)
+		public long srcIpHigh = 0;
+		public long srcIpLow = 0;
+		public long dstIpHigh = 0;
+		public long dstIpLow = 0;
+		public int ifc = -1;
 		public int vid = -1;
 		public int srcPort = -1;
 		public int dstPort = -1;
@@ -107,15 +110,15 @@ public class ApktLog {
 		
 		public String toString() {
 			StringBuilder stringBuilder = new StringBuilder();
-			stringBuilder.append(this.date.toString());
+			stringBuilder.append((new Date(this.timestamp)).toString());
 			stringBuilder.append('\r');
 			stringBuilder.append('\n');
-			stringBuilder.append(this.srcIp.toString());
+			stringBuilder.append(Pcap.formatAddress(this.srcIpHigh, this.srcIpLow));
 			stringBuilder.append(":");
 			stringBuilder.append(String.valueOf(this.srcPort));
 			stringBuilder.append('\r');
 			stringBuilder.append('\n');
-			stringBuilder.append(this.dstIp.toString());
+			stringBuilder.append(Pcap.formatAddress(this.dstIpHigh, this.dstIpLow));
 			stringBuilder.append(":");
 			stringBuilder.append(String.valueOf(this.dstPort));
 			return stringBuilder.toString();
@@ -123,149 +126,1061 @@ public class ApktLog {
 	};
 		
 	/**
+	 * Parses a log line, returning the ParsedHeaderLine object if the line is a header line
+	 * or null otherwise
+	 *
+	 * The line is first scanned by HeaderLineLexer, which handles the usual layouts without
+	 * any regular expression or intermediate String. Only those lines the lexer can neither
+	 * accept nor reject for sure are parsed by the regular expressions.
+	 *
 	 * @param	headerLine	The main line
 	 * @return	The ParsedHeaderLine object
 	 */
 	public static ParsedHeaderLine parseHeaderLine(String headerLine) {
+		return parseHeaderLine(headerLine, new TimestampCalculator(TimeZone.getDefault()));
+	};
+
+	/**
+	 * Parses a log line, returning the ParsedHeaderLine object if the line is a header line
+	 * or null otherwise
+	 *
+	 * @param	headerLine				The main line
+	 * @param	timestampCalculator		The TimestampCalculator used for all the lines of the log
+	 * @return	The ParsedHeaderLine object
+	 */
+	public static ParsedHeaderLine parseHeaderLine(String headerLine, TimestampCalculator timestampCalculator) {
+		return parseHeaderLine(headerLine, timestampCalculator, true, LOGFRAMETYPE_SIPD_LOG);
+	};
+
+	/**
+	 * Parses a log line, returning the ParsedHeaderLine object if the line is a header line
+	 * or null otherwise
+	 *
+	 * @param	headerLine				The main line
+	 * @param	timestampCalculator		The TimestampCalculator used for all the lines of the log
+	 * @param	parseNetworkData		Whether the line might be a network message (sipmsg.log)
+	 * @param	logFrameType			The LogFrame type to be used for non-network lines
+	 * @return	The ParsedHeaderLine object
+	 */
+	private static ParsedHeaderLine parseHeaderLine(CharSequence headerLine, TimestampCalculator timestampCalculator, boolean parseNetworkData, String logFrameType) {
+		ParsedHeaderLine parsedHeaderLine = null;
+		HeaderLineLexer lexer = new HeaderLineLexer(headerLine);
+		int lexResult = lexer.lex(parseNetworkData);
+		if(lexResult == HeaderLineLexer.ACCEPTED) {
+			parsedHeaderLine = lexer.toParsedHeaderLine(timestampCalculator, logFrameType);
+		} else if(lexResult == HeaderLineLexer.UNDECIDED) {
+			parsedHeaderLine = parseHeaderLineWithRegex(headerLine.toString(), timestampCalculator, parseNetworkData, logFrameType);
+		};
+		return parsedHeaderLine;
+	};
+
+	/**
+	 * Parses a log line by means of regular expressions
+	 * (this is the fallback for the lines HeaderLineLexer cannot decide on)
+	 *
+	 * @param	headerLine				The main line
+	 * @param	timestampCalculator		The TimestampCalculator used for all the lines of the log
+	 * @param	parseNetworkData		Whether the line might be a network message (sipmsg.log)
+	 * @param	logFrameType			The LogFrame type to be used for non-network lines
+	 * @return	The ParsedHeaderLine object, or null if it cannot be parsed (e.g. unknown month)
+	 */
+	private static ParsedHeaderLine parseHeaderLineWithRegex(String headerLine, TimestampCalculator timestampCalculator, boolean parseNetworkData, String logFrameType) {
 		ParsedHeaderLine parsedHeaderLine = null;
 		Matcher headerLineMatcher = HEADER_LINE_PATTERN.matcher(headerLine);
 		if(headerLineMatcher.matches()) {
-			TimeZone timeZone = TimeZone.getDefault();
-			int year = (new GregorianCalendar(timeZone)).get(GregorianCalendar.YEAR);
-			try {
+			Integer month = MONTH_DICT.get(headerLineMatcher.group(CAPTURE_GROUP_MONTH));
+			if(month != null) {
 				parsedHeaderLine = new ParsedHeaderLine();
-				parsedHeaderLine.date = createDate(
-					year, 
-					MONTH_DICT.get(headerLineMatcher.group(CAPTURE_GROUP_MONTH)).intValue(),
+				parsedHeaderLine.miliseconds = Integer.parseInt(headerLineMatcher.group(CAPTURE_GROUP_MILISECONDS));
+				parsedHeaderLine.timestamp = timestampCalculator.getTimeMillis(
+					month.intValue(),
 					Integer.parseInt(headerLineMatcher.group(CAPTURE_GROUP_DAY)), 
 					Integer.parseInt(headerLineMatcher.group(CAPTURE_GROUP_HOUR)), 
 					Integer.parseInt(headerLineMatcher.group(CAPTURE_GROUP_MINUTES)), 
 					Integer.parseInt(headerLineMatcher.group(CAPTURE_GROUP_SECONDS)), 
-					timeZone
+					parsedHeaderLine.miliseconds
 				);
-				parsedHeaderLine.miliseconds = Integer.parseInt(headerLineMatcher.group(CAPTURE_GROUP_MILISECONDS));
 				parsedHeaderLine.genericData = headerLineMatcher.group(CAPTURE_GROUP_GENERICDATA);
-				
-				try {
-					/*
-					"Jul  4 11:29:22.360 On [257:888]10.77.68.92:5060 sent to 10.38.2.136:5060";
-					"Jul  4 11:29:22.392 On [257:888]10.77.68.92:5060 received from 10.38.2.136:5060";
-					*/
-					String[] genericDataFields = parsedHeaderLine.genericData.split(" ");
-					if(!genericDataFields[0].equals("On")){
-						// Not a sipmsg
-						throw new Exception();
-					};
-					Matcher vlanNetworkMatcher = VLAN_NETWORK_PATTERN.matcher(genericDataFields[1]);
-					String action = genericDataFields[2];
-					parsedHeaderLine.vid = -1;
-					String firstIpString = null;
-					String secondIpString = null;
-					String srcIpString = null;
-					String dstIpString = null;
-					if(vlanNetworkMatcher.matches()){
-						parsedHeaderLine.vid = Integer.parseInt(vlanNetworkMatcher.group(2));
-						if(parsedHeaderLine.vid == 0) {
-							parsedHeaderLine.vid = -1;
-						}
-						firstIpString = vlanNetworkMatcher.group(3);
-					} else {
-						firstIpString = genericDataFields[1];
-					};
-					secondIpString = genericDataFields[4];
-					if(action.equals("sent")){
-						srcIpString = firstIpString;
-						dstIpString = secondIpString;
-					} else {
-						srcIpString = secondIpString;
-						dstIpString = firstIpString;
-					};
-					Matcher srcIpv4Matcher = IPV4_PORT_PATTERN.matcher(srcIpString);
-					Matcher dstIpv4Matcher = IPV4_PORT_PATTERN.matcher(dstIpString);
-					if(srcIpv4Matcher.matches()){
-						parsedHeaderLine.srcIp = InetAddress.getByName(srcIpv4Matcher.group(1)+"."+srcIpv4Matcher.group(2)+"."+srcIpv4Matcher.group(3)+"."+srcIpv4Matcher.group(4));
-						parsedHeaderLine.srcPort = Integer.parseInt(srcIpv4Matcher.group(5));
-					};
-					if(dstIpv4Matcher.matches()){
-						parsedHeaderLine.dstIp = InetAddress.getByName(dstIpv4Matcher.group(1)+"."+dstIpv4Matcher.group(2)+"."+dstIpv4Matcher.group(3)+"."+dstIpv4Matcher.group(4));
-						parsedHeaderLine.dstPort = Integer.parseInt(dstIpv4Matcher.group(5));
-					};
-					parsedHeaderLine.logFrameType = LOGFRAMETYPE_SIPMSG_SIP;
-				} catch (Exception e) {
-					// Non-sipmsg message
-					parsedHeaderLine.logFrameType = LOGFRAMETYPE_SIPD_LOG;
-					parsedHeaderLine.srcIp = InetAddress.getByName("0.0.0.0");
-					parsedHeaderLine.dstIp = InetAddress.getByName("0.0.0.0");
-					parsedHeaderLine.srcPort = Pcap.UDP_PROTOCOL_SYSLOG;
-					parsedHeaderLine.dstPort = Pcap.UDP_PROTOCOL_SYSLOG;
+				if(!(parseNetworkData && parseNetworkDataWithRegex(parsedHeaderLine))) {
+					setLogEventFields(parsedHeaderLine, logFrameType);
 				};
-				
-				
-			} catch (Exception e) {
-				parsedHeaderLine = null;
-				System.err.println("Exception when parsing the following line:");
-				System.err.println(headerLine);
-				System.err.println(e.toString());
 			};
 		};
 		return parsedHeaderLine;
 	};
 
-	public static abstract class LogFrame {
-		public abstract ParsedHeaderLine getParsedHeaderLine();
-		public abstract List<String> getLines();
+	/**
+	 * Parses the network data of a sipmsg.log header line by means of regular expressions,
+	 * filling in the network fields of the ParsedHeaderLine if it is a network message:
+	 *     "Jul  4 11:29:22.360 On [257:888]10.77.68.92:5060 sent to 10.38.2.136:5060"
+	 *     "Jul  4 11:29:22.392 On [257:888]10.77.68.92:5060 received from 10.38.2.136:5060"
+	 *     "Jul  4 11:29:22.392 On [257:888][2001:db8::5c]:5060 received from [2001:db8::88]:5060"
+	 *
+	 * @param	parsedHeaderLine	The ParsedHeaderLine whose genericData is to be parsed
+	 * @return	Whether it is a network message
+	 */
+	private static boolean parseNetworkDataWithRegex(ParsedHeaderLine parsedHeaderLine) {
+		String[] genericDataFields = parsedHeaderLine.genericData.split(" ");
+		if((genericDataFields.length < 5) || !genericDataFields[0].equals("On")) {
+			// Not a sipmsg
+			return false;
+		};
+		Matcher vlanNetworkMatcher = VLAN_NETWORK_PATTERN.matcher(genericDataFields[1]);
+		String action = genericDataFields[2];
+		int ifc = -1;
+		int vid = -1;
+		String firstIpString = null;
+		String secondIpString = null;
+		if(vlanNetworkMatcher.matches()){
+			ifc = Integer.parseInt(vlanNetworkMatcher.group(CAPTURE_GROUP_IFC));
+			vid = Integer.parseInt(vlanNetworkMatcher.group(CAPTURE_GROUP_VLANID));
+			if(vid == 0) {
+				vid = -1;
+			}
+			firstIpString = vlanNetworkMatcher.group(3);
+		} else {
+			firstIpString = genericDataFields[1];
+		};
+		secondIpString = genericDataFields[4];
+		long[] firstIp = new long[2];
+		long[] secondIp = new long[2];
+		int firstPort = parseEndpointWithRegex(firstIpString, firstIp);
+		int secondPort = parseEndpointWithRegex(secondIpString, secondIp);
+		if((firstPort < 0) || (secondPort < 0)) {
+			return false;
+		};
+		parsedHeaderLine.logFrameType = LOGFRAMETYPE_SIPMSG_SIP;
+		parsedHeaderLine.ifc = ifc;
+		parsedHeaderLine.vid = vid;
+		if(action.equals("sent")){
+			parsedHeaderLine.srcIpHigh = firstIp[0];
+			parsedHeaderLine.srcIpLow = firstIp[1];
+			parsedHeaderLine.srcPort = firstPort;
+			parsedHeaderLine.dstIpHigh = secondIp[0];
+			parsedHeaderLine.dstIpLow = secondIp[1];
+			parsedHeaderLine.dstPort = secondPort;
+		} else {
+			parsedHeaderLine.srcIpHigh = secondIp[0];
+			parsedHeaderLine.srcIpLow = secondIp[1];
+			parsedHeaderLine.srcPort = secondPort;
+			parsedHeaderLine.dstIpHigh = firstIp[0];
+			parsedHeaderLine.dstIpLow = firstIp[1];
+			parsedHeaderLine.dstPort = firstPort;
+		};
+		return true;
+	};
+
+	/**
+	 * Parses an "ip:port" endpoint by means of regular expressions (IPv6 addresses being
+	 * enclosed in brackets, as in "[2001:db8::5c]:5060")
+	 *
+	 * @param	endpoint	The endpoint
+	 * @param	address		The array the upper and lower 64 bits of the address are written to
+	 * @return	The port, or -1 if it is not a valid endpoint
+	 */
+	private static int parseEndpointWithRegex(String endpoint, long[] address) {
+		Matcher ipv4Matcher = IPV4_PORT_PATTERN.matcher(endpoint);
+		if(ipv4Matcher.matches()) {
+			long ip = ipv4FromMatcher(ipv4Matcher);
+			if(ip < 0) {
+				return -1;
+			};
+			address[0] = 0;
+			address[1] = Pcap.ipv4MappedLow((int) ip);
+			return Integer.parseInt(ipv4Matcher.group(CAPTURE_GROUP_PORT));
+		};
+		Matcher ipv6Matcher = IPV6_PORT_PATTERN.matcher(endpoint);
+		if(ipv6Matcher.matches()) {
+			String ip = ipv6Matcher.group(CAPTURE_GROUP_IPV6);
+			if(parseIpv6(ip, 0, ip.length(), address)) {
+				return Integer.parseInt(ipv6Matcher.group(CAPTURE_GROUP_IPV6_PORT));
+			};
+		};
+		return -1;
+	};
+
+	/**
+	 * Gets the IPv4 address matched by IPV4_PORT_PATTERN
+	 *
+	 * @param	ipv4Matcher	The matcher
+	 * @return	The address as an unsigned 32-bit value, or -1 if any octet is out of range
+	 */
+	private static long ipv4FromMatcher(Matcher ipv4Matcher) {
+		long address = 0;
+		int octet;
+		for(int group = CAPTURE_GROUP_IPV4_O1; group <= CAPTURE_GROUP_IPV4_O4; group++) {
+			octet = Integer.parseInt(ipv4Matcher.group(group));
+			if(octet > 255) {
+				return -1;
+			};
+			address = (address << 8) | octet;
+		};
+		return address;
+	};
+
+	/**
+	 * Fills in the fields of a ParsedHeaderLine corresponding to a log event (not a network message),
+	 * which will be encapsulated in a Syslog message
+	 *
+	 * @param	parsedHeaderLine	The ParsedHeaderLine object
+	 * @param	logFrameType		The LogFrame type
+	 */
+	private static void setLogEventFields(ParsedHeaderLine parsedHeaderLine, String logFrameType) {
+		parsedHeaderLine.logFrameType = logFrameType;
+		parsedHeaderLine.srcIpHigh = 0;
+		parsedHeaderLine.srcIpLow = ANY_ADDRESS_LOW;
+		parsedHeaderLine.dstIpHigh = 0;
+		parsedHeaderLine.dstIpLow = ANY_ADDRESS_LOW;
+		parsedHeaderLine.srcPort = Pcap.UDP_PROTOCOL_SYSLOG;
+		parsedHeaderLine.dstPort = Pcap.UDP_PROTOCOL_SYSLOG;
+	};
+
+	/**
+	 * Parses a textual IPv6 address without creating any InetAddress object: eight hexadecimal
+	 * groups, "::" standing for one or more groups of zeros, and the last two groups possibly
+	 * written as a dotted IPv4 address (as in "::ffff:10.77.68.92")
+	 *
+	 * @param	text	the text holding the address
+	 * @param	start	the index of the first character of the address
+	 * @param	end		the index following the last character of the address
+	 * @param	address	the array the upper and lower 64 bits of the address are written to
+	 * @return			whether it is a valid IPv6 address (the array is left as it was otherwise)
+	 */
+	static boolean parseIpv6(CharSequence text, int start, int end, long[] address) {
+		int[] groups = new int[8];
+		int count = 0;
+		int compressionIndex = -1; // group the "::" stands in front of
+		int position = start;
+		if((end - position >= 2) && (text.charAt(position) == ':') && (text.charAt(position + 1) == ':')) {
+			compressionIndex = 0;
+			position += 2;
+		};
+		while(position < end) {
+			int groupStart = position;
+			int group = 0;
+			int digit;
+			while((position < end) && (position - groupStart <= 4) && ((digit = hexDigitOf(text.charAt(position))) >= 0)) {
+				group = (group << 4) | digit;
+				position++;
+			};
+			if((position == groupStart) || (position - groupStart > 4)) {
+				return false;
+			};
+			if((position < end) && (text.charAt(position) == '.')) {
+				// Dotted IPv4 address as the last two groups
+				long ipv4 = parseIpv4(text, groupStart, end);
+				if((ipv4 < 0) || (count > 6)) {
+					return false;
+				};
+				groups[count++] = (int) (ipv4 >>> 16);
+				groups[count++] = (int) (ipv4 & 0xFFFF);
+				position = end;
+				break;
+			};
+			if(count == 8) {
+				return false;
+			};
+			groups[count++] = group;
+			if(position == end) {
+				break;
+			};
+			if((text.charAt(position) != ':') || (++position == end)) {
+				return false;
+			};
+			if(text.charAt(position) == ':') {
+				if(compressionIndex >= 0) {
+					return false;
+				};
+				compressionIndex = count;
+				position++;
+			};
+		};
+		if((compressionIndex < 0) ? (count != 8) : (count > 7)) {
+			return false;
+		};
+		long high = 0;
+		long low = 0;
+		int gap = 8 - count; // groups of zeros the "::" stands for
+		int group;
+		for(int i = 0; i < 8; i++) {
+			if((compressionIndex < 0) || (i < compressionIndex)) {
+				group = groups[i];
+			} else {
+				group = (i < compressionIndex + gap) ? 0 : groups[i - gap];
+			};
+			if(i < 4) {
+				high = (high << 16) | group;
+			} else {
+				low = (low << 16) | group;
+			};
+		};
+		address[0] = high;
+		address[1] = low;
+		return true;
+	};
+
+	/**
+	 * Gets the value of an (ASCII) hexadecimal digit
+	 *
+	 * @param	c	the character
+	 * @return		the value, or -1 if it is not a hexadecimal digit
+	 */
+	private static int hexDigitOf(char c) {
+		if((c >= '0') && (c <= '9')) {
+			return c - '0';
+		} else if((c >= 'a') && (c <= 'f')) {
+			return c - 'a' + 10;
+		} else if((c >= 'A') && (c <= 'F')) {
+			return c - 'A' + 10;
+		};
+		return -1;
+	};
+
+	/**
+	 * Parses a dotted IPv4 address
+	 *
+	 * @param	text	the text holding the address
+	 * @param	start	the index of the first character of the address
+	 * @param	end		the index following the last character of the address
+	 * @return			the address as an unsigned 32-bit value, or -1 if it is not a valid address
+	 */
+	private static long parseIpv4(CharSequence text, int start, int end) {
+		long address = 0;
+		int position = start;
+		for(int i = 0; i < 4; i++) {
+			if((i > 0) && ((position >= end) || (text.charAt(position++) != '.'))) {
+				return -1;
+			};
+			int octetStart = position;
+			int octet = 0;
+			char c;
+			while((position < end) && (position - octetStart < 3) && ((c = text.charAt(position)) >= '0') && (c <= '9')) {
+				octet = 10 * octet + (c - '0');
+				position++;
+			};
+			if((position == octetStart) || (octet > 255)) {
+				return -1;
+			};
+			address = (address << 8) | octet;
+		};
+		return (position == end) ? address : -1;
+	};
+
+	/**
+	 * Cheap check telling whether a log line might be a header line, so the lines that
+	 * cannot be one (such as SIP headers or SDP lines) are discarded without being parsed.
+	 * It just checks that the line starts with a three-letter month followed by whitespace
+	 * and a digit, which every line accepted by parseHeaderLine() does.
+	 *
+	 * @param	line	the log line
+	 * @return			false if the line cannot be a header line
+	 */
+	public static boolean isHeaderLineCandidate(CharSequence line) {
+		int length = line.length();
+		if((length < 5) || (monthOf(line.charAt(0), line.charAt(1), line.charAt(2)) < 0)) {
+			return false;
+		};
+		int position = 3;
+		char c = line.charAt(position);
+		while((c == ' ') || (c == '\t') || (c == '\n') || (c == '\u000B') || (c == '\f') || (c == '\r')) {
+			position++;
+			if(position >= length) {
+				return false;
+			};
+			c = line.charAt(position);
+		};
+		return (position > 3) && (c >= '0') && (c <= '9');
+	};
+
+	/**
+	 * Gets the month out of its three-letter abbreviation
+	 *
+	 * @param	c0	first letter
+	 * @param	c1	second letter
+	 * @param	c2	third letter
+	 * @return		the month (1 to 12), or -1 if the letters are not a month
+	 */
+	private static int monthOf(char c0, char c1, char c2) {
+		int month = -1;
+		if(c0 == 'J') {
+			if((c1 == 'a') && (c2 == 'n')) { month = 1; }
+			else if((c1 == 'u') && (c2 == 'n')) { month = 6; }
+			else if((c1 == 'u') && (c2 == 'l')) { month = 7; };
+		} else if(c0 == 'F') {
+			if((c1 == 'e') && (c2 == 'b')) { month = 2; };
+		} else if(c0 == 'M') {
+			if((c1 == 'a') && (c2 == 'r')) { month = 3; }
+			else if((c1 == 'a') && (c2 == 'y')) { month = 5; };
+		} else if(c0 == 'A') {
+			if((c1 == 'p') && (c2 == 'r')) { month = 4; }
+			else if((c1 == 'u') && (c2 == 'g')) { month = 8; };
+		} else if(c0 == 'S') {
+			if((c1 == 'e') && (c2 == 'p')) { month = 9; };
+		} else if(c0 == 'O') {
+			if((c1 == 'c') && (c2 == 't')) { month = 10; };
+		} else if(c0 == 'N') {
+			if((c1 == 'o') && (c2 == 'v')) { month = 11; };
+		} else if(c0 == 'D') {
+			if((c1 == 'e') && (c2 == 'c')) { month = 12; };
+		};
+		return month;
+	};
+
+	/**
+	 * HeaderLineLexer object scans a log line forwards, just once and character by character,
+	 * extracting the fields of a header line such as:
+	 *     "Jul  4 11:29:22.360 On [257:888]10.77.68.92:5060 sent to 10.38.2.136:5060"
+	 *     "Jul  4 11:29:22.360 [SIP] (2) some text"
+	 * as primitive values.
+	 *
+	 * The result of lex() is one of:
+	 *     - ACCEPTED: it is a header line and the fields are available in the lexer
+	 *     - REJECTED: it is not a header line (HEADER_LINE_REGEX would not match it either)
+	 *     - UNDECIDED: the layout is not the usual one, so the regex parser must decide
+	 */
+	private static class HeaderLineLexer {
+
+		static final int ACCEPTED = 0;
+		static final int REJECTED = 1;
+		static final int UNDECIDED = 2;
+
+		/*
+		 * Instance variables
+		 */
+		private final CharSequence line;
+		private final int length;
+		private int position;
+		private int month;
+		private int day;
+		private int hours;
+		private int minutes;
+		private int seconds;
+		private int miliseconds;
+		private int genericDataStart;
+		private boolean isNetworkData;
+		private int ifc;
+		private int vid;
+		private long firstIpHigh;
+		private long firstIpLow;
+		private int firstPort;
+		private boolean isSent;
+		private long secondIpHigh;
+		private long secondIpLow;
+		private long addressHigh; // last address read by readAddress()
+		private long addressLow;
+		private int secondPort;
+
+		HeaderLineLexer(CharSequence line) {
+			this.line = line;
+			this.length = line.length();
+			this.position = 0;
+		}
+
+		/**
+		 * Scans the line
+		 *
+		 * @param	parseNetworkData	whether the line might be a network message (sipmsg.log)
+		 * @return						ACCEPTED, REJECTED or UNDECIDED
+		 */
+		int lex(boolean parseNetworkData) {
+			// Lines not starting with a month (such as SIP and SDP lines) cannot be header lines, since
+			// the regex parser would not find the month in MONTH_DICT (nor match them at all) either
+			this.month = this.readMonth();
+			if(this.month < 0) {
+				return REJECTED;
+			};
+			if(!this.skipWhitespace()) {
+				return REJECTED;
+			};
+			this.day = this.readNumber(1, 2);
+			if((this.day < 0) || !this.skip(' ')) {
+				return REJECTED;
+			};
+			this.hours = this.readNumber(1, 2);
+			if((this.hours < 0) || !this.skip(':')) {
+				return REJECTED;
+			};
+			this.minutes = this.readNumber(1, 2);
+			if((this.minutes < 0) || !this.skip(':')) {
+				return REJECTED;
+			};
+			// From here on the regex might backtrack, so we cannot reject but just give up
+			this.seconds = this.readNumber(1, 2);
+			if((this.seconds < 0) || !this.skipAnyChar()) {
+				return UNDECIDED;
+			};
+			this.miliseconds = this.readNumber(3, 3);
+			if((this.miliseconds < 0) || !this.skip(' ')) {
+				return UNDECIDED;
+			};
+			this.genericDataStart = this.position;
+			this.isNetworkData = parseNetworkData && this.skip('O') && this.skip('n') && (this.atEnd() || (this.line.charAt(this.position) == ' '));
+			if(this.isNetworkData && !this.lexNetworkData()) {
+				return UNDECIDED;
+			};
+			return ACCEPTED;
+		}
+
+		/**
+		 * Scans the network data, that is: " [ifc:vlan]ip:port sent to ip:port"
+		 * (the VLAN part being optional, and IPv6 addresses being enclosed in brackets)
+		 *
+		 * @return	whether the network data follows the usual layout
+		 */
+		private boolean lexNetworkData() {
+			this.ifc = -1;
+			this.vid = -1;
+			if(!this.skip(' ')) {
+				return false;
+			};
+			int vlanStart = this.position;
+			if(this.skip('[')) {
+				this.ifc = this.readNumber(1, 5);
+				this.vid = ((this.ifc >= 0) && this.skip(':')) ? this.readNumber(1, 5) : -1;
+				if((this.vid < 0) || !this.skip(']')) {
+					// Not a VLAN but an IPv6 address, such as "[2001:db8::5c]:5060"
+					this.position = vlanStart;
+					this.ifc = -1;
+					this.vid = -1;
+				} else if(this.vid == 0) {
+					this.vid = -1;
+				};
+			};
+			if(!this.readAddress() || !this.skip(':')) {
+				return false;
+			};
+			this.firstIpHigh = this.addressHigh;
+			this.firstIpLow = this.addressLow;
+			this.firstPort = this.readNumber(1, 5);
+			if((this.firstPort < 0) || !this.skip(' ')) {
+				return false;
+			};
+			int actionStart = this.position;
+			if(!this.skipToken() || !this.skip(' ')) {
+				return false;
+			};
+			this.isSent = ((this.position - actionStart) == 5) && (this.line.charAt(actionStart) == 's') && (this.line.charAt(actionStart + 1) == 'e') && (this.line.charAt(actionStart + 2) == 'n') && (this.line.charAt(actionStart + 3) == 't');
+			if(!this.skipToken() || !this.skip(' ')) {
+				return false;
+			};
+			if(!this.readAddress() || !this.skip(':')) {
+				return false;
+			};
+			this.secondIpHigh = this.addressHigh;
+			this.secondIpLow = this.addressLow;
+			this.secondPort = this.readNumber(1, 5);
+			return (this.secondPort >= 0) && (this.atEnd() || (this.line.charAt(this.position) == ' '));
+		}
+
+		/**
+		 * Creates the ParsedHeaderLine object out of the fields of an ACCEPTED line
+		 *
+		 * @param	timestampCalculator	the TimestampCalculator used for all the lines of the log
+		 * @param	logFrameType		the LogFrame type to be used if it is not a network message
+		 * @return						the ParsedHeaderLine object
+		 */
+		ParsedHeaderLine toParsedHeaderLine(TimestampCalculator timestampCalculator, String logFrameType) {
+			ParsedHeaderLine parsedHeaderLine = new ParsedHeaderLine();
+			parsedHeaderLine.timestamp = timestampCalculator.getTimeMillis(this.month, this.day, this.hours, this.minutes, this.seconds, this.miliseconds);
+			parsedHeaderLine.miliseconds = this.miliseconds;
+			parsedHeaderLine.genericData = this.line.subSequence(this.genericDataStart, this.length).toString();
+			if(this.isNetworkData) {
+				parsedHeaderLine.logFrameType = LOGFRAMETYPE_SIPMSG_SIP;
+				parsedHeaderLine.ifc = this.ifc;
+				parsedHeaderLine.vid = this.vid;
+				if(this.isSent) {
+					parsedHeaderLine.srcIpHigh = this.firstIpHigh;
+					parsedHeaderLine.srcIpLow = this.firstIpLow;
+					parsedHeaderLine.srcPort = this.firstPort;
+					parsedHeaderLine.dstIpHigh = this.secondIpHigh;
+					parsedHeaderLine.dstIpLow = this.secondIpLow;
+					parsedHeaderLine.dstPort = this.secondPort;
+				} else {
+					parsedHeaderLine.srcIpHigh = this.secondIpHigh;
+					parsedHeaderLine.srcIpLow = this.secondIpLow;
+					parsedHeaderLine.srcPort = this.secondPort;
+					parsedHeaderLine.dstIpHigh = this.firstIpHigh;
+					parsedHeaderLine.dstIpLow = this.firstIpLow;
+					parsedHeaderLine.dstPort = this.firstPort;
+				};
+			} else {
+				// Non-sipmsg message
+				setLogEventFields(parsedHeaderLine, logFrameType);
+			};
+			return parsedHeaderLine;
+		}
+
+		private boolean atEnd() {
+			return this.position >= this.length;
+		}
+
+		private boolean skip(char c) {
+			if((this.position < this.length) && (this.line.charAt(this.position) == c)) {
+				this.position++;
+				return true;
+			};
+			return false;
+		}
+
+		private boolean skipAnyChar() {
+			if(this.position < this.length) {
+				char c = this.line.charAt(this.position);
+				if((c != '\n') && (c != '\r') && (c != '\u0085') && (c != '\u2028') && (c != '\u2029')) {
+					this.position++;
+					return true;
+				};
+			};
+			return false;
+		}
+
+		/**
+		 * Skips the whitespace characters (as defined by regex \\s)
+		 *
+		 * @return	whether at least one whitespace character was skipped
+		 */
+		private boolean skipWhitespace() {
+			int start = this.position;
+			char c;
+			while(this.position < this.length) {
+				c = this.line.charAt(this.position);
+				if((c == ' ') || (c == '\t') || (c == '\n') || (c == '\u000B') || (c == '\f') || (c == '\r')) {
+					this.position++;
+				} else {
+					break;
+				};
+			};
+			return this.position > start;
+		}
+
+		/**
+		 * Skips a non-empty sequence of non-space characters
+		 *
+		 * @return	whether at least one character was skipped
+		 */
+		private boolean skipToken() {
+			int start = this.position;
+			while((this.position < this.length) && (this.line.charAt(this.position) != ' ')) {
+				this.position++;
+			};
+			return this.position > start;
+		}
+
+		/**
+		 * Reads a decimal number
+		 *
+		 * @param	minDigits	the minimum number of digits
+		 * @param	maxDigits	the maximum number of digits (further digits are left unread)
+		 * @return				the number, or -1 if there were less than minDigits digits
+		 */
+		private int readNumber(int minDigits, int maxDigits) {
+			int value = 0;
+			int digits = 0;
+			char c;
+			while((digits < maxDigits) && (this.position < this.length)) {
+				c = this.line.charAt(this.position);
+				if((c < '0') || (c > '9')) {
+					break;
+				};
+				value = 10 * value + (c - '0');
+				digits++;
+				this.position++;
+			};
+			return (digits >= minDigits) ? value : -1;
+		}
+
+		/**
+		 * Reads an address into addressHigh and addressLow: either a dotted IPv4 address (which is
+		 * mapped into an IPv6 one) or an IPv6 address enclosed in brackets
+		 *
+		 * @return	whether there is a valid address
+		 */
+		private boolean readAddress() {
+			if(this.skip('[')) {
+				int start = this.position;
+				char c;
+				while((this.position < this.length) && ((c = this.line.charAt(this.position)) != ']') && (c != ' ')) {
+					this.position++;
+				};
+				long[] address = new long[2];
+				if(!parseIpv6(this.line, start, this.position, address) || !this.skip(']')) {
+					return false;
+				};
+				this.addressHigh = address[0];
+				this.addressLow = address[1];
+				return true;
+			};
+			long ip = this.readIpv4();
+			if(ip < 0) {
+				return false;
+			};
+			this.addressHigh = 0;
+			this.addressLow = Pcap.ipv4MappedLow((int) ip);
+			return true;
+		}
+
+		/**
+		 * Reads a dotted IPv4 address
+		 *
+		 * @return	the address as an unsigned 32-bit value, or -1 if there is no valid address
+		 */
+		private long readIpv4() {
+			long address = 0;
+			int octet;
+			for(int i = 0; i < 4; i++) {
+				if((i > 0) && !this.skip('.')) {
+					return -1;
+				};
+				octet = this.readNumber(1, 3);
+				if((octet < 0) || (octet > 255)) {
+					return -1;
+				};
+				address = (address << 8) | octet;
+			};
+			return address;
+		}
+
+		/**
+		 * Reads the three-letter month
+		 *
+		 * @return	the month (1 to 12), or -1 if the line does not start with a month
+		 */
+		private int readMonth() {
+			if(this.length < 3) {
+				return -1;
+			};
+			this.position = 3;
+			return monthOf(this.line.charAt(0), this.line.charAt(1), this.line.charAt(2));
+		}
+	};
+
+	/**
+	 * LogFrame object represents one log entry: its header line (already parsed) plus the
+	 * lines following it.
+	 *
+	 * LogFrame objects are immutable, and the data derived from their lines (the payload to
+	 * be encapsulated and the transport protocol) is computed at most once, and only when
+	 * first asked for. Note that the list of lines must not be modified once the LogFrame
+	 * has been created.
+	 *
+	 * When the lines are ByteLines, the payload is written into the PCAP frames by copying
+	 * the raw bytes of the lines (see writePayload()), so it is never turned into a String.
+	 */
+	public static class LogFrame implements PcapFrameBuilder.Payload {
+		/*
+		 * Instance variables
+		 */
+		private final ParsedHeaderLine parsedHeaderLine;
+		private final List<CharSequence> lines;
+		private byte[] payload;
+		private int payloadLength;
+		private String transportProtocol;
+
+		/**
+		 * Constructs the LogFrame
+		 *
+		 * @param	parsedHeaderLine	the parsed header line
+		 * @param	lines				all the lines (the header line included)
+		 */
+		public LogFrame(ParsedHeaderLine parsedHeaderLine, List<CharSequence> lines) {
+			this.parsedHeaderLine = parsedHeaderLine;
+			this.lines = lines;
+			this.payload = null;
+			this.payloadLength = -1;
+			this.transportProtocol = null;
+		}
+		public ParsedHeaderLine getParsedHeaderLine() {
+			return this.parsedHeaderLine;
+		};
+		public List<CharSequence> getLines() {
+			return this.lines;
+		};
 		public String toString() {
 			StringBuilder stringBuilder = new StringBuilder();
-			for(String line: this.getLines()) {
+			for(CharSequence line: this.getLines()) {
 				stringBuilder.append(line);
 			}
 			return stringBuilder.toString();
 		};
 		public String getSipString() {
-			return extractSipString(this.getLines());
+			return extractSipString(this.lines);
 		};
 		public String getTextString() {
-			return extractTextString(this.getLines());
+			return extractTextString(this.parsedHeaderLine.genericData, this.lines);
 		}
 		public String inferTransportProtocol() {
-			return ApktLog.inferTransportProtocol(this.getLines());
+			return this.getTransportProtocol();
+		}
+
+		/**
+		 * Returns the payload to be encapsulated in the PCAP frame: the SIP message (lines
+		 * joined with CRLF) for network messages, or the text of the log event otherwise
+		 *
+		 * @return	the payload (must not be modified)
+		 */
+		public byte[] getPayload() {
+			if(this.payload == null) {
+				if(this.hasRawLines()) {
+					this.payload = new byte[this.getPayloadLength()];
+					this.writePayload(ByteBuffer.wrap(this.payload));
+				} else if(this.isSipMessage()) {
+					this.payload = this.getSipString().getBytes();
+				} else {
+					this.payload = this.getTextString().getBytes();
+				};
+			};
+			return this.payload;
+		}
+
+		/**
+		 * Returns the length of the payload (see getPayload())
+		 *
+		 * @return	the length in bytes
+		 */
+		public int getPayloadLength() {
+			if(this.payloadLength < 0) {
+				if(this.hasRawLines()) {
+					int length = 0;
+					int lineCount = 0;
+					for(int i = 1; i < this.lines.size(); i++) {
+						if(!END_OF_MESSAGE.contentEquals(this.lines.get(i))) {
+							length += this.lines.get(i).length();
+							lineCount++;
+						};
+					};
+					if(this.isSipMessage()) {
+						this.payloadLength = length + 2 * lineCount;
+					} else {
+						this.payloadLength = this.parsedHeaderLine.genericData.length() + length + 2 * lineCount;
+					};
+				} else {
+					this.payloadLength = this.getPayload().length;
+				};
+			};
+			return this.payloadLength;
+		}
+
+		/**
+		 * Writes the payload (see getPayload()) into the given buffer, copying the raw bytes
+		 * of the lines if they are ByteLines
+		 *
+		 * @param	buffer	the buffer (the payload is written at its current position)
+		 */
+		public void writePayload(ByteBuffer buffer) {
+			if(!this.hasRawLines()) {
+				buffer.put(this.getPayload());
+			} else if(this.isSipMessage()) {
+				// Lines following the header line, each one of them terminated by CRLF
+				for(int i = 1; i < this.lines.size(); i++) {
+					if(!END_OF_MESSAGE.contentEquals(this.lines.get(i))) {
+						((ByteLine) this.lines.get(i)).copyTo(buffer);
+						buffer.put((byte) '\r');
+						buffer.put((byte) '\n');
+					};
+				};
+			} else {
+				// The generic data (that is, the end of the header line) plus the following lines, joined by CRLF
+				ByteLine headerLine = (ByteLine) this.lines.get(0);
+				headerLine.copyTo(buffer, headerLine.length() - this.parsedHeaderLine.genericData.length());
+				for(int i = 1; i < this.lines.size(); i++) {
+					if(!END_OF_MESSAGE.contentEquals(this.lines.get(i))) {
+						buffer.put((byte) '\r');
+						buffer.put((byte) '\n');
+						((ByteLine) this.lines.get(i)).copyTo(buffer);
+					};
+				};
+			};
+		}
+
+		private boolean isSipMessage() {
+			return this.parsedHeaderLine.logFrameType.equals(LOGFRAMETYPE_SIPMSG_SIP);
+		}
+
+		private boolean hasRawLines() {
+			return this.lines.get(0) instanceof ByteLine;
+		}
+
+		/**
+		 * Returns the Call-ID of the SIP message (see ApktLog.extractCallId())
+		 *
+		 * @return	the Call-ID, or null if this is not a SIP message or it has no Call-ID
+		 */
+		public CharSequence getCallId() {
+			return this.isSipMessage() ? ApktLog.extractCallId(this.lines) : null;
+		}
+
+		/**
+		 * Returns the Call-ID of the dialog the SIP message refers to (see ApktLog.extractRelatedCallId())
+		 *
+		 * @return	the Call-ID of the related dialog, or null if this is not a SIP message or it refers to no other dialog
+		 */
+		public String getRelatedCallId() {
+			return this.isSipMessage() ? ApktLog.extractRelatedCallId(this.lines) : null;
+		}
+
+		/**
+		 * Returns the transport protocol inferred for the SIP message (see ApktLog.inferTransportProtocol())
+		 *
+		 * @return	the transport protocol
+		 */
+		public String getTransportProtocol() {
+			if(this.transportProtocol == null) {
+				this.transportProtocol = ApktLog.inferTransportProtocol(this.lines);
+			};
+			return this.transportProtocol;
 		}
 	};
 
-	public static Iterator<LogFrame> parse(Iterator<String> logLines) {
-		// We create the protoParser using ApktLog.parseHeaderLine()
-		LogProtoParser<ParsedHeaderLine> logProtoParser = new LogProtoParser<ParsedHeaderLine>() {
-			public ParsedHeaderLine parseHeaderLine(String line) {
-				return ApktLog.parseHeaderLine(line);
-			}
-		};
+	public static Iterator<LogFrame> parse(Iterator<? extends CharSequence> logLines) {
+		return parse(logLines, LOGTYPE_SIPMSG, TimeZone.getDefault());
+	}
+
+	/**
+	 * Parses the log lines into LogFrames
+	 *
+	 * @param	logLines	the log lines (all of them coming from the same log, in order, and
+	 * 						either all of them ByteLines or none of them)
+	 * @param	logType		the log type (one of LOGTYPES)
+	 * @param	timeZone	the time zone in which the log was written
+	 * @return				an iterator of LogFrames
+	 */
+	public static Iterator<LogFrame> parse(Iterator<? extends CharSequence> logLines, String logType, TimeZone timeZone) {
+		// We create the protoParser dedicated to the log type
+		return parse(logLines, createLogParser(logType, timeZone));
+	}
+
+	/**
+	 * Parses the log lines into LogFrames with the given LogProtoParser (see createLogParser())
+	 *
+	 * @param	logLines		the log lines (all of them coming from the same log, in order, and
+	 * 							either all of them ByteLines or none of them)
+	 * @param	logProtoParser	the LogProtoParser
+	 * @return					an iterator of LogFrames
+	 */
+	public static Iterator<LogFrame> parse(Iterator<? extends CharSequence> logLines, LogProtoParser<ParsedHeaderLine> logProtoParser) {
 		// So we can now get an iterator of ProtoLogFrame objects
 		Iterator<LogProtoParser.LogFrame<ParsedHeaderLine>> protoLogFrames = logProtoParser.parse(logLines);
 		// Now we define a function to map ProtoLogFrame objects to ApktLog.LogFrame objects
 		Fn.Function<LogProtoParser.LogFrame<ParsedHeaderLine>,LogFrame> protoLogFrameToLogFrame = new Fn.Function<LogProtoParser.LogFrame<ParsedHeaderLine>,LogFrame>() {
-			public LogFrame apply(final LogProtoParser.LogFrame<ParsedHeaderLine> protoLogFrame) {
-				LogFrame logFrame = new LogFrame() {
-					public ParsedHeaderLine getParsedHeaderLine() {
-						return protoLogFrame.parsedHeaderLine;
-					}
-					public List<String> getLines() {
-						return protoLogFrame.lines;
-					}
-				};
-				return logFrame;
+			public LogFrame apply(LogProtoParser.LogFrame<ParsedHeaderLine> protoLogFrame) {
+				return new LogFrame(protoLogFrame.parsedHeaderLine, protoLogFrame.lines);
 			}
 		};
 		// So we return an iterator of ApktLog.LogFrame objects
 		return Fn.map(protoLogFrames, protoLogFrameToLogFrame);
 	}
 	
-	private static String extractSipString(List<String> lines) {
+	/**
+	 * Creates the LogProtoParser dedicated to a log type
+	 *
+	 * @param	logType		the log type (one of LOGTYPES)
+	 * @param	timeZone	the time zone in which the log was written
+	 * @return				the LogProtoParser
+	 */
+	public static LogProtoParser<ParsedHeaderLine> createLogParser(String logType, TimeZone timeZone) {
+		return createLogParser(logType, new TimestampCalculator(timeZone));
+	}
+
+	/**
+	 * Creates the LogProtoParser dedicated to a log type, which computes the timestamps
+	 * with the given TimestampCalculator
+	 *
+	 * @param	logType				the log type (one of LOGTYPES)
+	 * @param	timestampCalculator	the TimestampCalculator (only to be used by this parser)
+	 * @return						the LogProtoParser
+	 */
+	public static LogProtoParser<ParsedHeaderLine> createLogParser(String logType, TimestampCalculator timestampCalculator) {
+		LogProtoParser<ParsedHeaderLine> logProtoParser;
+		if(logType.equals(LOGTYPE_SIPMSG)) {
+			logProtoParser = new SipmsgLogParser(timestampCalculator);
+		} else if(logType.equals(LOGTYPE_SIPD)) {
+			logProtoParser = new DaemonLogParser(timestampCalculator, LOGFRAMETYPE_SIPD_LOG);
+		} else if(logType.equals(LOGTYPE_MBCD)) {
+			logProtoParser = new DaemonLogParser(timestampCalculator, LOGFRAMETYPE_MBCD_LOG);
+		} else if(logType.equals(LOGTYPE_ALGD)) {
+			logProtoParser = new DaemonLogParser(timestampCalculator, LOGFRAMETYPE_ALGD_LOG);
+		} else {
+			throw(new IllegalArgumentException("Unknown log type " + logType));
+		};
+		return logProtoParser;
+	}
+
+	/**
+	 * Guesses the log type out of its first lines: if any of them is the header line of a
+	 * network message, then it is a sipmsg.log, otherwise we take it as a daemon log (log.sipd)
+	 *
+	 * @param	logLines	the log lines
+	 * @param	maxLines	the maximum number of lines to be read
+	 * @return				the log type
+	 */
+	public static String sniffLogType(Iterator<? extends CharSequence> logLines, int maxLines) {
+		TimestampCalculator timestampCalculator = new TimestampCalculator(TimeZone.getDefault());
+		ParsedHeaderLine parsedHeaderLine;
+		for(int i = 0; (i < maxLines) && logLines.hasNext(); i++) {
+			parsedHeaderLine = parseHeaderLine(logLines.next(), timestampCalculator, true, LOGFRAMETYPE_SIPD_LOG);
+			if((parsedHeaderLine != null) && parsedHeaderLine.logFrameType.equals(LOGFRAMETYPE_SIPMSG_SIP)) {
+				return LOGTYPE_SIPMSG;
+			};
+		};
+		return LOGTYPE_SIPD;
+	}
+
+	/**
+	 * SipmsgLogParser object parses sipmsg.log files, whose header lines are either
+	 * network messages (LOGFRAMETYPE_SIPMSG_SIP) or log events (LOGFRAMETYPE_SIPMSG_LOG)
+	 */
+	public static class SipmsgLogParser extends LogProtoParser<ParsedHeaderLine> {
+		private final TimestampCalculator timestampCalculator;
+
+		public SipmsgLogParser(TimeZone timeZone) {
+			this(new TimestampCalculator(timeZone));
+		}
+
+		public SipmsgLogParser(TimestampCalculator timestampCalculator) {
+			this.timestampCalculator = timestampCalculator;
+		}
+
+		public boolean isHeaderCandidate(CharSequence line) {
+			return isHeaderLineCandidate(line);
+		}
+
+		public ParsedHeaderLine parseHeaderLine(CharSequence line) {
+			return ApktLog.parseHeaderLine(line, this.timestampCalculator, true, LOGFRAMETYPE_SIPMSG_LOG);
+		}
+	};
+
+	/**
+	 * DaemonLogParser object parses the logs of SBC daemons (log.sipd, log.mbcd, log.algd),
+	 * whose header lines are all log events, so no network data is looked for
+	 */
+	public static class DaemonLogParser extends LogProtoParser<ParsedHeaderLine> {
+		private final TimestampCalculator timestampCalculator;
+		private final String logFrameType;
+
+		public DaemonLogParser(TimeZone timeZone, String logFrameType) {
+			this(new TimestampCalculator(timeZone), logFrameType);
+		}
+
+		public DaemonLogParser(TimestampCalculator timestampCalculator, String logFrameType) {
+			this.timestampCalculator = timestampCalculator;
+			this.logFrameType = logFrameType;
+		}
+
+		public boolean isHeaderCandidate(CharSequence line) {
+			return isHeaderLineCandidate(line);
+		}
+
+		public ParsedHeaderLine parseHeaderLine(CharSequence line) {
+			return ApktLog.parseHeaderLine(line, this.timestampCalculator, false, this.logFrameType);
+		}
+	};
+
+	private static String extractSipString(List<CharSequence> lines) {
 		StringBuilder stringBuilder = new StringBuilder();
 		if(lines.size() > 1) {
-			String line = null;
+			CharSequence line = null;
 			for(int i=1; i < lines.size(); i++) {
 				line = lines.get(i);
-				if(!line.equals(END_OF_MESSAGE)){
+				if(!END_OF_MESSAGE.contentEquals(line)){
 					stringBuilder.append(line);
 					stringBuilder.append('\r');
 					stringBuilder.append('\n');
@@ -275,15 +1190,15 @@ public class ApktLog {
 		return stringBuilder.toString();
 	};
 	
-	private static String extractTextString(List<String> lines) {
+	private static String extractTextString(String genericData, List<CharSequence> lines) {
 		StringBuilder stringBuilder = new StringBuilder();
 		//stringBuilder.append("[log.sipd] ");
-		stringBuilder.append(parseHeaderLine(lines.get(0)).genericData);
+		stringBuilder.append(genericData);
 		if(lines.size() > 1) {
-			String line = null;
+			CharSequence line = null;
 			for(int i=1; i < lines.size(); i++) {
 				line = lines.get(i);
-				if(!line.equals(END_OF_MESSAGE)){
+				if(!END_OF_MESSAGE.contentEquals(line)){
 					stringBuilder.append('\r');
 					stringBuilder.append('\n');
 					stringBuilder.append(line);
@@ -300,17 +1215,17 @@ public class ApktLog {
 	 * 
 	 * @return	The inferred transport protocol
 	 */
-	private static String inferTransportProtocol(List<String> lines) {
+	private static String inferTransportProtocol(List<CharSequence> lines) {
 		String transport = TRANSPORT_UDP; // Default
-		String sipHeader;
+		CharSequence sipHeader;
 		for(int i=1; i < lines.size(); i++) {
-			sipHeader = lines.get(i).toUpperCase();
-			if(sipHeader.indexOf("VIA") == 0) {
-				if(sipHeader.indexOf("SIP/2.0/UDP") != -1) {
+			sipHeader = lines.get(i);
+			if(regionMatchesIgnoreCase(sipHeader, 0, "VIA")) {
+				if(containsIgnoreCase(sipHeader, "SIP/2.0/UDP")) {
 					transport = TRANSPORT_UDP;
-				} else if((sipHeader.indexOf("SIP/2.0/TCP") != -1) || (sipHeader.indexOf("SIP/2.0/TLS") != -1)) {
+				} else if(containsIgnoreCase(sipHeader, "SIP/2.0/TCP") || containsIgnoreCase(sipHeader, "SIP/2.0/TLS")) {
 					transport = TRANSPORT_TCP;
-				} else if((sipHeader.indexOf("SIP/2.0/SCTP") != -1) || (sipHeader.indexOf("SIP/2.0/TLS-SCTP") != -1)) {
+				} else if(containsIgnoreCase(sipHeader, "SIP/2.0/SCTP") || containsIgnoreCase(sipHeader, "SIP/2.0/TLS-SCTP")) {
 					transport = TRANSPORT_SCTP;
 				};
 				break;
@@ -318,5 +1233,151 @@ public class ApktLog {
 		}
 		return transport;
 	}
+
+	/**
+	 * Finds the Call-ID of a SIP message, that is, the value of its Call-ID header (or of its
+	 * compact form, "i")
+	 *
+	 * @param	lines	the lines of the LogFrame (the header line included)
+	 * @return			the Call-ID (with no surrounding whitespace), or null if there is none
+	 */
+	public static CharSequence extractCallId(List<CharSequence> lines) {
+		return findSipHeaderValue(lines, "CALL-ID", "I");
+	}
+
+	/**
+	 * Finds the Call-ID of the dialog a SIP message refers to, as that of the dialog it replaces
+	 * or joins (Replaces and Join headers) or that of the dialog replaced by the one it asks to
+	 * be set up (Replaces parameter of the Refer-To URI, as in attended transfers)
+	 *
+	 * @param	lines	the lines of the LogFrame (the header line included)
+	 * @return			the Call-ID of the related dialog, or null if there is none
+	 */
+	public static String extractRelatedCallId(List<CharSequence> lines) {
+		CharSequence value = findSipHeaderValue(lines, "REPLACES", null);
+		if(value == null) {
+			value = findSipHeaderValue(lines, "JOIN", null);
+		};
+		if(value != null) {
+			String callId = value.toString();
+			int end = callId.indexOf(';');
+			return ((end >= 0) ? callId.substring(0, end) : callId).trim();
+		};
+		value = findSipHeaderValue(lines, "REFER-TO", "R");
+		if(value == null) {
+			return null;
+		};
+		String referTo = value.toString();
+		int start = referTo.toUpperCase().indexOf("REPLACES=");
+		if(start < 0) {
+			return null;
+		};
+		// The header is escaped as an URI header (e.g. "?Replaces=12345%40host%3Bto-tag%3D...")
+		StringBuilder callId = new StringBuilder();
+		char c;
+		for(int i = start + 9; i < referTo.length(); i++) {
+			c = referTo.charAt(i);
+			if((c == '&') || (c == '>')) {
+				break; // End of the URI header
+			};
+			if((c == '%') && (i + 2 < referTo.length())) {
+				try {
+					c = (char) Integer.parseInt(referTo.substring(i + 1, i + 3), 16);
+					i = i + 2;
+				} catch(NumberFormatException nfe) {
+					// Not an escaped character after all
+				};
+			};
+			if(c == ';') {
+				break; // Start of the tag parameters
+			};
+			callId.append(c);
+		};
+		return (callId.length() > 0) ? callId.toString().trim() : null;
+	}
+
+	/**
+	 * Finds the value of a SIP header
+	 *
+	 * @param	lines		the lines of the LogFrame (the header line included)
+	 * @param	name		the header name (upper case)
+	 * @param	compactName	the compact form of the header name (upper case, null if it has none)
+	 * @return				the value of the first header with that name (with no surrounding whitespace), or null if there is none
+	 */
+	private static CharSequence findSipHeaderValue(List<CharSequence> lines, String name, String compactName) {
+		CharSequence sipHeader;
+		int index;
+		// The first lines are the header line and the request or status line
+		for(int i = 2; i < lines.size(); i++) {
+			sipHeader = lines.get(i);
+			if(sipHeader.length() == 0) {
+				break; // End of the SIP headers
+			};
+			if(regionMatchesIgnoreCase(sipHeader, 0, name)) {
+				index = name.length();
+			} else if((compactName != null) && regionMatchesIgnoreCase(sipHeader, 0, compactName)) {
+				index = compactName.length();
+			} else {
+				continue;
+			};
+			while((index < sipHeader.length()) && ((sipHeader.charAt(index) == ' ') || (sipHeader.charAt(index) == '\t'))) {
+				index++;
+			};
+			if((index < sipHeader.length()) && (sipHeader.charAt(index) == ':')) {
+				int start = index + 1;
+				int end = sipHeader.length();
+				while((start < end) && (sipHeader.charAt(start) <= ' ')) {
+					start++;
+				};
+				while((end > start) && (sipHeader.charAt(end - 1) <= ' ')) {
+					end--;
+				};
+				return sipHeader.subSequence(start, end);
+			};
+		};
+		return null;
+	}
+
+	/**
+	 * Checks whether a line contains a pattern, ignoring case
+	 * (so there is no need to create upper-case copies of the lines)
+	 *
+	 * @param	line	the line
+	 * @param	pattern	the pattern
+	 * @return			whether the line contains the pattern
+	 */
+	private static boolean containsIgnoreCase(CharSequence line, String pattern) {
+		int lastStart = line.length() - pattern.length();
+		for(int i = 0; i <= lastStart; i++) {
+			if(regionMatchesIgnoreCase(line, i, pattern)) {
+				return true;
+			};
+		};
+		return false;
+	}
+
+	/**
+	 * Checks whether a pattern is found at the given index of a line, ignoring case
+	 * (just like String.regionMatches(true, ...) does, but for any CharSequence)
+	 *
+	 * @param	line	the line
+	 * @param	index	the index of the line where the pattern is looked for
+	 * @param	pattern	the pattern
+	 * @return			whether the pattern is found
+	 */
+	private static boolean regionMatchesIgnoreCase(CharSequence line, int index, String pattern) {
+		if(index + pattern.length() > line.length()) {
+			return false;
+		};
+		char c1, c2;
+		for(int i = 0; i < pattern.length(); i++) {
+			c1 = line.charAt(index + i);
+			c2 = pattern.charAt(i);
+			if((c1 != c2) && (Character.toUpperCase(c1) != Character.toUpperCase(c2)) && (Character.toLowerCase(c1) != Character.toLowerCase(c2))) {
+				return false;
+			};
+		};
+		return true;
+	}
 	
 }
\ No newline at end of file
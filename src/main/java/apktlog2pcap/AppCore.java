@@ -1,15 +1,25 @@
 package apktlog2pcap;
 import jfnlite.Fn;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Class implementing the set of functionality requred for apktlog2pcap
@@ -20,11 +30,27 @@ import java.util.HashMap;
  */
 public abstract class AppCore {
 
-	private static final byte[] DEFAULT_MAC = { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00};
+	private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+	private static final int SNIFFED_LINES = 100;
+	private static final String GZIP_SUFFIX = ".gz";
+	static final long STREAMING_FLUSH_INTERVAL = 100; // milliseconds
+	static final long PROGRESS_INTERVAL = 250; // milliseconds
 
 	/** Build version. */
 	public static final String BUILD = "0.9.1.build20171127";
 
+	/** Output file path standing for the standard output. */
+	public static final String STDOUT_PATH = "-";
+
+	/** Options applying to the conversions. */
+	protected ConversionOptions options = new ConversionOptions();
+
+	/*
+	 * Progress of the run going on (see startProgress())
+	 */
+	private volatile ConversionProgress progress = null;
+	private Timer progressTimer = null;
+
 	/**
 	 * Creates a Predicate checking whether a file name matches the pattern corresponding to a given log type
 	 * @param	logType	the log type against which the returned Function will validate 
@@ -33,11 +59,139 @@ public abstract class AppCore {
 	public static Fn.Predicate<File> isLogFile(final String logType) {
 		return new Fn.Predicate<File>() {
 			public boolean test(File file) {
-				return ( file.isFile() && (file.getName().toUpperCase().matches("(.*)" + logType.toUpperCase() + "\\.?([0-9]*)$")) );
+				return ( file.isFile() && (file.getName().toUpperCase().matches("(.*)" + logType.toUpperCase() + "\\.?([0-9]*)(\\.GZ)?$")) );
 			};
 		};
 	}
 	
+	/**
+	 * Gets the log type of a file, out of its name if it follows the SBC naming (sipmsg.log*,
+	 * log.sipd*, log.mbcd*, log.algd*) or else out of its first lines
+	 * @param	file	the log file
+	 * @return			the log type (one of ApktLog.LOGTYPES)
+	 */
+	public static String getLogType(File file) {
+		for(String logType: ApktLog.LOGTYPES) {
+			if(isLogFile(logType).test(file)) {
+				return logType;
+			};
+		};
+		String logType = ApktLog.LOGTYPE_SIPMSG;
+		ByteLineIterator lines = null;
+		try {
+			lines = openLogFile(file);
+			logType = ApktLog.sniffLogType(lines, SNIFFED_LINES);
+		} catch(RuntimeException e) {
+			// The file cannot be read, which will be reported when converting it anyway
+		} finally {
+			if(lines != null) {
+				lines.close();
+			};
+		};
+		return logType;
+	}
+
+	/**
+	 * Opens the temporary file a file is written to before replacing it (see replaceFile()),
+	 * so an interrupted write never leaves the file half written
+	 *
+	 * @param	file	the file to be written
+	 * @return			the output stream of the temporary file
+	 * @throws	IOException	if the temporary file cannot be created
+	 */
+	public static DataOutputStream createTemporaryFile(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getTemporaryFile(file))));
+	}
+
+	/**
+	 * Replaces a file with the temporary file written by means of createTemporaryFile()
+	 * (the temporary file is deleted if it cannot replace the file)
+	 *
+	 * @param	file	the file to be replaced
+	 * @throws	IOException	if the file cannot be replaced
+	 */
+	public static void replaceFile(File file) throws IOException {
+		File temporaryFile = getTemporaryFile(file);
+		// File.renameTo() does not replace existing files on every platform
+		if(!temporaryFile.renameTo(file) && !(file.delete() && temporaryFile.renameTo(file))) {
+			temporaryFile.delete();
+			throw(new IOException("Failed to save " + file.getPath()));
+		};
+	}
+
+	/**
+	 * Gets the temporary file a file is written to before replacing it
+	 *
+	 * @param	file	the file
+	 * @return			the temporary file (next to the file, with .tmp appended to its name)
+	 */
+	private static File getTemporaryFile(File file) {
+		return new File(file.getPath() + ".tmp");
+	}
+
+	/**
+	 * Tells whether a log file is gzip-compressed (as rotated logs in support bundles usually are)
+	 * @param	file	the log file
+	 * @return			whether its name ends with .gz
+	 */
+	public static boolean isCompressedLogFile(File file) {
+		return file.getName().toLowerCase().endsWith(GZIP_SUFFIX);
+	}
+
+	/**
+	 * Opens a log file for reading its lines, inflating it on the fly if it is compressed
+	 * @param	file	the log file
+	 * @return			the iterator of its lines
+	 */
+	public static ByteLineIterator openLogFile(File file) {
+		return isCompressedLogFile(file) ? new GzipLineIterator(file) : new MappedLineIterator(file);
+	}
+
+	/**
+	 * Gets the length of the log lines held by a log file: its size, or for compressed files the
+	 * inflated size recorded in their gzip trailer (which is the size modulo 4 GB, so the size of
+	 * the compressed file is taken instead if it is smaller, or if the trailer cannot be read)
+	 * @param	file	the log file
+	 * @return			the length in bytes
+	 */
+	public static long getLogLength(File file) {
+		long length = file.length();
+		if(!isCompressedLogFile(file) || (length < 4)) {
+			return length;
+		};
+		RandomAccessFile randomAccessFile = null;
+		try {
+			randomAccessFile = new RandomAccessFile(file, "r");
+			randomAccessFile.seek(length - 4);
+			int inflatedSize = randomAccessFile.read() | (randomAccessFile.read() << 8) | (randomAccessFile.read() << 16) | (randomAccessFile.read() << 24);
+			return Math.max(length, inflatedSize & 0xFFFFFFFFL);
+		} catch(IOException ioe) {
+			return length;
+		} finally {
+			if(randomAccessFile != null) {
+				try{ randomAccessFile.close(); } catch(IOException ioe) {};
+			};
+		}
+	}
+
+	/**
+	 * Opens a log file for reading its lines from the given offset on
+	 * @param	file	the log file
+	 * @param	start	the offset of the first line (at the beginning of a line, and 0 for compressed files)
+	 * @return			the iterator of its lines
+	 */
+	public static ByteLineIterator openLogFile(File file, long start) {
+		return (start == 0) ? openLogFile(file) : new MappedLineIterator(file, start, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Tells whether the conversions are restricted to a time range (see ConversionOptions.fromTime and toTime)
+	 * @return	whether there is a time range
+	 */
+	protected boolean isTimeRange() {
+		return (this.options.fromTime != Long.MIN_VALUE) || (this.options.toTime != Long.MAX_VALUE);
+	}
+
 	/**
 	 * Takes an iterable of log Files, sorts them and returns them in a List
 	 * @param	logFiles	iterable of log files 
@@ -49,11 +203,20 @@ public abstract class AppCore {
 		HashMap<String,File> logFileMap = new HashMap<String,File>();
 		String REGEX = "(.*)\\.([0-9])$";
 		String alias;
+		String path;
+		String suffix;
 		for(File file: logFiles){
-			if(file.getPath().matches(REGEX)) {
-				alias = file.getPath().replaceAll(REGEX, "$1.0$2");
+			// Compressed files are sorted along with the plain ones, as if they were not compressed
+			path = file.getPath();
+			suffix = "";
+			if(isCompressedLogFile(file)) {
+				suffix = path.substring(path.length() - GZIP_SUFFIX.length());
+				path = path.substring(0, path.length() - GZIP_SUFFIX.length());
+			};
+			if(path.matches(REGEX)) {
+				alias = path.replaceAll(REGEX, "$1.0$2") + suffix;
 			} else {
-				alias = file.getPath();
+				alias = path + suffix;
 			};
 			aliasList.add(alias);
 			logFileMap.put(alias, file);
@@ -78,49 +241,62 @@ public abstract class AppCore {
 	}
 
 	/**
-	 * Converts a LogFrame into a PCAP frame
+	 * Encodes a LogFrame as a PCAP frame into the given PcapFrameBuilder
 	 * @param	logFrame	input LogFrame
-	 * @return				the PCAP frame 
-	 */
-	public static Fn.Function<ApktLog.LogFrame,byte[]> logFrameToPcapFrame = new Fn.Function<ApktLog.LogFrame,byte[]>() {
-		public byte[] apply(ApktLog.LogFrame logFrame) {
-			//ApktLog.ParsedHeaderLine parsedHeaderLine = ApktLog.parseMainLine(logFrame.get(0));
-			ApktLog.ParsedHeaderLine parsedHeaderLine = logFrame.getParsedHeaderLine();
-			byte[] transportPacket = null;
-			byte[] tcpPacket = null;
-			byte[] sctpPacket = null;
-			byte[] ipPacket = null;
-			if(parsedHeaderLine.logFrameType.equals(ApktLog.LOGFRAMETYPE_SIPMSG_SIP)) {
-				String sipMessage = logFrame.getSipString();
-				String transportProtocol = logFrame.inferTransportProtocol();
-				if(transportProtocol == ApktLog.TRANSPORT_UDP) {
-					transportPacket = Pcap.createUdpPacket(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, sipMessage.getBytes());
-					ipPacket = Pcap.createIpv4Packet(parsedHeaderLine.srcIp, parsedHeaderLine.dstIp, Pcap.IP_PROTOCOL_UDP, transportPacket);
-				} else if(transportProtocol == ApktLog.TRANSPORT_TCP) {
-					transportPacket = Pcap.createTcpPacket(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, sipMessage.getBytes(), parsedHeaderLine.srcIp, parsedHeaderLine.dstIp);
-					ipPacket = Pcap.createIpv4Packet(parsedHeaderLine.srcIp, parsedHeaderLine.dstIp, Pcap.IP_PROTOCOL_TCP, transportPacket);
-				} else if(transportProtocol == ApktLog.TRANSPORT_SCTP) {
-					transportPacket = Pcap.createSctpPacket(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, sipMessage.getBytes(), parsedHeaderLine.srcIp, parsedHeaderLine.dstIp);
-					ipPacket = Pcap.createIpv4Packet(parsedHeaderLine.srcIp, parsedHeaderLine.dstIp, Pcap.IP_PROTOCOL_SCTP, transportPacket);
-				} else {
-					/*
-					 * Incomplete SIP message. This happens when the message has been fragmented, so...
-					 * 		- We will assume it was fragmented at TCP (but we are just guessing)
-					 *		- If it was fragmented at SCTP or even at IP, Wireshark will not be able to reconstruct the whole SIP message
-					 */
-					transportPacket = Pcap.createTcpPacket(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, sipMessage.getBytes(), parsedHeaderLine.srcIp, parsedHeaderLine.dstIp);
-					ipPacket = Pcap.createIpv4Packet(parsedHeaderLine.srcIp, parsedHeaderLine.dstIp, Pcap.IP_PROTOCOL_TCP, transportPacket);
-				}
+	 * @param	builder		the PcapFrameBuilder where the PCAP frame will be built
+	 * @param	session		the PcapSession keeping track of the TCP and SCTP sequence numbers (if null, sequence
+	 * 						numbers are left as 0 to be patched later, see PcapFrameBuilder.patchTcpFrame())
+	 * @return				the length of the PCAP frame 
+	 */
+	public static int encodeLogFrame(ApktLog.LogFrame logFrame, PcapFrameBuilder builder, PcapSession session) {
+		ApktLog.ParsedHeaderLine parsedHeaderLine = logFrame.getParsedHeaderLine();
+		int seconds = (int) (parsedHeaderLine.timestamp/1000);
+		int microseconds = 1000 * parsedHeaderLine.miliseconds;
+		int vid = parsedHeaderLine.vid;
+		int frameLength;
+		if(session != null) {
+			session.setTime(parsedHeaderLine.timestamp);
+		};
+		if(parsedHeaderLine.logFrameType.equals(ApktLog.LOGFRAMETYPE_SIPMSG_SIP)) {
+			int sipMessageLength = logFrame.getPayloadLength();
+			String transportProtocol = logFrame.getTransportProtocol();
+			if(transportProtocol == ApktLog.TRANSPORT_UDP) {
+				frameLength = builder.buildUdpFrame(seconds, microseconds, vid, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow, parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, logFrame);
+			} else if(transportProtocol == ApktLog.TRANSPORT_SCTP) {
+				int seqNum = (session != null) ? session.getSctpSeqNum(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, sipMessageLength, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow) : 0;
+				frameLength = builder.buildSctpFrame(seconds, microseconds, vid, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow, parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, seqNum, logFrame);
 			} else {
-				transportPacket = Pcap.createUdpPacket(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, logFrame.getTextString().getBytes());
-				ipPacket = Pcap.createIpv4Packet(parsedHeaderLine.srcIp, parsedHeaderLine.dstIp, Pcap.IP_PROTOCOL_UDP, transportPacket);
-			};
-			byte[] ethernetPacket = Pcap.createEthernetPacket(DEFAULT_MAC, DEFAULT_MAC, Pcap.ETHERTYPE_IPV4, ipPacket, parsedHeaderLine.vid);
-			int dateInt = (int) (parsedHeaderLine.date.getTime()/1000);
-			byte[] pcapFrame = Pcap.createPcapFrame(dateInt, 1000 * parsedHeaderLine.miliseconds, ethernetPacket.length, ethernetPacket);
-			return pcapFrame;
-		}
-	};
+				/*
+				 * Either TCP or an incomplete SIP message. The latter happens when the message has been fragmented, so...
+				 * 		- We will assume it was fragmented at TCP (but we are just guessing)
+				 *		- If it was fragmented at SCTP or even at IP, Wireshark will not be able to reconstruct the whole SIP message
+				 */
+				long seqNum = (session != null) ? session.getTcpSeqNum(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, sipMessageLength, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow) : 0;
+				long ackNum = (session != null) ? session.getTcpAckNum(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, sipMessageLength, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow) : 0;
+				frameLength = builder.buildTcpFrame(seconds, microseconds, vid, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow, parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, seqNum, ackNum, logFrame);
+			}
+		} else {
+			frameLength = builder.buildUdpFrame(seconds, microseconds, vid, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow, parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, logFrame);
+		};
+		return frameLength;
+	}
+
+	/**
+	 * Creates a Function converting LogFrames into PCAP frames
+	 * (Note that processLogFiles() does not make use of this function, but encodes each
+	 * LogFrame straight into a reusable PcapFrameBuilder, so no array is allocated per frame)
+	 * @param	session		the PcapSession keeping track of the TCP and SCTP sequence numbers
+	 * @return				the Function 
+	 */
+	public static Fn.Function<ApktLog.LogFrame,byte[]> logFrameToPcapFrame(final PcapSession session) {
+		return new Fn.Function<ApktLog.LogFrame,byte[]>() {
+			public byte[] apply(ApktLog.LogFrame logFrame) {
+				PcapFrameBuilder builder = new PcapFrameBuilder();
+				encodeLogFrame(logFrame, builder, session);
+				return builder.toByteArray();
+			}
+		};
+	}
 	
 	/**
 	 * Handles Text Output Event
@@ -137,112 +313,711 @@ public abstract class AppCore {
 	public abstract void onFinish(int retValue);
 
 	/**
-	 * Writes a stream of byte arrays into the given file.
+	 * Handles Progress Event, generated every PROGRESS_INTERVAL milliseconds while log files are
+	 * being converted, from a thread of its own (it is just ignored unless overridden)
+	 *
+	 * @param	progress	the progress of the run
+	 */
+	public void onProgress(ConversionProgress progress) {
+	}
+
+	/**
+	 * Starts tracking the progress of a run (or of a new set of log files of the current one),
+	 * generating progress events until stopProgress() is invoked
+	 *
+	 * @param	isNewRun	whether a new run starts (otherwise the log files are added to the current one)
+	 * @param	logFiles	the log files about to be converted
+	 */
+	private synchronized void startProgress(boolean isNewRun, Iterable<File> logFiles) {
+		if(isNewRun || (this.progress == null)) {
+			this.progress = new ConversionProgress();
+		};
+		long totalBytes = 0;
+		for(File file: logFiles) {
+			totalBytes += getLogLength(file);
+		};
+		this.progress.addTotalBytes(totalBytes);
+		final Timer timer = new Timer("progress", true);
+		final AppCore that = this; // So we can use a reference to this object in closure below
+		timer.schedule(new TimerTask() {
+			public void run() {
+				that.fireProgress(timer);
+			}
+		}, PROGRESS_INTERVAL, PROGRESS_INTERVAL);
+		this.progressTimer = timer;
+	}
+
+	/**
+	 * Generates a progress event, unless the timer generating it has been stopped
+	 *
+	 * @param	timer	the timer
+	 */
+	private synchronized void fireProgress(Timer timer) {
+		if(timer == this.progressTimer) {
+			this.onProgress(this.progress);
+		};
+	}
+
+	/**
+	 * Stops generating progress events (none is generated once it returns)
+	 */
+	private synchronized void stopProgress() {
+		if(this.progressTimer != null) {
+			this.progressTimer.cancel();
+			this.progressTimer = null;
+		};
+	}
+
+	/**
+	 * ConversionContext object holds the state of one conversion being run: its PcapSession,
+	 * its error counter and, for conversions running concurrently with others, the text
+	 * output they have generated so far (which is handed to onTextOutput() as one block
+	 * when the conversion is over, so it does not get mixed up with that of the others)
+	 */
+	private static class ConversionContext {
+		final PcapSession session;
+		final List<String> bufferedOutput;
+		final ExecutorService chunkExecutor; // shared by the ParallelConverters of concurrent conversions (null if not shared)
+		int errorCounter = 0;
+		ConversionContext(boolean isBuffered, long flowIdleTimeout, ExecutorService chunkExecutor) {
+			this.session = new PcapSession(flowIdleTimeout);
+			this.bufferedOutput = isBuffered ? new ArrayList<String>() : null;
+			this.chunkExecutor = chunkExecutor;
+		}
+	}
+
+	/**
+	 * Outputs text on behalf of a conversion
+	 *
+	 * @param	context		the context of the conversion
+	 * @param	textOutput	the text to output
+	 */
+	private void output(ConversionContext context, String textOutput) {
+		if(context.bufferedOutput != null) {
+			context.bufferedOutput.add(textOutput);
+		} else {
+			this.onTextOutput(textOutput);
+		};
+	}
+
+	/**
+	 * Parses a set of log Files into LogFrames, reading them one after the other
+	 * (if the conversions are restricted to a time range, just the part of the files holding
+	 * it is read, see TimeRangeSeeker, and just the LogFrames passing the FrameFilter of the
+	 * conversions are returned).
+	 * With indexing enabled (see isIndexedConversion()), files which are not indexed yet are read
+	 * from the beginning, building their LogIndexes on the way, and then restricted conversions
+	 * of the same files just read the LogFrames selected out of their LogIndexes
+	 *
+	 * @param	logFiles	iterable of log files
+	 * @param	logType		the log type of the files (one of ApktLog.LOGTYPES)
+	 * @param	context		the context of the conversion
+	 * @param	recorder	the Recorder counting the lines read and the header lines parsed
+	 * @return				iterator of LogFrames
+	 */
+	private Iterator<ApktLog.LogFrame> parseLogFiles(Iterable<File> logFiles, String logType, final ConversionContext context, ConversionMetrics.Recorder recorder) {
+		List<File> logFileList = Fn.collectToList(logFiles);
+		FrameFilter frameFilter = new FrameFilter(this.options);
+		if(this.isIndexedConversion(logFileList)) {
+			List<LogIndex> indexes = LogIndex.loadAll(logFileList, logType, this.options.timeZone);
+			if(indexes == null) {
+				List<TimeRangeSeeker.Start> starts = new ArrayList<TimeRangeSeeker.Start>();
+				for(File file: logFileList) {
+					starts.add(new TimeRangeSeeker.Start(file, 0));
+				};
+				Iterator<ApktLog.LogFrame> logFrames = ApktLog.parse(this.openLogFiles(starts, context), createLogParser(logType, new TimestampCalculator(this.options.timeZone), recorder));
+				logFrames = LogIndex.indexing(logFrames, logFileList, logType, this.options.timeZone);
+				return frameFilter.isRestricted() ? frameFilter.filter(logFrames, true) : logFrames;
+			};
+			if(frameFilter.isRestricted()) {
+				TimestampCalculator timestampCalculator = new TimestampCalculator(this.options.timeZone);
+				List<int[]> selections = frameFilter.select(indexes);
+				List<Iterator<ByteLine>> linesIterators = new ArrayList<Iterator<ByteLine>>();
+				for(int i = 0; i < indexes.size(); i++) {
+					linesIterators.add(new RangeLineIterator(indexes.get(i), selections.get(i), timestampCalculator));
+				};
+				Iterator<ByteLine> logLines = Fn.flatten(linesIterators.iterator());
+				return frameFilter.filter(ApktLog.parse(logLines, createLogParser(logType, timestampCalculator, recorder)), false);
+			};
+		};
+		TimeRangeSeeker seeker = null;
+		List<TimeRangeSeeker.Start> starts;
+		if(this.isTimeRange()) {
+			seeker = new TimeRangeSeeker(logType, this.options.timeZone, this.options.fromTime, this.options.toTime);
+			starts = seeker.seek(logFileList);
+		} else {
+			starts = new ArrayList<TimeRangeSeeker.Start>();
+			for(File file: logFileList) {
+				starts.add(new TimeRangeSeeker.Start(file, 0));
+			};
+		};
+		Iterator<ByteLine> logLines = this.openLogFiles(starts, context);
+		Iterator<ApktLog.LogFrame> logFrames;
+		if(seeker == null) {
+			logFrames = ApktLog.parse(logLines, createLogParser(logType, new TimestampCalculator(this.options.timeZone), recorder));
+		} else {
+			TimestampCalculator timestampCalculator = new TimestampCalculator(this.options.timeZone);
+			if(seeker.getYear() >= 0) {
+				timestampCalculator.resume(seeker.getYear(), seeker.getMonth());
+			};
+			logFrames = ApktLog.parse(logLines, createLogParser(logType, timestampCalculator, recorder));
+		};
+		return frameFilter.isRestricted() ? frameFilter.filter(logFrames, false) : logFrames;
+	}
+
+	/**
+	 * Creates the LogProtoParser dedicated to a log type, counting its work on the given Recorder
+	 *
+	 * @param	logType				the log type (one of ApktLog.LOGTYPES)
+	 * @param	timestampCalculator	the TimestampCalculator (only to be used by this parser)
+	 * @param	recorder			the Recorder
+	 * @return						the LogProtoParser
+	 */
+	private static LogProtoParser<ApktLog.ParsedHeaderLine> createLogParser(String logType, TimestampCalculator timestampCalculator, ConversionMetrics.Recorder recorder) {
+		LogProtoParser<ApktLog.ParsedHeaderLine> logProtoParser = ApktLog.createLogParser(logType, timestampCalculator);
+		logProtoParser.setRecorder(recorder);
+		return logProtoParser;
+	}
+
+	/**
+	 * Reads the lines of a set of log Files, one after the other, each one from the given offset on
+	 * (files which cannot be opened are reported as errors of the conversion, and skipped)
+	 *
+	 * @param	starts		the log files and the offsets to start at
+	 * @param	context		the context of the conversion
+	 * @return				iterator of lines
+	 */
+	private Iterator<ByteLine> openLogFiles(List<TimeRangeSeeker.Start> starts, final ConversionContext context) {
+		/*
+		 * Definition of startToLines function
+		 */
+		final AppCore that = this; // So we can use a reference to this object in closure below
+		Fn.Function<TimeRangeSeeker.Start,Iterator<ByteLine>> startToLines = new Fn.Function<TimeRangeSeeker.Start,Iterator<ByteLine>>() {
+			public Iterator<ByteLine> apply(TimeRangeSeeker.Start start) {
+				Iterator<ByteLine> lines = null;
+				try {
+					lines = openLogFile(start.file, start.offset);
+				} catch(RuntimeException e) {
+					e.printStackTrace();
+					that.output(context, "================================================================");
+					that.output(context, e.toString());
+					if(context.bufferedOutput != null) {
+						context.errorCounter++; // onFinish() is left to the scheduler
+					} else {
+						that.onFinish(1);
+					};
+				}
+				return lines;
+			}
+		};
+		Iterator<Iterator<ByteLine>> linesIteratorIterator = Fn.map(starts.iterator(), startToLines);
+		return Fn.flatten(linesIteratorIterator);
+	}
+
+	/**
+	 * Tells whether the conversion of a set of log Files uses (and builds) LogIndexes: it has to be
+	 * enabled (see ConversionOptions.index), and none of the files can be compressed (their
+	 * LogFrames could not be read out of their offsets)
+	 *
+	 * @param	logFiles	list of log files
+	 * @return				whether LogIndexes are used
+	 */
+	private boolean isIndexedConversion(List<File> logFiles) {
+		if(!this.options.index) {
+			return false;
+		};
+		for(File file: logFiles) {
+			if(isCompressedLogFile(file)) {
+				return false;
+			};
+		};
+		return true;
+	}
+
+	/**
+	 * Tells whether an output file path is a stream someone may be reading from while it is
+	 * being written (the standard output, or a named pipe such as those of Wireshark extcap),
+	 * rather than a regular file
 	 *
-	 * @param	bytesIterable	iterable of byte arrays
 	 * @param	outputFilePath	path to the output file
+	 * @return					whether the output is a stream
+	 */
+	public static boolean isStreamingOutput(String outputFilePath) {
+		File file = new File(outputFilePath);
+		return outputFilePath.equals(STDOUT_PATH) || (file.exists() && !file.isFile() && !file.isDirectory());
+	}
+
+	/**
+	 * Opens an output file (or the standard output, see STDOUT_PATH) for writing
+	 *
+	 * @param	outputFilePath	path to the output file
+	 * @param	append			whether the bytes are to be appended to those already in the file
+	 * @return					the (buffered) output stream
+	 * @throws	FileNotFoundException	if the file cannot be opened
+	 */
+	static OutputStream openOutputFile(String outputFilePath, boolean append) throws FileNotFoundException {
+		if(outputFilePath.equals(STDOUT_PATH)) {
+			return new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_SIZE);
+		};
+		return new BufferedOutputStream(new FileOutputStream(outputFilePath, append), OUTPUT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Tells whether a set of log Files is big enough to be worth converting with a ParallelConverter
+	 * (time ranges are not, since just a small part of the files is usually converted, and neither
+	 * are conversions following related dialogs, which have to see the LogFrames in order, nor
+	 * indexed conversions, unless the files are indexed already and all of them are converted)
+	 *
+	 * @param	logFiles	list of log files
+	 * @param	logType		the log type of the files (one of ApktLog.LOGTYPES)
+	 * @return				whether a ParallelConverter is to be used
+	 */
+	private boolean isParallelConversion(List<File> logFiles, String logType) {
+		long totalLength = 0;
+		for(File file: logFiles) {
+			totalLength += file.length();
+		};
+		if((this.options.threads <= 1) || (totalLength <= this.options.chunkSize) || this.isTimeRange()) {
+			return false;
+		};
+		FrameFilter frameFilter = new FrameFilter(this.options);
+		if(frameFilter.isStateful()) {
+			return false;
+		};
+		if(this.isIndexedConversion(logFiles)) {
+			return !frameFilter.isRestricted() && LogIndex.isIndexed(logFiles, logType, this.options.timeZone);
+		};
+		return true;
+	}
+
+	/**
+	 * Converts the sets of log Files of one or more conversion jobs into a PCAP file.
+	 * With just one job, big sets are converted by a ParallelConverter, the rest by parsing and
+	 * encoding the LogFrames one after the other in this thread (which is the reference behaviour).
+	 * The LogFrames of several jobs (of different log types) are merged in timestamp order
+	 * (see LogFrameMerger), so the PCAP file shows them as they happened.
+	 * Streaming outputs (see isStreamingOutput()) are flushed as frames are written, at least
+	 * every STREAMING_FLUSH_INTERVAL milliseconds (or after each chunk of a ParallelConverter).
+	 * The work done is counted on a ConversionMetrics, which is published through JMX while the
+	 * conversion goes on, and whose report is output once it is over
+	 *
+	 * @param	jobs			the conversion jobs (whose output paths are ignored)
+	 * @param	outputFilePath	path to the output file
+	 * @param	context			the context of the conversion
 	 * @return					the result of the operation
 	 */
-	private boolean writeToFile(Iterator<byte[]> bytesIterator, String outputFilePath){
+	private boolean writeToFile(List<ConversionJob> jobs, String outputFilePath, ConversionContext context){
 		boolean success = false;
+		ConversionMetrics metrics = new ConversionMetrics(outputFilePath);
+		ConversionMetrics.Recorder recorder = metrics.newRecorder();
+		ConversionProgress progress = this.progress;
+		List<File> logFiles = new ArrayList<File>();
+		String logType = "";
+		long logLength = 0;
+		for(ConversionJob job: jobs) {
+			logFiles.addAll(Fn.collectToList(job.logFiles));
+			logType = (logType.length() > 0) ? logType + ", " + job.logType : job.logType;
+		};
+		for(File logFile: logFiles) {
+			logLength += getLogLength(logFile);
+		};
+		metrics.register();
+		if(progress != null) {
+			progress.start(metrics);
+		};
 		try {
-			OutputStream outputStream = null;
+			PcapOutput pcapOutput = null;
 			try {
-				outputStream = new BufferedOutputStream(new FileOutputStream(outputFilePath));
-				while(bytesIterator.hasNext()){
-					outputStream.write(bytesIterator.next());
-				}
+				boolean isStreaming = isStreamingOutput(outputFilePath);
+				List<String> logFilePaths = new ArrayList<String>();
+				for(File logFile: logFiles) {
+					logFilePaths.add(logFile.getPath());
+				};
+				pcapOutput = new PcapOutput(outputFilePath, logType, logFilePaths, this.options);
+				if(isStreaming) {
+					// Readers such as tshark wait for the file header before anything else
+					pcapOutput.flush();
+				};
+				if((jobs.size() == 1) && this.isParallelConversion(logFiles, logType)) {
+					ParallelConverter parallelConverter = new ParallelConverter(logFiles, logType, this.options, context.chunkExecutor, context.session);
+					parallelConverter.writeTo(pcapOutput, metrics);
+				} else {
+					Iterator<ApktLog.LogFrame> logFrames;
+					if(jobs.size() == 1) {
+						logFrames = this.parseLogFiles(logFiles, logType, context, recorder);
+					} else {
+						List<Iterator<ApktLog.LogFrame>> streams = new ArrayList<Iterator<ApktLog.LogFrame>>();
+						for(ConversionJob job: jobs) {
+							streams.add(this.parseLogFiles(job.logFiles, job.logType, context, recorder));
+						};
+						logFrames = new LogFrameMerger(streams);
+					};
+					PcapFrameBuilder builder = new PcapFrameBuilder();
+					ApktLog.LogFrame logFrame;
+					long lastFlushTime = 0;
+					long time = System.nanoTime();
+					while(logFrames.hasNext()){
+						logFrame = logFrames.next();
+						time = recorder.parsed(time);
+						encodeLogFrame(logFrame, builder, context.session);
+						recorder.frame(logFrame);
+						time = recorder.encoded(time);
+						if(this.options.pcapng) {
+							pcapOutput.writeFrame(logFrame, builder.getBuffer(), 0);
+						} else {
+							pcapOutput.writeFrames(builder.getBuffer(), builder.getLength());
+						};
+						if(isStreaming && (System.currentTimeMillis() - lastFlushTime >= STREAMING_FLUSH_INTERVAL)) {
+							pcapOutput.flush();
+							lastFlushTime = System.currentTimeMillis();
+						};
+						time = recorder.written(time, pcapOutput.getLength());
+					};
+					recorder.parsed(time);
+				};
+				pcapOutput.close();
+				recorder.written(System.nanoTime(), pcapOutput.getLength());
+				recorder.publish();
 				success = true;
 			} finally {
-				if(outputStream != null) {
-					outputStream.close();
+				if((pcapOutput != null) && !success) {
+					pcapOutput.abort();
 				}
 			}
 		} catch(FileNotFoundException e){
-			onTextOutput("ERROR:  Failed to open output file " + outputFilePath);
+			this.output(context, "ERROR:  Failed to open output file " + outputFilePath);
 		} catch(IOException e){
-			onTextOutput("ERROR:  Exception when working with output file " + outputFilePath);
+			this.output(context, "ERROR:  Exception when working with output file " + outputFilePath);
+		} finally {
+			metrics.finish();
+			if(progress != null) {
+				progress.finish(metrics, logLength);
+			};
 		}
+		if(success) {
+			for(String line: metrics.getReport()) {
+				this.output(context, line);
+			};
+		};
 		return success;
 	}
 
 	/**
-	 * Writes a stream of byte arrays into the given file.
+	 * Runs one conversion, generating the text output events in the given context
 	 *
-	 * @param	bytesIterable	iterable of byte arrays
-	 * @param	outputFilePath	path to the output file
-	 * @return					the result of the operation
+	 * @param	job		the conversion job
+	 * @param	context	the context of the conversion
 	 */
-	private boolean writeToFile(Iterable<byte[]> bytesIterable, String outputFilePath){
-		return writeToFile(bytesIterable.iterator(), outputFilePath);
+	private void convert(ConversionJob job, ConversionContext context) {
+		String result = null;
+		String summary = null;
+		List<File> logFileList = Fn.collectToList(job.logFiles);
+		if(logFileList.size() > 0 ) {
+			this.output(context, "================================================================");
+			this.output(context, "Reading from:");
+			for(File file: logFileList) {
+				this.output(context, file.getPath());
+			};
+			this.output(context, "Writing to: " + job.outputPcapFilePath);
+			if(writeToFile(java.util.Collections.singletonList(job), job.outputPcapFilePath, context)) {
+				result = "OK";
+			} else {
+				result = "ERROR(FAILED_TO_WRITE_TO_OUTPUT_FILE)";
+				context.errorCounter++;
+			};
+			this.output(context, result);
+
+			summary = "Processed " + Integer.toString(logFileList.size()) + " files with " + Integer.toString(context.errorCounter) + " errors";
+			this.output(context, summary);
+		}
 	}
-	
+
+	/**
+	 * Processess a set of log Files whose log type is inferred from the first one (see getLogType())
+	 *
+	 * @param	logFiles			iterable of log files
+	 * @param	outputPcapFilePath	path to the output file
+	 * @param	isFirst				whether this is the first set of logFiles to convert to PCAP
+	 * @param	isLast				whether this is the last set of logFiles to convert to PCAP
+	 * @return						the result of the operation
+	 */
+	public void processLogFiles(Iterable<File> logFiles, String outputPcapFilePath, boolean isFirst, boolean isLast) {
+		Iterator<File> logFileIterator = logFiles.iterator();
+		String logType = logFileIterator.hasNext() ? getLogType(logFileIterator.next()) : ApktLog.LOGTYPE_SIPMSG;
+		processLogFiles(logFiles, logType, outputPcapFilePath, isFirst, isLast);
+	}
+
 	/**
 	 * Processess a set of log Files, creating a PCAP file and generating events to be handled
 	 * by onTextOutput() and onFinished() methods
 	 *
 	 * @param	logFiles			iterable of log files
+	 * @param	logType				the log type of the files (one of ApktLog.LOGTYPES)
 	 * @param	outputPcapFilePath	path to the output file
 	 * @param	isFirst				whether this is the first set of logFiles to convert to PCAP
 	 * @param	isLast				whether this is the last set of logFiles to convert to PCAP
 	 * @return						the result of the operation
 	 */
-	public void processLogFiles(Iterable<File> logFiles, String outputPcapFilePath, boolean isFirst, boolean isLast) {
-		String result = null;
-		String summary = null;
-		int errorCounter = 0;
-		/*
-		 * Definition of fileToLines function
-		 */
-		final AppCore that = this; // So we can use a reference to this object in closure below
-		Fn.Function<File,Iterator<String>> fileToLines = new Fn.Function<File,Iterator<String>>() {
-			public Iterator<String> apply(File file) {
-				Iterator<String> lines = null;
-				try {
-					lines = new LineIterator(file);
-				} catch(RuntimeException e) {
-					e.printStackTrace();
-					that.onTextOutput("================================================================");
-					that.onTextOutput(e.toString());
-					that.onFinish(1);
-				}
-				return lines;
-			}
-		};
-		
+	public void processLogFiles(Iterable<File> logFiles, String logType, String outputPcapFilePath, boolean isFirst, boolean isLast) {
 		if(isFirst) {
 			this.onTextOutput("apktlog2pcap.v" + BUILD);
+			ConversionMetrics.resetPeakHeap();
 		}
 
-		List<File> logFileList = Fn.collectToList(logFiles);
-		if(logFileList.size() > 0 ) {
+		ConversionContext context = new ConversionContext(false, this.options.flowIdleTimeout, null);
+		this.startProgress(isFirst, logFiles);
+		try {
+			this.convert(new ConversionJob(logFiles, logType, outputPcapFilePath), context);
+		} finally {
+			this.stopProgress();
+		}
+
+		if(isLast) {
 			this.onTextOutput("================================================================");
-			this.onTextOutput("Reading from:");
-			for(File file: logFiles) {
-				this.onTextOutput(file.getPath());
-			};
-			Iterator<Iterator<String>> linesIteratorIterator = Fn.map(logFiles.iterator(), fileToLines);
-			Iterator<String> logLines = Fn.flatten(linesIteratorIterator);
-			Iterator<ApktLog.LogFrame> logFrames = ApktLog.parse(logLines);
-			Iterator<byte[]> pcapFrames = Fn.map(logFrames, logFrameToPcapFrame);
-			byte[] pcapFileHeader = Pcap.createPcapFileHeader(Pcap.LINKTYPE_ETHERNET);
-			this.onTextOutput("Writing to: " + outputPcapFilePath);
-			if(writeToFile(Fn.concat(Fn.iteratorOf(pcapFileHeader), pcapFrames), outputPcapFilePath)) {
-				result = "OK";
-			} else {
-				result = "ERROR(FAILED_TO_WRITE_TO_OUTPUT_FILE)";
-				errorCounter++;
+			this.onFinish(context.errorCounter);
+		}
+	}
+
+	/**
+	 * Processess the log files of several conversion jobs (usually one per log type, see
+	 * getDirectoryJobs()), merging their frames in timestamp order into one PCAP file and
+	 * generating events to be handled by onTextOutput() and onFinished() methods
+	 *
+	 * @param	jobs				the conversion jobs (whose output paths are ignored, and those with no log files skipped)
+	 * @param	outputPcapFilePath	path to the output file
+	 */
+	public void processMergedLogFiles(List<ConversionJob> jobs, String outputPcapFilePath) {
+		this.onTextOutput("apktlog2pcap.v" + BUILD);
+		ConversionMetrics.resetPeakHeap();
+		ConversionContext context = new ConversionContext(false, this.options.flowIdleTimeout, null);
+		List<ConversionJob> mergedJobs = new ArrayList<ConversionJob>();
+		int fileCounter = 0;
+		for(ConversionJob job: jobs) {
+			if(job.logFiles.iterator().hasNext()) {
+				mergedJobs.add(job);
+			};
+		};
+		if(mergedJobs.size() > 0) {
+			this.output(context, "================================================================");
+			this.output(context, "Reading from:");
+			for(ConversionJob job: mergedJobs) {
+				for(File file: job.logFiles) {
+					this.output(context, file.getPath());
+					fileCounter++;
+				};
 			};
-			this.onTextOutput(result);
+			this.output(context, "Writing to: " + outputPcapFilePath);
+			this.startProgress(true, getLogFiles(mergedJobs));
+			try {
+				if(writeToFile(mergedJobs, outputPcapFilePath, context)) {
+					this.output(context, "OK");
+				} else {
+					this.output(context, "ERROR(FAILED_TO_WRITE_TO_OUTPUT_FILE)");
+					context.errorCounter++;
+				};
+			} finally {
+				this.stopProgress();
+			}
+			this.output(context, "Processed " + Integer.toString(fileCounter) + " files with " + Integer.toString(context.errorCounter) + " errors");
+		};
+		this.onTextOutput("================================================================");
+		this.onFinish(context.errorCounter);
+	}
+
+	/**
+	 * Follows a log file which is still being written, converting it into a growing PCAP file
+	 * (see LogFollower) until the thread is interrupted, and generating events to be handled
+	 * by onTextOutput() and onFinished() methods
+	 *
+	 * @param	logFile				the log file
+	 * @param	outputPcapFilePath	path to the output file
+	 * @param	checkpointFilePath	path to the checkpoint file (null means no checkpoint)
+	 */
+	public void followLogFile(File logFile, String outputPcapFilePath, String checkpointFilePath) {
+		this.onTextOutput("apktlog2pcap.v" + BUILD);
+		this.onTextOutput("================================================================");
+		this.onTextOutput("Following: " + logFile.getPath());
+		this.onTextOutput("Writing to: " + outputPcapFilePath);
+		int errorCounter = 0;
+		LogFollower follower = new LogFollower(logFile, getLogType(logFile), outputPcapFilePath, (checkpointFilePath == null) ? null : new File(checkpointFilePath), this.options);
+		try {
+			if(follower.open()) {
+				this.onTextOutput("Resuming from checkpoint " + checkpointFilePath + " at offset " + Long.toString(follower.getOffset()));
+			};
+			follower.run();
+			this.onTextOutput("Stopped after " + Long.toString(follower.getFrameCount()) + " frames");
+		} catch(IOException e) {
+			this.onTextOutput("ERROR:  Exception when working with output file " + outputPcapFilePath + " (" + e.getMessage() + ")");
+			errorCounter++;
+		} catch(RuntimeException e) {
+			e.printStackTrace();
+			this.onTextOutput(e.toString());
+			errorCounter++;
+		};
+		this.onTextOutput("================================================================");
+		this.onFinish(errorCounter);
+	}
+
+	/**
+	 * Gets the conversion jobs for all the log types found in a directory (sipmsg.log, log.sipd,
+	 * log.algd and log.mbcd), each one of them into a PCAP file named after its log type
+	 *
+	 * @param	inputDirPath	path to the input dir
+	 * @param	outputDirPath	path to the output dir (null means the current one)
+	 * @return					the list of conversion jobs
+	 */
+	public static List<ConversionJob> getDirectoryJobs(String inputDirPath, String outputDirPath) {
+		return getDirectoryJobs(inputDirPath, outputDirPath, ".pcap");
+	}
+
+	/**
+	 * Gets the conversion jobs for all the log types found in a directory, each one of them
+	 * into an output file named after its log type
+	 *
+	 * @param	inputDirPath	path to the input dir
+	 * @param	outputDirPath	path to the output dir (null means the current one)
+	 * @param	extension		extension of the output files (e.g. ".pcap" or ".pcapng")
+	 * @return					the list of conversion jobs
+	 */
+	public static List<ConversionJob> getDirectoryJobs(String inputDirPath, String outputDirPath, String extension) {
+		String[] logTypes = { ApktLog.LOGTYPE_SIPMSG, ApktLog.LOGTYPE_SIPD, ApktLog.LOGTYPE_ALGD, ApktLog.LOGTYPE_MBCD };
+		List<ConversionJob> jobs = new ArrayList<ConversionJob>();
+		String outputPcapFileName;
+		for(String logType: logTypes) {
+			outputPcapFileName = logType + extension;
+			jobs.add(new ConversionJob(getLogFiles(inputDirPath, logType), logType, (outputDirPath == null) ? outputPcapFileName : outputDirPath + "/" + outputPcapFileName));
+		};
+		return jobs;
+	}
 
-			summary = "Processed " + Integer.toString(logFileList.size()) + " files with " + Integer.toString(errorCounter) + " errors";
-			this.onTextOutput(summary);
+	/**
+	 * Processess a list of conversion jobs, generating events to be handled by onTextOutput()
+	 * and onFinished() methods (the latter just once, when all of them are over).
+	 *
+	 * Since the jobs are independent of each other, they are run concurrently (the biggest ones
+	 * first) on up to ConversionOptions.threads threads, jobs with no log files being skipped.
+	 * Their ParallelConverters (if any) share one pool of ConversionOptions.threads workers, so there
+	 * are never more chunks than that being converted at once, and the workers of the jobs over are
+	 * taken over by those still running. Then, the text output of each job is handed to
+	 * onTextOutput() in one block when it is over, and those calls are serialized.
+	 * With just one thread (or job) the jobs are run in order, with their text output generated as they go.
+	 *
+	 * @param	jobs	the conversion jobs
+	 */
+	public void processLogFiles(List<ConversionJob> jobs) {
+		this.onTextOutput("apktlog2pcap.v" + BUILD);
+		ConversionMetrics.resetPeakHeap();
+		int errorCounter = 0;
+		List<ConversionJob> convertedJobs = new ArrayList<ConversionJob>();
+		for(ConversionJob job: jobs) {
+			if(job.logFiles.iterator().hasNext()) {
+				convertedJobs.add(job);
+			};
+		};
+		int threads = Math.min(convertedJobs.size(), this.options.threads);
+		this.startProgress(true, getLogFiles(convertedJobs));
+		try {
+			errorCounter = this.convert(convertedJobs, threads);
+		} finally {
+			this.stopProgress();
 		}
+		this.onTextOutput("================================================================");
+		this.onFinish(errorCounter);
+	}
 
-		if(isLast) {
-			this.onTextOutput("================================================================");
-			this.onFinish(errorCounter);
+	/**
+	 * Gets the log files of a list of conversion jobs
+	 *
+	 * @param	jobs	the conversion jobs
+	 * @return			their log files, in the order of the jobs
+	 */
+	private static List<File> getLogFiles(List<ConversionJob> jobs) {
+		List<File> logFiles = new ArrayList<File>();
+		for(ConversionJob job: jobs) {
+			logFiles.addAll(Fn.collectToList(job.logFiles));
+		};
+		return logFiles;
+	}
+
+	/**
+	 * Runs a list of conversion jobs, concurrently if more than one thread is given (their output
+	 * is buffered then, so that of each job comes out in one piece, and their ParallelConverters
+	 * share one pool of ConversionOptions.threads workers)
+	 *
+	 * @param	jobs	the conversion jobs
+	 * @param	threads	the number of threads
+	 * @return			the number of errors of all the jobs
+	 */
+	private int convert(List<ConversionJob> jobs, int threads) {
+		int errorCounter = 0;
+		if(threads <= 1) {
+			ConversionContext context;
+			for(ConversionJob job: jobs) {
+				context = new ConversionContext(false, this.options.flowIdleTimeout, null);
+				this.convert(job, context);
+				errorCounter += context.errorCounter;
+			};
+		} else {
+			List<ConversionJob> sortedJobs = new ArrayList<ConversionJob>(jobs);
+			java.util.Collections.sort(sortedJobs, new java.util.Comparator<ConversionJob>() {
+				public int compare(ConversionJob job1, ConversionJob job2) {
+					long length1 = job1.getTotalLength();
+					long length2 = job2.getTotalLength();
+					return (length1 > length2) ? -1 : ((length1 < length2) ? 1 : 0);
+				}
+			});
+			final AppCore that = this; // So we can use a reference to this object in closure below
+			final Object outputLock = new Object();
+			final ExecutorService chunkExecutor = Executors.newFixedThreadPool(this.options.threads);
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			try {
+				for(final ConversionJob job: sortedJobs) {
+					results.add(executor.submit(new Callable<Integer>() {
+						public Integer call() {
+							ConversionContext context = new ConversionContext(true, that.options.flowIdleTimeout, chunkExecutor);
+							that.convert(job, context);
+							synchronized(outputLock) {
+								for(String textOutput: context.bufferedOutput) {
+									that.onTextOutput(textOutput);
+								};
+							};
+							return Integer.valueOf(context.errorCounter);
+						}
+					}));
+				};
+				for(Future<Integer> result: results) {
+					errorCounter += getJobResult(result);
+				};
+			} finally {
+				executor.shutdownNow();
+				chunkExecutor.shutdownNow();
+			}
+		};
+		return errorCounter;
+	}
+
+	/**
+	 * Waits for a conversion job to be over, rethrowing any exception thrown while running it
+	 *
+	 * @param	future	the Future of the job
+	 * @return			the number of errors of the job
+	 */
+	private static int getJobResult(Future<Integer> future) {
+		try {
+			return future.get().intValue();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw(new RuntimeException(e));
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw((RuntimeException) cause);
+			} else if(cause instanceof Error) {
+				throw((Error) cause);
+			};
+			throw(new RuntimeException(cause));
 		}
 	}
 	
-}
\ No newline at end of file
+}
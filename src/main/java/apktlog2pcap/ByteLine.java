@@ -0,0 +1,126 @@
+package apktlog2pcap;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * ByteLine object represents one log line as a slice (start and length) of a ByteBuffer
+ * holding the raw bytes of the log file, so lines can be parsed and copied into the
+ * output frames without decoding them into Strings and encoding them back.
+ *
+ * As a CharSequence, each byte is seen as one ISO-8859-1 character, so the character
+ * indexes are the same as the byte indexes within the line (which is all the parsers need,
+ * since the header lines are plain ASCII). The bytes themselves are copied untouched by
+ * copyTo(), whatever the charset of the log.
+ */
+public class ByteLine implements CharSequence {
+	/*
+	 * Instance variables
+	 */
+	private final ByteBuffer buffer;
+	private final int start;
+	private final int length;
+	private final long offset;
+	private final File file;
+
+	/**
+	 * Constructs the ByteLine
+	 *
+	 * @param	buffer	the buffer holding the line (its position and limit are not used)
+	 * @param	start	the index of the first byte of the line within the buffer
+	 * @param	length	the length of the line (line terminator excluded)
+	 * @param	offset	the offset of the line within the log file
+	 */
+	public ByteLine(ByteBuffer buffer, int start, int length, long offset) {
+		this(buffer, start, length, offset, null);
+	}
+
+	/**
+	 * Constructs the ByteLine
+	 *
+	 * @param	buffer	the buffer holding the line (its position and limit are not used)
+	 * @param	start	the index of the first byte of the line within the buffer
+	 * @param	length	the length of the line (line terminator excluded)
+	 * @param	offset	the offset of the line within the log file
+	 * @param	file	the log file (null if unknown)
+	 */
+	public ByteLine(ByteBuffer buffer, int start, int length, long offset, File file) {
+		this.buffer = buffer;
+		this.start = start;
+		this.length = length;
+		this.offset = offset;
+		this.file = file;
+	}
+
+	/**
+	 * Returns the offset of the line within the log file
+	 *
+	 * @return	the offset
+	 */
+	public long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * Returns the log file the line was read from
+	 *
+	 * @return	the log file (null if unknown)
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	public int length() {
+		return this.length;
+	}
+
+	public char charAt(int index) {
+		if((index < 0) || (index >= this.length)) {
+			throw(new IndexOutOfBoundsException(Integer.toString(index)));
+		};
+		return (char) (this.buffer.get(this.start + index) & 0xFF);
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		if((start < 0) || (end > this.length) || (start > end)) {
+			throw(new IndexOutOfBoundsException(Integer.toString(start) + "-" + Integer.toString(end)));
+		};
+		return new ByteLine(this.buffer, this.start + start, end - start, this.offset + start, this.file);
+	}
+
+	/**
+	 * Copies the bytes of the line into the given buffer
+	 *
+	 * @param	destination	the buffer the bytes are written to (at its current position)
+	 */
+	public void copyTo(ByteBuffer destination) {
+		this.copyTo(destination, 0);
+	}
+
+	/**
+	 * Copies the bytes of the line, from the given index on, into the given buffer
+	 *
+	 * @param	destination	the buffer the bytes are written to (at its current position)
+	 * @param	from		the index of the first byte to be copied
+	 */
+	public void copyTo(ByteBuffer destination, int from) {
+		ByteBuffer source = this.buffer.duplicate();
+		source.limit(this.start + this.length);
+		source.position(this.start + from);
+		destination.put(source);
+	}
+
+	/**
+	 * Returns the line as a String (decoding each byte as one ISO-8859-1 character)
+	 *
+	 * @return	the String
+	 */
+	public String toString() {
+		char[] chars = new char[this.length];
+		for(int i = 0; i < this.length; i++) {
+			chars[i] = (char) (this.buffer.get(this.start + i) & 0xFF);
+		};
+		return new String(chars);
+	}
+
+}
@@ -0,0 +1,17 @@
+package apktlog2pcap;
+
+import java.util.Iterator;
+
+/**
+ * ByteLineIterator object represents an iteration of the lines of a log file, returned as
+ * ByteLines, whatever the way the file is read (see AppCore.openLogFile())
+ */
+public interface ByteLineIterator extends Iterator<ByteLine> {
+
+	/**
+	 * Releases the resources held to read the file, so no more lines will be returned
+	 * (there is no need to invoke it once the iteration has been completed)
+	 */
+	public void close();
+
+}
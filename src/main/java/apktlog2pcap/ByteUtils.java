@@ -198,13 +198,7 @@ public class ByteUtils {
 	 * @return					the output byte array
 	 */
 	public static byte[] intToByteArray(int intValue, int byteArrayLength, boolean isLittleEndian) {
-		byte[] bytes;
-		String hexString = intToHexString(intValue, 2 * byteArrayLength);
-		if(isLittleEndian) {
-			hexString = reverseEndian(hexString);
-		};
-		bytes = hexStringToByteArray(hexString);;
-		return bytes;
+		return longToByteArray(((long) intValue) & 0xFFFFFFFFL, byteArrayLength, isLittleEndian);
 	};
 	
 	/**
@@ -216,12 +210,12 @@ public class ByteUtils {
 	 * @return					the output byte array
 	 */
 	public static byte[] longToByteArray(long longValue, int byteArrayLength, boolean littleEndian) {
-		byte[] bytes;
-		String hexString = longToHexString(longValue, 2 * byteArrayLength);
-		if(littleEndian) {
-			hexString = reverseEndian(hexString);
+		byte[] bytes = new byte[byteArrayLength];
+		int shift;
+		for(int i = 0; i < byteArrayLength; i++) {
+			shift = 8 * (littleEndian ? i : (byteArrayLength - 1 - i));
+			bytes[i] = (shift < 64) ? (byte) (longValue >>> shift) : (byte) 0;
 		};
-		bytes = hexStringToByteArray(hexString);;
 		return bytes;
 	};
 	
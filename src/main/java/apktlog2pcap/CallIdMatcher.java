@@ -0,0 +1,150 @@
+package apktlog2pcap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * CallIdMatcher object finds whether a text contains any of a set of Call-IDs, with an
+ * Aho-Corasick automaton: all the Call-IDs are looked for at once, in one pass over the
+ * text, so the cost of matching does not depend on how many Call-IDs there are (looking for
+ * the calls of a long list takes the same as looking for one single call).
+ *
+ * The automaton is built as a DFA (failure links are resolved when it is built, so each
+ * character takes one single transition), whose alphabet is reduced to the characters found
+ * in the Call-IDs plus one class for any other character, which keeps the transition table
+ * small. Characters are matched as bytes (ISO-8859-1, see ByteLine), case-sensitively, since
+ * so are Call-IDs compared.
+ */
+public class CallIdMatcher {
+
+	/*
+	 * Instance variables
+	 */
+	private final int[] classes; // the class of each byte value (0 for those not in any Call-ID)
+	private final int classCount;
+	private final int[] transitions; // the next state, for each state and class
+	private final boolean[] isFinal; // whether a state ends some Call-ID (found along the text matched so far)
+
+	/**
+	 * Constructs the CallIdMatcher
+	 *
+	 * @param	callIds	the Call-IDs to be looked for (empty ones are ignored)
+	 */
+	public CallIdMatcher(List<String> callIds) {
+		// The alphabet: classes of the bytes found in the Call-IDs
+		this.classes = new int[256];
+		int classCount = 1;
+		int stateCount = 1;
+		for(String callId: callIds) {
+			for(int i = 0; i < callId.length(); i++) {
+				int b = callId.charAt(i) & 0xFF;
+				if(this.classes[b] == 0) {
+					this.classes[b] = classCount++;
+				};
+			};
+			stateCount += callId.length();
+		};
+		this.classCount = classCount;
+		// The trie (transitions to 0 out of the root, and to -1 elsewhere, mean none yet)
+		int[] transitions = new int[stateCount * classCount];
+		boolean[] isFinal = new boolean[stateCount];
+		Arrays.fill(transitions, classCount, transitions.length, -1);
+		int states = 1;
+		int state;
+		int transition;
+		for(String callId: callIds) {
+			if(callId.length() == 0) {
+				continue;
+			};
+			state = 0;
+			for(int i = 0; i < callId.length(); i++) {
+				transition = state * classCount + this.classes[callId.charAt(i) & 0xFF];
+				if(transitions[transition] <= 0) {
+					transitions[transition] = states++;
+				};
+				state = transitions[transition];
+			};
+			isFinal[state] = true;
+		};
+		// The failure links, followed breadth-first so the missing transitions of each state
+		// are those of its failure state (which is shallower, so already resolved)
+		int[] failures = new int[states];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for(int c = 0; c < classCount; c++) {
+			if(transitions[c] > 0) {
+				failures[transitions[c]] = 0;
+				queue.add(transitions[c]);
+			};
+		};
+		int next;
+		while(!queue.isEmpty()) {
+			state = queue.removeFirst();
+			isFinal[state] = isFinal[state] || isFinal[failures[state]];
+			for(int c = 0; c < classCount; c++) {
+				next = transitions[state * classCount + c];
+				if(next < 0) {
+					transitions[state * classCount + c] = transitions[failures[state] * classCount + c];
+				} else {
+					failures[next] = transitions[failures[state] * classCount + c];
+					queue.add(next);
+				};
+			};
+		};
+		this.transitions = Arrays.copyOf(transitions, states * classCount);
+		this.isFinal = Arrays.copyOf(isFinal, states);
+	}
+
+	/**
+	 * Reads a list of Call-IDs, such as those given as options
+	 *
+	 * @param	text	the Call-IDs, separated by commas or line terminators (surrounding whitespace is ignored)
+	 * @return			the Call-IDs
+	 */
+	public static List<String> parseCallIds(String text) {
+		List<String> callIds = new ArrayList<String>();
+		for(String callId: text.split("[,\r\n]")) {
+			if(callId.trim().length() > 0) {
+				callIds.add(callId.trim());
+			};
+		};
+		return callIds;
+	}
+
+	/**
+	 * Tells whether a text contains any of the Call-IDs
+	 *
+	 * @param	text	the text
+	 * @return			whether any of the Call-IDs is found in the text
+	 */
+	public boolean matches(CharSequence text) {
+		int state = 0;
+		char c;
+		for(int i = 0; i < text.length(); i++) {
+			c = text.charAt(i);
+			state = this.transitions[state * this.classCount + ((c < 256) ? this.classes[c] : 0)];
+			if(this.isFinal[state]) {
+				return true;
+			};
+		};
+		return false;
+	}
+
+	/**
+	 * Tells whether any of a list of lines contains any of the Call-IDs
+	 * (Call-IDs are not looked for across lines)
+	 *
+	 * @param	lines	the lines
+	 * @return			whether any of the Call-IDs is found in the lines
+	 */
+	public boolean matches(List<CharSequence> lines) {
+		for(CharSequence line: lines) {
+			if(this.matches(line)) {
+				return true;
+			};
+		};
+		return false;
+	}
+
+}
@@ -1,7 +1,15 @@
 package apktlog2pcap;
 import java.util.List;
 import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.TimeZone;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import jfnlite.Fn;
 
 /**
@@ -14,11 +22,23 @@ public class Cli extends AppCore {
 	 */
 	public int retValue;
 	
+	/*
+	 * stream the text output is written to (the standard error if the PCAP file goes to the standard output)
+	 */
+	private PrintStream console;
+	
+	/*
+	 * length of the progress line shown at the bottom of the console (0 if none is shown)
+	 */
+	private int progressLength;
+	
 	/**
 	 * Constructs the Cli object and initializes its return value
 	 */
 	public Cli() {
 		this.retValue = 0;
+		this.console = System.out;
+		this.progressLength = 0;
 	}
 	
 	/**
@@ -26,8 +46,42 @@ public class Cli extends AppCore {
 	 *
 	 * @param	textOutput	the text to output
 	 */
-	private void consoleOutput(String textOutput){
-		System.out.println(textOutput);
+	private synchronized void consoleOutput(String textOutput){
+		if(this.progressLength > 0) {
+			this.console.print("\r" + spaces(this.progressLength) + "\r");
+			this.progressLength = 0;
+		};
+		this.console.println(textOutput);
+	}
+	
+	/**
+	 * Returns a string of spaces
+	 *
+	 * @param	length	the number of spaces
+	 * @return			the string
+	 */
+	private static String spaces(int length) {
+		StringBuilder spaces = new StringBuilder(length);
+		for(int i = 0; i < length; i++) {
+			spaces.append(' ');
+		};
+		return spaces.toString();
+	}
+	
+	/**
+	 * Handles Progress Event, updating one line at the bottom of the console (only when it is an
+	 * interactive terminal, so redirected output is not filled with progress lines)
+	 *
+	 * @param	progress	the progress of the run
+	 */
+	public synchronized void onProgress(ConversionProgress progress) {
+		if((System.console() == null) || (this.console != System.out)) {
+			return;
+		};
+		String line = progress.toString();
+		this.console.print("\r" + line + ((line.length() < this.progressLength) ? spaces(this.progressLength - line.length()) : ""));
+		this.console.flush();
+		this.progressLength = line.length();
 	}
 	
 	/**
@@ -48,6 +102,189 @@ public class Cli extends AppCore {
 		this.retValue = retValue;
 	}
 	
+	/**
+	 * Reads a (small) text file given in the command line, such as a list of Call-IDs
+	 *
+	 * @param	path	path to the file
+	 * @return			the contents of the file (read as ISO-8859-1, just like the log lines)
+	 * @throws	IllegalArgumentException	if the file cannot be read
+	 */
+	private static String readTextFile(String path) {
+		FileInputStream input = null;
+		try {
+			input = new FileInputStream(path);
+			ByteArrayOutputStream contents = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int length;
+			while((length = input.read(buffer)) > 0) {
+				contents.write(buffer, 0, length);
+			};
+			return new String(contents.toByteArray(), "ISO-8859-1");
+		} catch(IOException ioe) {
+			throw(new IllegalArgumentException("Failed to read " + path));
+		} finally {
+			if(input != null) {
+				try{ input.close(); } catch(IOException ioe) {};
+			};
+		}
+	}
+
+	/**
+	 * Parses a time given in the command line, as "yyyy-MM-dd HH:mm:ss" (optionally followed by
+	 * ".SSS") in the given time zone
+	 *
+	 * @param	value		the time
+	 * @param	timeZone	the time zone
+	 * @return				the epoch time (milliseconds)
+	 * @throws	IllegalArgumentException	if the time is not valid
+	 */
+	static long parseTime(String value, TimeZone timeZone) {
+		String[] patterns = { "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss" };
+		for(String pattern: patterns) {
+			SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
+			dateFormat.setTimeZone(timeZone);
+			dateFormat.setLenient(false);
+			ParsePosition position = new ParsePosition(0);
+			Date date = dateFormat.parse(value, position);
+			if((date != null) && (position.getIndex() == value.length())) {
+				return date.getTime();
+			};
+		};
+		throw(new IllegalArgumentException("Invalid time " + value + " (expected yyyy-MM-dd HH:mm:ss)"));
+	}
+
+	/**
+	 * Parses the leading "--name value" options of the command line into the given ConversionOptions
+	 *
+	 * @param	args	arguments
+	 * @param	options	the ConversionOptions to be filled in
+	 * @return			the remaining arguments
+	 * @throws	IllegalArgumentException	if an option is unknown or has an invalid value
+	 */
+	private static String[] parseOptions(String[] args, ConversionOptions options) {
+		int index = 0;
+		String name;
+		String value;
+		String fromValue = null;
+		String toValue = null;
+		while((index < args.length) && args[index].startsWith("--")) {
+			name = args[index];
+			if(index + 1 >= args.length) {
+				throw(new IllegalArgumentException("Missing value for option " + name));
+			};
+			value = args[index + 1];
+			if(name.equals("--timezone")) {
+				options.timeZone = TimeZone.getTimeZone(value);
+				if(options.timeZone.getID().equals("GMT") && !value.startsWith("GMT")) {
+					throw(new IllegalArgumentException("Unknown time zone " + value));
+				};
+			} else if(name.equals("--threads")) {
+				try {
+					options.threads = Integer.parseInt(value);
+				} catch(NumberFormatException e) {
+					options.threads = 0;
+				};
+				if(options.threads < 1) {
+					throw(new IllegalArgumentException("Invalid number of threads " + value));
+				};
+			} else if(name.equals("--quiet-timeout")) {
+				try {
+					options.followQuietTimeout = Long.parseLong(value);
+				} catch(NumberFormatException e) {
+					options.followQuietTimeout = -1;
+				};
+				if(options.followQuietTimeout < 0) {
+					throw(new IllegalArgumentException("Invalid quiet timeout " + value));
+				};
+			} else if(name.equals("--flow-idle-timeout")) {
+				try {
+					options.flowIdleTimeout = 1000L * Long.parseLong(value);
+				} catch(NumberFormatException e) {
+					options.flowIdleTimeout = -1;
+				};
+				if(options.flowIdleTimeout < 0) {
+					throw(new IllegalArgumentException("Invalid flow idle timeout " + value));
+				};
+			} else if(name.equals("--from")) {
+				fromValue = value;
+			} else if(name.equals("--to")) {
+				toValue = value;
+			} else if(name.equals("--format")) {
+				if(!value.equals("pcap") && !value.equals("pcapng")) {
+					throw(new IllegalArgumentException("Unknown output format " + value));
+				};
+				options.pcapng = value.equals("pcapng");
+			} else if(name.equals("--packet-comments")) {
+				if(!value.equals("yes") && !value.equals("no")) {
+					throw(new IllegalArgumentException("Invalid packet comments setting " + value + " (expected yes or no)"));
+				};
+				options.packetComments = value.equals("yes");
+			} else if(name.equals("--index")) {
+				if(!value.equals("yes") && !value.equals("no")) {
+					throw(new IllegalArgumentException("Invalid index setting " + value + " (expected yes or no)"));
+				};
+				options.index = value.equals("yes");
+			} else if(name.equals("--call-ids")) {
+				options.callIds.addAll(CallIdMatcher.parseCallIds(value));
+			} else if(name.equals("--call-id-file")) {
+				options.callIds.addAll(CallIdMatcher.parseCallIds(readTextFile(value)));
+			} else if(name.equals("--related-dialogs")) {
+				if(!value.equals("yes") && !value.equals("no")) {
+					throw(new IllegalArgumentException("Invalid related dialogs setting " + value + " (expected yes or no)"));
+				};
+				options.relatedDialogs = value.equals("yes");
+			} else if(name.equals("--preallocate")) {
+				if(!value.equals("yes") && !value.equals("no")) {
+					throw(new IllegalArgumentException("Invalid preallocation setting " + value + " (expected yes or no)"));
+				};
+				options.preallocate = value.equals("yes");
+			} else if(name.equals("--rotate-size")) {
+				try {
+					options.rotateSize = 1024L * 1024 * Long.parseLong(value);
+				} catch(NumberFormatException e) {
+					options.rotateSize = -1;
+				};
+				if(options.rotateSize < 0) {
+					throw(new IllegalArgumentException("Invalid rotation size " + value));
+				};
+			} else if(name.equals("--rotate-duration")) {
+				try {
+					options.rotateDuration = 1000L * Long.parseLong(value);
+				} catch(NumberFormatException e) {
+					options.rotateDuration = -1;
+				};
+				if(options.rotateDuration < 0) {
+					throw(new IllegalArgumentException("Invalid rotation duration " + value));
+				};
+			} else if(name.equals("--rotate-frames")) {
+				try {
+					options.rotateFrames = Long.parseLong(value);
+				} catch(NumberFormatException e) {
+					options.rotateFrames = -1;
+				};
+				if(options.rotateFrames < 0) {
+					throw(new IllegalArgumentException("Invalid rotation frame count " + value));
+				};
+			} else {
+				throw(new IllegalArgumentException("Unknown option " + name));
+			};
+			index = index + 2;
+		};
+		// Times are parsed once all the options are known, since they are given in the time zone of the logs
+		if(fromValue != null) {
+			options.fromTime = parseTime(fromValue, options.timeZone);
+		};
+		if(toValue != null) {
+			options.toTime = parseTime(toValue, options.timeZone);
+		};
+		if(options.fromTime > options.toTime) {
+			throw(new IllegalArgumentException("The --from time is later than the --to one"));
+		};
+		String[] remainingArgs = new String[args.length - index];
+		System.arraycopy(args, index, remainingArgs, 0, remainingArgs.length);
+		return remainingArgs;
+	}
+	
 	/**
 	 * Main method
 	 *
@@ -61,9 +298,42 @@ public class Cli extends AppCore {
 		"\r\n" +
 		"    apktlog2pcap -f <input_file> <output_file>" + "\r\n" +
 		"\r\n" +
+		"    (<output_file> can be - for the standard output, or a named pipe, e.g. to be read by tshark -r -)" + "\r\n" +
+		"\r\n" +
 		"Usage 2 (converts the sipmsg files from the input directory into PCAP files in the output directory):" + "\r\n" +
 		"\r\n" +
-		"    apktlog2pcap -d <input_directory> <output_directory>" + "\r\n";
+		"    apktlog2pcap -d <input_directory> <output_directory>" + "\r\n" +
+		"\r\n" +
+		"Usage 3 (follows the input log file as it grows, appending its frames to the output PCAP file; a restart" + "\r\n" +
+		"resumes from the checkpoint file, which defaults to <output_file>.checkpoint):" + "\r\n" +
+		"\r\n" +
+		"    apktlog2pcap -t <input_file> <output_file> [<checkpoint_file>]" + "\r\n" +
+		"\r\n" +
+		"Usage 4 (merges the frames of all the log files from the input directory into one PCAP file, in time order):" + "\r\n" +
+		"\r\n" +
+		"    apktlog2pcap -m <input_directory> <output_file>" + "\r\n" +
+		"\r\n" +
+		"Options (to be placed before the usage arguments):" + "\r\n" +
+		"\r\n" +
+		"    --timezone <id>          time zone in which the SBC wrote the logs (e.g. UTC, Europe/Madrid)" + "\r\n" +
+		"    --threads <n>            threads used to convert log files (1 disables parallel conversion)" + "\r\n" +
+		"    --quiet-timeout <ms>     time with no new lines after which a followed log frame is complete" + "\r\n" +
+		"    --flow-idle-timeout <s>  seconds after which an idle TCP/SCTP flow restarts its sequence numbers (0 means never)" + "\r\n" +
+		"    --from <time>            converts just the frames from this time on (\"yyyy-MM-dd HH:mm:ss\", in the time zone of the logs)" + "\r\n" +
+		"    --to <time>              converts just the frames up to this time (same format as --from; not for usage 3)" + "\r\n" +
+		"    --format <pcap|pcapng>   output file format (pcapng gets one interface per SBC interface and VLAN; not for usage 3)" + "\r\n" +
+		"    --packet-comments <yes|no>  whether each pcapng packet tells the log file and offset it comes from" + "\r\n" +
+		"    --index <yes|no>         whether .idx index files are kept next to the logs, so later conversions of" + "\r\n" +
+		"                             time ranges or calls just read the frames they need (not for usage 3)" + "\r\n" +
+		"    --call-ids <id,...>      converts just the frames of the calls whose Call-ID contains any of these (SIP" + "\r\n" +
+		"                             messages), and the log events mentioning them (not for usage 3)" + "\r\n" +
+		"    --call-id-file <file>    same as --call-ids, reading the Call-IDs (one per line) from a file" + "\r\n" +
+		"    --related-dialogs <yes|no>  whether the dialogs replacing or replaced by those calls (transfers) are converted too" + "\r\n" +
+		"    --rotate-size <MB>       splits each output file into numbered shards of at most this size, listed with" + "\r\n" +
+		"                             their time ranges in <output_file>.manifest (not for usage 3 or streaming outputs)" + "\r\n" +
+		"    --rotate-duration <s>    same as --rotate-size, each shard spanning at most this many seconds" + "\r\n" +
+		"    --rotate-frames <n>      same as --rotate-size, each shard holding at most this many frames" + "\r\n" +
+		"    --preallocate <yes|no>   whether output files are preallocated to their expected size before being written" + "\r\n";
 		
 		List<File> logFilesList = null;
 		ArrayList<String> logFilePathList = null;
@@ -82,6 +352,13 @@ public class Cli extends AppCore {
 		 * Processing command line args
 		 * I wonder why java standard library does not include an implementation for this...
 		 */
+		try {
+			args = parseOptions(args, cli.options);
+		} catch(IllegalArgumentException e) {
+			cli.consoleOutput(e.getMessage());
+			cli.consoleOutput(HELP_STRING);
+			System.exit(1);
+		};
 		if(args.length > 0) {
 			option = args[0];
 			if(option == "-h") {
@@ -90,25 +367,54 @@ public class Cli extends AppCore {
 			} else if((option.equals("-f")) && (args.length == 3)) {
 				inputFilePath = args[1];
 				outputFilePath = args[2];
+				if(outputFilePath.equals(Cli.STDOUT_PATH)) {
+					cli.console = System.err;
+				};
 				logFilesList = new ArrayList<File>();
 				logFilesList.add(new File(inputFilePath));
 				cli.processLogFiles(logFilesList, outputFilePath, true, false);
+			} else if((option.equals("-t")) && ((args.length == 3) || (args.length == 4))) {
+				inputFilePath = args[1];
+				outputFilePath = args[2];
+				String checkpointFilePath = null;
+				if(args.length == 4) {
+					checkpointFilePath = args[3];
+				} else if(!Cli.isStreamingOutput(outputFilePath)) {
+					checkpointFilePath = outputFilePath + ".checkpoint";
+				};
+				if(outputFilePath.equals(Cli.STDOUT_PATH)) {
+					cli.console = System.err;
+				};
+				if(cli.options.pcapng) {
+					cli.consoleOutput("Following a log file only writes PCAP files (--format pcapng is not supported with -t)");
+					System.exit(1);
+				};
+				if(cli.isTimeRange() || !cli.options.callIds.isEmpty()) {
+					cli.consoleOutput("Following a log file converts all of it (--from, --to and --call-ids are not supported with -t)");
+					System.exit(1);
+				};
+				if((cli.options.rotateSize > 0) || (cli.options.rotateDuration > 0) || (cli.options.rotateFrames > 0)) {
+					cli.consoleOutput("Following a log file appends to one single PCAP file (--rotate-size, --rotate-duration and --rotate-frames are not supported with -t)");
+					System.exit(1);
+				};
+				cli.followLogFile(new File(inputFilePath), outputFilePath, checkpointFilePath);
+			} else if((option.equals("-m")) && (args.length == 3)) {
+				inputDirPath = args[1];
+				outputFilePath = args[2];
+				if(outputFilePath.equals(Cli.STDOUT_PATH)) {
+					cli.console = System.err;
+				};
+				cli.processMergedLogFiles(Cli.getDirectoryJobs(inputDirPath, null), outputFilePath);
 			} else if((option.equals("-d")) && (args.length == 3)) {
 				inputDirPath = args[1];
 				outputDirPath = args[2];
-				cli.processLogFiles(Cli.getLogFiles(inputDirPath, "sipmsg.log"), outputDirPath + "/sipmsg.log.pcap", true, false);
-				cli.processLogFiles(Cli.getLogFiles(inputDirPath, "log.sipd"), outputDirPath + "/log.sipd.pcap", false, false);
-				cli.processLogFiles(Cli.getLogFiles(inputDirPath, "log.algd"), outputDirPath + "/log.algd.pcap", false, false);
-				cli.processLogFiles(Cli.getLogFiles(inputDirPath, "log.mbcd"), outputDirPath + "/log.mbcd.pcap", false, true);
+				cli.processLogFiles(Cli.getDirectoryJobs(inputDirPath, outputDirPath, cli.options.pcapng ? ".pcapng" : ".pcap"));
 			} else {
 				cli.consoleOutput(HELP_STRING);
 				cli.retValue = 1;
 			};
 		} else {
-			cli.processLogFiles(Cli.getLogFiles(".", "sipmsg.log"), "sipmsg.log.pcap", true, false);
-			cli.processLogFiles(Cli.getLogFiles(".", "log.sipd"), "log.sipd.pcap", false, false);
-			cli.processLogFiles(Cli.getLogFiles(".", "log.algd"), "log.algd.pcap", false, false);
-			cli.processLogFiles(Cli.getLogFiles(".", "log.mbcd"), "log.mbcd.pcap", false, true);
+			cli.processLogFiles(Cli.getDirectoryJobs(".", null, cli.options.pcapng ? ".pcapng" : ".pcap"));
 		};
 		System.exit(cli.retValue);
 	}
@@ -0,0 +1,42 @@
+package apktlog2pcap;
+
+import java.io.File;
+
+/**
+ * ConversionJob object describes one conversion to be run by AppCore: a set of log files
+ * of the same type to be converted into one PCAP file
+ */
+public class ConversionJob {
+	/*
+	 * Instance variables
+	 */
+	public final Iterable<File> logFiles;
+	public final String logType;
+	public final String outputPcapFilePath;
+
+	/**
+	 * Constructs the ConversionJob
+	 *
+	 * @param	logFiles			iterable of log files (already sorted, see AppCore.sortLogFiles())
+	 * @param	logType				the log type of the files (one of ApktLog.LOGTYPES)
+	 * @param	outputPcapFilePath	path to the output file
+	 */
+	public ConversionJob(Iterable<File> logFiles, String logType, String outputPcapFilePath) {
+		this.logFiles = logFiles;
+		this.logType = logType;
+		this.outputPcapFilePath = outputPcapFilePath;
+	}
+
+	/**
+	 * Returns the total size of the log files
+	 *
+	 * @return	the size in bytes
+	 */
+	public long getTotalLength() {
+		long totalLength = 0;
+		for(File file: this.logFiles) {
+			totalLength += file.length();
+		};
+		return totalLength;
+	}
+}
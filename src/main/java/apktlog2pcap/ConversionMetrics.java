@@ -0,0 +1,488 @@
+package apktlog2pcap;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * ConversionMetrics object counts what one conversion goes through, stage by stage: the lines
+ * and bytes read, the header lines parsed (and the lines looking like header lines which could
+ * not be parsed), the frames written per LogFrame type and per transport protocol, the bytes
+ * written, and the time spent reading, parsing, encoding and writing.
+ *
+ * The stages record their work on Recorders, each one of them used by a single thread and with
+ * plain counters, so the hot path pays no synchronization at all. Recorders publish what they
+ * have counted into the ConversionMetrics every PUBLISH_INTERVAL frames (and when the stage is
+ * over), so the figures seen through JMX (see ConversionMetricsMXBean and register()) lag a
+ * little behind.
+ *
+ * Since calling System.nanoTime() for each line would cost about as much as reading it, the
+ * read time is measured on one line out of READ_SAMPLING only, and scaled up. The parse time is
+ * the time taken to get the LogFrames (whose lines are read on the way) minus the read time.
+ * Stage times are wall-clock times: when a ParallelConverter is used, they are summed over all
+ * its threads, so they can add up to more than the elapsed time (and with more threads than
+ * processors they include the time threads spend waiting for one).
+ */
+public class ConversionMetrics implements ConversionMetricsMXBean {
+
+	/** Prefix of the ObjectNames the ConversionMetrics are registered with (followed by the quoted output file path). */
+	public static final String OBJECT_NAME_PREFIX = "apktlog2pcap:type=Conversion,name=";
+
+	/** LogFrame types the frames are counted per. */
+	public static final String[] FRAME_TYPES = {ApktLog.LOGFRAMETYPE_SIPMSG_SIP, ApktLog.LOGFRAMETYPE_SIPMSG_LOG, ApktLog.LOGFRAMETYPE_SIPD_LOG, ApktLog.LOGFRAMETYPE_MBCD_LOG, ApktLog.LOGFRAMETYPE_ALGD_LOG};
+
+	/** Transport protocols the network messages are counted per. */
+	public static final String[] TRANSPORTS = {ApktLog.TRANSPORT_UDP, ApktLog.TRANSPORT_TCP, ApktLog.TRANSPORT_SCTP};
+
+	private static final int READ_SAMPLING = 16; // one line out of READ_SAMPLING is timed (a power of two)
+	private static final int PUBLISH_INTERVAL = 4096; // frames after which a Recorder publishes its counters
+	private static final double MEGABYTE = 1024.0 * 1024;
+	private static final int MAX_FAILURE_SAMPLES = 10; // lines failing to be parsed kept for the report
+	private static final int MAX_FAILURE_SAMPLE_LENGTH = 200; // characters of those lines kept
+	private static final long NANO_TIME_COST = getNanoTimeCost(); // added to each timed read by System.nanoTime() itself
+
+	/*
+	 * Instance variables
+	 */
+	private final String outputFilePath;
+	private final long startTime; // System.nanoTime()
+	private volatile long endTime; // System.nanoTime(), 0 while the conversion goes on
+	private final AtomicLong linesRead = new AtomicLong();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong headerLines = new AtomicLong();
+	private final AtomicLong parseFailures = new AtomicLong();
+	private final List<String> failureSamples = new ArrayList<String>(); // guarded by itself
+	private final AtomicLongArray framesPerType = new AtomicLongArray(FRAME_TYPES.length);
+	private final AtomicLongArray framesPerTransport = new AtomicLongArray(TRANSPORTS.length);
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong readNanos = new AtomicLong();
+	private final AtomicLong fetchNanos = new AtomicLong(); // reading and parsing
+	private final AtomicLong encodeNanos = new AtomicLong();
+	private final AtomicLong writeNanos = new AtomicLong();
+	private ObjectName objectName;
+
+	/**
+	 * Constructs the ConversionMetrics of a conversion which is starting right now
+	 *
+	 * @param	outputFilePath	path to the output file of the conversion
+	 */
+	public ConversionMetrics(String outputFilePath) {
+		this.outputFilePath = outputFilePath;
+		this.startTime = System.nanoTime();
+		this.endTime = 0;
+		this.objectName = null;
+	}
+
+	/**
+	 * Recorder object counts the work done by one thread of the conversion, publishing it into
+	 * its ConversionMetrics from time to time (it must not be shared between threads)
+	 */
+	public class Recorder {
+		/*
+		 * Instance variables
+		 */
+		private long linesRead = 0;
+		private long bytesRead = 0;
+		private long headerLines = 0;
+		private long parseFailures = 0;
+		private final List<String> failureSamples = new ArrayList<String>();
+		private int failureSampleCounter = 0; // lines failing to be parsed sampled so far, published or not
+		private final long[] framesPerType = new long[FRAME_TYPES.length];
+		private final long[] framesPerTransport = new long[TRANSPORTS.length];
+		private long outputLength = -1; // length of the output file so far (-1 if this thread does not write it)
+		private long readNanos = 0;
+		private long fetchNanos = 0;
+		private long encodeNanos = 0;
+		private long writeNanos = 0;
+		private final boolean isAutoPublished;
+		private int pendingFrames = 0;
+		private int sampling = 0;
+
+		/**
+		 * Constructs the Recorder
+		 *
+		 * @param	isAutoPublished	whether the counters are published every PUBLISH_INTERVAL frames (otherwise
+		 * 							they are only published by publish(), so the work can be discarded)
+		 */
+		private Recorder(boolean isAutoPublished) {
+			this.isAutoPublished = isAutoPublished;
+		}
+
+		/**
+		 * Reads the next line of a log, counting it (and timing the read, if it is sampled)
+		 *
+		 * @param	lines	the iterator of lines
+		 * @return			the next line, or null if there are no more
+		 */
+		public CharSequence readLine(Iterator<? extends CharSequence> lines) {
+			CharSequence line;
+			if((++this.sampling & (READ_SAMPLING - 1)) == 0) {
+				long start = System.nanoTime();
+				line = lines.hasNext() ? lines.next() : null;
+				this.readNanos += Math.max(0, System.nanoTime() - start - NANO_TIME_COST) * READ_SAMPLING;
+			} else {
+				line = lines.hasNext() ? lines.next() : null;
+			};
+			if(line != null) {
+				this.linesRead++;
+				this.bytesRead += line.length() + 1; // Line terminators are taken as one byte long
+			};
+			return line;
+		}
+
+		/**
+		 * Counts a header line, either parsed or looking like one but failing to be parsed (the first
+		 * MAX_FAILURE_SAMPLES of which are kept for the report, rather than printed as they come, so
+		 * malformed logs cannot flood the output nor slow the conversion down)
+		 *
+		 * @param	line		the header line
+		 * @param	isParsed	whether the header line has been parsed
+		 */
+		public void headerLine(CharSequence line, boolean isParsed) {
+			if(isParsed) {
+				this.headerLines++;
+			} else {
+				this.parseFailures++;
+				if(this.failureSampleCounter < MAX_FAILURE_SAMPLES) {
+					this.failureSampleCounter++;
+					this.failureSamples.add((line.length() > MAX_FAILURE_SAMPLE_LENGTH) ? line.subSequence(0, MAX_FAILURE_SAMPLE_LENGTH) + "..." : line.toString());
+				};
+			};
+		}
+
+		/**
+		 * Adds the time taken to get a LogFrame (reading and parsing its lines)
+		 *
+		 * @param	start	the System.nanoTime() when the stage started
+		 * @return			the System.nanoTime() now (so the next stage can start from it)
+		 */
+		public long parsed(long start) {
+			long now = System.nanoTime();
+			this.fetchNanos += now - start;
+			return now;
+		}
+
+		/**
+		 * Adds the time taken to encode PCAP frames
+		 *
+		 * @param	start	the System.nanoTime() when the stage started
+		 * @return			the System.nanoTime() now
+		 */
+		public long encoded(long start) {
+			long now = System.nanoTime();
+			this.encodeNanos += now - start;
+			return now;
+		}
+
+		/**
+		 * Adds the time taken to write PCAP frames into the output file
+		 *
+		 * @param	start			the System.nanoTime() when the stage started
+		 * @param	outputLength	the length of the output file so far (see PcapOutput.getLength())
+		 * @return					the System.nanoTime() now
+		 */
+		public long written(long start, long outputLength) {
+			long now = System.nanoTime();
+			this.writeNanos += now - start;
+			this.outputLength = outputLength;
+			return now;
+		}
+
+		/**
+		 * Counts a LogFrame converted into a PCAP frame, publishing the counters every PUBLISH_INTERVAL frames
+		 *
+		 * @param	logFrame	the LogFrame
+		 */
+		public void frame(ApktLog.LogFrame logFrame) {
+			String logFrameType = logFrame.getParsedHeaderLine().logFrameType;
+			for(int i = 0; i < FRAME_TYPES.length; i++) {
+				if(FRAME_TYPES[i].equals(logFrameType)) {
+					this.framesPerType[i]++;
+					break;
+				};
+			};
+			if(logFrameType.equals(ApktLog.LOGFRAMETYPE_SIPMSG_SIP)) {
+				String transportProtocol = logFrame.getTransportProtocol();
+				for(int i = 0; i < TRANSPORTS.length; i++) {
+					if(TRANSPORTS[i] == transportProtocol) {
+						this.framesPerTransport[i]++;
+						break;
+					};
+				};
+			};
+			if(this.isAutoPublished && (++this.pendingFrames >= PUBLISH_INTERVAL)) {
+				this.publish();
+			};
+		}
+
+		/**
+		 * Adds the counters into the ConversionMetrics, and resets them
+		 */
+		public void publish() {
+			ConversionMetrics metrics = ConversionMetrics.this;
+			metrics.linesRead.addAndGet(this.linesRead);
+			metrics.bytesRead.addAndGet(this.bytesRead);
+			metrics.headerLines.addAndGet(this.headerLines);
+			metrics.parseFailures.addAndGet(this.parseFailures);
+			if(this.failureSamples.size() > 0) {
+				synchronized(metrics.failureSamples) {
+					for(String failureSample: this.failureSamples) {
+						if(metrics.failureSamples.size() < MAX_FAILURE_SAMPLES) {
+							metrics.failureSamples.add(failureSample);
+						};
+					};
+				};
+				this.failureSamples.clear();
+			};
+			for(int i = 0; i < FRAME_TYPES.length; i++) {
+				metrics.framesPerType.addAndGet(i, this.framesPerType[i]);
+				this.framesPerType[i] = 0;
+			};
+			for(int i = 0; i < TRANSPORTS.length; i++) {
+				metrics.framesPerTransport.addAndGet(i, this.framesPerTransport[i]);
+				this.framesPerTransport[i] = 0;
+			};
+			if(this.outputLength >= 0) {
+				metrics.bytesWritten.set(this.outputLength);
+			};
+			metrics.readNanos.addAndGet(this.readNanos);
+			metrics.fetchNanos.addAndGet(this.fetchNanos);
+			metrics.encodeNanos.addAndGet(this.encodeNanos);
+			metrics.writeNanos.addAndGet(this.writeNanos);
+			this.linesRead = 0;
+			this.bytesRead = 0;
+			this.headerLines = 0;
+			this.parseFailures = 0;
+			this.readNanos = 0;
+			this.fetchNanos = 0;
+			this.encodeNanos = 0;
+			this.writeNanos = 0;
+			this.pendingFrames = 0;
+		}
+	}
+
+	/**
+	 * Measures the time System.nanoTime() takes to return, which is not to be taken as read time
+	 *
+	 * @return	the time in nanoseconds
+	 */
+	private static long getNanoTimeCost() {
+		long cost = Long.MAX_VALUE;
+		long start;
+		for(int i = 0; i < 1000; i++) {
+			start = System.nanoTime();
+			cost = Math.min(cost, System.nanoTime() - start);
+		};
+		return cost;
+	}
+
+	/**
+	 * Creates a new Recorder, for a thread of the conversion, publishing its counters every PUBLISH_INTERVAL frames
+	 *
+	 * @return	the Recorder
+	 */
+	public Recorder newRecorder() {
+		return new Recorder(true);
+	}
+
+	/**
+	 * Creates a new Recorder whose counters are only published when publish() is invoked (e.g. once
+	 * the piece of work it counts is known not to be discarded; it can be invoked from another thread
+	 * then, as long as the Recorder is no longer used by the thread which counted it)
+	 *
+	 * @return	the Recorder
+	 */
+	public Recorder newDeferredRecorder() {
+		return new Recorder(false);
+	}
+
+	/**
+	 * Registers the ConversionMetrics in the platform MBeanServer (if it cannot be registered,
+	 * e.g. because another conversion into the same file is running, it is just not published)
+	 */
+	public void register() {
+		try {
+			ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(this.outputFilePath));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch(JMException e) {
+			// Metrics are not worth failing the conversion
+		} catch(SecurityException e) {
+			// Metrics are not worth failing the conversion
+		}
+	}
+
+	/**
+	 * Marks the conversion as over, unregistering the ConversionMetrics from the platform MBeanServer
+	 */
+	public void finish() {
+		this.endTime = System.nanoTime();
+		if(this.objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+			} catch(JMException e) {
+				// Already gone
+			};
+			this.objectName = null;
+		};
+	}
+
+	public String getOutputFilePath() {
+		return this.outputFilePath;
+	}
+
+	public long getLinesRead() {
+		return this.linesRead.get();
+	}
+
+	public long getBytesRead() {
+		return this.bytesRead.get();
+	}
+
+	public long getHeaderLines() {
+		return this.headerLines.get();
+	}
+
+	public long getParseFailures() {
+		return this.parseFailures.get();
+	}
+
+	public long getFrames() {
+		long frames = 0;
+		for(int i = 0; i < FRAME_TYPES.length; i++) {
+			frames += this.framesPerType.get(i);
+		};
+		return frames;
+	}
+
+	public Map<String,Long> getFramesPerType() {
+		Map<String,Long> frames = new LinkedHashMap<String,Long>();
+		for(int i = 0; i < FRAME_TYPES.length; i++) {
+			frames.put(FRAME_TYPES[i], Long.valueOf(this.framesPerType.get(i)));
+		};
+		return frames;
+	}
+
+	public Map<String,Long> getFramesPerTransport() {
+		Map<String,Long> frames = new LinkedHashMap<String,Long>();
+		for(int i = 0; i < TRANSPORTS.length; i++) {
+			frames.put(TRANSPORTS[i], Long.valueOf(this.framesPerTransport.get(i)));
+		};
+		return frames;
+	}
+
+	public long getBytesWritten() {
+		return this.bytesWritten.get();
+	}
+
+	public long getReadTime() {
+		return this.readNanos.get() / 1000000;
+	}
+
+	public long getParseTime() {
+		return Math.max(0, this.fetchNanos.get() - this.readNanos.get()) / 1000000;
+	}
+
+	public long getEncodeTime() {
+		return this.encodeNanos.get() / 1000000;
+	}
+
+	public long getWriteTime() {
+		return this.writeNanos.get() / 1000000;
+	}
+
+	public long getElapsedTime() {
+		long endTime = this.endTime;
+		return (((endTime != 0) ? endTime : System.nanoTime()) - this.startTime) / 1000000;
+	}
+
+	public double getMegabytesPerSecond() {
+		return this.getBytesRead() / MEGABYTE * 1000 / Math.max(1, this.getElapsedTime());
+	}
+
+	public double getFramesPerSecond() {
+		return this.getFrames() * 1000.0 / Math.max(1, this.getElapsedTime());
+	}
+
+	public long getPeakHeapUsage() {
+		return getPeakHeap();
+	}
+
+	/**
+	 * Returns the peak heap usage since the JVM started, or since resetPeakHeap() was last invoked
+	 * (the sum of the peaks of the heap memory pools, so it may be a little above the actual peak)
+	 *
+	 * @return	the peak heap usage in bytes
+	 */
+	public static long getPeakHeap() {
+		long peakHeap = 0;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			};
+		};
+		return peakHeap;
+	}
+
+	/**
+	 * Resets the peak heap usage to the current one, so a new run gets its own peak
+	 */
+	public static void resetPeakHeap() {
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			};
+		};
+	}
+
+	/**
+	 * Returns the end-of-run report: throughput, frames per type and transport, and time per stage
+	 *
+	 * @return	the lines of the report
+	 */
+	public List<String> getReport() {
+		List<String> report = new ArrayList<String>();
+		long elapsedTime = Math.max(1, this.getElapsedTime());
+		report.add(String.format(Locale.ROOT, "Read %.1f MB (%d lines, %d header lines, %d parse failures)",
+			this.getBytesRead() / MEGABYTE, this.getLinesRead(), this.getHeaderLines(), this.getParseFailures()));
+		StringBuilder frames = new StringBuilder("Wrote " + Long.toString(this.getFrames()) + " frames");
+		String separator = " (";
+		for(int i = 0; i < FRAME_TYPES.length; i++) {
+			if(this.framesPerType.get(i) > 0) {
+				frames.append(separator).append(FRAME_TYPES[i]).append(' ').append(this.framesPerType.get(i));
+				separator = ", ";
+			};
+		};
+		for(int i = 0; i < TRANSPORTS.length; i++) {
+			if(this.framesPerTransport.get(i) > 0) {
+				frames.append(separator).append(TRANSPORTS[i]).append(' ').append(this.framesPerTransport.get(i));
+				separator = ", ";
+			};
+		};
+		frames.append(separator.equals(", ") ? ")" : "");
+		frames.append(String.format(Locale.ROOT, ", %.1f MB", this.getBytesWritten() / MEGABYTE));
+		report.add(frames.toString());
+		report.add(String.format(Locale.ROOT, "Took %.3f s (%.1f MB/s, %.0f frames/s, peak heap %d MB)",
+			elapsedTime / 1000.0, this.getMegabytesPerSecond(), this.getFramesPerSecond(), getPeakHeap() / (1024 * 1024)));
+		report.add(String.format(Locale.ROOT, "Stage times: read %.3f s, parse %.3f s, encode %.3f s, write %.3f s",
+			this.getReadTime() / 1000.0, this.getParseTime() / 1000.0, this.getEncodeTime() / 1000.0, this.getWriteTime() / 1000.0));
+		synchronized(this.failureSamples) {
+			if(this.failureSamples.size() > 0) {
+				report.add("Parse failures (first " + Integer.toString(this.failureSamples.size()) + " of " + Long.toString(this.getParseFailures()) + "):");
+				report.addAll(this.failureSamples);
+			};
+		};
+		return report;
+	}
+
+}
@@ -0,0 +1,47 @@
+package apktlog2pcap;
+
+import java.util.Map;
+
+/**
+ * ConversionMetricsMXBean interface is the management interface of ConversionMetrics, which is
+ * registered in the platform MBeanServer while a conversion runs (so it can be watched with
+ * jconsole, VisualVM or any other JMX client), under ConversionMetrics.OBJECT_NAME_PREFIX plus
+ * the path of the output file. Times are given in milliseconds.
+ */
+public interface ConversionMetricsMXBean {
+
+	public String getOutputFilePath();
+
+	public long getLinesRead();
+
+	public long getBytesRead();
+
+	public long getHeaderLines();
+
+	public long getParseFailures();
+
+	public long getFrames();
+
+	public Map<String,Long> getFramesPerType();
+
+	public Map<String,Long> getFramesPerTransport();
+
+	public long getBytesWritten();
+
+	public long getReadTime();
+
+	public long getParseTime();
+
+	public long getEncodeTime();
+
+	public long getWriteTime();
+
+	public long getElapsedTime();
+
+	public double getMegabytesPerSecond();
+
+	public double getFramesPerSecond();
+
+	public long getPeakHeapUsage();
+
+}
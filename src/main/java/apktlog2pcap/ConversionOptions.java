@@ -0,0 +1,34 @@
+package apktlog2pcap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * ConversionOptions object holds the settings that tune how AppCore converts the log files
+ * (every field takes a default value, so user interfaces just need to set those the user
+ * has explicitly chosen)
+ */
+public class ConversionOptions {
+	/*
+	 * Instance variables
+	 */
+	public TimeZone timeZone = TimeZone.getDefault(); // time zone in which the SBC wrote the logs
+	public int threads = Runtime.getRuntime().availableProcessors(); // threads converting big logs (1 means no ParallelConverter)
+	public long chunkSize = 16L * 1024 * 1024; // approximate size of the pieces big logs are split into (bytes)
+	public long followPollInterval = 250; // time between two checks for new lines of a followed log (milliseconds)
+	public long followQuietTimeout = 1000; // time with no new lines after which the last frame of a followed log is complete (milliseconds)
+	public long checkpointInterval = 10000; // time between two checkpoints of a followed log with no pauses (milliseconds)
+	public long flowIdleTimeout = 0; // time after which an idle TCP/SCTP flow restarts its sequence numbers (milliseconds, 0 means never)
+	public long fromTime = Long.MIN_VALUE; // start of the time range to be converted (epoch milliseconds, Long.MIN_VALUE means none)
+	public long toTime = Long.MAX_VALUE; // end of the time range to be converted (epoch milliseconds, Long.MAX_VALUE means none)
+	public boolean pcapng = false; // whether the output files are pcapng ones rather than classic PCAP ones (not for followed logs)
+	public boolean packetComments = false; // whether each pcapng packet gets a comment with the log file and offset it comes from
+	public List<String> callIds = new ArrayList<String>(); // Call-IDs of the calls to be converted (empty means all of them)
+	public boolean relatedDialogs = false; // whether the dialogs related to those calls (e.g. by transfers) are converted too
+	public boolean index = false; // whether LogIndexes of the (uncompressed) log files are built and used to read just the frames converted
+	public long rotateSize = 0; // size after which the output file goes on in a new shard (bytes, 0 means none; see PcapOutput)
+	public long rotateDuration = 0; // time span after which the output file goes on in a new shard (milliseconds, 0 means none)
+	public long rotateFrames = 0; // number of frames after which the output file goes on in a new shard (0 means none)
+	public boolean preallocate = false; // whether output files are preallocated to their expected length (truncated once written)
+}
@@ -0,0 +1,161 @@
+package apktlog2pcap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ConversionProgress object tells how far a run of AppCore (one or more conversions) has got,
+ * out of the bytes of log lines read so far (see ConversionMetrics.getBytesRead()) against those
+ * of all the log files to be converted (see AppCore.getLogLength()), so it moves on steadily
+ * even for a single multi-GB file. The throughput and the time left are estimated from the
+ * average rate since the run started.
+ *
+ * Conversions reading just a part of their files (e.g. time ranges) jump ahead when they are
+ * over, since all their bytes are taken as done then. Since lines are counted with a one byte
+ * long terminator, files with CRLF terminators lag a little behind until then too.
+ */
+public class ConversionProgress {
+
+	private static final double MEGABYTE = 1024.0 * 1024;
+	private static final long MIN_ETA_TIME = 1000; // time before the time left is estimated (milliseconds)
+
+	/*
+	 * Instance variables
+	 */
+	private final long startTime; // System.nanoTime()
+	private long totalBytes;
+	private long completedBytes; // bytes of the conversions already over
+	private final List<ConversionMetrics> conversions; // conversions going on
+
+	/**
+	 * Constructs the ConversionProgress of a run which is starting right now
+	 */
+	public ConversionProgress() {
+		this.startTime = System.nanoTime();
+		this.totalBytes = 0;
+		this.completedBytes = 0;
+		this.conversions = new ArrayList<ConversionMetrics>();
+	}
+
+	/**
+	 * Adds log files to be converted by the run
+	 *
+	 * @param	bytes	the length of their log lines
+	 */
+	public synchronized void addTotalBytes(long bytes) {
+		this.totalBytes += bytes;
+	}
+
+	/**
+	 * Tells that a conversion has started
+	 *
+	 * @param	metrics	the ConversionMetrics of the conversion
+	 */
+	public synchronized void start(ConversionMetrics metrics) {
+		this.conversions.add(metrics);
+	}
+
+	/**
+	 * Tells that a conversion is over (whether it succeeded or not)
+	 *
+	 * @param	metrics	the ConversionMetrics of the conversion
+	 * @param	bytes	the length of the log lines of its files (all of them are taken as done)
+	 */
+	public synchronized void finish(ConversionMetrics metrics, long bytes) {
+		if(this.conversions.remove(metrics)) {
+			this.completedBytes += bytes;
+		};
+	}
+
+	/**
+	 * Returns the bytes of log lines of all the log files to be converted
+	 *
+	 * @return	the length in bytes
+	 */
+	public synchronized long getTotalBytes() {
+		return this.totalBytes;
+	}
+
+	/**
+	 * Returns the bytes of log lines converted so far
+	 *
+	 * @return	the length in bytes (never above getTotalBytes())
+	 */
+	public synchronized long getBytesDone() {
+		long bytesDone = this.completedBytes;
+		for(ConversionMetrics metrics: this.conversions) {
+			bytesDone += metrics.getBytesRead();
+		};
+		return Math.min(bytesDone, this.totalBytes);
+	}
+
+	/**
+	 * Returns the time since the run started
+	 *
+	 * @return	the time in milliseconds
+	 */
+	public long getElapsedTime() {
+		return (System.nanoTime() - this.startTime) / 1000000;
+	}
+
+	/**
+	 * Returns how far the run has got
+	 *
+	 * @return	the percentage (0 to 100)
+	 */
+	public int getPercent() {
+		long totalBytes = this.getTotalBytes();
+		return (totalBytes > 0) ? (int) (100 * this.getBytesDone() / totalBytes) : 0;
+	}
+
+	/**
+	 * Returns the average throughput of the run so far
+	 *
+	 * @return	the throughput in megabytes of log lines per second
+	 */
+	public double getMegabytesPerSecond() {
+		return this.getBytesDone() / MEGABYTE * 1000 / Math.max(1, this.getElapsedTime());
+	}
+
+	/**
+	 * Returns the estimated time left, at the average throughput so far
+	 *
+	 * @return	the time in milliseconds, or -1 if it cannot be estimated yet
+	 */
+	public long getRemainingTime() {
+		long elapsedTime = this.getElapsedTime();
+		long bytesDone = this.getBytesDone();
+		if((elapsedTime < MIN_ETA_TIME) || (bytesDone <= 0)) {
+			return -1;
+		};
+		return (long) ((double) (this.getTotalBytes() - bytesDone) * elapsedTime / bytesDone);
+	}
+
+	/**
+	 * Formats a time as minutes and seconds (or hours, minutes and seconds)
+	 *
+	 * @param	time	the time in milliseconds
+	 * @return			the formatted time (e.g. "2:05" or "1:02:05")
+	 */
+	private static String formatTime(long time) {
+		long seconds = (time + 999) / 1000;
+		if(seconds >= 3600) {
+			return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+		};
+		return String.format(Locale.ROOT, "%d:%02d", seconds / 60, seconds % 60);
+	}
+
+	/**
+	 * Returns the progress as one line of text
+	 *
+	 * @return	the progress (e.g. "42% (420.0 of 1000.0 MB) at 105.2 MB/s, 0:06 left")
+	 */
+	public String toString() {
+		long remainingTime = this.getRemainingTime();
+		return String.format(Locale.ROOT, "%d%% (%.1f of %.1f MB) at %.1f MB/s, %s left",
+			this.getPercent(), this.getBytesDone() / MEGABYTE, this.getTotalBytes() / MEGABYTE, this.getMegabytesPerSecond(),
+			(remainingTime >= 0) ? formatTime(remainingTime) : "?");
+	}
+
+}
@@ -0,0 +1,152 @@
+package apktlog2pcap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.io.File;
+
+/**
+ * Wireshark extcap interface for apktlog2pcap
+ *
+ * Wireshark runs the executables found in its extcap directory to get extra capture
+ * interfaces (see the extcap documentation of Wireshark). A wrapper script invoking this
+ * class (such as apktlog2pcap-extcap.bat) makes each SBC log type show up as a capture
+ * interface, whose "capture" is the conversion of the log files of a directory into the
+ * named pipe Wireshark reads from, so frames are dissected while the conversion goes on.
+ *
+ * The text output is only written (to the standard error, which Wireshark shows to the
+ * user) if the conversion fails, since the standard output belongs to the extcap protocol.
+ */
+public class Extcap extends AppCore {
+
+	private static final String INTERFACE_PREFIX = "apktlog2pcap-";
+
+	/*
+	 * return value element
+	 */
+	public int retValue;
+
+	/*
+	 * text output, held until we know whether the conversion failed
+	 */
+	private List<String> textOutputs;
+
+	/**
+	 * Constructs the Extcap object and initializes its return value
+	 */
+	public Extcap() {
+		this.retValue = 0;
+		this.textOutputs = new ArrayList<String>();
+	}
+
+	/**
+	 * Handles Text Output Event
+	 *
+	 * @param	textOutput	the text to output
+	 */
+	public void onTextOutput(String textOutput) {
+		this.textOutputs.add(textOutput);
+	}
+
+	/**
+	 * Handles onFinish event
+	 *
+	 * @param	retValue	the return value
+	 */
+	public void onFinish(int retValue) {
+		this.retValue = retValue;
+		if(retValue != 0) {
+			for(String textOutput: this.textOutputs) {
+				System.err.println(textOutput);
+			};
+		};
+	}
+
+	/**
+	 * Parses the extcap command line, whose options come either as "--name value" or as
+	 * "--name=value" (flags such as --capture have no value)
+	 *
+	 * @param	args	arguments
+	 * @return			the map of option names (including the leading dashes) to values (empty for flags)
+	 */
+	private static HashMap<String,String> parseArgs(String[] args) {
+		HashMap<String,String> argMap = new HashMap<String,String>();
+		int index = 0;
+		String name;
+		String value;
+		while(index < args.length) {
+			name = args[index];
+			value = "";
+			if(name.contains("=")) {
+				value = name.substring(name.indexOf('=') + 1);
+				name = name.substring(0, name.indexOf('='));
+			} else if((index + 1 < args.length) && !args[index + 1].startsWith("--")) {
+				index++;
+				value = args[index];
+			};
+			argMap.put(name, value);
+			index++;
+		};
+		return argMap;
+	}
+
+	/**
+	 * Gets the log type of an extcap interface
+	 *
+	 * @param	extcapInterface	the name of the interface
+	 * @return					the log type (one of ApktLog.LOGTYPES), or null if the interface is not ours
+	 */
+	private static String getInterfaceLogType(String extcapInterface) {
+		for(String logType: ApktLog.LOGTYPES) {
+			if((INTERFACE_PREFIX + logType).equals(extcapInterface)) {
+				return logType;
+			};
+		};
+		return null;
+	}
+
+	/**
+	 * Main method
+	 *
+	 * @param	args	arguments
+	 */
+	public static void main(String[] args) {
+		HashMap<String,String> argMap = parseArgs(args);
+		String logType = getInterfaceLogType(argMap.get("--extcap-interface"));
+		Extcap extcap = new Extcap();
+
+		if(argMap.containsKey("--extcap-interfaces")) {
+			System.out.println("extcap {version=" + Extcap.BUILD + "}{help=https://github.com/fran-ovia/apktlog2pcap}");
+			for(String type: ApktLog.LOGTYPES) {
+				System.out.println("interface {value=" + INTERFACE_PREFIX + type + "}{display=Oracle SBC log (" + type + ")}");
+			};
+		} else if(logType == null) {
+			System.err.println("Unknown extcap interface " + argMap.get("--extcap-interface"));
+			extcap.retValue = 1;
+		} else if(argMap.containsKey("--extcap-dlts")) {
+			System.out.println("dlt {number=" + Pcap.LINKTYPE_ETHERNET + "}{name=EN10MB}{display=Ethernet}");
+		} else if(argMap.containsKey("--extcap-config")) {
+			System.out.println("arg {number=0}{call=--logdir}{display=Log directory}{type=string}{required=true}{tooltip=Directory holding the " + logType + " files}");
+			System.out.println("arg {number=1}{call=--timezone}{display=Time zone}{type=string}{tooltip=Time zone in which the SBC wrote the logs (e.g. UTC, Europe/Madrid)}");
+		} else if(argMap.containsKey("--capture") && argMap.containsKey("--fifo")) {
+			String logDirPath = argMap.containsKey("--logdir") ? argMap.get("--logdir") : ".";
+			if(argMap.containsKey("--timezone") && (argMap.get("--timezone").length() > 0)) {
+				extcap.options.timeZone = TimeZone.getTimeZone(argMap.get("--timezone"));
+			};
+			List<File> logFiles = (new File(logDirPath)).isDirectory() ? Extcap.getLogFiles(logDirPath, logType) : new ArrayList<File>();
+			if(logFiles.size() > 0) {
+				List<ConversionJob> jobs = new ArrayList<ConversionJob>();
+				jobs.add(new ConversionJob(logFiles, logType, argMap.get("--fifo")));
+				extcap.processLogFiles(jobs);
+			} else {
+				System.err.println("No " + logType + " files found in " + logDirPath);
+				extcap.retValue = 1;
+			};
+		} else {
+			System.err.println("Nothing to do (expected --extcap-dlts, --extcap-config or --capture --fifo <path>)");
+			extcap.retValue = 1;
+		};
+		System.exit(extcap.retValue);
+	}
+
+}
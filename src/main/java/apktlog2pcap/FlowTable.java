@@ -0,0 +1,251 @@
+package apktlog2pcap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * FlowTable object is a hash map from flow keys to long values, with no objects per entry:
+ * keys (a fixed number of longs each, such as packed IP addresses and ports), values and
+ * last-seen times are stored in primitive arrays, and collisions are resolved by linear probing.
+ *
+ * Optionally, flows can expire: an entry not updated for longer than the idle timeout (as
+ * measured by the times given by the caller, usually the timestamps of the frames) is taken
+ * as absent, and it is dropped when the table is rehashed, so a table used over days of logs
+ * does not grow beyond the number of flows active at the same time.
+ *
+ * FlowTable objects are not thread-safe.
+ */
+public class FlowTable {
+
+	private static final int MIN_CAPACITY = 64;
+
+	/*
+	 * Instance variables
+	 */
+	private final int keyWidth;
+	private final long idleTimeout;
+	private int capacity;
+	private int mask;
+	private int size;
+	private boolean[] used;
+	private long[] keys;
+	private long[] values;
+	private long[] lastSeen;
+
+	/**
+	 * Constructs a FlowTable whose flows never expire
+	 *
+	 * @param	keyWidth	the number of longs making up each key
+	 */
+	public FlowTable(int keyWidth) {
+		this(keyWidth, 0);
+	}
+
+	/**
+	 * Constructs a FlowTable
+	 *
+	 * @param	keyWidth	the number of longs making up each key
+	 * @param	idleTimeout	the time after which a flow not updated expires (0 means never)
+	 */
+	public FlowTable(int keyWidth, long idleTimeout) {
+		this.keyWidth = keyWidth;
+		this.idleTimeout = idleTimeout;
+		this.allocate(MIN_CAPACITY);
+	}
+
+	/**
+	 * Returns the number of entries in the table (expired entries not dropped yet included)
+	 *
+	 * @return	the number of entries
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Removes all the entries
+	 */
+	public void clear() {
+		this.allocate(MIN_CAPACITY);
+	}
+
+	/**
+	 * Returns the value of a flow
+	 *
+	 * @param	key				the key of the flow (keyWidth longs)
+	 * @param	time			the current time
+	 * @param	defaultValue	the value to be returned if the flow is absent or expired
+	 * @return					the value
+	 */
+	public long get(long[] key, long time, long defaultValue) {
+		int index = this.indexOf(key);
+		return ((index >= 0) && this.isAlive(index, time)) ? this.values[index] : defaultValue;
+	}
+
+	/**
+	 * Sets the value of a flow, which is then considered seen at the given time
+	 *
+	 * @param	key		the key of the flow (keyWidth longs)
+	 * @param	value	the value
+	 * @param	time	the current time
+	 */
+	public void put(long[] key, long value, long time) {
+		int index = this.indexOf(key);
+		if(index < 0) {
+			index = -1 - index;
+			this.used[index] = true;
+			System.arraycopy(key, 0, this.keys, index * this.keyWidth, this.keyWidth);
+			this.size++;
+		};
+		this.values[index] = value;
+		this.lastSeen[index] = time;
+		if(2 * this.size > this.capacity) {
+			this.rehash(time);
+		};
+	}
+
+	/**
+	 * Marks a flow as seen at the given time, unless it is absent or expired
+	 *
+	 * @param	key		the key of the flow (keyWidth longs)
+	 * @param	time	the current time
+	 */
+	public void touch(long[] key, long time) {
+		int index = this.indexOf(key);
+		if((index >= 0) && this.isAlive(index, time)) {
+			this.lastSeen[index] = time;
+		};
+	}
+
+	/**
+	 * Writes the entries of the table (so it can be restored with readFrom())
+	 *
+	 * @param	output	the output the entries are written to
+	 * @throws	IOException	if they cannot be written
+	 */
+	public void writeTo(DataOutput output) throws IOException {
+		output.writeInt(this.keyWidth);
+		output.writeInt(this.size);
+		for(int i = 0; i < this.capacity; i++) {
+			if(this.used[i]) {
+				for(int j = 0; j < this.keyWidth; j++) {
+					output.writeLong(this.keys[i * this.keyWidth + j]);
+				};
+				output.writeLong(this.values[i]);
+				output.writeLong(this.lastSeen[i]);
+			};
+		};
+	}
+
+	/**
+	 * Replaces the entries of the table with those written by writeTo()
+	 *
+	 * @param	input	the input the entries are read from
+	 * @throws	IOException	if they cannot be read, or they were written by a table with another key width
+	 */
+	public void readFrom(DataInput input) throws IOException {
+		if(input.readInt() != this.keyWidth) {
+			throw(new IOException("Flow key width mismatch"));
+		};
+		int count = input.readInt();
+		long[] key = new long[this.keyWidth];
+		long value;
+		this.clear();
+		for(int i = 0; i < count; i++) {
+			for(int j = 0; j < this.keyWidth; j++) {
+				key[j] = input.readLong();
+			};
+			value = input.readLong();
+			this.put(key, value, input.readLong());
+		};
+	}
+
+	private boolean isAlive(int index, long time) {
+		return (this.idleTimeout <= 0) || (time - this.lastSeen[index] <= this.idleTimeout);
+	}
+
+	/**
+	 * Looks for a key
+	 *
+	 * @param	key	the key
+	 * @return		the index of its entry, or (-1 - index) of the free slot where it would be inserted
+	 */
+	private int indexOf(long[] key) {
+		int index = hash(key, this.keyWidth) & this.mask;
+		while(this.used[index]) {
+			if(this.keyEquals(index, key)) {
+				return index;
+			};
+			index = (index + 1) & this.mask;
+		};
+		return -1 - index;
+	}
+
+	private boolean keyEquals(int index, long[] key) {
+		int offset = index * this.keyWidth;
+		for(int i = 0; i < this.keyWidth; i++) {
+			if(this.keys[offset + i] != key[i]) {
+				return false;
+			};
+		};
+		return true;
+	}
+
+	private static int hash(long[] key, int keyWidth) {
+		long hash = 0;
+		for(int i = 0; i < keyWidth; i++) {
+			hash = (hash ^ key[i]) * 0x9E3779B97F4A7C15L;
+			hash ^= (hash >>> 32);
+		};
+		return (int) hash;
+	}
+
+	/**
+	 * Rebuilds the table dropping the expired entries, and growing it only if the
+	 * entries still alive need it
+	 *
+	 * @param	time	the current time
+	 */
+	private void rehash(long time) {
+		boolean[] oldUsed = this.used;
+		long[] oldKeys = this.keys;
+		long[] oldValues = this.values;
+		long[] oldLastSeen = this.lastSeen;
+		int aliveCount = 0;
+		for(int i = 0; i < oldUsed.length; i++) {
+			if(oldUsed[i] && this.isAlive(i, time)) {
+				aliveCount++;
+			};
+		};
+		int newCapacity = MIN_CAPACITY;
+		while(4 * aliveCount > newCapacity) {
+			newCapacity = 2 * newCapacity;
+		};
+		this.allocate(newCapacity);
+		long[] key = new long[this.keyWidth];
+		int index;
+		for(int i = 0; i < oldUsed.length; i++) {
+			if(oldUsed[i] && ((this.idleTimeout <= 0) || (time - oldLastSeen[i] <= this.idleTimeout))) {
+				System.arraycopy(oldKeys, i * this.keyWidth, key, 0, this.keyWidth);
+				index = -1 - this.indexOf(key);
+				this.used[index] = true;
+				System.arraycopy(key, 0, this.keys, index * this.keyWidth, this.keyWidth);
+				this.values[index] = oldValues[i];
+				this.lastSeen[index] = oldLastSeen[i];
+				this.size++;
+			};
+		};
+	}
+
+	private void allocate(int capacity) {
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.size = 0;
+		this.used = new boolean[capacity];
+		this.keys = new long[capacity * this.keyWidth];
+		this.values = new long[capacity];
+		this.lastSeen = new long[capacity];
+	}
+
+}
@@ -0,0 +1,335 @@
+package apktlog2pcap;
+
+import jfnlite.Fn;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.lang.UnsupportedOperationException;
+
+/**
+ * FollowLineIterator object represents an iteration of the lines of a log file which is
+ * still being written (just like tail -f does), that is, one round of a LogFollower.
+ *
+ * Once the lines available have been returned, it keeps polling the file for new ones, and
+ * the round (the iteration) only ends when either:
+ *     - No new lines have been written for the quiet timeout, so the last LogFrame can be
+ *       taken as complete
+ *     - The round has lasted for longer than its duration and the next line is a boundary
+ *       (usually a header line), so the LogFrames of the round are complete
+ *     - The file has been rotated, that is, renamed (and a new one created at its path) or
+ *       truncated, once the lines written to the old one have been returned
+ *     - The thread has been interrupted (with the interrupt flag set again)
+ *
+ * Only terminated lines are returned, so getPosition() always tells the offset the next round
+ * has to start at. Like GzipLineIterator, buffers are never overwritten, so the ByteLines
+ * returned stay valid as long as they are referenced.
+ */
+public class FollowLineIterator implements ByteLineIterator {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int SIGNATURE_LENGTH = 64;
+
+	/*
+	 * Instance variables
+	 */
+	private final File file;
+	private final long pollInterval;
+	private final long quietTimeout;
+	private final long roundDuration;
+	private final Fn.Predicate<CharSequence> isBoundary;
+	private final long roundStartTime;
+	private FileChannel channel;
+	private byte[] signature;
+	private byte[] bytes;
+	private ByteBuffer buffer;
+	private long bufferOffset;
+	private int bufferLimit;
+	private int position;
+	private long lastDataTime;
+	private boolean isEnded;
+	private boolean isRotated;
+	private ByteLine cachedNext;
+
+	/**
+	 * Constructs the FollowLineIterator
+	 *
+	 * @param	file			the log file
+	 * @param	start			the offset the round starts at (at the beginning of a line)
+	 * @param	pollInterval	the time between two checks for new lines (milliseconds)
+	 * @param	quietTimeout	the time with no new lines after which the round ends (milliseconds)
+	 * @param	roundDuration	the time after which the round ends at the next boundary line (milliseconds)
+	 * @param	isBoundary		Predicate telling whether a line is a boundary one (usually a header line)
+	 */
+	public FollowLineIterator(File file, long start, long pollInterval, long quietTimeout, long roundDuration, Fn.Predicate<CharSequence> isBoundary) {
+		this.file = file;
+		this.pollInterval = pollInterval;
+		this.quietTimeout = quietTimeout;
+		this.roundDuration = roundDuration;
+		this.isBoundary = isBoundary;
+		try {
+			this.channel = (new FileInputStream(file)).getChannel();
+			this.signature = readSignature(this.channel);
+		} catch(IOException ioe) {
+			this.channel = null;
+			throw(new RuntimeException("Failed to open " + this.file.getPath(), ioe));
+		};
+		this.bytes = new byte[0];
+		this.buffer = ByteBuffer.wrap(this.bytes);
+		this.bufferOffset = start;
+		this.bufferLimit = 0;
+		this.position = 0;
+		this.roundStartTime = System.currentTimeMillis();
+		this.lastDataTime = this.roundStartTime;
+		this.isEnded = false;
+		this.isRotated = false;
+		this.cachedNext = null;
+	}
+
+	/**
+	 * Reads the signature of a log file, that is, its first bytes (which tell a file from
+	 * the one replacing it after a rotation)
+	 *
+	 * @param	channel	the channel of the file
+	 * @return			the first SIGNATURE_LENGTH bytes (or the whole file if it is shorter)
+	 */
+	private static byte[] readSignature(FileChannel channel) throws IOException {
+		ByteBuffer signature = ByteBuffer.allocate((int) Math.min(SIGNATURE_LENGTH, channel.size()));
+		while(signature.hasRemaining() && (channel.read(signature, signature.position()) >= 0)) {};
+		return Arrays.copyOf(signature.array(), signature.position());
+	}
+
+	/**
+	 * Reads the signature of a log file
+	 *
+	 * @param	file	the log file
+	 * @return			its signature, or null if it cannot be read (e.g. it does not exist right now)
+	 */
+	public static byte[] readSignature(File file) {
+		FileInputStream inputStream = null;
+		try {
+			inputStream = new FileInputStream(file);
+			return readSignature(inputStream.getChannel());
+		} catch(IOException ioe) {
+			return null;
+		} finally {
+			if(inputStream != null) {
+				try{ inputStream.close(); } catch(IOException ioe) {};
+			};
+		}
+	}
+
+	/**
+	 * Tells whether two signatures may belong to the same file (one being the beginning of the other,
+	 * since the file may have grown in between)
+	 *
+	 * @param	signature1	a signature
+	 * @param	signature2	another signature
+	 * @return				whether they match
+	 */
+	public static boolean isSameSignature(byte[] signature1, byte[] signature2) {
+		int length = Math.min(signature1.length, signature2.length);
+		for(int i = 0; i < length; i++) {
+			if(signature1[i] != signature2[i]) {
+				return false;
+			};
+		};
+		return true;
+	}
+
+	/**
+	 * Returns the offset the next round has to start at (the one following the last line returned,
+	 * or the one of the boundary line the round ended at)
+	 *
+	 * @return	the offset
+	 */
+	public long getPosition() {
+		return this.bufferOffset + this.position;
+	}
+
+	/**
+	 * Returns the signature of the file being followed (see readSignature())
+	 *
+	 * @return	the signature
+	 */
+	public byte[] getSignature() {
+		return this.signature;
+	}
+
+	/**
+	 * Tells whether the round ended because the file was rotated (so the next round has to start
+	 * at the beginning of the new file)
+	 *
+	 * @return	whether the file was rotated
+	 */
+	public boolean isRotated() {
+		return this.isRotated;
+	}
+
+	/**
+	 * Closes the underlying channel, so no more lines will be returned
+	 */
+	public void close() {
+		if(this.channel != null) {
+			try{ this.channel.close(); } catch(IOException ioe) {};
+			this.channel = null;
+		};
+		this.isEnded = true;
+		this.cachedNext = null;
+	}
+
+	/**
+	 * Reads the bytes appended to the file since the last read, after the unread bytes of the buffer
+	 * (into the free room of the current buffer if there is enough, or else into a new one)
+	 *
+	 * @return	whether new bytes have been read
+	 */
+	private boolean readMore() throws IOException {
+		long readOffset = this.bufferOffset + this.bufferLimit;
+		long available = this.channel.size() - readOffset;
+		if(available <= 0) {
+			return false;
+		};
+		if(this.bufferLimit == this.bytes.length) {
+			int remaining = this.bufferLimit - this.position;
+			byte[] bytes = new byte[Math.max(BUFFER_SIZE, 2 * remaining)];
+			System.arraycopy(this.bytes, this.position, bytes, 0, remaining);
+			this.bytes = bytes;
+			this.buffer = ByteBuffer.wrap(bytes);
+			this.bufferOffset += this.position;
+			this.bufferLimit = remaining;
+			this.position = 0;
+		};
+		ByteBuffer target = ByteBuffer.wrap(this.bytes, this.bufferLimit, (int) Math.min(available, this.bytes.length - this.bufferLimit));
+		int count = this.channel.read(target, readOffset);
+		if(count <= 0) {
+			return false;
+		};
+		this.bufferLimit += count;
+		return true;
+	}
+
+	/**
+	 * Checks whether the file has been rotated: either truncated (it is now smaller than what
+	 * we have read of it) or replaced by another one (whose signature is not ours)
+	 *
+	 * @return	whether the file has been rotated
+	 */
+	private boolean checkRotation() throws IOException {
+		long readOffset = this.bufferOffset + this.bufferLimit;
+		if(this.channel.size() < readOffset) {
+			return true;
+		};
+		if(this.signature.length < SIGNATURE_LENGTH) {
+			this.signature = readSignature(this.channel);
+		};
+		RandomAccessFile currentFile = null;
+		try {
+			currentFile = new RandomAccessFile(this.file, "r");
+			if(currentFile.length() < readOffset) {
+				return true;
+			};
+			byte[] currentSignature = readSignature(currentFile.getChannel());
+			return !isSameSignature(this.signature, currentSignature);
+		} catch(IOException ioe) {
+			return false; // No file at the path right now (e.g. it has just been renamed), so we keep waiting
+		} finally {
+			if(currentFile != null) {
+				try{ currentFile.close(); } catch(IOException ioe) {};
+			};
+		}
+	}
+
+	private ByteLine getNext() {
+		ByteLine next = null;
+		if(this.cachedNext != null) {
+			next = this.cachedNext; // We get the value cached at a previous invocaton of hasNext() method
+			this.cachedNext = null; // We consume the cached one so it won't be available in next read
+		} else if(!this.isEnded) {
+			try {
+				while(next == null) {
+					int lineStart = this.position;
+					int index = lineStart;
+					byte b = 0;
+					while(index < this.bufferLimit) {
+						b = this.bytes[index];
+						if((b == '\n') || (b == '\r')) {
+							break;
+						};
+						index++;
+					};
+					if((index < this.bufferLimit) && ((b == '\n') || (index + 1 < this.bufferLimit))) {
+						// Terminated line (a CR at the end of the buffer is only taken if we know what comes next)
+						next = new ByteLine(this.buffer, lineStart, index - lineStart, this.bufferOffset + lineStart, this.file);
+						if((System.currentTimeMillis() - this.roundStartTime >= this.roundDuration) && this.isBoundary.test(next)) {
+							// The round is over, and the next one starts at this line
+							this.isEnded = true;
+							return null;
+						};
+						index++;
+						if((b == '\r') && (this.bytes[index] == '\n')) {
+							index++;
+						};
+						this.position = index;
+					} else if(this.readMore()) {
+						this.lastDataTime = System.currentTimeMillis();
+					} else if(this.checkRotation()) {
+						this.isRotated = true;
+						this.isEnded = true;
+						return null;
+					} else if(System.currentTimeMillis() - this.lastDataTime >= this.quietTimeout) {
+						this.isEnded = true;
+						return null;
+					} else {
+						Thread.sleep(this.pollInterval);
+					};
+				};
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				this.isEnded = true;
+			} catch(IOException ioe) {
+				this.close();
+				throw(new RuntimeException("IOException while reading " + this.file.getPath(), ioe));
+			};
+		};
+		return next;
+	}
+
+	/**
+	 * Returns true if the iteration has more elements.
+	 * (In other words, returns true if next would return an element rather than throwing an exception.)
+	 *
+	 * @return	whether the iteration has more elements
+	 */
+	public boolean hasNext() {
+		this.cachedNext = this.getNext();
+		return (this.cachedNext != null);
+	}
+
+	/**
+	 * Returns the next element in the iteration.
+	 *
+	 * @return	the next element in the iteration.
+	 */
+	public ByteLine next() {
+		ByteLine next = this.getNext();
+		if(next == null) {
+			throw(new NoSuchElementException());
+		};
+		return next;
+	}
+
+	/**
+	 * Removes from the underlying collection the last element returned by the iterator (optional operation). This method can be called only once per call to next.
+	 * The behavior of an iterator is unspecified if the underlying collection is modified while the iteration is in progress in any way other than by calling this method.
+	 *
+	 */
+	public void remove() {
+		throw(new UnsupportedOperationException());
+	}
+
+}
@@ -0,0 +1,266 @@
+package apktlog2pcap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.lang.UnsupportedOperationException;
+
+/**
+ * FrameFilter object restricts a conversion to some of the LogFrames:
+ *     - Those within a time range: the LogFrames before the range start are dropped, and so are
+ *       all of them from the first one after the range end on (the log files are in time order,
+ *       so that is where the range is over)
+ *     - Those of some calls, given their Call-IDs: SIP messages whose Call-ID contains any of
+ *       them, and log events whose text does (see CallIdMatcher). Optionally, the dialogs related
+ *       to those calls are followed too: once a SIP message of a wanted call refers to another
+ *       dialog (as in transfers, see ApktLog.extractRelatedCallId()), or one referring to a wanted
+ *       call is found, the Call-ID of the other dialog is wanted too from then on (along the
+ *       whole set of log files, rotations included)
+ *
+ * The same restriction can be applied either to the LogFrames themselves, once parsed (see
+ * filter()), or to the entries of the LogIndexes of the log files (see select()), so just the
+ * LogFrames selected need to be read and parsed at all. Either way, LogFrames are rejected
+ * before being encoded into PCAP frames.
+ *
+ * Following related dialogs makes the FrameFilter stateful (see isStateful()), so it has to see
+ * the LogFrames in order, in one single thread.
+ */
+public class FrameFilter {
+
+	/*
+	 * Instance variables
+	 */
+	private final long fromTime;
+	private final long toTime;
+	private final CallIdMatcher callIdMatcher; // null if the LogFrames are not filtered by Call-ID
+	private final boolean isFollowingRelatedDialogs;
+	private final Set<String> relatedCallIds;
+
+	/**
+	 * Constructs the FrameFilter
+	 *
+	 * @param	fromTime	the start of the time range (epoch milliseconds, Long.MIN_VALUE means none)
+	 * @param	toTime		the end of the time range (epoch milliseconds, Long.MAX_VALUE means none)
+	 */
+	public FrameFilter(long fromTime, long toTime) {
+		this(fromTime, toTime, Collections.<String>emptyList(), false);
+	}
+
+	/**
+	 * Constructs the FrameFilter
+	 *
+	 * @param	fromTime					the start of the time range (epoch milliseconds, Long.MIN_VALUE means none)
+	 * @param	toTime						the end of the time range (epoch milliseconds, Long.MAX_VALUE means none)
+	 * @param	callIds						the Call-IDs of the calls wanted (empty means all of them)
+	 * @param	isFollowingRelatedDialogs	whether the dialogs related to the calls wanted are wanted too
+	 */
+	public FrameFilter(long fromTime, long toTime, List<String> callIds, boolean isFollowingRelatedDialogs) {
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+		this.callIdMatcher = callIds.isEmpty() ? null : new CallIdMatcher(callIds);
+		this.isFollowingRelatedDialogs = isFollowingRelatedDialogs && !callIds.isEmpty();
+		this.relatedCallIds = new HashSet<String>();
+	}
+
+	/**
+	 * Constructs the FrameFilter of the conversions run with the given options
+	 *
+	 * @param	options	the conversion options
+	 */
+	public FrameFilter(ConversionOptions options) {
+		this(options.fromTime, options.toTime, options.callIds, options.relatedDialogs);
+	}
+
+	/**
+	 * Tells whether the FrameFilter drops any LogFrame at all
+	 *
+	 * @return	whether the conversion is restricted
+	 */
+	public boolean isRestricted() {
+		return (this.fromTime != Long.MIN_VALUE) || (this.toTime != Long.MAX_VALUE) || (this.callIdMatcher != null);
+	}
+
+	/**
+	 * Tells whether the FrameFilter keeps track of the LogFrames it has seen (the related dialogs
+	 * found so far), so it has to see all of them in order
+	 *
+	 * @return	whether the FrameFilter is stateful
+	 */
+	public boolean isStateful() {
+		return this.isFollowingRelatedDialogs;
+	}
+
+	/**
+	 * Tells whether a Call-ID is that of a related dialog found so far
+	 *
+	 * @param	callId	the Call-ID
+	 * @return			whether it is wanted as a related dialog
+	 */
+	private boolean isRelated(CharSequence callId) {
+		return !this.relatedCallIds.isEmpty() && this.relatedCallIds.contains(callId.toString());
+	}
+
+	/**
+	 * Tells whether a SIP message is wanted, out of its Call-ID and that of the dialog it refers to,
+	 * keeping track of the related dialogs found
+	 *
+	 * @param	callId				the Call-ID of the SIP message
+	 * @param	isMatched			whether the CallIdMatcher matches the Call-ID
+	 * @param	relatedCallId		the Call-ID of the dialog the SIP message refers to (null if none)
+	 * @param	isRelatedMatched	whether the CallIdMatcher matches the Call-ID of the dialog it refers to
+	 * @return						whether the SIP message is wanted
+	 */
+	private boolean isWanted(CharSequence callId, boolean isMatched, String relatedCallId, boolean isRelatedMatched) {
+		boolean isWanted = isMatched || this.isRelated(callId);
+		if(this.isFollowingRelatedDialogs && (relatedCallId != null)) {
+			if(isWanted) {
+				this.relatedCallIds.add(relatedCallId);
+			} else if(isRelatedMatched || this.isRelated(relatedCallId)) {
+				this.relatedCallIds.add(callId.toString());
+				isWanted = true;
+			};
+		};
+		return isWanted;
+	}
+
+	/**
+	 * Tells whether a LogFrame belongs to the calls wanted (whatever its timestamp)
+	 *
+	 * @param	logFrame	the LogFrame
+	 * @return				whether the LogFrame is wanted (always true if the LogFrames are not filtered by Call-ID)
+	 */
+	public boolean matches(ApktLog.LogFrame logFrame) {
+		if(this.callIdMatcher == null) {
+			return true;
+		};
+		if(!logFrame.getParsedHeaderLine().logFrameType.equals(ApktLog.LOGFRAMETYPE_SIPMSG_SIP)) {
+			return this.callIdMatcher.matches(logFrame.getLines());
+		};
+		CharSequence callId = logFrame.getCallId();
+		if(callId == null) {
+			return false;
+		};
+		String relatedCallId = this.isFollowingRelatedDialogs ? logFrame.getRelatedCallId() : null;
+		return this.isWanted(callId, this.callIdMatcher.matches(callId), relatedCallId, (relatedCallId != null) && this.callIdMatcher.matches(relatedCallId));
+	}
+
+	/**
+	 * Selects the entries of the LogIndexes of a set of log files which pass the filter. Log
+	 * events are selected whatever their text (just the LogFrames themselves tell whether they
+	 * mention the calls wanted), so the LogFrames read out of the entries selected still have to
+	 * pass filter().
+	 *
+	 * @param	indexes	the LogIndexes (in the order of the log files)
+	 * @return			for each LogIndex, the indexes of the entries selected (in ascending order)
+	 */
+	public List<int[]> select(List<LogIndex> indexes) {
+		List<int[]> selections = new ArrayList<int[]>();
+		boolean isEnded = false;
+		for(LogIndex index: indexes) {
+			int[] entries = new int[index.size()];
+			int count = 0;
+			// Each Call-ID of the index is matched just once
+			boolean[] isMatchedKey = new boolean[(this.callIdMatcher != null) ? index.getCallIdCount() : 0];
+			for(int key = 0; key < isMatchedKey.length; key++) {
+				isMatchedKey[key] = this.callIdMatcher.matches(index.getCallId(key));
+			};
+			long timestamp;
+			int key;
+			int relatedKey;
+			for(int entry = 0; !isEnded && (entry < index.size()); entry++) {
+				timestamp = index.getTimestamp(entry);
+				if(timestamp > this.toTime) {
+					isEnded = true;
+				} else if(timestamp >= this.fromTime) {
+					if((this.callIdMatcher == null) || !index.getFrameType(entry).equals(ApktLog.LOGFRAMETYPE_SIPMSG_SIP)) {
+						entries[count++] = entry;
+						continue;
+					};
+					key = index.getCallIdKey(entry);
+					if(key < 0) {
+						continue;
+					};
+					relatedKey = this.isFollowingRelatedDialogs ? index.getRelatedCallIdKey(entry) : -1;
+					if(this.isWanted(index.getCallId(key), isMatchedKey[key], (relatedKey >= 0) ? index.getCallId(relatedKey) : null, (relatedKey >= 0) && isMatchedKey[relatedKey])) {
+						entries[count++] = entry;
+					};
+				};
+			};
+			selections.add(Arrays.copyOf(entries, count));
+		};
+		return selections;
+	}
+
+	/**
+	 * Restricts an iteration of LogFrames to those passing the filter
+	 *
+	 * @param	logFrames	the iterator of LogFrames
+	 * @param	isDrained	whether the LogFrames after the range end are to be read anyway
+	 * 						(e.g. because they are being indexed) rather than ending the iteration
+	 * @return				the iterator of the LogFrames passing the filter
+	 */
+	public Iterator<ApktLog.LogFrame> filter(Iterator<ApktLog.LogFrame> logFrames, boolean isDrained) {
+		return new FilterIterator(logFrames, isDrained);
+	}
+
+	/**
+	 * FilterIterator object represents the iteration of the LogFrames passing the filter
+	 */
+	private class FilterIterator implements Iterator<ApktLog.LogFrame> {
+		private final Iterator<ApktLog.LogFrame> logFrames;
+		private final boolean isDrained;
+		private boolean isEnded;
+		private ApktLog.LogFrame cachedNext;
+
+		FilterIterator(Iterator<ApktLog.LogFrame> logFrames, boolean isDrained) {
+			this.logFrames = logFrames;
+			this.isDrained = isDrained;
+			this.isEnded = false;
+			this.cachedNext = null;
+		}
+
+		private ApktLog.LogFrame getNext() {
+			ApktLog.LogFrame next = null;
+			if(this.cachedNext != null) {
+				next = this.cachedNext; // We get the value cached at a previous invocaton of hasNext() method
+				this.cachedNext = null; // We consume the cached one so it won't be available in next read
+			} else {
+				long timestamp;
+				while((!this.isEnded || this.isDrained) && (next == null) && this.logFrames.hasNext()) {
+					next = this.logFrames.next();
+					timestamp = next.getParsedHeaderLine().timestamp;
+					if(this.isEnded || (timestamp > FrameFilter.this.toTime)) {
+						this.isEnded = true;
+						next = null;
+					} else if((timestamp < FrameFilter.this.fromTime) || !FrameFilter.this.matches(next)) {
+						next = null;
+					};
+				};
+			};
+			return next;
+		}
+
+		public boolean hasNext() {
+			this.cachedNext = this.getNext();
+			return (this.cachedNext != null);
+		}
+
+		public ApktLog.LogFrame next() {
+			ApktLog.LogFrame next = this.getNext();
+			if(next == null) {
+				throw(new NoSuchElementException());
+			};
+			return next;
+		}
+
+		public void remove() {
+			throw(new UnsupportedOperationException());
+		}
+	}
+
+}
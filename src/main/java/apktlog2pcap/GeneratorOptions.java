@@ -0,0 +1,27 @@
+package apktlog2pcap;
+
+import java.util.TimeZone;
+
+/**
+ * GeneratorOptions object holds the settings that tune the logs written by LogGenerator
+ * (every field takes a default value, so user interfaces just need to set those the user
+ * has explicitly chosen)
+ */
+public class GeneratorOptions {
+	/*
+	 * Instance variables
+	 */
+	public TimeZone timeZone = TimeZone.getTimeZone("UTC"); // time zone in which the logs are written
+	public long startTime = 1511740800000L; // time of the first call (epoch milliseconds, 2017-11-27 00:00:00 UTC by default)
+	public long size = 100L * 1024 * 1024; // size of the sipmsg.log files altogether (bytes)
+	public long rotateSize = 100L * 1024 * 1024; // size after which the logs go on in the next rotated file (bytes)
+	public double callsPerSecond = 10; // average rate at which calls are set up (each call has two legs, each one a SIP dialog)
+	public long callDuration = 60000; // average duration of the calls (milliseconds)
+	public int messageSize = 800; // average size of the SIP messages (bytes; sizes follow an exponential distribution above the minimum)
+	public int[] transportWeights = {70, 20, 5, 5}; // relative weights of the UDP, TCP, TLS and SCTP dialogs (see LogGenerator.TRANSPORTS)
+	public int vlans = 4; // number of VLANs the SBC interfaces are tagged with (0 means no tags)
+	public boolean sdp = true; // whether INVITEs and their 200 OKs carry an SDP body
+	public int fragmentedPercent = 2; // percentage of the TCP and TLS messages logged in two pieces
+	public boolean daemonLogs = true; // whether log.sipd, log.mbcd and log.algd files are written too
+	public long seed = 1; // seed of the pseudorandom generator (the same options and seed always give the same logs)
+}
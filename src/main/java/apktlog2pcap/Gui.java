@@ -1,11 +1,18 @@
 package apktlog2pcap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.awt.Frame;
 import java.awt.TextArea;
-import java.awt.GridLayout;
+import java.awt.Canvas;
+import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.EventQueue;
 import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.event.KeyAdapter;
@@ -20,15 +27,87 @@ import java.awt.event.KeyEvent;
  * the command prompt window, so there is no way to provide feedback to the user unless implementing
  * a graphical interface.
  * In this case, we will just create a window with a black text area as a replacement of the
- * command prompt window
+ * command prompt window, plus a progress bar below it.
+ *
+ * Text output and progress events come from the threads doing the conversions, so they are just
+ * queued and the window is refreshed from the AWT event thread at most every REFRESH_INTERVAL
+ * milliseconds (appending to a TextArea once per line soon becomes the bottleneck otherwise)
  */
 public class Gui extends AppCore {
 
+	static final long REFRESH_INTERVAL = 200; // milliseconds
+
+	/**
+	 * Progress bar, showing how far the run has got and the progress line of text over it
+	 */
+	private static class ProgressBar extends Canvas {
+
+		private static final long serialVersionUID = 1L;
+		private static final Color BAR_COLOR = new Color(0, 96, 0);
+
+		/*
+		 * Instance variables
+		 */
+		private int percent = 0;
+		private String text = "";
+
+		/**
+		 * Constructs the ProgressBar object
+		 */
+		public ProgressBar() {
+			super();
+			this.setPreferredSize(new Dimension(640, 20));
+			this.setBackground(Color.BLACK);
+			this.setForeground(Color.WHITE);
+			this.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+		}
+
+		/**
+		 * Sets the progress shown
+		 *
+		 * @param	percent	the percentage (0 to 100)
+		 * @param	text	the line of text
+		 */
+		public void setProgress(int percent, String text) {
+			this.percent = percent;
+			this.text = text;
+			this.repaint();
+		}
+
+		/**
+		 * Paints the progress bar
+		 *
+		 * @param	g	the graphics context
+		 */
+		public void paint(Graphics g) {
+			int width = this.getWidth();
+			int height = this.getHeight();
+			g.setColor(BAR_COLOR);
+			g.fillRect(0, 0, width * this.percent / 100, height);
+			g.setColor(this.getForeground());
+			FontMetrics fontMetrics = g.getFontMetrics();
+			g.drawString(this.text, 4, (height + fontMetrics.getAscent() - fontMetrics.getDescent()) / 2);
+		}
+
+	}
+
 	/*
 	 * LogWindow elements
 	 */
 	private Frame logWindowFrame = null;
 	private TextArea logWindowTextArea = null;
+	private ProgressBar logWindowProgressBar = null;
+
+	/*
+	 * Output waiting for the next refresh of the LogWindow (guarded by pendingLock)
+	 */
+	private final Object pendingLock = new Object();
+	private final StringBuilder pendingText = new StringBuilder();
+	private int pendingPercent = 0;
+	private String pendingProgress = "";
+	private boolean isPending = false; // whether there is anything to refresh
+	private boolean isRefreshQueued = false; // whether a refresh has been queued to the event thread
+	private final Timer refreshTimer = new Timer("refresh", true);
 	
 	/**
 	 * Constructs the Gui object with its corresponding Log Window
@@ -37,7 +116,7 @@ public class Gui extends AppCore {
 		super();
 		this.logWindowFrame = new Frame("apktlog2pcap.v" + Gui.BUILD);
 		this.logWindowFrame.setSize(640,480);
-		this.logWindowFrame.setLayout(new GridLayout(1, 1));
+		this.logWindowFrame.setLayout(new BorderLayout());
 		this.logWindowFrame.setBackground(Color.BLACK);
 		this.logWindowFrame.addWindowListener(new WindowAdapter() {
 			public void windowClosing(WindowEvent windowEvent){
@@ -49,19 +128,82 @@ public class Gui extends AppCore {
 		this.logWindowTextArea.setBackground(Color.BLACK);
 		this.logWindowTextArea.setForeground(Color.WHITE);
 		this.logWindowTextArea.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
-		this.logWindowFrame.add(logWindowTextArea);
+		this.logWindowFrame.add(logWindowTextArea, BorderLayout.CENTER);
+		this.logWindowProgressBar = new ProgressBar();
+		this.logWindowFrame.add(logWindowProgressBar, BorderLayout.SOUTH);
 		this.logWindowFrame.setVisible(true);
+		final Gui that = this; // So we can use a reference to this object in closure below
+		this.refreshTimer.schedule(new TimerTask() {
+			public void run() {
+				that.queueRefresh();
+			}
+		}, REFRESH_INTERVAL, REFRESH_INTERVAL);
 	}
-	
+
+	/**
+	 * Queues a refresh of the LogWindow to the event thread, if there is anything to refresh and
+	 * no refresh is queued yet
+	 */
+	private void queueRefresh() {
+		synchronized(this.pendingLock) {
+			if(!this.isPending || this.isRefreshQueued) {
+				return;
+			};
+			this.isRefreshQueued = true;
+		};
+		final Gui that = this; // So we can use a reference to this object in closure below
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				that.refresh();
+			}
+		});
+	}
+
 	/**
-	 * Writes text to GUI output
+	 * Refreshes the LogWindow with the output queued so far (to be run by the event thread)
+	 */
+	private void refresh() {
+		String text;
+		int percent;
+		String progress;
+		synchronized(this.pendingLock) {
+			text = this.pendingText.toString();
+			this.pendingText.setLength(0);
+			percent = this.pendingPercent;
+			progress = this.pendingProgress;
+			this.isPending = false;
+			this.isRefreshQueued = false;
+		};
+		if(text.length() > 0) {
+			this.logWindowTextArea.append(text);
+		};
+		this.logWindowProgressBar.setProgress(percent, progress);
+	}
+
+	/**
+	 * Writes text to GUI output (which shows up on the next refresh of the LogWindow)
 	 *
 	 * @param	textOutput	the text to output
 	 */
 	public void guiOutput(String textOutput){
-		if(this.logWindowTextArea != null) {
-			this.logWindowTextArea.append(textOutput + "\r\n");
-		}
+		synchronized(this.pendingLock) {
+			this.pendingText.append(textOutput).append("\r\n");
+			this.isPending = true;
+		};
+	}
+
+	/**
+	 * Handles Progress Event
+	 *
+	 * @param	progress	the progress of the run
+	 */
+	public void onProgress(ConversionProgress progress) {
+		String text = progress.toString();
+		synchronized(this.pendingLock) {
+			this.pendingPercent = progress.getPercent();
+			this.pendingProgress = text;
+			this.isPending = true;
+		};
 	}
 	
 	/**
@@ -85,6 +227,11 @@ public class Gui extends AppCore {
 				System.exit(0);
 			};
 		});
+		synchronized(this.pendingLock) {
+			this.pendingPercent = 100;
+			this.pendingProgress = (retValue == 0) ? "Done" : "Done with " + Integer.toString(retValue) + " errors";
+			this.isPending = true;
+		};
 		this.guiOutput("Press any key to continue . . .");
 	}
 	
@@ -95,10 +242,7 @@ public class Gui extends AppCore {
 	 */
 	public static void main(String[] args) {
 		Gui gui = new Gui();
-		gui.processLogFiles(Gui.getLogFiles(".", "sipmsg.log"), "sipmsg.log.pcap", true, false);
-		gui.processLogFiles(Gui.getLogFiles(".", "log.sipd"), "log.sipd.pcap", false, false);
-		gui.processLogFiles(Gui.getLogFiles(".", "log.algd"), "log.algd.pcap", false, false);
-		gui.processLogFiles(Gui.getLogFiles(".", "log.mbcd"), "log.mbcd.pcap", false, true);
+		gui.processLogFiles(Gui.getDirectoryJobs(".", null));
 	}
 	
 }
\ No newline at end of file
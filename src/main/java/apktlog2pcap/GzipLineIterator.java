@@ -0,0 +1,181 @@
+package apktlog2pcap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+import java.lang.UnsupportedOperationException;
+
+/**
+ * GzipLineIterator object represents an iteration of the lines of a gzip-compressed log file
+ * (such as the rotated sipmsg.log.1.gz), which is inflated while it is being iterated, with no
+ * temporary copy on disk. Inflating runs on a ReadAheadInputStream thread, so it overlaps with
+ * the parsing and encoding of the lines.
+ *
+ * The inflated bytes are read into buffers which are never overwritten (every refill takes a
+ * new one, starting with the line that did not fit in the previous one), so the ByteLines
+ * returned stay valid as long as they are referenced, just like those of MappedLineIterator.
+ * Offsets are those of the inflated bytes, and lines are terminated by LF, CR or CRLF.
+ */
+public class GzipLineIterator implements ByteLineIterator {
+
+	private static final int INFLATER_BUFFER_SIZE = 64 * 1024;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	/*
+	 * Instance variables
+	 */
+	private final File file;
+	private InputStream inputStream;
+	private boolean endOfStream;
+	private ByteBuffer buffer;
+	private long bufferOffset;
+	private int bufferLimit;
+	private int position;
+	private ByteLine cachedNext;
+
+	/**
+	 * Constructor method taking a gzip-compressed file as input parameter
+	 *
+	 * @param	file	a gzip-compressed text file
+	 */
+	public GzipLineIterator(File file) {
+		this.file = file;
+		InputStream fileInputStream = null;
+		try {
+			fileInputStream = new FileInputStream(file);
+			this.inputStream = new ReadAheadInputStream(new GZIPInputStream(fileInputStream, INFLATER_BUFFER_SIZE), file.getPath());
+		} catch(IOException ioe) {
+			if(fileInputStream != null) {
+				try{ fileInputStream.close(); } catch(IOException e) {};
+			};
+			this.inputStream = null;
+			throw(new RuntimeException("Failed to open " + this.file.getPath(), ioe));
+		};
+		this.endOfStream = false;
+		this.buffer = ByteBuffer.allocate(0);
+		this.bufferOffset = 0;
+		this.bufferLimit = 0;
+		this.position = 0;
+		this.cachedNext = null;
+	}
+
+	/**
+	 * Takes a new buffer, starting with the unread bytes of the current one, and fills it in
+	 * with as many inflated bytes as fit in it
+	 */
+	private void refill() {
+		int remaining = this.bufferLimit - this.position;
+		byte[] bytes = new byte[Math.max(BUFFER_SIZE, 2 * remaining)];
+		this.buffer.position(this.position);
+		this.buffer.get(bytes, 0, remaining);
+		int length = remaining;
+		int count = 0;
+		try {
+			while((length < bytes.length) && ((count = this.inputStream.read(bytes, length, bytes.length - length)) >= 0)) {
+				length += count;
+			};
+		} catch(IOException ioe) {
+			this.close();
+			throw(new RuntimeException("IOException while inflating " + this.file.getPath(), ioe));
+		};
+		this.endOfStream = (count < 0);
+		this.buffer = ByteBuffer.wrap(bytes);
+		this.bufferOffset += this.position;
+		this.bufferLimit = length;
+		this.position = 0;
+	}
+
+	/**
+	 * Closes the underlying stream, so no more lines will be returned
+	 * (there is no need to invoke it once the iteration has been completed)
+	 */
+	public void close() {
+		if(this.inputStream != null) {
+			try{ this.inputStream.close(); } catch(IOException ioe) {};
+			this.inputStream = null;
+		};
+		this.cachedNext = null;
+	}
+
+	private ByteLine getNext() {
+		ByteLine next = null;
+		if(this.cachedNext != null) {
+			next = this.cachedNext; // We get the value cached at a previous invocaton of hasNext() method
+			this.cachedNext = null; // We consume the cached one so it won't be available in next read
+		} else if(this.inputStream != null) {
+			while(next == null) {
+				int lineStart = this.position;
+				int index = lineStart;
+				byte b = 0;
+				while(index < this.bufferLimit) {
+					b = this.buffer.get(index);
+					if((b == '\n') || (b == '\r')) {
+						break;
+					};
+					index++;
+				};
+				if((index < this.bufferLimit) && ((b == '\n') || (index + 1 < this.bufferLimit) || this.endOfStream)) {
+					// Terminated line (a CR at the end of the buffer is only taken if we know what comes next)
+					next = new ByteLine(this.buffer, lineStart, index - lineStart, this.bufferOffset + lineStart, this.file);
+					index++;
+					if((b == '\r') && (index < this.bufferLimit) && (this.buffer.get(index) == '\n')) {
+						index++;
+					};
+					this.position = index;
+				} else if(this.endOfStream) {
+					if(index > lineStart) {
+						// Last line of the file, with no line terminator
+						next = new ByteLine(this.buffer, lineStart, index - lineStart, this.bufferOffset + lineStart, this.file);
+						this.position = index;
+					} else {
+						// Nothing more to read
+						this.close();
+						break;
+					};
+				} else {
+					// The line does not fit in the rest of the buffer, so we take a new one starting at the line
+					this.refill();
+				};
+			};
+		};
+		return next;
+	}
+
+	/**
+	 * Returns true if the iteration has more elements.
+	 * (In other words, returns true if next would return an element rather than throwing an exception.)
+	 *
+	 * @return	whether the iteration has more elements
+	 */
+	public boolean hasNext() {
+		this.cachedNext = this.getNext();
+		return (this.cachedNext != null);
+	}
+
+	/**
+	 * Returns the next element in the iteration.
+	 *
+	 * @return	the next element in the iteration.
+	 */
+	public ByteLine next() {
+		ByteLine next = this.getNext();
+		if(next == null) {
+			throw(new NoSuchElementException());
+		};
+		return next;
+	}
+
+	/**
+	 * Removes from the underlying collection the last element returned by the iterator (optional operation). This method can be called only once per call to next.
+	 * The behavior of an iterator is unspecified if the underlying collection is modified while the iteration is in progress in any way other than by calling this method.
+	 *
+	 */
+	public void remove() {
+		throw(new UnsupportedOperationException());
+	}
+
+}
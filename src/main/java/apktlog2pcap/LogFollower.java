@@ -0,0 +1,265 @@
+package apktlog2pcap;
+
+import jfnlite.Fn;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+
+/**
+ * LogFollower object converts a log file which is still being written (such as the live
+ * sipmsg.log of an SBC) into a growing PCAP file, just like tail -f does with text.
+ *
+ * The log file is read in rounds (see FollowLineIterator): each round converts the lines
+ * written so far, and ends when no new lines come for a while (so the last LogFrame is taken
+ * as complete), when the file gets rotated (then the next round starts at the beginning of
+ * the new file), or every ConversionOptions.checkpointInterval at a header line. At the end
+ * of each round, the output is flushed and a checkpoint is saved: the offset the next round
+ * starts at, the length of the PCAP file, and the state of the TimestampCalculator and of
+ * the PcapSession.
+ *
+ * When started again with the same checkpoint file, the PCAP file is truncated to the length
+ * saved (dropping whatever was written after the checkpoint) and the conversion goes on from
+ * the offset saved, with no reconversion and no break in the TCP/SCTP sequence numbers.
+ */
+public class LogFollower {
+
+	private static final String CHECKPOINT_MAGIC = "apktlog2pcap.checkpoint.1";
+
+	/*
+	 * Instance variables
+	 */
+	private final File logFile;
+	private final String outputPcapFilePath;
+	private final File checkpointFile;
+	private final ConversionOptions options;
+	private final PcapSession session;
+	private final TimestampCalculator timestampCalculator;
+	private final LogProtoParser<ApktLog.ParsedHeaderLine> parser;
+	private OutputStream outputStream;
+	private boolean isStreaming;
+	private long offset;
+	private byte[] signature;
+	private long pcapLength;
+	private long frameCount;
+
+	/**
+	 * Constructs the LogFollower
+	 *
+	 * @param	logFile				the log file
+	 * @param	logType				the log type of the file (one of ApktLog.LOGTYPES)
+	 * @param	outputPcapFilePath	path to the output file
+	 * @param	checkpointFile		the checkpoint file (null means no checkpoint)
+	 * @param	options				the conversion options
+	 */
+	public LogFollower(File logFile, String logType, String outputPcapFilePath, File checkpointFile, ConversionOptions options) {
+		this.logFile = logFile;
+		this.outputPcapFilePath = outputPcapFilePath;
+		this.checkpointFile = checkpointFile;
+		this.options = options;
+		this.session = new PcapSession(options.flowIdleTimeout);
+		this.timestampCalculator = new TimestampCalculator(options.timeZone);
+		this.parser = ApktLog.createLogParser(logType, this.timestampCalculator);
+		this.outputStream = null;
+		this.offset = 0;
+		this.signature = new byte[0];
+		this.pcapLength = 0;
+		this.frameCount = 0;
+	}
+
+	/**
+	 * Returns the offset of the log file the conversion goes on from
+	 *
+	 * @return	the offset
+	 */
+	public long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * Returns the number of frames written so far
+	 *
+	 * @return	the number of frames
+	 */
+	public long getFrameCount() {
+		return this.frameCount;
+	}
+
+	/**
+	 * Opens the output file, resuming the conversion from the checkpoint if there is a valid one
+	 * (otherwise, the output file is created from scratch)
+	 *
+	 * @return	whether the conversion has been resumed
+	 * @throws	IOException	if the output file cannot be opened
+	 */
+	public boolean open() throws IOException {
+		this.isStreaming = AppCore.isStreamingOutput(this.outputPcapFilePath);
+		boolean isResumed = this.loadCheckpoint() && (this.isStreaming || ((this.pcapLength > 0) && ((new File(this.outputPcapFilePath)).length() >= this.pcapLength)));
+		if(!isResumed) {
+			this.offset = 0;
+			this.signature = new byte[0];
+			this.session.resetTcpSeqNums();
+			this.session.resetSctpSeqNums();
+			this.timestampCalculator.resume(-1, -1);
+		};
+		if(isResumed && !this.isStreaming) {
+			RandomAccessFile pcapFile = new RandomAccessFile(this.outputPcapFilePath, "rw");
+			try {
+				pcapFile.setLength(this.pcapLength);
+			} finally {
+				pcapFile.close();
+			}
+			this.outputStream = AppCore.openOutputFile(this.outputPcapFilePath, true);
+		} else {
+			this.outputStream = AppCore.openOutputFile(this.outputPcapFilePath, false);
+			byte[] pcapFileHeader = Pcap.createPcapFileHeader(Pcap.LINKTYPE_ETHERNET);
+			this.outputStream.write(pcapFileHeader);
+			this.outputStream.flush();
+			this.pcapLength = pcapFileHeader.length;
+		};
+		return isResumed;
+	}
+
+	/**
+	 * Follows the log file, round after round, until the thread is interrupted
+	 * (open() must have been invoked before)
+	 *
+	 * @throws	IOException	if the output file or the checkpoint file cannot be written
+	 */
+	public void run() throws IOException {
+		final LogProtoParser<ApktLog.ParsedHeaderLine> parser = this.parser;
+		Fn.Predicate<CharSequence> isHeaderLine = new Fn.Predicate<CharSequence>() {
+			public boolean test(CharSequence line) {
+				return parser.isHeaderCandidate(line) && (parser.parseHeaderLine(line) != null);
+			}
+		};
+		PcapFrameBuilder builder = new PcapFrameBuilder();
+		FollowLineIterator lines;
+		Iterator<ApktLog.LogFrame> logFrames;
+		long lastFlushTime;
+		long position;
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				if(!this.logFile.isFile()) {
+					// The log file has been renamed, and the new one has not been created yet
+					try {
+						Thread.sleep(this.options.followPollInterval);
+					} catch(InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					};
+					continue;
+				};
+				this.checkRotation();
+				lines = new FollowLineIterator(this.logFile, this.offset, this.options.followPollInterval, this.options.followQuietTimeout, this.options.checkpointInterval, isHeaderLine);
+				try {
+					logFrames = ApktLog.parse(lines, this.parser);
+					lastFlushTime = 0;
+					while(logFrames.hasNext()) {
+						AppCore.encodeLogFrame(logFrames.next(), builder, this.session);
+						this.outputStream.write(builder.getBuffer(), 0, builder.getLength());
+						this.pcapLength += builder.getLength();
+						this.frameCount++;
+						if(this.isStreaming && (System.currentTimeMillis() - lastFlushTime >= AppCore.STREAMING_FLUSH_INTERVAL)) {
+							this.outputStream.flush();
+							lastFlushTime = System.currentTimeMillis();
+						};
+					};
+					this.outputStream.flush();
+					position = lines.isRotated() ? 0 : lines.getPosition();
+					if(lines.isRotated() || (position != this.offset)) {
+						this.offset = position;
+						this.signature = lines.isRotated() ? new byte[0] : lines.getSignature();
+						this.saveCheckpoint();
+					};
+				} finally {
+					lines.close();
+				}
+			};
+		} finally {
+			this.outputStream.close();
+		}
+	}
+
+	/**
+	 * Checks whether the log file has been rotated since the last round (or since the checkpoint
+	 * was saved), in which case the next round starts at the beginning of the new file
+	 */
+	private void checkRotation() {
+		byte[] currentSignature = FollowLineIterator.readSignature(this.logFile);
+		if((currentSignature != null) && ((this.logFile.length() < this.offset) || !FollowLineIterator.isSameSignature(this.signature, currentSignature))) {
+			this.offset = 0;
+			this.signature = new byte[0];
+		};
+	}
+
+	/**
+	 * Loads the checkpoint file (if any, and if it was saved when following the same log file)
+	 *
+	 * @return	whether the checkpoint has been loaded
+	 */
+	private boolean loadCheckpoint() {
+		if((this.checkpointFile == null) || !this.checkpointFile.isFile()) {
+			return false;
+		};
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.checkpointFile)));
+			if(!input.readUTF().equals(CHECKPOINT_MAGIC) || !input.readUTF().equals(this.logFile.getAbsolutePath())) {
+				return false;
+			};
+			long offset = input.readLong();
+			byte[] signature = new byte[input.readInt()];
+			input.readFully(signature);
+			long pcapLength = input.readLong();
+			int year = input.readInt();
+			int month = input.readInt();
+			this.session.readFrom(input);
+			this.offset = offset;
+			this.signature = signature;
+			this.pcapLength = pcapLength;
+			if(year >= 0) {
+				this.timestampCalculator.resume(year, month);
+			};
+			return true;
+		} catch(IOException ioe) {
+			return false; // An unreadable checkpoint is just like no checkpoint
+		} finally {
+			if(input != null) {
+				try{ input.close(); } catch(IOException ioe) {};
+			};
+		}
+	}
+
+	/**
+	 * Saves the checkpoint file (writing a temporary one first, so there is always a
+	 * complete checkpoint file even if we are killed while saving it)
+	 *
+	 * @throws	IOException	if the checkpoint file cannot be written
+	 */
+	private void saveCheckpoint() throws IOException {
+		if(this.checkpointFile == null) {
+			return;
+		};
+		DataOutputStream output = AppCore.createTemporaryFile(this.checkpointFile);
+		try {
+			output.writeUTF(CHECKPOINT_MAGIC);
+			output.writeUTF(this.logFile.getAbsolutePath());
+			output.writeLong(this.offset);
+			output.writeInt(this.signature.length);
+			output.write(this.signature);
+			output.writeLong(this.isStreaming ? 0 : this.pcapLength);
+			output.writeInt(this.timestampCalculator.getYear());
+			output.writeInt(this.timestampCalculator.getLastMonth());
+			this.session.writeTo(output);
+		} finally {
+			output.close();
+		}
+		AppCore.replaceFile(this.checkpointFile);
+	}
+
+}
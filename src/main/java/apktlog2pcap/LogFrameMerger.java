@@ -0,0 +1,113 @@
+package apktlog2pcap;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.lang.UnsupportedOperationException;
+
+/**
+ * LogFrameMerger object represents an iteration of the LogFrames of several streams (usually
+ * one per log type) merged in timestamp order, so they can be written into one PCAP file.
+ *
+ * Each stream is expected to be in timestamp order already (as the log files are), so the
+ * merge is a k-way one: just the next LogFrame of each stream (its head) is held, in a heap
+ * ordered by timestamp, and the memory used does not depend on the size of the log files.
+ * LogFrames with the same timestamp are returned in the order of their streams.
+ */
+public class LogFrameMerger implements Iterator<ApktLog.LogFrame> {
+
+	/**
+	 * Head object is the next LogFrame of a stream
+	 */
+	private static class Head {
+		final int streamIndex;
+		final Iterator<ApktLog.LogFrame> stream;
+		ApktLog.LogFrame logFrame;
+		Head(int streamIndex, Iterator<ApktLog.LogFrame> stream) {
+			this.streamIndex = streamIndex;
+			this.stream = stream;
+		}
+	}
+
+	private static final Comparator<Head> HEAD_ORDER = new Comparator<Head>() {
+		public int compare(Head head1, Head head2) {
+			long timestamp1 = head1.logFrame.getParsedHeaderLine().timestamp;
+			long timestamp2 = head2.logFrame.getParsedHeaderLine().timestamp;
+			if(timestamp1 != timestamp2) {
+				return (timestamp1 < timestamp2) ? -1 : 1;
+			};
+			return head1.streamIndex - head2.streamIndex;
+		}
+	};
+
+	/*
+	 * Instance variables
+	 */
+	private final PriorityQueue<Head> heads;
+
+	/**
+	 * Constructs the LogFrameMerger
+	 *
+	 * @param	streams	the iterators of LogFrames to be merged (null ones are ignored)
+	 */
+	public LogFrameMerger(List<Iterator<ApktLog.LogFrame>> streams) {
+		this.heads = new PriorityQueue<Head>(Math.max(1, streams.size()), HEAD_ORDER);
+		for(int i = 0; i < streams.size(); i++) {
+			if(streams.get(i) != null) {
+				this.advance(new Head(i, streams.get(i)));
+			};
+		};
+	}
+
+	/**
+	 * Takes the next LogFrame of the stream of a head, putting the head back into the heap
+	 * (unless the stream is over)
+	 *
+	 * @param	head	the head
+	 */
+	private void advance(Head head) {
+		if(head.stream.hasNext()) {
+			head.logFrame = head.stream.next();
+			this.heads.add(head);
+		} else {
+			head.logFrame = null;
+		};
+	}
+
+	/**
+	 * Returns true if the iteration has more elements.
+	 * (In other words, returns true if next would return an element rather than throwing an exception.)
+	 *
+	 * @return	whether the iteration has more elements
+	 */
+	public boolean hasNext() {
+		return !this.heads.isEmpty();
+	}
+
+	/**
+	 * Returns the next element in the iteration.
+	 *
+	 * @return	the next element in the iteration.
+	 */
+	public ApktLog.LogFrame next() {
+		Head head = this.heads.poll();
+		if(head == null) {
+			throw(new NoSuchElementException());
+		};
+		ApktLog.LogFrame next = head.logFrame;
+		this.advance(head);
+		return next;
+	}
+
+	/**
+	 * Removes from the underlying collection the last element returned by the iterator (optional operation). This method can be called only once per call to next.
+	 * The behavior of an iterator is unspecified if the underlying collection is modified while the iteration is in progress in any way other than by calling this method.
+	 *
+	 */
+	public void remove() {
+		throw(new UnsupportedOperationException());
+	}
+
+}
@@ -0,0 +1,821 @@
+package apktlog2pcap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * LogGenerator object writes synthetic SBC logs (sipmsg.log, and optionally log.sipd, log.mbcd
+ * and log.algd) in the format ApktLog parses, so the converter can be benchmarked and soak-tested
+ * with logs of any size without taking them from production (no real numbers or addresses).
+ *
+ * Calls are set up at random (a Poisson process of GeneratorOptions.callsPerSecond calls per
+ * second) and last a random time (exponentially distributed), each one made of two legs (the
+ * SBC is a B2BUA): an inbound one from a peer towards the SBC, and an outbound one from the SBC
+ * towards another peer. Each leg is a SIP dialog over one of TRANSPORTS (INVITE, 100 Trying,
+ * 180 Ringing, 200 OK, ACK, BYE and 200 OK), on its own SBC interface, optionally tagged with a
+ * VLAN. The messages of all the calls are written in time order, and padded with extra headers
+ * so their sizes follow an exponential distribution of the given mean. Some TCP and TLS messages
+ * are logged in two pieces (as fragmented messages are). The daemon logs get a few events per
+ * call, some of them spanning several lines.
+ *
+ * The logs are rotated as the SBC does it: once the sipmsg.log file being written reaches
+ * GeneratorOptions.rotateSize bytes, all the logs go on in new files, and once done the
+ * files are named so the latest ones are sipmsg.log, log.sipd... and the older ones are
+ * sipmsg.log.1, sipmsg.log.2...
+ *
+ * The same options (seed included) always give the same logs. Lines are built straight into
+ * byte buffers and written in big blocks, so logs are written at about disk speed.
+ */
+public class LogGenerator {
+
+	public static final String[] TRANSPORTS = {"UDP", "TCP", "TLS", "SCTP"};
+	private static final int[] TRANSPORT_PORTS = {5060, 5060, 5061, 5060};
+	private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+	private static final String SEPARATOR_LINE = "----------------------------------------";
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int PEERS = 200;
+	private static final String PADDING_HEADER = "P-Padding: ";
+	private static final int MAX_PADDING_LINE = 120;
+	private static final int PADDING_POOL_SIZE = 64 * 1024;
+
+	// Steps of each SIP dialog
+	private static final int STEP_INVITE = 0;
+	private static final int STEP_TRYING = 1;
+	private static final int STEP_RINGING = 2;
+	private static final int STEP_OK = 3;
+	private static final int STEP_ACK = 4;
+	private static final int STEP_BYE = 5;
+	private static final int STEP_BYE_OK = 6;
+
+	private static final byte[][] OCTETS = new byte[256][]; // the decimal text of each byte value
+
+	static {
+		for(int i = 0; i < OCTETS.length; i++) {
+			OCTETS[i] = Integer.toString(i).getBytes();
+		};
+	}
+
+	/**
+	 * Buffer object builds lines as ISO-8859-1 bytes (lines are terminated by LF)
+	 */
+	private static class Buffer {
+		byte[] bytes;
+		int length;
+		int lines;
+		Buffer(int capacity) {
+			this.bytes = new byte[capacity];
+			this.length = 0;
+			this.lines = 0;
+		}
+		void clear() {
+			this.length = 0;
+			this.lines = 0;
+		}
+		void ensure(int count) {
+			if(this.length + count > this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes, Math.max(2 * this.bytes.length, this.length + count));
+			};
+		}
+		Buffer append(char c) {
+			this.ensure(1);
+			this.bytes[this.length++] = (byte) c;
+			return this;
+		}
+		Buffer append(String text) {
+			int count = text.length();
+			this.ensure(count);
+			for(int i = 0; i < count; i++) {
+				this.bytes[this.length + i] = (byte) text.charAt(i);
+			};
+			this.length += count;
+			return this;
+		}
+		Buffer append(Buffer buffer, int offset, int count) {
+			this.ensure(count);
+			System.arraycopy(buffer.bytes, offset, this.bytes, this.length, count);
+			this.length += count;
+			return this;
+		}
+		Buffer append(long value) {
+			if(value < 0) {
+				this.append('-');
+				value = -value;
+			};
+			this.ensure(20);
+			int start = this.length;
+			while(value > Integer.MAX_VALUE) {
+				this.bytes[this.length++] = (byte) ('0' + (value % 10));
+				value /= 10;
+			};
+			int intValue = (int) value; // int divisions are much cheaper
+			do {
+				this.bytes[this.length++] = (byte) ('0' + (intValue % 10));
+				intValue /= 10;
+			} while(intValue > 0);
+			for(int i = start, j = this.length - 1; i < j; i++, j--) {
+				byte b = this.bytes[i];
+				this.bytes[i] = this.bytes[j];
+				this.bytes[j] = b;
+			};
+			return this;
+		}
+		Buffer appendHex(long value) {
+			this.ensure(16);
+			int digits = Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 3) / 4);
+			for(int i = digits - 1; i >= 0; i--) {
+				this.bytes[this.length++] = (byte) "0123456789abcdef".charAt((int) ((value >>> (4 * i)) & 0xF));
+			};
+			return this;
+		}
+		Buffer appendDigits(int value, int digits, char pad) {
+			this.ensure(digits);
+			for(int i = digits - 1; i >= 0; i--) {
+				this.bytes[this.length + i] = ((value == 0) && (i < digits - 1)) ? (byte) pad : (byte) ('0' + (value % 10));
+				value /= 10;
+			};
+			this.length += digits;
+			return this;
+		}
+		Buffer appendIpv4(int address) {
+			this.ensure(15);
+			for(int shift = 24; shift >= 0; shift -= 8) {
+				byte[] octet = OCTETS[(address >>> shift) & 0xFF];
+				System.arraycopy(octet, 0, this.bytes, this.length, octet.length);
+				this.length += octet.length;
+				if(shift > 0) {
+					this.bytes[this.length++] = '.';
+				};
+			};
+			return this;
+		}
+		Buffer endLine() {
+			this.append('\n');
+			this.lines++;
+			return this;
+		}
+	}
+
+	/**
+	 * LogFile object is one of the log types being written, into its current rotated file
+	 */
+	private static class LogFile {
+		final String logType;
+		final List<File> parts;
+		final Buffer buffer;
+		FileOutputStream outputStream;
+		long length; // of the current file
+		LogFile(String logType) {
+			this.logType = logType;
+			this.parts = new ArrayList<File>();
+			this.buffer = new Buffer(BUFFER_SIZE + 64 * 1024);
+			this.outputStream = null;
+			this.length = 0;
+		}
+		void open(File dir) throws IOException {
+			File part = new File(dir, this.logType + ".part" + this.parts.size());
+			this.parts.add(part);
+			this.outputStream = new FileOutputStream(part);
+			this.length = 0;
+		}
+		void write(Buffer lines) throws IOException {
+			this.buffer.append(lines, 0, lines.length);
+			this.length += lines.length;
+			if(this.buffer.length >= BUFFER_SIZE) {
+				this.flush();
+			};
+		}
+		void flush() throws IOException {
+			this.outputStream.write(this.buffer.bytes, 0, this.buffer.length);
+			this.buffer.clear();
+		}
+		void close() throws IOException {
+			if(this.outputStream != null) {
+				try {
+					this.flush();
+				} finally {
+					this.outputStream.close();
+					this.outputStream = null;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Dialog object is one of the two legs of a call
+	 */
+	private static class Dialog {
+		int call;
+		boolean isInbound; // whether the peer calls the SBC (rather than the SBC calling the peer)
+		int transport;
+		int ifc;
+		int vid;
+		int sbcAddress;
+		int peerAddress;
+		int peerPort;
+		long callId;
+		long fromTag;
+		long toTag;
+		long caller;
+		long callee;
+		boolean isCallerHangingUp;
+		long duration;
+	}
+
+	/**
+	 * Event object is the time at which a Dialog takes one of its steps
+	 */
+	private static class Event implements Comparable<Event> {
+		final long time;
+		final long sequence; // so events at the same time keep the order they were scheduled in
+		final Dialog dialog;
+		final int step;
+		Event(long time, long sequence, Dialog dialog, int step) {
+			this.time = time;
+			this.sequence = sequence;
+			this.dialog = dialog;
+			this.step = step;
+		}
+		public int compareTo(Event event) {
+			if(this.time != event.time) {
+				return (this.time < event.time) ? -1 : 1;
+			};
+			return (this.sequence < event.sequence) ? -1 : ((this.sequence == event.sequence) ? 0 : 1);
+		}
+	}
+
+	/*
+	 * Instance variables
+	 */
+	private final GeneratorOptions options;
+	private final Random random;
+	private final PriorityQueue<Event> events;
+	private final Buffer message;
+	private final Buffer sdp;
+	private final Buffer lines;
+	private final int transportWeightSum;
+	private final byte[] paddingPool; // random text the padding headers are taken from
+	private LogFile sipmsgLog;
+	private LogFile sipdLog;
+	private LogFile mbcdLog;
+	private LogFile algdLog;
+	private long sequence;
+	private int calls;
+	private long frameCount;
+	private long byteCount;
+	private long cachedDay; // local day (days since the epoch) whose month and day are cached
+	private int cachedMonth;
+	private int cachedDayOfMonth;
+
+	/**
+	 * Constructs the LogGenerator
+	 *
+	 * @param	options	the options of the logs
+	 */
+	public LogGenerator(GeneratorOptions options) {
+		this.options = options;
+		this.random = new Random(options.seed);
+		this.events = new PriorityQueue<Event>();
+		this.message = new Buffer(8 * 1024);
+		this.sdp = new Buffer(1024);
+		this.lines = new Buffer(16 * 1024);
+		int transportWeightSum = 0;
+		for(int weight: options.transportWeights) {
+			transportWeightSum += weight;
+		};
+		this.transportWeightSum = transportWeightSum;
+		this.paddingPool = new byte[PADDING_POOL_SIZE];
+		for(int i = 0; i < PADDING_POOL_SIZE; i++) {
+			this.paddingPool[i] = (byte) ('a' + this.random.nextInt(26));
+		};
+		this.sequence = 0;
+		this.calls = 0;
+		this.frameCount = 0;
+		this.byteCount = 0;
+		this.cachedDay = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Returns the number of frames (SIP messages, fragments counted once each) written to sipmsg.log
+	 *
+	 * @return	the number of frames
+	 */
+	public long getFrameCount() {
+		return this.frameCount;
+	}
+
+	/**
+	 * Returns the number of bytes written to the logs (all of them)
+	 *
+	 * @return	the number of bytes
+	 */
+	public long getByteCount() {
+		return this.byteCount;
+	}
+
+	/**
+	 * Writes the logs into a directory (replacing any logs of the same names)
+	 *
+	 * @param	dir	the directory
+	 * @return		the log files written, in the order they would be converted (oldest first)
+	 * @throws	IOException	if the logs cannot be written
+	 */
+	public List<File> generate(File dir) throws IOException {
+		this.sipmsgLog = new LogFile(ApktLog.LOGTYPE_SIPMSG);
+		List<LogFile> logFiles = new ArrayList<LogFile>();
+		logFiles.add(this.sipmsgLog);
+		if(this.options.daemonLogs) {
+			this.sipdLog = new LogFile(ApktLog.LOGTYPE_SIPD);
+			this.mbcdLog = new LogFile(ApktLog.LOGTYPE_MBCD);
+			this.algdLog = new LogFile(ApktLog.LOGTYPE_ALGD);
+			logFiles.add(this.sipdLog);
+			logFiles.add(this.mbcdLog);
+			logFiles.add(this.algdLog);
+		};
+		try {
+			for(LogFile logFile: logFiles) {
+				logFile.open(dir);
+			};
+			long sipmsgLength = 0;
+			long nextCallTime = this.options.startTime;
+			long length;
+			Event event;
+			while(sipmsgLength < this.options.size) {
+				if(this.events.isEmpty() || (nextCallTime <= this.events.peek().time)) {
+					this.startCall(nextCallTime);
+					nextCallTime += Math.max(1, (long) (-Math.log(1 - this.random.nextDouble()) * 1000 / this.options.callsPerSecond));
+					continue;
+				};
+				event = this.events.poll();
+				length = this.sipmsgLog.length;
+				this.writeStep(event);
+				sipmsgLength += this.sipmsgLog.length - length;
+				if((this.sipmsgLog.length >= this.options.rotateSize) && (sipmsgLength < this.options.size)) {
+					for(LogFile logFile: logFiles) {
+						logFile.close();
+						logFile.open(dir);
+					};
+				};
+			};
+		} finally {
+			for(LogFile logFile: logFiles) {
+				try{ logFile.close(); } catch(IOException ioe) {};
+			};
+		}
+		// The parts are renamed after the SBC rotated logs, the latest ones taking no suffix
+		List<File> files = new ArrayList<File>();
+		for(LogFile logFile: logFiles) {
+			for(int i = 0; i < logFile.parts.size(); i++) {
+				int suffix = logFile.parts.size() - 1 - i;
+				File file = new File(dir, logFile.logType + ((suffix > 0) ? "." + suffix : ""));
+				if(file.exists() && !file.delete()) {
+					throw(new IOException("Failed to replace " + file.getPath()));
+				};
+				if(!logFile.parts.get(i).renameTo(file)) {
+					throw(new IOException("Failed to rename " + logFile.parts.get(i).getPath() + " to " + file.getPath()));
+				};
+				this.byteCount += file.length();
+				files.add(file);
+			};
+		};
+		return files;
+	}
+
+	/**
+	 * Sets up a call, scheduling the first steps of its two legs
+	 *
+	 * @param	time	the time of the call (epoch milliseconds)
+	 */
+	private void startCall(long time) {
+		long duration = Math.max(1000, (long) (-Math.log(1 - this.random.nextDouble()) * this.options.callDuration));
+		boolean isCallerHangingUp = this.random.nextBoolean();
+		long caller = 34600000000L + this.random.nextInt(100000000);
+		long callee = 34910000000L + this.random.nextInt(100000000);
+		for(int leg = 0; leg < 2; leg++) {
+			Dialog dialog = new Dialog();
+			dialog.call = this.calls;
+			dialog.isInbound = (leg == 0);
+			dialog.transport = this.pickTransport();
+			dialog.ifc = leg;
+			int peer = this.random.nextInt(PEERS);
+			dialog.vid = (this.options.vlans > 0) ? 100 + (peer % this.options.vlans) : -1;
+			dialog.sbcAddress = (10 << 24) | ((77 + leg) << 16) | (68 << 8) | (90 + ((dialog.vid > 0) ? dialog.vid - 100 : 0));
+			dialog.peerAddress = (10 << 24) | ((38 + leg) << 16) | ((peer / 50) << 8) | (1 + peer % 50);
+			dialog.peerPort = TRANSPORT_PORTS[dialog.transport] + ((dialog.transport == 0) ? 0 : 10000 + this.random.nextInt(50000));
+			dialog.callId = this.random.nextLong() & Long.MAX_VALUE;
+			dialog.fromTag = this.random.nextInt() & 0x7FFFFFFF;
+			dialog.toTag = this.random.nextInt() & 0x7FFFFFFF;
+			dialog.caller = caller;
+			dialog.callee = callee;
+			dialog.isCallerHangingUp = isCallerHangingUp;
+			dialog.duration = duration;
+			this.schedule(time + 12 * leg, dialog, STEP_INVITE);
+		};
+		this.calls++;
+	}
+
+	/**
+	 * Picks the transport of a dialog, according to GeneratorOptions.transportWeights
+	 *
+	 * @return	the index of the transport (in TRANSPORTS)
+	 */
+	private int pickTransport() {
+		int value = this.random.nextInt(Math.max(1, this.transportWeightSum));
+		for(int transport = 0; transport < TRANSPORTS.length; transport++) {
+			value -= this.options.transportWeights[transport];
+			if(value < 0) {
+				return transport;
+			};
+		};
+		return 0;
+	}
+
+	private void schedule(long time, Dialog dialog, int step) {
+		this.events.add(new Event(time, this.sequence++, dialog, step));
+	}
+
+	/**
+	 * Writes the SIP message of a step of a dialog (and its daemon log events), scheduling the next step
+	 *
+	 * @param	event	the event
+	 */
+	private void writeStep(Event event) throws IOException {
+		Dialog dialog = event.dialog;
+		int step = event.step;
+		long time = event.time;
+		// Requests of the caller, except the BYE of a callee hanging up (and responses the other way round)
+		boolean isFromCaller = ((step == STEP_INVITE) || (step == STEP_ACK) || (step == STEP_BYE)) ^ (!dialog.isCallerHangingUp && (step >= STEP_BYE));
+		boolean isSentBySbc = isFromCaller ^ dialog.isInbound;
+		this.buildMessage(dialog, step, isFromCaller);
+		this.writeSipmsg(time, dialog, isSentBySbc);
+		if(this.options.daemonLogs) {
+			this.writeDaemonEvents(time, dialog, step);
+		};
+		switch(step) {
+			case STEP_INVITE:
+				this.schedule(time + 2 + this.random.nextInt(20), dialog, STEP_TRYING);
+				break;
+			case STEP_TRYING:
+				this.schedule(time + 200 + this.random.nextInt(2000), dialog, STEP_RINGING);
+				break;
+			case STEP_RINGING:
+				this.schedule(time + 1000 + this.random.nextInt(8000), dialog, STEP_OK);
+				break;
+			case STEP_OK:
+				this.schedule(time + 10 + this.random.nextInt(50), dialog, STEP_ACK);
+				break;
+			case STEP_ACK:
+				this.schedule(time + dialog.duration, dialog, STEP_BYE);
+				break;
+			case STEP_BYE:
+				this.schedule(time + 5 + this.random.nextInt(40), dialog, STEP_BYE_OK);
+				break;
+			default:
+				break;
+		};
+	}
+
+	/**
+	 * Builds the SIP message of a step of a dialog into the message buffer (the lines after its header line)
+	 */
+	private void buildMessage(Dialog dialog, int step, boolean isFromCaller) {
+		Buffer m = this.message;
+		m.clear();
+		String transport = TRANSPORTS[dialog.transport];
+		boolean isRequest = (step == STEP_INVITE) || (step == STEP_ACK) || (step == STEP_BYE);
+		String method = (step == STEP_ACK) ? "ACK" : ((step >= STEP_BYE) ? "BYE" : "INVITE");
+		boolean hasSdp = this.options.sdp && ((step == STEP_INVITE) || (step == STEP_OK));
+		// The caller is the one on the peer side for inbound dialogs, and the Via header is that of
+		// the party which sent the request (that is, the sender of requests and the receiver of responses)
+		int callerAddress = dialog.isInbound ? dialog.peerAddress : dialog.sbcAddress;
+		int calleeAddress = dialog.isInbound ? dialog.sbcAddress : dialog.peerAddress;
+		int requesterAddress = (isRequest == isFromCaller) ? callerAddress : calleeAddress;
+		if(isRequest) {
+			m.append(method).append(" sip:+").append(isFromCaller ? dialog.callee : dialog.caller).append('@').appendIpv4(isFromCaller ? calleeAddress : callerAddress);
+			m.append(":5060;user=phone SIP/2.0").endLine();
+		} else if(step == STEP_TRYING) {
+			m.append("SIP/2.0 100 Trying").endLine();
+		} else if(step == STEP_RINGING) {
+			m.append("SIP/2.0 180 Ringing").endLine();
+		} else {
+			m.append("SIP/2.0 200 OK").endLine();
+		};
+		m.append("Via: SIP/2.0/").append(transport).append(' ').appendIpv4(requesterAddress).append(':').append(TRANSPORT_PORTS[dialog.transport]);
+		m.append(";branch=z9hG4bK").appendHex(dialog.callId ^ (step == STEP_ACK ? 0xACL : (step >= STEP_BYE ? 0xB1EL : 0))).endLine();
+		if(isRequest) {
+			m.append("Max-Forwards: 70").endLine();
+		};
+		m.append("From: <sip:+").append(dialog.caller).append('@').appendIpv4(callerAddress).append(";user=phone>;tag=").appendHex(dialog.fromTag).endLine();
+		m.append("To: <sip:+").append(dialog.callee).append('@').appendIpv4(calleeAddress).append(";user=phone>");
+		if((step != STEP_INVITE) && (step != STEP_TRYING)) {
+			m.append(";tag=").appendHex(dialog.toTag);
+		};
+		m.endLine();
+		m.append("Call-ID: ").appendHex(dialog.callId).append('@').appendIpv4(callerAddress).endLine();
+		m.append("CSeq: ").append((step >= STEP_BYE) ? 2 : 1).append(' ').append(method).endLine();
+		if((step == STEP_INVITE) || (step == STEP_RINGING) || (step == STEP_OK)) {
+			int contactAddress = (step == STEP_INVITE) ? callerAddress : calleeAddress;
+			m.append("Contact: <sip:+").append((step == STEP_INVITE) ? dialog.caller : dialog.callee).append('@').appendIpv4(contactAddress);
+			m.append(':').append(TRANSPORT_PORTS[dialog.transport]).append(";transport=").append(transport.toLowerCase()).append('>').endLine();
+			m.append("Allow: INVITE, ACK, CANCEL, BYE, OPTIONS, PRACK, UPDATE, INFO").endLine();
+		};
+		m.append(dialog.isInbound == isFromCaller ? "User-Agent: PBX/5.1" : "Server: Apkt SBC").endLine();
+		if(hasSdp) {
+			this.buildSdp(dialog, step == STEP_INVITE ? callerAddress : calleeAddress);
+		};
+		// Padding up to the size drawn (the SDP body and the last headers included)
+		int size = (int) Math.min(8L * this.options.messageSize, (long) (-Math.log(1 - this.random.nextDouble()) * this.options.messageSize));
+		int padding = size - (m.length + m.lines + 64 + (hasSdp ? this.sdp.length + this.sdp.lines : 0));
+		int count;
+		while(padding > PADDING_HEADER.length() + 2) {
+			count = Math.min(MAX_PADDING_LINE, padding) - PADDING_HEADER.length() - 2;
+			m.append(PADDING_HEADER);
+			m.ensure(count);
+			System.arraycopy(this.paddingPool, this.random.nextInt(PADDING_POOL_SIZE - MAX_PADDING_LINE), m.bytes, m.length, count);
+			m.length += count;
+			m.endLine();
+			padding -= count + PADDING_HEADER.length() + 2;
+		};
+		if(hasSdp) {
+			m.append("Content-Type: application/sdp").endLine();
+		};
+		m.append("Content-Length: ").append(hasSdp ? this.sdp.length + this.sdp.lines : 0).endLine();
+		m.endLine();
+		if(hasSdp) {
+			m.append(this.sdp, 0, this.sdp.length);
+			m.lines += this.sdp.lines;
+		};
+	}
+
+	/**
+	 * Builds the SDP body of a dialog into the sdp buffer
+	 */
+	private void buildSdp(Dialog dialog, int address) {
+		Buffer s = this.sdp;
+		s.clear();
+		s.append("v=0").endLine();
+		s.append("o=- ").append(dialog.callId & 0xFFFFFF).append(" 1 IN IP4 ").appendIpv4(address).endLine();
+		s.append("s=-").endLine();
+		s.append("c=IN IP4 ").appendIpv4(address).endLine();
+		s.append("t=0 0").endLine();
+		s.append("m=audio ").append(20000 + 2 * ((dialog.callId >>> 8) % 10000)).append(" RTP/AVP 8 0 18 101").endLine();
+		s.append("a=rtpmap:8 PCMA/8000").endLine();
+		s.append("a=rtpmap:0 PCMU/8000").endLine();
+		s.append("a=rtpmap:18 G729/8000").endLine();
+		s.append("a=fmtp:18 annexb=no").endLine();
+		s.append("a=rtpmap:101 telephone-event/8000").endLine();
+		s.append("a=fmtp:101 0-15").endLine();
+		s.append("a=ptime:20").endLine();
+		s.append("a=sendrecv").endLine();
+	}
+
+	/**
+	 * Appends the timestamp of a header line ("Nov 27 10:00:00.123")
+	 */
+	private void appendTimestamp(Buffer buffer, long time) {
+		long localTime = time + this.options.timeZone.getOffset(time);
+		long day = (localTime >= 0) ? localTime / 86400000L : (localTime - 86399999L) / 86400000L;
+		if(day != this.cachedDay) {
+			java.util.Calendar calendar = java.util.Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+			calendar.setTimeInMillis(day * 86400000L);
+			this.cachedDay = day;
+			this.cachedMonth = calendar.get(java.util.Calendar.MONTH);
+			this.cachedDayOfMonth = calendar.get(java.util.Calendar.DAY_OF_MONTH);
+		};
+		int millis = (int) (localTime - day * 86400000L);
+		buffer.append(MONTHS[this.cachedMonth]).append(' ').appendDigits(this.cachedDayOfMonth, 2, ' ').append(' ');
+		buffer.appendDigits(millis / 3600000, 2, '0').append(':').appendDigits((millis / 60000) % 60, 2, '0').append(':');
+		buffer.appendDigits((millis / 1000) % 60, 2, '0').append('.').appendDigits(millis % 1000, 3, '0');
+	}
+
+	/**
+	 * Appends the header line of a SIP message ("Nov 27 10:00:00.123 On [1:101]10.77.68.91:5060 sent to 10.38.0.7:5060")
+	 */
+	private void appendSipHeaderLine(Buffer buffer, long time, Dialog dialog, boolean isSentBySbc) {
+		this.appendTimestamp(buffer, time);
+		buffer.append(" On ");
+		if(dialog.vid > 0) {
+			buffer.append('[').append(dialog.ifc).append(':').append(dialog.vid).append(']');
+		};
+		buffer.appendIpv4(dialog.sbcAddress).append(':').append(TRANSPORT_PORTS[dialog.transport]);
+		buffer.append(isSentBySbc ? " sent to " : " received from ").appendIpv4(dialog.peerAddress).append(':').append(dialog.peerPort).endLine();
+	}
+
+	/**
+	 * Writes the SIP message built into sipmsg.log, in two pieces if it is to be logged fragmented
+	 */
+	private void writeSipmsg(long time, Dialog dialog, boolean isSentBySbc) throws IOException {
+		Buffer l = this.lines;
+		l.clear();
+		Buffer m = this.message;
+		boolean isStream = (dialog.transport == 1) || (dialog.transport == 2);
+		int split = m.length;
+		if(isStream && (this.options.fragmentedPercent > 0) && (this.random.nextInt(100) < this.options.fragmentedPercent)) {
+			// Split at a line terminator about half way
+			split = m.length / 2;
+			while((split < m.length) && (m.bytes[split - 1] != '\n')) {
+				split++;
+			};
+		};
+		this.appendSipHeaderLine(l, time, dialog, isSentBySbc);
+		l.append(m, 0, split);
+		l.append(SEPARATOR_LINE).endLine();
+		this.frameCount++;
+		if(split < m.length) {
+			this.appendSipHeaderLine(l, time, dialog, isSentBySbc);
+			l.append(m, split, m.length - split);
+			l.append(SEPARATOR_LINE).endLine();
+			this.frameCount++;
+		};
+		this.sipmsgLog.write(l);
+	}
+
+	/**
+	 * Writes the daemon log events of a step of a dialog
+	 */
+	private void writeDaemonEvents(long time, Dialog dialog, int step) throws IOException {
+		Buffer l = this.lines;
+		if((step == STEP_INVITE) || (step == STEP_OK) || (step == STEP_BYE)) {
+			l.clear();
+			this.appendTimestamp(l, time);
+			l.append(" [SIP] (2) SipSession[0x").appendHex(dialog.callId & 0xFFFFFFFL).append("] ");
+			l.append((step == STEP_INVITE) ? "INITIAL -> PROCEEDING" : ((step == STEP_OK) ? "PROCEEDING -> ESTABLISHED" : "ESTABLISHED -> TERMINATED"));
+			l.append(" Call-ID ").appendHex(dialog.callId).endLine();
+			if(step == STEP_INVITE) {
+				l.append("   realm=").append(dialog.isInbound ? "access" : "core").append(" ifc=").append(dialog.ifc).append(" transport=").append(TRANSPORTS[dialog.transport]).endLine();
+			};
+			this.sipdLog.write(l);
+		};
+		if((step == STEP_OK) || (step == STEP_BYE_OK)) {
+			l.clear();
+			this.appendTimestamp(l, time);
+			l.append(" [MBCD] (2) ").append((step == STEP_OK) ? "Flow added " : "Flow removed ").appendIpv4(dialog.peerAddress).append(':').append(20000 + 2 * ((dialog.callId >>> 8) % 10000));
+			l.append(" <-> ").appendIpv4(dialog.sbcAddress).append(':').append(40000 + 2 * (dialog.call % 10000)).endLine();
+			if(step == STEP_OK) {
+				l.append("   codec=PCMA ptime=20 vlan=").append(Math.max(0, dialog.vid)).endLine();
+			};
+			this.mbcdLog.write(l);
+		};
+		if((step == STEP_INVITE) && dialog.isInbound && (dialog.call % 10 == 0)) {
+			l.clear();
+			this.appendTimestamp(l, time);
+			l.append(" [ALGD] (3) Gate opened for call ").append(dialog.call).append(" from ").appendIpv4(dialog.peerAddress).endLine();
+			this.algdLog.write(l);
+		};
+	}
+
+	/**
+	 * Main method, writing logs into the given directory
+	 *
+	 * @param	args	arguments
+	 */
+	public static void main(String[] args) {
+		String HELP_STRING =
+		"apktlog2pcap.v" + AppCore.BUILD + " log generator:\r\n" +
+		"\r\n" +
+		"Usage (writes synthetic sipmsg.log, log.sipd, log.mbcd and log.algd files into the output directory):" + "\r\n" +
+		"\r\n" +
+		"    java -cp apktlog2pcap.jar apktlog2pcap.LogGenerator [options] <output_directory>" + "\r\n" +
+		"\r\n" +
+		"Options:" + "\r\n" +
+		"\r\n" +
+		"    --size <MB>              size of the sipmsg.log files altogether (default 100)" + "\r\n" +
+		"    --rotate-size <MB>       size after which logs go on in a new file (.1, .2... being the older ones; default 100)" + "\r\n" +
+		"    --calls-per-second <n>   average rate of new calls, each one with an inbound and an outbound leg (default 10)" + "\r\n" +
+		"    --call-duration <s>      average duration of the calls (default 60)" + "\r\n" +
+		"    --message-size <bytes>   average size of the SIP messages (exponentially distributed; default 800)" + "\r\n" +
+		"    --transports <u,t,l,s>   relative weights of the UDP, TCP, TLS and SCTP dialogs (default 70,20,5,5)" + "\r\n" +
+		"    --vlans <n>              number of VLANs the SBC interfaces are tagged with (0 means none; default 4)" + "\r\n" +
+		"    --sdp <yes|no>           whether INVITEs and their 200 OKs carry an SDP body (default yes)" + "\r\n" +
+		"    --fragmented <percent>   percentage of TCP and TLS messages logged in two pieces (default 2)" + "\r\n" +
+		"    --daemon-logs <yes|no>   whether log.sipd, log.mbcd and log.algd are written too (default yes)" + "\r\n" +
+		"    --start <time>           time of the first call (\"yyyy-MM-dd HH:mm:ss\"; default 2017-11-27 00:00:00)" + "\r\n" +
+		"    --timezone <id>          time zone the logs are written in (default UTC)" + "\r\n" +
+		"    --seed <n>               seed of the pseudorandom generator (default 1)" + "\r\n";
+
+		GeneratorOptions options = new GeneratorOptions();
+		String startValue = null;
+		int index = 0;
+		try {
+			String name;
+			String value;
+			while((index < args.length) && args[index].startsWith("--")) {
+				name = args[index];
+				if(index + 1 >= args.length) {
+					throw(new IllegalArgumentException("Missing value for option " + name));
+				};
+				value = args[index + 1];
+				if(name.equals("--size")) {
+					options.size = (long) (parsePositive(name, value) * 1024 * 1024);
+				} else if(name.equals("--rotate-size")) {
+					options.rotateSize = (long) (parsePositive(name, value) * 1024 * 1024);
+				} else if(name.equals("--calls-per-second")) {
+					options.callsPerSecond = parsePositive(name, value);
+				} else if(name.equals("--call-duration")) {
+					options.callDuration = (long) (parsePositive(name, value) * 1000);
+				} else if(name.equals("--message-size")) {
+					options.messageSize = (int) parsePositive(name, value);
+				} else if(name.equals("--transports")) {
+					String[] weights = value.split(",");
+					if(weights.length != TRANSPORTS.length) {
+						throw(new IllegalArgumentException("Invalid transport weights " + value + " (expected four of them)"));
+					};
+					for(int i = 0; i < weights.length; i++) {
+						options.transportWeights[i] = (int) parseNonNegative(name, weights[i].trim());
+					};
+				} else if(name.equals("--vlans")) {
+					options.vlans = (int) parseNonNegative(name, value);
+				} else if(name.equals("--sdp")) {
+					options.sdp = parseYesNo(name, value);
+				} else if(name.equals("--fragmented")) {
+					options.fragmentedPercent = (int) Math.min(100, parseNonNegative(name, value));
+				} else if(name.equals("--daemon-logs")) {
+					options.daemonLogs = parseYesNo(name, value);
+				} else if(name.equals("--start")) {
+					startValue = value;
+				} else if(name.equals("--timezone")) {
+					options.timeZone = TimeZone.getTimeZone(value);
+					if(options.timeZone.getID().equals("GMT") && !value.startsWith("GMT")) {
+						throw(new IllegalArgumentException("Unknown time zone " + value));
+					};
+				} else if(name.equals("--seed")) {
+					try {
+						options.seed = Long.parseLong(value);
+					} catch(NumberFormatException e) {
+						throw(new IllegalArgumentException("Invalid seed " + value));
+					};
+				} else {
+					throw(new IllegalArgumentException("Unknown option " + name));
+				};
+				index = index + 2;
+			};
+			if(startValue != null) {
+				options.startTime = Cli.parseTime(startValue, options.timeZone);
+			};
+		} catch(IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(HELP_STRING);
+			System.exit(1);
+		};
+		if((args.length - index == 1) && args[index].equals("-h")) {
+			System.out.println(HELP_STRING);
+			System.exit(0);
+		};
+		if(args.length - index != 1) {
+			System.out.println(HELP_STRING);
+			System.exit(1);
+		};
+		File dir = new File(args[index]);
+		if(!dir.isDirectory() && !dir.mkdirs()) {
+			System.out.println("ERROR:  Failed to create output directory " + dir.getPath());
+			System.exit(1);
+		};
+		LogGenerator generator = new LogGenerator(options);
+		long startTime = System.currentTimeMillis();
+		try {
+			List<File> files = generator.generate(dir);
+			long time = Math.max(1, System.currentTimeMillis() - startTime);
+			System.out.println("Generated " + files.size() + " files, " + generator.getFrameCount() + " sipmsg.log frames, "
+				+ (generator.getByteCount() / (1024 * 1024)) + " MB in " + (time / 1000.0) + " s ("
+				+ (generator.getByteCount() / 1024 / 1024 * 1000 / time) + " MB/s)");
+		} catch(IOException e) {
+			System.out.println("ERROR:  Failed to write logs into " + dir.getPath() + " (" + e.getMessage() + ")");
+			System.exit(1);
+		};
+	}
+
+	private static double parsePositive(String name, String value) {
+		double number = parseNonNegative(name, value);
+		if(number <= 0) {
+			throw(new IllegalArgumentException("Invalid value " + value + " for option " + name));
+		};
+		return number;
+	}
+
+	private static double parseNonNegative(String name, String value) {
+		double number;
+		try {
+			number = Double.parseDouble(value);
+		} catch(NumberFormatException e) {
+			number = -1;
+		};
+		if(!(number >= 0) || Double.isInfinite(number)) {
+			throw(new IllegalArgumentException("Invalid value " + value + " for option " + name));
+		};
+		return number;
+	}
+
+	private static boolean parseYesNo(String name, String value) {
+		if(!value.equals("yes") && !value.equals("no")) {
+			throw(new IllegalArgumentException("Invalid value " + value + " for option " + name + " (expected yes or no)"));
+		};
+		return value.equals("yes");
+	}
+
+}
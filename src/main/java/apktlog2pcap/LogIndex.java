@@ -0,0 +1,546 @@
+package apktlog2pcap;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimeZone;
+import java.lang.UnsupportedOperationException;
+
+/**
+ * LogIndex object is the index of the LogFrames of one log file: for each LogFrame, its byte
+ * range (offset and length), timestamp, frame type, 5-tuple (transport protocol, addresses and
+ * ports), and its Call-ID and that of the dialog it refers to (see ApktLog.extractRelatedCallId()).
+ * Entries are kept in parallel primitive arrays, so even the index of a big log takes little
+ * memory, and the Call-IDs are kept once each (entries just hold their keys), so a CallIdMatcher
+ * can tell which calls are wanted by matching each Call-ID once, rather than each LogFrame.
+ *
+ * The index is saved as a sidecar file next to the log (the log path plus SUFFIX), in a compact
+ * binary format: a header (log type, time zone, and size and modification time of the log)
+ * followed by one fixed-size record per entry, and then the Call-IDs. It is only
+ * loaded back if the log has the same size and modification time (so it has not changed since),
+ * and it was built for the same log type and time zone (which the timestamps depend on).
+ *
+ * Indexes are built on the fly while a set of log files is converted from the beginning (see
+ * indexing()), so later conversions of the same files restricted by a FrameFilter can just read
+ * the byte ranges of the LogFrames they need (see RangeLineIterator) instead of the whole files.
+ *
+ * Note that the LogFrames are indexed along with the log file their header line is in, so the
+ * rare LogFrame whose lines go on in the next (rotated) file is only indexed up to the end of its file.
+ */
+public class LogIndex {
+
+	/** Suffix of the index files, appended to the path of their log files. */
+	public static final String SUFFIX = ".idx";
+
+	private static final String MAGIC = "apktlog2pcap.index.2";
+	private static final String[] FRAME_TYPES = { ApktLog.LOGFRAMETYPE_SIPMSG_SIP, ApktLog.LOGFRAMETYPE_SIPMSG_LOG, ApktLog.LOGFRAMETYPE_SIPD_LOG, ApktLog.LOGFRAMETYPE_MBCD_LOG, ApktLog.LOGFRAMETYPE_ALGD_LOG };
+	private static final String[] TRANSPORTS = { null, ApktLog.TRANSPORT_UDP, ApktLog.TRANSPORT_TCP, ApktLog.TRANSPORT_SCTP };
+	private static final int ADDRESS_LENGTH = 16; // IPv4 addresses are stored as IPv4-mapped IPv6 ones
+	private static final int ENTRY_LENGTH = 8 + 4 + 8 + 1 + 1 + 2 * ADDRESS_LENGTH + 4 + 4 + 4;
+	private static final int MIN_CAPACITY = 1024;
+	private static final String ISO_8859_1 = "ISO-8859-1"; // the charset of the Call-IDs, as CharSequences of ByteLines
+
+	/*
+	 * Instance variables
+	 */
+	private final File logFile;
+	private int size;
+	private long[] offsets;
+	private int[] lengths;
+	private long[] timestamps;
+	private byte[] frameTypes;
+	private byte[] transports;
+	private byte[] addresses; // source and destination addresses of each entry
+	private int[] ports; // source port (high 16 bits) and destination port (low 16 bits) of each entry
+	private int[] callIdKeys; // -1 for LogFrames with no Call-ID
+	private int[] relatedCallIdKeys; // -1 for LogFrames referring to no other dialog
+	private final List<String> callIds;
+	private final HashMap<String,Integer> callIdKeysById; // only while the index is being built
+
+	/**
+	 * Constructs an empty LogIndex
+	 *
+	 * @param	logFile		the log file
+	 * @param	capacity	the initial number of entries room is made for
+	 */
+	private LogIndex(File logFile, int capacity) {
+		this.logFile = logFile;
+		this.size = 0;
+		this.offsets = new long[capacity];
+		this.lengths = new int[capacity];
+		this.timestamps = new long[capacity];
+		this.frameTypes = new byte[capacity];
+		this.transports = new byte[capacity];
+		this.addresses = new byte[2 * ADDRESS_LENGTH * capacity];
+		this.ports = new int[capacity];
+		this.callIdKeys = new int[capacity];
+		this.relatedCallIdKeys = new int[capacity];
+		this.callIds = new ArrayList<String>();
+		this.callIdKeysById = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Returns the index file of a log file
+	 *
+	 * @param	logFile	the log file
+	 * @return			the index file
+	 */
+	public static File getIndexFile(File logFile) {
+		return new File(logFile.getPath() + SUFFIX);
+	}
+
+	public File getLogFile() {
+		return this.logFile;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public long getOffset(int entry) {
+		return this.offsets[entry];
+	}
+
+	public int getLength(int entry) {
+		return this.lengths[entry];
+	}
+
+	public long getTimestamp(int entry) {
+		return this.timestamps[entry];
+	}
+
+	public String getFrameType(int entry) {
+		return FRAME_TYPES[this.frameTypes[entry]];
+	}
+
+	/**
+	 * Returns the transport protocol of an entry
+	 *
+	 * @param	entry	the index of the entry
+	 * @return			one of ApktLog.TRANSPORT_UDP, TRANSPORT_TCP or TRANSPORT_SCTP, or null for log events
+	 */
+	public String getTransportProtocol(int entry) {
+		return TRANSPORTS[this.transports[entry]];
+	}
+
+	/**
+	 * Returns the source address of an entry
+	 *
+	 * @param	entry	the index of the entry
+	 * @return			the address (16 bytes, IPv4 addresses being mapped into IPv6 ones, and all zeros for log events)
+	 */
+	public byte[] getSrcAddress(int entry) {
+		int start = 2 * ADDRESS_LENGTH * entry;
+		return Arrays.copyOfRange(this.addresses, start, start + ADDRESS_LENGTH);
+	}
+
+	/**
+	 * Returns the destination address of an entry (see getSrcAddress())
+	 *
+	 * @param	entry	the index of the entry
+	 * @return			the address
+	 */
+	public byte[] getDstAddress(int entry) {
+		int start = 2 * ADDRESS_LENGTH * entry + ADDRESS_LENGTH;
+		return Arrays.copyOfRange(this.addresses, start, start + ADDRESS_LENGTH);
+	}
+
+	public int getSrcPort(int entry) {
+		return this.ports[entry] >>> 16;
+	}
+
+	public int getDstPort(int entry) {
+		return this.ports[entry] & 0xFFFF;
+	}
+
+	/**
+	 * Returns the key of the Call-ID of an entry (see getCallId())
+	 *
+	 * @param	entry	the index of the entry
+	 * @return			the key, or -1 if the LogFrame has no Call-ID
+	 */
+	public int getCallIdKey(int entry) {
+		return this.callIdKeys[entry];
+	}
+
+	/**
+	 * Returns the key of the Call-ID of the dialog an entry refers to (see getCallId())
+	 *
+	 * @param	entry	the index of the entry
+	 * @return			the key, or -1 if the LogFrame refers to no other dialog
+	 */
+	public int getRelatedCallIdKey(int entry) {
+		return this.relatedCallIdKeys[entry];
+	}
+
+	/**
+	 * Returns the number of distinct Call-IDs in the index
+	 *
+	 * @return	the number of Call-IDs (whose keys go from 0 to this number minus one)
+	 */
+	public int getCallIdCount() {
+		return this.callIds.size();
+	}
+
+	/**
+	 * Returns a Call-ID of the index
+	 *
+	 * @param	key	the key of the Call-ID
+	 * @return		the Call-ID
+	 */
+	public String getCallId(int key) {
+		return this.callIds.get(key);
+	}
+
+	/**
+	 * Returns the key of a Call-ID, adding it to the index if it is not there yet
+	 *
+	 * @param	callId	the Call-ID (null means none)
+	 * @return			the key, or -1 for no Call-ID (or one too long to be saved, which no SBC would send anyway)
+	 */
+	private int addCallId(String callId) {
+		if((callId == null) || (callId.length() > 0xFFFF)) {
+			return -1;
+		};
+		Integer key = this.callIdKeysById.get(callId);
+		if(key == null) {
+			key = Integer.valueOf(this.callIds.size());
+			this.callIds.add(callId);
+			this.callIdKeysById.put(callId, key);
+		};
+		return key.intValue();
+	}
+
+	/**
+	 * Makes room for one more entry
+	 */
+	private void grow() {
+		if(this.size < this.offsets.length) {
+			return;
+		};
+		int capacity = Math.max(MIN_CAPACITY, 2 * this.offsets.length);
+		this.offsets = Arrays.copyOf(this.offsets, capacity);
+		this.lengths = Arrays.copyOf(this.lengths, capacity);
+		this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+		this.frameTypes = Arrays.copyOf(this.frameTypes, capacity);
+		this.transports = Arrays.copyOf(this.transports, capacity);
+		this.addresses = Arrays.copyOf(this.addresses, 2 * ADDRESS_LENGTH * capacity);
+		this.ports = Arrays.copyOf(this.ports, capacity);
+		this.callIdKeys = Arrays.copyOf(this.callIdKeys, capacity);
+		this.relatedCallIdKeys = Arrays.copyOf(this.relatedCallIdKeys, capacity);
+	}
+
+	/**
+	 * Adds the entry of a LogFrame read from the log file
+	 *
+	 * @param	logFrame	the LogFrame (whose lines must be ByteLines)
+	 */
+	private void add(ApktLog.LogFrame logFrame) {
+		ApktLog.ParsedHeaderLine parsedHeaderLine = logFrame.getParsedHeaderLine();
+		ByteLine headerLine = (ByteLine) logFrame.getLines().get(0);
+		long end = headerLine.getOffset() + headerLine.length();
+		for(CharSequence line: logFrame.getLines()) {
+			if(((ByteLine) line).getFile() != headerLine.getFile()) {
+				break; // The LogFrame goes on in the next file
+			};
+			end = ((ByteLine) line).getOffset() + line.length();
+		};
+		this.grow();
+		int entry = this.size;
+		this.offsets[entry] = headerLine.getOffset();
+		this.lengths[entry] = (int) (end - headerLine.getOffset());
+		this.timestamps[entry] = parsedHeaderLine.timestamp;
+		this.frameTypes[entry] = (byte) Math.max(0, Arrays.asList(FRAME_TYPES).indexOf(parsedHeaderLine.logFrameType));
+		boolean isSipMessage = parsedHeaderLine.logFrameType.equals(ApktLog.LOGFRAMETYPE_SIPMSG_SIP);
+		this.transports[entry] = (byte) (isSipMessage ? Math.max(0, Arrays.asList(TRANSPORTS).indexOf(logFrame.getTransportProtocol())) : 0);
+		putAddress(this.addresses, 2 * ADDRESS_LENGTH * entry, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow);
+		putAddress(this.addresses, 2 * ADDRESS_LENGTH * entry + ADDRESS_LENGTH, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow);
+		this.ports[entry] = ((Math.max(0, parsedHeaderLine.srcPort) & 0xFFFF) << 16) | (Math.max(0, parsedHeaderLine.dstPort) & 0xFFFF);
+		CharSequence callId = isSipMessage ? logFrame.getCallId() : null;
+		this.callIdKeys[entry] = this.addCallId((callId != null) ? callId.toString() : null);
+		this.relatedCallIdKeys[entry] = this.addCallId(isSipMessage ? logFrame.getRelatedCallId() : null);
+		this.size++;
+	}
+
+	/**
+	 * Writes an address (IPv4 addresses being already mapped into IPv6 ones) into an array
+	 *
+	 * @param	bytes	the array
+	 * @param	start	the index the address is written at
+	 * @param	high	the upper 64 bits of the address
+	 * @param	low		the lower 64 bits of the address
+	 */
+	private static void putAddress(byte[] bytes, int start, long high, long low) {
+		for(int i = 0; i < 8; i++) {
+			bytes[start + i] = (byte) (high >>> (56 - 8 * i));
+			bytes[start + 8 + i] = (byte) (low >>> (56 - 8 * i));
+		};
+	}
+
+	/**
+	 * Loads the index of a log file, provided it is still valid
+	 *
+	 * @param	logFile		the log file
+	 * @param	logType		the log type of the file (one of ApktLog.LOGTYPES)
+	 * @param	timeZone	the time zone in which the SBC wrote the log
+	 * @return				the LogIndex, or null if there is no valid index file
+	 */
+	public static LogIndex load(File logFile, String logType, TimeZone timeZone) {
+		File indexFile = getIndexFile(logFile);
+		if(!indexFile.isFile()) {
+			return null;
+		};
+		FileInputStream fileInputStream = null;
+		try {
+			// The whole index file is read at once, and its entries decoded out of the buffer
+			fileInputStream = new FileInputStream(indexFile);
+			FileChannel channel = fileInputStream.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while(buffer.hasRemaining() && (channel.read(buffer) >= 0)) {};
+			ByteArrayInputStream headerInput = new ByteArrayInputStream(buffer.array(), 0, buffer.position());
+			DataInputStream input = new DataInputStream(headerInput);
+			if(!isValidHeader(input, logFile, logType, timeZone)) {
+				return null;
+			};
+			int size = input.readInt();
+			buffer.limit(buffer.position());
+			buffer.position(buffer.limit() - headerInput.available());
+			if(buffer.remaining() < size * ENTRY_LENGTH) {
+				return null;
+			};
+			LogIndex index = new LogIndex(logFile, Math.max(1, size));
+			for(int entry = 0; entry < size; entry++) {
+				index.offsets[entry] = buffer.getLong();
+				index.lengths[entry] = buffer.getInt();
+				index.timestamps[entry] = buffer.getLong();
+				index.frameTypes[entry] = buffer.get();
+				index.transports[entry] = buffer.get();
+				buffer.get(index.addresses, 2 * ADDRESS_LENGTH * entry, 2 * ADDRESS_LENGTH);
+				index.ports[entry] = buffer.getInt();
+				index.callIdKeys[entry] = buffer.getInt();
+				index.relatedCallIdKeys[entry] = buffer.getInt();
+			};
+			index.size = size;
+			int callIdCount = buffer.getInt();
+			byte[] callIdBytes;
+			for(int key = 0; key < callIdCount; key++) {
+				callIdBytes = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(callIdBytes);
+				index.callIds.add(new String(callIdBytes, ISO_8859_1));
+			};
+			return index;
+		} catch(IOException ioe) {
+			return null; // An unreadable index is just like no index
+		} catch(RuntimeException e) {
+			return null; // Nor a corrupted one (e.g. with out of range frame types) is any good
+		} finally {
+			if(fileInputStream != null) {
+				try{ fileInputStream.close(); } catch(IOException ioe) {};
+			};
+		}
+	}
+
+	/**
+	 * Reads the header of an index file, telling whether the index is valid for a log file
+	 *
+	 * @param	input		the input stream of the index file
+	 * @param	logFile		the log file
+	 * @param	logType		the log type of the file (one of ApktLog.LOGTYPES)
+	 * @param	timeZone	the time zone in which the SBC wrote the log
+	 * @return				whether the index was built for the log file as it is now, with the same log type and time zone
+	 * @throws	IOException	if the index file cannot be read
+	 */
+	private static boolean isValidHeader(DataInputStream input, File logFile, String logType, TimeZone timeZone) throws IOException {
+		return input.readUTF().equals(MAGIC) && input.readUTF().equals(logType) && input.readUTF().equals(timeZone.getID())
+				&& (input.readLong() == logFile.length()) && (input.readLong() == logFile.lastModified());
+	}
+
+	/**
+	 * Tells whether all the log files of a set have valid index files, just reading their headers
+	 *
+	 * @param	logFiles	the log files
+	 * @param	logType		the log type of the files (one of ApktLog.LOGTYPES)
+	 * @param	timeZone	the time zone in which the SBC wrote the logs
+	 * @return				whether all of them are indexed
+	 */
+	public static boolean isIndexed(List<File> logFiles, String logType, TimeZone timeZone) {
+		DataInputStream input;
+		boolean isValid;
+		for(File logFile: logFiles) {
+			input = null;
+			try {
+				input = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile(logFile)), 1024));
+				isValid = isValidHeader(input, logFile, logType, timeZone);
+			} catch(IOException ioe) {
+				isValid = false;
+			} finally {
+				if(input != null) {
+					try{ input.close(); } catch(IOException ioe) {};
+				};
+			}
+			if(!isValid) {
+				return false;
+			};
+		};
+		return true;
+	}
+
+	/**
+	 * Saves the index file (writing a temporary one first, so a half-written index file is never left)
+	 *
+	 * @param	logType		the log type of the file (one of ApktLog.LOGTYPES)
+	 * @param	timeZone	the time zone in which the SBC wrote the log
+	 * @throws	IOException	if the index file cannot be written (e.g. the log is in a read-only directory)
+	 */
+	public void save(String logType, TimeZone timeZone) throws IOException {
+		File indexFile = getIndexFile(this.logFile);
+		DataOutputStream output = AppCore.createTemporaryFile(indexFile);
+		try {
+			output.writeUTF(MAGIC);
+			output.writeUTF(logType);
+			output.writeUTF(timeZone.getID());
+			output.writeLong(this.logFile.length());
+			output.writeLong(this.logFile.lastModified());
+			output.writeInt(this.size);
+			ByteBuffer buffer = ByteBuffer.allocate(Math.min(this.size, MIN_CAPACITY) * ENTRY_LENGTH);
+			for(int entry = 0; entry < this.size; entry++) {
+				buffer.putLong(this.offsets[entry]);
+				buffer.putInt(this.lengths[entry]);
+				buffer.putLong(this.timestamps[entry]);
+				buffer.put(this.frameTypes[entry]);
+				buffer.put(this.transports[entry]);
+				buffer.put(this.addresses, 2 * ADDRESS_LENGTH * entry, 2 * ADDRESS_LENGTH);
+				buffer.putInt(this.ports[entry]);
+				buffer.putInt(this.callIdKeys[entry]);
+				buffer.putInt(this.relatedCallIdKeys[entry]);
+				if(!buffer.hasRemaining() || (entry == this.size - 1)) {
+					output.write(buffer.array(), 0, buffer.position());
+					buffer.clear();
+				};
+			};
+			output.writeInt(this.callIds.size());
+			byte[] callIdBytes;
+			for(String callId: this.callIds) {
+				callIdBytes = callId.getBytes(ISO_8859_1);
+				output.writeShort(callIdBytes.length);
+				output.write(callIdBytes);
+			};
+		} finally {
+			output.close();
+		}
+		AppCore.replaceFile(indexFile);
+	}
+
+	/**
+	 * Loads the indexes of a set of log files, provided all of them are valid
+	 *
+	 * @param	logFiles	the log files (already sorted, see AppCore.sortLogFiles())
+	 * @param	logType		the log type of the files (one of ApktLog.LOGTYPES)
+	 * @param	timeZone	the time zone in which the SBC wrote the logs
+	 * @return				the indexes (in the order of the files), or null if any of them is missing or outdated
+	 */
+	public static List<LogIndex> loadAll(List<File> logFiles, String logType, TimeZone timeZone) {
+		List<LogIndex> indexes = new ArrayList<LogIndex>();
+		LogIndex index;
+		for(File logFile: logFiles) {
+			index = load(logFile, logType, timeZone);
+			if(index == null) {
+				return null;
+			};
+			indexes.add(index);
+		};
+		return indexes;
+	}
+
+	/**
+	 * Wraps an iteration of the LogFrames of a set of log files (read from the beginning, in
+	 * order), building and saving the index of each file as its LogFrames go by
+	 * (an index file which cannot be saved is just left behind)
+	 *
+	 * @param	logFrames	the iterator of LogFrames (whose lines must be ByteLines)
+	 * @param	logFiles	the log files (already sorted, see AppCore.sortLogFiles())
+	 * @param	logType		the log type of the files (one of ApktLog.LOGTYPES)
+	 * @param	timeZone	the time zone in which the SBC wrote the logs
+	 * @return				the iterator of the same LogFrames
+	 */
+	public static Iterator<ApktLog.LogFrame> indexing(Iterator<ApktLog.LogFrame> logFrames, List<File> logFiles, String logType, TimeZone timeZone) {
+		return new IndexingIterator(logFrames, logFiles, logType, timeZone);
+	}
+
+	/**
+	 * IndexingIterator object represents the iteration of LogFrames indexed by indexing()
+	 */
+	private static class IndexingIterator implements Iterator<ApktLog.LogFrame> {
+		private final Iterator<ApktLog.LogFrame> logFrames;
+		private final List<File> logFiles;
+		private final String logType;
+		private final TimeZone timeZone;
+		private int fileIndex;
+		private LogIndex index;
+
+		IndexingIterator(Iterator<ApktLog.LogFrame> logFrames, List<File> logFiles, String logType, TimeZone timeZone) {
+			this.logFrames = logFrames;
+			this.logFiles = logFiles;
+			this.logType = logType;
+			this.timeZone = timeZone;
+			this.fileIndex = -1;
+			this.index = null;
+		}
+
+		/**
+		 * Saves the index being built and moves on to that of the next file
+		 */
+		private void nextFile() {
+			if(this.index != null) {
+				try {
+					this.index.save(this.logType, this.timeZone);
+				} catch(IOException ioe) {
+					// The conversion goes on without the index
+				};
+			};
+			this.fileIndex++;
+			this.index = (this.fileIndex < this.logFiles.size()) ? new LogIndex(this.logFiles.get(this.fileIndex), MIN_CAPACITY) : null;
+		}
+
+		public boolean hasNext() {
+			boolean hasNext = this.logFrames.hasNext();
+			if(!hasNext) {
+				while(this.fileIndex < this.logFiles.size()) {
+					this.nextFile(); // Files with no LogFrames get empty indexes
+				};
+			};
+			return hasNext;
+		}
+
+		public ApktLog.LogFrame next() {
+			ApktLog.LogFrame logFrame = this.logFrames.next();
+			File file = ((ByteLine) logFrame.getLines().get(0)).getFile();
+			if(this.fileIndex < 0) {
+				this.nextFile();
+			};
+			while((this.index != null) && !this.index.logFile.equals(file)) {
+				this.nextFile();
+			};
+			if(this.index != null) {
+				this.index.add(logFrame);
+			};
+			return logFrame;
+		}
+
+		public void remove() {
+			throw(new UnsupportedOperationException());
+		}
+	}
+
+}
@@ -13,7 +13,7 @@ public abstract class LogProtoParser<T> {
 		 * Instance variables
 		 */
 		public T parsedHeaderLine;
-		public List<String> lines;
+		public List<CharSequence> lines;
 	}
 
 	/**
@@ -24,30 +24,80 @@ public abstract class LogProtoParser<T> {
 	 * @param	line	the log line to be parsed 
 	 * @return			a T object
 	 */
-	public abstract <T> T parseHeaderLine(String Line);
+	public abstract T parseHeaderLine(CharSequence line);
+
+	/*
+	 * Instance variables
+	 */
+	private ConversionMetrics.Recorder recorder = null;
+
+	/**
+	 * Sets the Recorder counting the lines read and the header lines parsed (or failing to be
+	 * parsed) by the iterators returned by parse() from now on (null means none)
+	 *
+	 * @param	recorder	the Recorder (only to be used by the thread iterating the LogFrames)
+	 */
+	public void setRecorder(ConversionMetrics.Recorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * This method makes a cheap check on one line to tell whether it might be a header line,
+	 * so parseHeaderLine() is only invoked on the lines passing it. Implementations must never
+	 * return false for a line parseHeaderLine() would parse as a header line.
+	 *
+	 * By default every line is considered a candidate.
+	 *
+	 * @param	line	the log line to be checked
+	 * @return			false if the line cannot be a header line
+	 */
+	public boolean isHeaderCandidate(CharSequence line) {
+		return true;
+	}
+
+	/**
+	 * Parses the line if it passes isHeaderCandidate()
+	 *
+	 * @param	line	the log line to be parsed
+	 * @return			a T object, or null if it is not a header line
+	 */
+	private T parseCandidateLine(CharSequence line) {
+		if(!this.isHeaderCandidate(line)) {
+			return null;
+		};
+		T parsedHeaderLine = this.parseHeaderLine(line);
+		if(this.recorder != null) {
+			this.recorder.headerLine(line, parsedHeaderLine != null);
+		};
+		return parsedHeaderLine;
+	}
 
 	/**
 	 * This method gets an iterator of lines and returns an iterator of LogFrames:
+	 * (lines can be any CharSequence, such as Strings or ByteLines, and they are kept
+	 * as they come in the LogFrames)
 	 *
 	 * @param	lineIterator	the log line iterator
 	 * @return					an iterator of LogFrames
 	 */
-	public <T> Iterator<LogFrame<T>> parse(Iterator<String> lineIterator) {
-		return new LogFrameIterator<T>(lineIterator);
+	public Iterator<LogFrame<T>> parse(Iterator<? extends CharSequence> lineIterator) {
+		return new LogFrameIterator(lineIterator);
 	}
 
 	/**
 	 * LogFrameIterator object represents an iteration of log frames, which are
 	 * eventually read from one or more log files.
 	 */
-	private class LogFrameIterator<T> implements Iterator<LogFrame<T>> {
+	private class LogFrameIterator implements Iterator<LogFrame<T>> {
 		
 		/*
 		 * Instance variables
 		 */
-		private Iterator<String> lineIterator;
+		private Iterator<? extends CharSequence> lineIterator;
+		private final ConversionMetrics.Recorder recorder;
 		private LogFrame<T> cachedNext;
-		private String cachedLogLine;
+		private CharSequence cachedLogLine;
+		private T cachedParsedHeaderLine; // the cached log line parsed (it is the header line of the next LogFrame)
 		
 		/**
 		 * Constructor method taking a byte array as input parameter
@@ -56,16 +106,30 @@ public abstract class LogProtoParser<T> {
 		 * @param	lineIterator	an iterator with the log lines
 		 * @return				the newly created LogFrameIterator object
 		 */
-		public LogFrameIterator(Iterator<String> lineIterator) {
+		public LogFrameIterator(Iterator<? extends CharSequence> lineIterator) {
 			this.lineIterator = lineIterator;
+			this.recorder = LogProtoParser.this.recorder;
 			this.cachedNext = null;
 			this.cachedLogLine = null;
+			this.cachedParsedHeaderLine = null;
 		}
 		
+		/**
+		 * Reads the next line (counting it, if there is a Recorder)
+		 *
+		 * @return	the line, or null if there are no more
+		 */
+		private CharSequence nextLine() {
+			if(this.recorder != null) {
+				return this.recorder.readLine(this.lineIterator);
+			};
+			return this.lineIterator.hasNext() ? this.lineIterator.next() : null;
+		}
+
 		private LogFrame<T> getNext() {
 			LogFrame<T> next = null;
 			T parsedHeaderLine = null;
-			String logLine = null;
+			CharSequence logLine = null;
 			
 			if(this.cachedNext != null) {
 				// We've already read next object from previous invocaton of hasNext() method
@@ -78,13 +142,17 @@ public abstract class LogProtoParser<T> {
 				 // First of all we read the cached log line (if any)
 				logLine = this.cachedLogLine;
 				if(logLine != null) {
+					parsedHeaderLine = this.cachedParsedHeaderLine;
 					this.cachedLogLine = null;
-					parsedHeaderLine = LogProtoParser.this.parseHeaderLine(logLine);
+					this.cachedParsedHeaderLine = null;
 				};
 				// Then we iterate with the next log lines
-				while((parsedHeaderLine == null) && (this.lineIterator.hasNext())) {
-					logLine = this.lineIterator.next();
-					parsedHeaderLine = LogProtoParser.this.parseHeaderLine(logLine);
+				while(parsedHeaderLine == null) {
+					logLine = this.nextLine();
+					if(logLine == null) {
+						break;
+					};
+					parsedHeaderLine = LogProtoParser.this.parseCandidateLine(logLine);
 				};
 				/*
 				 * Now we should have found the header line if any
@@ -93,22 +161,19 @@ public abstract class LogProtoParser<T> {
 					// Found header line, so we create the LogFrame and add the header line
 					next = new LogFrame<T>();
 					next.parsedHeaderLine = parsedHeaderLine;
-					next.lines = new ArrayList<String>();
+					next.lines = new ArrayList<CharSequence>();
 					next.lines.add(logLine);
 					// Now we add extra lines if any
-					while(this.lineIterator.hasNext()) {
-						logLine = this.lineIterator.next();
-						parsedHeaderLine = LogProtoParser.this.parseHeaderLine(logLine);
+					while((logLine = this.nextLine()) != null) {
+						parsedHeaderLine = LogProtoParser.this.parseCandidateLine(logLine);
 						if(parsedHeaderLine == null) {
 							next.lines.add(logLine);
 						} else {
 							this.cachedLogLine = logLine;
+							this.cachedParsedHeaderLine = parsedHeaderLine;
 							break;
 						};
 					};
-					if(!this.lineIterator.hasNext()) {
-						this.cachedLogLine = null;
-					};
 				};
 			};
 			return next;
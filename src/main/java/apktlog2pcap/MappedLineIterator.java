@@ -0,0 +1,203 @@
+package apktlog2pcap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+import java.lang.UnsupportedOperationException;
+
+/**
+ * MappedLineIterator object represents an iteration of the lines of a log file, which is
+ * memory-mapped so its lines are returned as ByteLine slices over the mapped bytes, with no
+ * char decoding at all.
+ *
+ * Since files can be bigger than what one single mapping can hold, the file is mapped in
+ * consecutive windows, each one of them starting at the beginning of a line (so no line is
+ * ever split between two windows). Lines are terminated by LF, CR or CRLF, just like
+ * BufferedReader.readLine() does.
+ *
+ * The iteration can also be restricted to a byte range of the file, which must start at the
+ * beginning of a line (so a file can be split into pieces to be parsed separately).
+ */
+public class MappedLineIterator implements ByteLineIterator {
+
+	private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/*
+	 * Instance variables
+	 */
+	private final File file;
+	private final int windowSize;
+	private FileChannel channel;
+	private long start;
+	private long end;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int windowLimit;
+	private int position;
+	private ByteLine cachedNext;
+
+	/**
+	 * Constructor method taking a file as input parameter
+	 *
+	 * @param	file	a text file
+	 */
+	public MappedLineIterator(File file) {
+		this(file, 0, Long.MAX_VALUE, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructor method taking a file and a byte range of it as input parameters
+	 *
+	 * @param	file	a text file
+	 * @param	start	the offset of the first byte of the range (at the beginning of a line)
+	 * @param	end		the offset following the last byte of the range (beyond the end of the file means up to its end)
+	 */
+	public MappedLineIterator(File file, long start, long end) {
+		this(file, start, end, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructor method taking a file, a byte range of it and the size of the mapping windows as input parameters
+	 *
+	 * @param	file		a text file
+	 * @param	start		the offset of the first byte of the range (at the beginning of a line)
+	 * @param	end			the offset following the last byte of the range (beyond the end of the file means up to its end)
+	 * @param	windowSize	the size of each mapping window (it grows if a line does not fit in it)
+	 */
+	public MappedLineIterator(File file, long start, long end, int windowSize) {
+		this.file = file;
+		this.windowSize = windowSize;
+		try {
+			this.channel = (new FileInputStream(file)).getChannel();
+			this.start = Math.min(start, this.channel.size());
+			this.end = Math.max(this.start, Math.min(end, this.channel.size()));
+		} catch(IOException ioe) {
+			this.channel = null;
+			throw(new RuntimeException("Failed to open " + this.file.getPath(), ioe));
+		};
+		this.window = null;
+		this.windowStart = 0;
+		this.windowLimit = 0;
+		this.position = 0;
+		this.cachedNext = null;
+	}
+
+	/**
+	 * Maps the window starting at the given file offset
+	 *
+	 * @param	start	the file offset
+	 * @param	size	the minimum size of the window (if the file is big enough)
+	 */
+	private void mapWindow(long start, int size) {
+		long mappedSize = Math.min((long) size, this.end - start);
+		try {
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, mappedSize);
+		} catch(IOException ioe) {
+			throw(new RuntimeException("IOException while mapping " + this.file.getPath(), ioe));
+		};
+		this.windowStart = start;
+		this.windowLimit = (int) mappedSize;
+		this.position = 0;
+	}
+
+	/**
+	 * Closes the underlying channel, so no more lines will be returned
+	 * (there is no need to invoke it once the iteration has been completed)
+	 */
+	public void close() {
+		if(this.channel != null) {
+			try{ this.channel.close(); } catch(IOException ioe) {};
+			this.channel = null;
+		};
+		this.window = null;
+		this.cachedNext = null;
+	}
+
+	private ByteLine getNext() {
+		ByteLine next = null;
+		if(this.cachedNext != null) {
+			next = this.cachedNext; // We get the value cached at a previous invocaton of hasNext() method
+			this.cachedNext = null; // We consume the cached one so it won't be available in next read
+		} else if(this.channel != null) {
+			if(this.window == null) {
+				this.mapWindow(this.start, this.windowSize);
+			};
+			while(next == null) {
+				boolean windowReachesEnd = (this.windowStart + this.windowLimit) >= this.end;
+				if(this.position >= this.windowLimit) {
+					if(windowReachesEnd) {
+						// Nothing more to read
+						this.close();
+						break;
+					};
+					this.mapWindow(this.windowStart + this.position, this.windowSize);
+					continue;
+				};
+				int lineStart = this.position;
+				int index = lineStart;
+				byte b = 0;
+				while(index < this.windowLimit) {
+					b = this.window.get(index);
+					if((b == '\n') || (b == '\r')) {
+						break;
+					};
+					index++;
+				};
+				if((index < this.windowLimit) && ((b == '\n') || (index + 1 < this.windowLimit) || windowReachesEnd)) {
+					// Terminated line (a CR at the end of the window is only taken if we know what comes next)
+					next = new ByteLine(this.window, lineStart, index - lineStart, this.windowStart + lineStart, this.file);
+					index++;
+					if((b == '\r') && (index < this.windowLimit) && (this.window.get(index) == '\n')) {
+						index++;
+					};
+					this.position = index;
+				} else if(windowReachesEnd) {
+					// Last line of the range, with no line terminator
+					next = new ByteLine(this.window, lineStart, index - lineStart, this.windowStart + lineStart, this.file);
+					this.position = index;
+				} else {
+					// The line does not fit in the rest of the window, so we map a new one starting at the line
+					this.mapWindow(this.windowStart + lineStart, Math.max(this.windowSize, 2 * (index - lineStart + 1)));
+				};
+			};
+		};
+		return next;
+	}
+
+	/**
+	 * Returns true if the iteration has more elements.
+	 * (In other words, returns true if next would return an element rather than throwing an exception.)
+	 *
+	 * @return	whether the iteration has more elements
+	 */
+	public boolean hasNext() {
+		this.cachedNext = this.getNext();
+		return (this.cachedNext != null);
+	}
+
+	/**
+	 * Returns the next element in the iteration.
+	 *
+	 * @return	the next element in the iteration.
+	 */
+	public ByteLine next() {
+		ByteLine next = this.getNext();
+		if(next == null) {
+			throw(new NoSuchElementException());
+		};
+		return next;
+	}
+
+	/**
+	 * Removes from the underlying collection the last element returned by the iterator (optional operation). This method can be called only once per call to next.
+	 * The behavior of an iterator is unspecified if the underlying collection is modified while the iteration is in progress in any way other than by calling this method.
+	 *
+	 */
+	public void remove() {
+		throw(new UnsupportedOperationException());
+	}
+
+}
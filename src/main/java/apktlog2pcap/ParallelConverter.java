@@ -0,0 +1,444 @@
+package apktlog2pcap;
+
+import jfnlite.Fn;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ParallelConverter object converts a set of log files of the same type into PCAP frames
+ * making use of several threads, writing exactly the same frames (in the same order) than
+ * the single-threaded conversion of AppCore does.
+ *
+ * The log files are split into chunks of about ConversionOptions.chunkSize bytes, each one of
+ * them starting at a header line (so no LogFrame is ever split between two chunks). The chunks
+ * are parsed and encoded by a pool of worker threads, and written in their original order as
+ * soon as they are ready. There are two pieces of state flowing from one chunk to the next one,
+ * which are handled as follows:
+ *     - The year of the timestamps (see TimestampCalculator): each chunk is seeded with the year
+ *       inferred when splitting (out of the first header line of each chunk only), and once
+ *       the previous chunk has been converted, the seed is checked against the year and month
+ *       it actually ended with. In the unlikely case of a mismatch, the chunk is converted again
+ *       with the right seed
+ *     - The TCP and SCTP sequence numbers (see PcapSession): workers build the TCP and SCTP frames with
+ *       zeroed sequence numbers and keep track of where they are, and the sequence numbers are
+ *       patched in, in frame order, just before the chunk is written
+ *
+ * For pcapng output, workers also keep the SBC interface, VLAN and origin of each frame, so
+ * the frames can be turned into pcapng blocks (see PcapngWriter) when the chunk is written.
+ * LogFrames of calls not wanted (see FrameFilter) are dropped by the workers, before being encoded.
+ * Each worker counts the work done on a chunk on a Recorder of its own, which is published into the
+ * ConversionMetrics when the chunk is written (so chunks converted again are not counted twice).
+ */
+public class ParallelConverter {
+
+	private static final long MIN_CHUNK_SIZE = 64 * 1024; // smaller chunks would just mean lots of mappings (each chunk maps its own)
+	private static final int SCAN_WINDOW_SIZE = 64 * 1024; // header lines are looked for in small windows, since they are usually close
+
+	/*
+	 * Instance variables
+	 */
+	private final List<File> logFiles;
+	private final String logType;
+	private final TimeZone timeZone;
+	private final long referenceTime;
+	private final int threads;
+	private final ExecutorService executor; // shared with other conversions (null means a pool of its own)
+	private final long chunkSize;
+	private final PcapSession session;
+	private final boolean isPcapng;
+	private final boolean isCommented;
+	private final FrameFilter frameFilter;
+
+	/**
+	 * Constructs the ParallelConverter
+	 *
+	 * @param	logFiles	the log files (already sorted, see AppCore.sortLogFiles())
+	 * @param	logType		the log type of the files (one of ApktLog.LOGTYPES)
+	 * @param	options		the conversion options (time zone, threads, chunk size, output format and
+	 * 						Call-IDs, which cannot include related dialogs, see FrameFilter.isStateful())
+	 * @param	session		the PcapSession keeping track of the TCP and SCTP sequence numbers
+	 */
+	public ParallelConverter(List<File> logFiles, String logType, ConversionOptions options, PcapSession session) {
+		this(logFiles, logType, options, null, session);
+	}
+
+	/**
+	 * Constructs the ParallelConverter, converting the chunks on an executor shared with other conversions
+	 * rather than on a pool of its own (so conversions running concurrently never convert more than
+	 * ConversionOptions.threads chunks at once, and those still running take over the workers of those over)
+	 *
+	 * @param	logFiles	the log files (already sorted, see AppCore.sortLogFiles())
+	 * @param	logType		the log type of the files (one of ApktLog.LOGTYPES)
+	 * @param	options		the conversion options (time zone, threads, chunk size, output format and
+	 * 						Call-IDs, which cannot include related dialogs, see FrameFilter.isStateful())
+	 * @param	executor	the executor, with ConversionOptions.threads threads (null means a pool of its own)
+	 * @param	session		the PcapSession keeping track of the TCP and SCTP sequence numbers
+	 */
+	public ParallelConverter(List<File> logFiles, String logType, ConversionOptions options, ExecutorService executor, PcapSession session) {
+		this.logFiles = logFiles;
+		this.logType = logType;
+		this.timeZone = options.timeZone;
+		this.referenceTime = System.currentTimeMillis();
+		this.threads = Math.max(1, options.threads);
+		this.executor = executor;
+		this.chunkSize = Math.max(MIN_CHUNK_SIZE, options.chunkSize);
+		this.session = session;
+		this.isPcapng = options.pcapng;
+		this.isCommented = options.packetComments;
+		this.frameFilter = new FrameFilter(options);
+	}
+
+	/**
+	 * Segment object is a byte range of a log file
+	 */
+	private static class Segment {
+		final File file;
+		final long start;
+		final long end;
+		Segment(File file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Chunk object is a sequence of segments to be converted by one worker, along with the
+	 * state of the TimestampCalculator it must start with
+	 */
+	private static class Chunk {
+		final List<Segment> segments = new ArrayList<Segment>();
+		final int seedYear;		// year of the first header line (-1 for the first chunk)
+		final int firstMonth;	// month of the first header line (-1 for the first chunk)
+		long length = 0;
+		Chunk(int seedYear, int firstMonth) {
+			this.seedYear = seedYear;
+			this.firstMonth = firstMonth;
+		}
+		void add(Segment segment) {
+			this.segments.add(segment);
+			this.length += segment.end - segment.start;
+		}
+	}
+
+	/**
+	 * SeqNumPatch object tells where a TCP or SCTP frame is within a ChunkResult, and the data
+	 * required to compute its sequence numbers
+	 */
+	private static class SeqNumPatch {
+		final int frameOffset;
+		final ApktLog.ParsedHeaderLine parsedHeaderLine;
+		final String transportProtocol;
+		final int payloadLength;
+		SeqNumPatch(int frameOffset, ApktLog.ParsedHeaderLine parsedHeaderLine, String transportProtocol, int payloadLength) {
+			this.frameOffset = frameOffset;
+			this.parsedHeaderLine = parsedHeaderLine;
+			this.transportProtocol = transportProtocol;
+			this.payloadLength = payloadLength;
+		}
+	}
+
+	/**
+	 * FrameOrigin object tells the SBC interface and VLAN of a frame within a ChunkResult, and
+	 * its comment (the log file and offset it comes from), as required by pcapng output
+	 */
+	private static class FrameOrigin {
+		final int ifc;
+		final int vid;
+		final String comment;
+		FrameOrigin(int ifc, int vid, String comment) {
+			this.ifc = ifc;
+			this.vid = vid;
+			this.comment = comment;
+		}
+	}
+
+	/**
+	 * ChunkResult object holds the PCAP frames a chunk has been converted into
+	 */
+	private static class ChunkResult {
+		byte[] frames;
+		int length = 0;
+		final List<SeqNumPatch> seqNumPatches = new ArrayList<SeqNumPatch>();
+		final List<FrameOrigin> frameOrigins = new ArrayList<FrameOrigin>();
+		int endYear;	// year of the last header line of the chunk
+		int endMonth;	// month of the last header line of the chunk
+		ConversionMetrics.Recorder recorder; // work done converting the chunk
+		ChunkResult(int capacity) {
+			this.frames = new byte[capacity];
+		}
+		void append(byte[] bytes, int length) {
+			if(this.length + length > this.frames.length) {
+				byte[] frames = new byte[Math.max(2 * this.frames.length, this.length + length)];
+				System.arraycopy(this.frames, 0, frames, 0, this.length);
+				this.frames = frames;
+			};
+			System.arraycopy(bytes, 0, this.frames, this.length, length);
+			this.length += length;
+		}
+	}
+
+	/**
+	 * ChunkTask object converts one chunk into PCAP frames
+	 */
+	private class ChunkTask implements Callable<ChunkResult> {
+		private final Chunk chunk;
+		private final int seedYear;
+		private final ConversionMetrics metrics;
+		ChunkTask(Chunk chunk, int seedYear, ConversionMetrics metrics) {
+			this.chunk = chunk;
+			this.seedYear = seedYear;
+			this.metrics = metrics;
+		}
+		public ChunkResult call() {
+			TimestampCalculator timestampCalculator = new TimestampCalculator(ParallelConverter.this.timeZone, ParallelConverter.this.referenceTime);
+			if(this.seedYear >= 0) {
+				timestampCalculator.resume(this.seedYear, this.chunk.firstMonth);
+			};
+			Fn.Function<Segment,Iterator<ByteLine>> segmentToLines = new Fn.Function<Segment,Iterator<ByteLine>>() {
+				public Iterator<ByteLine> apply(Segment segment) {
+					if(AppCore.isCompressedLogFile(segment.file)) {
+						return new GzipLineIterator(segment.file);
+					};
+					return new MappedLineIterator(segment.file, segment.start, segment.end);
+				}
+			};
+			Iterator<ByteLine> lines = Fn.flatten(Fn.map(this.chunk.segments.iterator(), segmentToLines));
+			ConversionMetrics.Recorder recorder = this.metrics.newDeferredRecorder();
+			LogProtoParser<ApktLog.ParsedHeaderLine> parser = ApktLog.createLogParser(ParallelConverter.this.logType, timestampCalculator);
+			parser.setRecorder(recorder);
+			Iterator<ApktLog.LogFrame> logFrames = ApktLog.parse(lines, parser);
+			ChunkResult result = new ChunkResult((int) Math.min(Integer.MAX_VALUE - 8, this.chunk.length + this.chunk.length / 4 + 1024));
+			PcapFrameBuilder builder = new PcapFrameBuilder();
+			ApktLog.LogFrame logFrame;
+			long time = System.nanoTime();
+			while(logFrames.hasNext()) {
+				logFrame = logFrames.next();
+				if(!ParallelConverter.this.frameFilter.matches(logFrame)) {
+					continue;
+				};
+				time = recorder.parsed(time);
+				int frameOffset = result.length;
+				AppCore.encodeLogFrame(logFrame, builder, null);
+				result.append(builder.getBuffer(), builder.getLength());
+				if(logFrame.getParsedHeaderLine().logFrameType.equals(ApktLog.LOGFRAMETYPE_SIPMSG_SIP) && (logFrame.getTransportProtocol() != ApktLog.TRANSPORT_UDP)) {
+					result.seqNumPatches.add(new SeqNumPatch(frameOffset, logFrame.getParsedHeaderLine(), logFrame.getTransportProtocol(), logFrame.getPayloadLength()));
+				};
+				if(ParallelConverter.this.isPcapng) {
+					result.frameOrigins.add(new FrameOrigin(logFrame.getParsedHeaderLine().ifc, logFrame.getParsedHeaderLine().vid, ParallelConverter.this.isCommented ? PcapngWriter.getComment(logFrame) : null));
+				};
+				recorder.frame(logFrame);
+				time = recorder.encoded(time);
+			};
+			recorder.parsed(time);
+			result.recorder = recorder;
+			result.endYear = timestampCalculator.getYear();
+			result.endMonth = timestampCalculator.getLastMonth();
+			return result;
+		}
+	}
+
+	/**
+	 * Converts the log files, writing the frames into the given PcapOutput (whose file header has
+	 * already been written). For pcapng output, the options given at construction must have asked for it.
+	 *
+	 * @param	pcapOutput		the PcapOutput
+	 * @param	metrics			the ConversionMetrics counting the work done
+	 * @throws	IOException		if the frames cannot be written
+	 */
+	public void writeTo(PcapOutput pcapOutput, ConversionMetrics metrics) throws IOException {
+		List<Chunk> chunks = this.split();
+		ExecutorService executor = (this.executor != null) ? this.executor : Executors.newFixedThreadPool(this.threads);
+		ConversionMetrics.Recorder recorder = metrics.newRecorder();
+		// At most one chunk per thread (plus the one being written) is held in memory
+		LinkedList<Future<ChunkResult>> pendingResults = new LinkedList<Future<ChunkResult>>();
+		try {
+			int submitted = 0;
+			Chunk chunk;
+			ChunkResult result;
+			ChunkResult previousResult = null;
+			for(int i = 0; i < chunks.size(); i++) {
+				while((submitted < chunks.size()) && (submitted <= i + this.threads)) {
+					chunk = chunks.get(submitted);
+					pendingResults.add(executor.submit(new ChunkTask(chunk, chunk.seedYear, metrics)));
+					submitted++;
+				};
+				result = getResult(pendingResults.removeFirst());
+				chunk = chunks.get(i);
+				if(previousResult != null) {
+					int year = this.inferYear(previousResult, chunk.firstMonth);
+					if(year != chunk.seedYear) {
+						// The year inferred when splitting was wrong, so we convert the chunk again
+						result = (new ChunkTask(chunk, year, metrics)).call();
+					};
+				};
+				long time = System.nanoTime();
+				this.patchSeqNums(result);
+				time = recorder.encoded(time);
+				if(this.isPcapng) {
+					int frameOffset = 0;
+					for(FrameOrigin frameOrigin: result.frameOrigins) {
+						frameOffset += pcapOutput.writeFrame(frameOrigin.ifc, frameOrigin.vid, frameOrigin.comment, result.frames, frameOffset);
+					};
+				} else {
+					pcapOutput.writeFrames(result.frames, result.length);
+				};
+				pcapOutput.flush(); // So streaming outputs get each chunk as soon as it is ready
+				recorder.written(time, pcapOutput.getLength());
+				recorder.publish();
+				result.recorder.publish();
+				previousResult = result;
+			};
+		} finally {
+			for(Future<ChunkResult> pendingResult: pendingResults) {
+				pendingResult.cancel(true);
+			};
+			if(this.executor == null) {
+				executor.shutdownNow();
+			};
+		}
+	}
+
+	/**
+	 * Gets the result of a ChunkTask, rethrowing any exception thrown by the worker
+	 *
+	 * @param	future	the Future of the ChunkTask
+	 * @return			the ChunkResult
+	 */
+	private static ChunkResult getResult(Future<ChunkResult> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw(new InterruptedIOException("Interrupted while converting log files"));
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw((RuntimeException) cause);
+			} else if(cause instanceof Error) {
+				throw((Error) cause);
+			};
+			throw(new RuntimeException(cause));
+		}
+	}
+
+	/**
+	 * Infers the year of the first header line of a chunk, out of the result of the previous one
+	 *
+	 * @param	previousResult	the result of the previous chunk
+	 * @param	month			the month of the first header line of the chunk
+	 * @return					the year
+	 */
+	private int inferYear(ChunkResult previousResult, int month) {
+		TimestampCalculator timestampCalculator = new TimestampCalculator(this.timeZone, this.referenceTime);
+		if(previousResult.endYear >= 0) {
+			timestampCalculator.resume(previousResult.endYear, previousResult.endMonth);
+		};
+		return timestampCalculator.inferYear(month);
+	}
+
+	/**
+	 * Fills in the sequence numbers of the TCP and SCTP frames of a chunk
+	 * (this must be done for every chunk in order, since sequence numbers depend on all the previous frames)
+	 *
+	 * @param	result	the ChunkResult
+	 */
+	private void patchSeqNums(ChunkResult result) {
+		ApktLog.ParsedHeaderLine parsedHeaderLine;
+		for(SeqNumPatch patch: result.seqNumPatches) {
+			parsedHeaderLine = patch.parsedHeaderLine;
+			this.session.setTime(parsedHeaderLine.timestamp);
+			if(patch.transportProtocol == ApktLog.TRANSPORT_SCTP) {
+				int seqNum = this.session.getSctpSeqNum(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, patch.payloadLength, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow);
+				PcapFrameBuilder.patchSctpFrame(result.frames, patch.frameOffset, seqNum);
+			} else {
+				long seqNum = this.session.getTcpSeqNum(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, patch.payloadLength, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow);
+				long ackNum = this.session.getTcpAckNum(parsedHeaderLine.srcPort, parsedHeaderLine.dstPort, patch.payloadLength, parsedHeaderLine.srcIpHigh, parsedHeaderLine.srcIpLow, parsedHeaderLine.dstIpHigh, parsedHeaderLine.dstIpLow);
+				PcapFrameBuilder.patchTcpFrame(result.frames, patch.frameOffset, seqNum, ackNum);
+			};
+		};
+	}
+
+	/**
+	 * Splits the log files into chunks, each one of them (but the first one) starting at the
+	 * first header line found from a multiple of the chunk size on (compressed files cannot be
+	 * split, so each one of them starts a chunk of its own instead)
+	 *
+	 * @return	the chunks, in order
+	 */
+	private List<Chunk> split() {
+		// The boundary header lines are parsed in order, so the TimestampCalculator infers the seed years
+		TimestampCalculator timestampCalculator = new TimestampCalculator(this.timeZone, this.referenceTime);
+		LogProtoParser<ApktLog.ParsedHeaderLine> parser = ApktLog.createLogParser(this.logType, timestampCalculator);
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		Chunk chunk = new Chunk(-1, -1);
+		long segmentStart;
+		long boundary;
+		long fileSize;
+		for(File file: this.logFiles) {
+			fileSize = file.length();
+			if(AppCore.isCompressedLogFile(file)) {
+				// Compressed files cannot be split, so each one of them is a segment of its own (whose bounds are ignored)
+				boundary = findHeaderLine(parser, file, 0, Long.MAX_VALUE);
+				if((boundary >= 0) && (chunk.segments.size() > 0)) {
+					chunks.add(chunk);
+					chunk = new Chunk(timestampCalculator.getYear(), timestampCalculator.getLastMonth());
+				};
+				chunk.add(new Segment(file, 0, fileSize));
+				continue;
+			};
+			segmentStart = 0;
+			for(long nominalStart = 0; nominalStart < fileSize; nominalStart += this.chunkSize) {
+				if(nominalStart < segmentStart) {
+					continue;
+				};
+				boundary = findHeaderLine(parser, file, nominalStart, Math.min(fileSize, nominalStart + this.chunkSize));
+				if(boundary < 0) {
+					continue;
+				};
+				if(boundary > segmentStart) {
+					chunk.add(new Segment(file, segmentStart, boundary));
+				};
+				if(chunk.segments.size() > 0) {
+					chunks.add(chunk);
+					chunk = new Chunk(timestampCalculator.getYear(), timestampCalculator.getLastMonth());
+				};
+				segmentStart = boundary;
+			};
+			if(fileSize > segmentStart) {
+				chunk.add(new Segment(file, segmentStart, fileSize));
+			};
+		};
+		if(chunk.segments.size() > 0) {
+			chunks.add(chunk);
+		};
+		return chunks;
+	}
+
+	/**
+	 * Looks for the first header line starting within the given byte range of a file
+	 * (parsing it with the given parser, so its TimestampCalculator gets updated)
+	 *
+	 * @param	parser	the parser
+	 * @param	file	the log file
+	 * @param	start	the offset the search starts at (not necessarily at the beginning of a line, and ignored for compressed files)
+	 * @param	end		the offset the search ends at
+	 * @return			the offset of the header line, or -1 if none was found
+	 */
+	private static long findHeaderLine(LogProtoParser<ApktLog.ParsedHeaderLine> parser, File file, long start, long end) {
+		ByteLine line = TimeRangeSeeker.findHeaderLine(parser, file, start, end, SCAN_WINDOW_SIZE);
+		return (line != null) ? line.getOffset() : -1;
+	}
+
+}
@@ -3,7 +3,6 @@ package apktlog2pcap;
 import java.util.List;
 import java.util.ArrayList;
 import java.net.InetAddress;
-import java.util.HashMap;
 
 /*
  * This class provides the tools that ptmf2pcap application needs to insert network
@@ -11,7 +10,7 @@ import java.util.HashMap;
  *     - Create a PCAP file out of a group of PCAP frames
  *     - Create a PCAP frame out of an Ethernet packet
  *     - Create an Ethernet packet out of an IP packet
- *     - Create an IPv4 packet out of a transport (UDP, TCP or SCTP) packet
+ *     - Create an IPv4 or IPv6 packet out of a transport (UDP, TCP or SCTP) packet
  *     - Create a transport packet (UDP, TCP or SCTP) out of a network message (SIP, Diameter, etc)
  * Note that, the methods creating IP and transport packets take as input only the most relevant parameters
  * (IPs, ports, protocol and body) but not all the parameters that are used to fill the IP and transport
@@ -40,9 +39,17 @@ public class Pcap {
 	
 	/*
 	 * Constants for ETHERNET PROTOCOL definitions
-	 * We are only defining the IDs for IPv4 protocol, since it is the only one we are using so far
+	 * We are only defining the IDs for IPv4 and IPv6 protocols, since they are the only ones we are using so far
 	 */
 	public static final byte[] ETHERTYPE_IPV4 = { (byte) 0x08, (byte) 0x00};
+	public static final byte[] ETHERTYPE_IPV6 = { (byte) 0x86, (byte) 0xDD};
+
+	/*
+	 * IP addresses are handled as two longs (the upper and the lower 64 bits of an IPv6 address),
+	 * IPv4 addresses being mapped into IPv6 ones (::ffff:a.b.c.d), so the addresses parsed out of
+	 * the logs need no InetAddress objects. An IPv4 address a.b.c.d is then (0, IPV4_MAPPED_PREFIX | a.b.c.d)
+	 */
+	public static final long IPV4_MAPPED_PREFIX = 0x0000FFFF00000000L;
 	
 	/*
 	 * Constants for IP PROTOCOL definitions
@@ -62,102 +69,10 @@ public class Pcap {
 	 * As transport layers (TCP and SCTP) make use of sequence numbers, we need to keep track of them
 	 * so we can fill them consistently in the transport frames we will generate (otherwise Wireshark
 	 * would mark them as resent or out of order frames)
-	 * Thus, in order to keep track of sequence numbers, for each transport layer we define a
-	 * "socket_id to sequence_number" hashmap
-	 *
-	 * Regarding SCTP, note that we are storing just a generic sequence number, whereas SCTP needs to manage
-	 * not just one but two different sequence numbers (Transmission Sequence Number and Stream Sequence Number).
-	 * However,since this ptmf2pcap application will only use one stream, one sequence number is enough to
-	 * easily generate both Transmission Sequence Number and Stream Sequence Number
-	 *
-	 * Note that this implementation for sequence number handling takes the assumption that the Pcap class
-	 * is only used in the context of one execution of ptmf2pcap application, so we never have two concurrent
-	 * processes making use of the Pcap class and possibly colisioning when updating the sequence number hashmap.
-	 * Otherwise we would need to implement sequence number handling at each TCP/SCTP encoding session, so we could
-	 * allow two TCP/SCTP encoding sessions to encode traffic for equivalent (same IPs and ports) sockets without
-	 * collisions in the sequence number handling
-	 */
-	private static HashMap<String,Long> tcpSeqNumHashMap = new HashMap<String,Long>();
-	private static HashMap<String,Integer> sctpTsnHashMap = new HashMap<String,Integer>();
-	
-	/**
-	 * Resets all TCP sequence numbering
-	 */
-	public static void resetTcpSeqNums() {
-		tcpSeqNumHashMap.clear();
-	};
-	
-	/**
-	 * Returns the TCP Sequence Number for the new TCP packet to be created with the provided parameters
-	 *
-	 * @param	srcPort		the source port of the TCP packet to be created
-	 * @param	dstPort		the destination port of the TCP packet to be created
-	 * @param	bodyLength	the body length of the TCP packet to be created
-	 * @param	srcIp		the source IP of the TCP packet to be created
-	 * @param	dstIp		the destination IP of the TCP packet to be created
-	 * @return				the TCP sequence number
-	 */
-	public static long getTcpSeqNum(int srcPort, int dstPort, int bodyLength, InetAddress srcIp, InetAddress dstIp) {
-		String seqNumKey = srcIp.getHostAddress() + ":" +Integer.toString(srcPort) + "-" + dstIp.getHostAddress() + ":" + Integer.toString(dstPort);
-		Long currentSeqNum = tcpSeqNumHashMap.get(seqNumKey);
-		if(currentSeqNum == null) {
-			currentSeqNum = new Long(0);
-		};
-		tcpSeqNumHashMap.put(seqNumKey, new Long((currentSeqNum.longValue() + (long)bodyLength)  % 4294967296L));
-		return currentSeqNum.longValue();
-	}
-	
-	/**
-	 * Returns the TCP Sequence Number to be acknowled by the new TCP packet to be created with the provided parameters
-	 *
-	 * @param	srcPort		the source port of the TCP packet to be created
-	 * @param	dstPort		the destination port of the TCP packet to be created
-	 * @param	bodyLength	the body length of the TCP packet to be created
-	 * @param	srcIp		the source IP of the TCP packet to be created
-	 * @param	dstIp		the destination IP of the TCP packet to be created
-	 * @return				the TCP sequence number to be acknowledged
+	 * That is done by PcapSession objects (one per conversion), so the methods creating TCP and SCTP
+	 * packets take the PcapSession they belong to
 	 */
-	public static long getTcpAckNum(int srcPort, int dstPort, int bodyLength, InetAddress srcIp, InetAddress dstIp) {
-		String ackNumKey = dstIp.getHostAddress() + ":" +Integer.toString(dstPort) + "-" + srcIp.getHostAddress() + ":" + Integer.toString(srcPort);
-		Long ackNum = tcpSeqNumHashMap.get(ackNumKey);
-		if(ackNum == null) {
-			ackNum = new Long(0);
-		};
-		return ackNum.longValue();
-	}
-	
-	/**
-	 * Resets all SCTP sequence numbering
-	 */
-	public static void resetSctpSeqNums() {
-		sctpTsnHashMap.clear();
-	};
-	
-	/**
-	 * Returns the SCTP Sequence Number for the new SCTP packet to be created with the provided parameters
-	 * Note that we are storing just a generic sequence number, whereas SCTP needs to manage not just one but
-	 * two different sequence numbers (Transmission Sequence Number and Stream Sequence Number). However,
-	 * since this ptmf2pcap application will only use one stream, one sequence number is enough to easily generate
-	 * both Transmission Sequence Number and Stream Sequence Number
-	 *
-	 * @param	srcPort		the source port of the SCTP packet to be created
-	 * @param	dstPort		the destination port of the SCTP packet to be created
-	 * @param	bodyLength	the body length of the SCTP packet to be created
-	 * @param	srcIp		the source IP of the SCTP packet to be created
-	 * @param	dstIp		the destination IP of the SCTP packet to be created
-	 * @return				the SCTP sequence number
-	 */
-	public static int getSctpSeqNum(int srcPort, int dstPort, int bodyLength, InetAddress srcIp, InetAddress dstIp) {
-		String seqNumKey = srcIp.getHostAddress() + ":" +Integer.toString(srcPort) + "-" + dstIp.getHostAddress() + ":" + Integer.toString(dstPort);
-		int seqNum;
-		Integer currentSeqNum = sctpTsnHashMap.get(seqNumKey);
-		if(currentSeqNum == null) {
-			currentSeqNum = new Integer(0);
-		};
-		sctpTsnHashMap.put(seqNumKey, new Integer((currentSeqNum.intValue() + 1) % 65536));
-		return currentSeqNum.intValue();
-	}
-	
+
 	/**
 	 * Returns a PCAP file header corresponding to the provided link type
 	 *
@@ -256,6 +171,124 @@ public class Pcap {
 		return ByteUtils.join(bytesArrayList);
 	};
 	
+	/**
+	 * Returns an IPv6 packet
+	 *
+	 * @param	srcIp		the source IP address (IPv4 addresses are mapped into IPv6 ones)
+	 * @param	dstIp		the destination IP address (IPv4 addresses are mapped into IPv6 ones)
+	 * @param	protocol	the protocol of the body to be included in the IPv6 packet
+	 * @param	body		the body to be included in the IPv6 packet
+	 * @return				the IPv6 packet
+	 */
+	public static byte[] createIpv6Packet(InetAddress srcIp, InetAddress dstIp, int protocol, byte[] body) {
+		ArrayList<byte[]> bytesArrayList = new ArrayList<byte[]>();
+		bytesArrayList.add(new byte[]{ (byte) 0x60, (byte) 0x00, (byte) 0x00, (byte) 0x00});				// version, traffic class, flow label
+		bytesArrayList.add(ByteUtils.intToByteArray(body.length, 2, false));								// payload length
+		bytesArrayList.add(ByteUtils.intToByteArray(protocol, 1, false));									// next header
+		bytesArrayList.add(new byte[]{ (byte) 0x40});														// hop limit
+		bytesArrayList.add(toAddressBytes(getAddressHigh(srcIp), getAddressLow(srcIp)));					// source IP
+		bytesArrayList.add(toAddressBytes(getAddressHigh(dstIp), getAddressLow(dstIp)));					// destination IP
+		bytesArrayList.add(body);																			// the body itself
+		return ByteUtils.join(bytesArrayList);
+	};
+
+	/**
+	 * Returns the lower 64 bits of the IPv4-mapped IPv6 address of an IPv4 address
+	 *
+	 * @param	ipv4	the IPv4 address as a 32-bit value
+	 * @return			the lower 64 bits (the upper ones are all zeros)
+	 */
+	public static long ipv4MappedLow(int ipv4) {
+		return IPV4_MAPPED_PREFIX | (ipv4 & 0xFFFFFFFFL);
+	};
+
+	/**
+	 * Tells whether an address is an IPv4 one (that is, an IPv4-mapped IPv6 address)
+	 *
+	 * @param	high	the upper 64 bits of the address
+	 * @param	low		the lower 64 bits of the address
+	 * @return			whether it is an IPv4 address
+	 */
+	public static boolean isIpv4(long high, long low) {
+		return (high == 0) && ((low >>> 32) == (IPV4_MAPPED_PREFIX >>> 32));
+	};
+
+	/**
+	 * Returns the upper 64 bits of an address (IPv4 addresses are mapped into IPv6 ones)
+	 *
+	 * @param	address	the address
+	 * @return			the upper 64 bits
+	 */
+	public static long getAddressHigh(InetAddress address) {
+		byte[] bytes = address.getAddress();
+		return (bytes.length == 16) ? readLong(bytes, 0, 8) : 0;
+	};
+
+	/**
+	 * Returns the lower 64 bits of an address (IPv4 addresses are mapped into IPv6 ones)
+	 *
+	 * @param	address	the address
+	 * @return			the lower 64 bits
+	 */
+	public static long getAddressLow(InetAddress address) {
+		byte[] bytes = address.getAddress();
+		return (bytes.length == 16) ? readLong(bytes, 8, 8) : ipv4MappedLow((int) readLong(bytes, 0, 4));
+	};
+
+	/**
+	 * Reads a big endian number of up to 8 bytes
+	 *
+	 * @param	bytes	the byte array
+	 * @param	offset	the offset of the first byte
+	 * @param	length	the number of bytes
+	 * @return			the number
+	 */
+	private static long readLong(byte[] bytes, int offset, int length) {
+		long value = 0;
+		for(int i = offset; i < offset + length; i++) {
+			value = (value << 8) | (bytes[i] & 0xFF);
+		};
+		return value;
+	};
+
+	/**
+	 * Returns the 16 bytes of an address (in network byte order)
+	 *
+	 * @param	high	the upper 64 bits of the address
+	 * @param	low		the lower 64 bits of the address
+	 * @return			the address bytes
+	 */
+	public static byte[] toAddressBytes(long high, long low) {
+		byte[] bytes = new byte[16];
+		for(int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (high >>> (56 - 8 * i));
+			bytes[8 + i] = (byte) (low >>> (56 - 8 * i));
+		};
+		return bytes;
+	};
+
+	/**
+	 * Formats an address (IPv4 addresses in dotted decimal notation, IPv6 ones as eight hexadecimal groups)
+	 *
+	 * @param	high	the upper 64 bits of the address
+	 * @param	low		the lower 64 bits of the address
+	 * @return			the formatted address
+	 */
+	public static String formatAddress(long high, long low) {
+		StringBuilder stringBuilder = new StringBuilder();
+		if(isIpv4(high, low)) {
+			for(int shift = 24; shift >= 0; shift -= 8) {
+				stringBuilder.append((low >>> shift) & 0xFF).append((shift > 0) ? "." : "");
+			};
+		} else {
+			for(int group = 0; group < 8; group++) {
+				long half = (group < 4) ? high : low;
+				stringBuilder.append(Long.toHexString((half >>> (48 - 16 * (group % 4))) & 0xFFFF)).append((group < 7) ? ":" : "");
+			};
+		};
+		return stringBuilder.toString();
+	};
+
 	/**
 	 * Returns an UDP packet
 	 *
@@ -282,12 +315,17 @@ public class Pcap {
 	 * @param	srcIp	the source IP address
 	 * @param	dstIp	the destination IP address
 	 * @param	body	the body to be included in the TCP packet
+	 * @param	session	the PcapSession keeping track of the sequence numbers
 	 * @return			the TCP packet
 	 */
-	public static byte[] createTcpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp) {
+	public static byte[] createTcpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp, PcapSession session) {
 		byte[] tcpPacket = new byte[32 + body.length];
-		long seqNum = getTcpSeqNum(srcPort, dstPort, body.length, srcIp, dstIp);
-		long ackNum = getTcpAckNum(srcPort, dstPort, body.length, srcIp, dstIp);
+		long srcIpHigh = getAddressHigh(srcIp);
+		long srcIpLow = getAddressLow(srcIp);
+		long dstIpHigh = getAddressHigh(dstIp);
+		long dstIpLow = getAddressLow(dstIp);
+		long seqNum = session.getTcpSeqNum(srcPort, dstPort, body.length, srcIpHigh, srcIpLow, dstIpHigh, dstIpLow);
+		long ackNum = session.getTcpAckNum(srcPort, dstPort, body.length, srcIpHigh, srcIpLow, dstIpHigh, dstIpLow);
 		byte[] flags = new byte[1];
 		if(ackNum == 0) {
 			flags[0] = (byte) 0x08;	// PSH=1
@@ -322,9 +360,10 @@ public class Pcap {
 	 * @param	srcIp	the source IP address
 	 * @param	dstIp	the destination IP address
 	 * @param	body	the body to be included in the SCTP packet
+	 * @param	session	the PcapSession keeping track of the sequence numbers
 	 * @return			the SCTP packet
 	 */
-	public static byte[] createSctpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp) {
+	public static byte[] createSctpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp, PcapSession session) {
 		int paddingLength = (4 - (16 + body.length) % 4) % 4;
 		byte[] paddingByte = { (byte) 0xFF};
 		byte[] paddingBytes = null;
@@ -332,7 +371,7 @@ public class Pcap {
 		for(int i = 0; i < paddingBytes.length; i++) {
 			System.arraycopy(paddingByte, 0, paddingBytes, i, paddingByte.length);
 		};
-		int seqNum = getSctpSeqNum(srcPort, dstPort, body.length, srcIp, dstIp);
+		int seqNum = session.getSctpSeqNum(srcPort, dstPort, body.length, getAddressHigh(srcIp), getAddressLow(srcIp), getAddressHigh(dstIp), getAddressLow(dstIp));
 		ArrayList<byte[]> bytesArrayList = new ArrayList<byte[]>();
 		bytesArrayList.add(ByteUtils.intToByteArray(srcPort, 2, false));			// source port
 		bytesArrayList.add(ByteUtils.intToByteArray(dstPort, 2, false));			// destination port
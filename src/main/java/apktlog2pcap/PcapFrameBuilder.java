@@ -0,0 +1,471 @@
+package apktlog2pcap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * PcapFrameBuilder object assembles complete PCAP frames (PCAP record header, Ethernet
+ * header with optional VLAN tag, IPv4 or IPv6 header, transport header and payload) in one
+ * single pass over a reusable buffer.
+ *
+ * Unlike the createXxxPacket() methods from Pcap class, which build each layer in its own
+ * byte array and then copy it again into the enclosing layer, here the total frame length
+ * is computed up front and every header field is written in place with primitive writes,
+ * so the payload is copied only once and no intermediate arrays are allocated.
+ *
+ * The frame built by the last invocation of any buildXxxFrame() method remains available
+ * in getBuffer() (from offset 0 to getLength()) until the next invocation, so a single
+ * PcapFrameBuilder object must not be shared among threads.
+ */
+public class PcapFrameBuilder {
+
+	/*
+	 * Lengths of the headers written by the builder
+	 */
+	public static final int PCAP_RECORD_HEADER_LENGTH = 16;
+	public static final int ETHERNET_HEADER_LENGTH = 14;
+	public static final int VLAN_TAG_LENGTH = 4;
+	public static final int IPV4_HEADER_LENGTH = 20;
+	public static final int IPV6_HEADER_LENGTH = 40;
+	public static final int UDP_HEADER_LENGTH = 8;
+	public static final int TCP_HEADER_LENGTH = 32;
+	public static final int SCTP_HEADER_LENGTH = 28;
+
+	private static final int DEFAULT_CAPACITY = 64 * 1024;
+	private static final int TPID_8021Q = 0x8100;
+	private static final int ETHERTYPE_IPV4 = 0x0800;
+	private static final int ETHERTYPE_IPV6 = 0x86DD;
+	private static final byte TCP_FLAGS_PSH = (byte) 0x08;
+	private static final byte TCP_FLAGS_PSH_ACK = (byte) 0x18;
+	private static final byte SCTP_PADDING_BYTE = (byte) 0xFF;
+
+	/**
+	 * Payload object is the content to be encapsulated in a frame, which is able to write
+	 * itself straight into the builder's buffer (so it does not need to be copied into an
+	 * intermediate array beforehand)
+	 */
+	public interface Payload {
+		/**
+		 * Returns the length of the payload
+		 *
+		 * @return	the length in bytes
+		 */
+		public int getPayloadLength();
+
+		/**
+		 * Writes the payload (exactly getPayloadLength() bytes) into the given buffer
+		 *
+		 * @param	buffer	the buffer (the payload is written at its current position)
+		 */
+		public void writePayload(ByteBuffer buffer);
+	}
+
+	/**
+	 * ArrayPayload object is a Payload stored in a byte array
+	 */
+	private static class ArrayPayload implements Payload {
+		private final byte[] array;
+		private final int offset;
+		private final int length;
+		ArrayPayload(byte[] array, int offset, int length) {
+			this.array = array;
+			this.offset = offset;
+			this.length = length;
+		}
+		public int getPayloadLength() {
+			return this.length;
+		}
+		public void writePayload(ByteBuffer buffer) {
+			buffer.put(this.array, this.offset, this.length);
+		}
+	}
+
+	/*
+	 * Instance variables
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Constructs a PcapFrameBuilder with the default initial capacity
+	 */
+	public PcapFrameBuilder() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a PcapFrameBuilder with the given initial capacity
+	 * (the buffer will grow anyway if a bigger frame needs to be built)
+	 *
+	 * @param	capacity	the initial capacity of the buffer
+	 */
+	public PcapFrameBuilder(int capacity) {
+		this.buffer = ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * Returns the buffer holding the last built frame
+	 *
+	 * @return	the buffer (the frame starts at offset 0)
+	 */
+	public byte[] getBuffer() {
+		return this.buffer.array();
+	}
+
+	/**
+	 * Returns the length of the last built frame
+	 *
+	 * @return	the length of the frame
+	 */
+	public int getLength() {
+		return this.buffer.position();
+	}
+
+	/**
+	 * Returns a copy of the last built frame
+	 *
+	 * @return	the PCAP frame
+	 */
+	public byte[] toByteArray() {
+		byte[] frame = new byte[this.buffer.position()];
+		System.arraycopy(this.buffer.array(), 0, frame, 0, frame.length);
+		return frame;
+	}
+
+	/**
+	 * Builds a PCAP frame containing an UDP packet
+	 *
+	 * @param	seconds			the timestamp of the frame (seconds)
+	 * @param	microseconds	the microseconds to be added to the timestamp
+	 * @param	vid				the vlan ID (will take value=-1 in case of no VLAN tag)
+	 * @param	srcIpHigh		the upper 64 bits of the source IP address (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow		the lower 64 bits of the source IP address
+	 * @param	dstIpHigh		the upper 64 bits of the destination IP address
+	 * @param	dstIpLow		the lower 64 bits of the destination IP address
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	payload			the array holding the payload
+	 * @param	payloadOffset	the offset of the payload within the array
+	 * @param	payloadLength	the length of the payload
+	 * @return					the length of the PCAP frame
+	 */
+	public int buildUdpFrame(int seconds, int microseconds, int vid, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow, int srcPort, int dstPort, byte[] payload, int payloadOffset, int payloadLength) {
+		return this.buildUdpFrame(seconds, microseconds, vid, srcIpHigh, srcIpLow, dstIpHigh, dstIpLow, srcPort, dstPort, new ArrayPayload(payload, payloadOffset, payloadLength));
+	}
+
+	/**
+	 * Builds a PCAP frame containing an UDP packet
+	 *
+	 * @param	seconds			the timestamp of the frame (seconds)
+	 * @param	microseconds	the microseconds to be added to the timestamp
+	 * @param	vid				the vlan ID (will take value=-1 in case of no VLAN tag)
+	 * @param	srcIpHigh		the upper 64 bits of the source IP address (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow		the lower 64 bits of the source IP address
+	 * @param	dstIpHigh		the upper 64 bits of the destination IP address
+	 * @param	dstIpLow		the lower 64 bits of the destination IP address
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	payload			the payload
+	 * @return					the length of the PCAP frame
+	 */
+	public int buildUdpFrame(int seconds, int microseconds, int vid, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow, int srcPort, int dstPort, Payload payload) {
+		int transportLength = UDP_HEADER_LENGTH + payload.getPayloadLength();
+		this.writeHeaders(seconds, microseconds, vid, srcIpHigh, srcIpLow, dstIpHigh, dstIpLow, Pcap.IP_PROTOCOL_UDP, transportLength);
+		ByteBuffer buffer = this.buffer;
+		int udpOffset = buffer.position();
+		buffer.putShort((short) srcPort);			// source port
+		buffer.putShort((short) dstPort);			// destination port
+		buffer.putShort((short) transportLength);	// packet length
+		buffer.putShort((short) 0);					// checksum
+		payload.writePayload(buffer);
+		if(!(Pcap.isIpv4(srcIpHigh, srcIpLow) && Pcap.isIpv4(dstIpHigh, dstIpLow))) {
+			// A zero UDP checksum is not allowed over IPv6 (RFC 8200, section 8.1)
+			buffer.putShort(udpOffset + 6, getIpv6UdpChecksum(buffer.array(), udpOffset, transportLength, srcIpHigh, srcIpLow, dstIpHigh, dstIpLow));
+		};
+		return buffer.position();
+	}
+
+	/**
+	 * Computes the checksum of an UDP packet carried over IPv6, which covers the IPv6 pseudo-header
+	 * (addresses, UDP length and next header) and the whole UDP packet (whose checksum field must be zero)
+	 *
+	 * @param	frame			the array holding the UDP packet
+	 * @param	udpOffset		the offset of the UDP packet within the array
+	 * @param	udpLength		the length of the UDP packet (header plus payload)
+	 * @param	srcIpHigh		the upper 64 bits of the source IP address
+	 * @param	srcIpLow		the lower 64 bits of the source IP address
+	 * @param	dstIpHigh		the upper 64 bits of the destination IP address
+	 * @param	dstIpLow		the lower 64 bits of the destination IP address
+	 * @return					the UDP checksum (never zero)
+	 */
+	private static short getIpv6UdpChecksum(byte[] frame, int udpOffset, int udpLength, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow) {
+		long sum = sumOf16BitWords(srcIpHigh) + sumOf16BitWords(srcIpLow) + sumOf16BitWords(dstIpHigh) + sumOf16BitWords(dstIpLow);
+		sum += (udpLength >>> 16) + (udpLength & 0xFFFF) + Pcap.IP_PROTOCOL_UDP;
+		int end = udpOffset + udpLength;
+		int i = udpOffset;
+		for(; i + 1 < end; i += 2) {
+			sum += ((frame[i] & 0xFF) << 8) | (frame[i + 1] & 0xFF);
+		};
+		if(i < end) {
+			sum += (frame[i] & 0xFF) << 8;			// odd length: pad with a zero byte
+		};
+		while((sum >>> 16) != 0) {
+			sum = (sum & 0xFFFF) + (sum >>> 16);
+		};
+		int checksum = ~((int) sum) & 0xFFFF;
+		return (short) ((checksum == 0) ? 0xFFFF : checksum);
+	}
+
+	/**
+	 * Adds up the four 16-bit words of a 64-bit value (without folding the carries)
+	 *
+	 * @param	value	the value
+	 * @return			the sum of its 16-bit words
+	 */
+	private static long sumOf16BitWords(long value) {
+		return ((value >>> 48) & 0xFFFF) + ((value >>> 32) & 0xFFFF) + ((value >>> 16) & 0xFFFF) + (value & 0xFFFF);
+	}
+
+	/**
+	 * Builds a PCAP frame containing a TCP packet
+	 *
+	 * @param	seconds			the timestamp of the frame (seconds)
+	 * @param	microseconds	the microseconds to be added to the timestamp
+	 * @param	vid				the vlan ID (will take value=-1 in case of no VLAN tag)
+	 * @param	srcIpHigh		the upper 64 bits of the source IP address (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow		the lower 64 bits of the source IP address
+	 * @param	dstIpHigh		the upper 64 bits of the destination IP address
+	 * @param	dstIpLow		the lower 64 bits of the destination IP address
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	seqNum			the TCP sequence number
+	 * @param	ackNum			the TCP sequence number to be acknowledged (0 if none)
+	 * @param	payload			the array holding the payload
+	 * @param	payloadOffset	the offset of the payload within the array
+	 * @param	payloadLength	the length of the payload
+	 * @return					the length of the PCAP frame
+	 */
+	public int buildTcpFrame(int seconds, int microseconds, int vid, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow, int srcPort, int dstPort, long seqNum, long ackNum, byte[] payload, int payloadOffset, int payloadLength) {
+		return this.buildTcpFrame(seconds, microseconds, vid, srcIpHigh, srcIpLow, dstIpHigh, dstIpLow, srcPort, dstPort, seqNum, ackNum, new ArrayPayload(payload, payloadOffset, payloadLength));
+	}
+
+	/**
+	 * Builds a PCAP frame containing a TCP packet
+	 *
+	 * @param	seconds			the timestamp of the frame (seconds)
+	 * @param	microseconds	the microseconds to be added to the timestamp
+	 * @param	vid				the vlan ID (will take value=-1 in case of no VLAN tag)
+	 * @param	srcIpHigh		the upper 64 bits of the source IP address (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow		the lower 64 bits of the source IP address
+	 * @param	dstIpHigh		the upper 64 bits of the destination IP address
+	 * @param	dstIpLow		the lower 64 bits of the destination IP address
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	seqNum			the TCP sequence number
+	 * @param	ackNum			the TCP sequence number to be acknowledged (0 if none)
+	 * @param	payload			the payload
+	 * @return					the length of the PCAP frame
+	 */
+	public int buildTcpFrame(int seconds, int microseconds, int vid, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow, int srcPort, int dstPort, long seqNum, long ackNum, Payload payload) {
+		this.writeHeaders(seconds, microseconds, vid, srcIpHigh, srcIpLow, dstIpHigh, dstIpLow, Pcap.IP_PROTOCOL_TCP, TCP_HEADER_LENGTH + payload.getPayloadLength());
+		ByteBuffer buffer = this.buffer;
+		buffer.putShort((short) srcPort);			// source port
+		buffer.putShort((short) dstPort);			// destination port
+		buffer.putInt((int) seqNum);				// sequence number
+		buffer.putInt((int) ackNum);				// ack number
+		buffer.put((byte) 0x80);					// header length
+		buffer.put((ackNum == 0) ? TCP_FLAGS_PSH : TCP_FLAGS_PSH_ACK);	// flags
+		buffer.putShort((short) 0xFFFF);			// window size
+		buffer.putShort((short) 0);					// checksum
+		buffer.putShort((short) 0);					// urgent pointer
+		buffer.putLong(0L);							// options
+		buffer.putInt(0);
+		payload.writePayload(buffer);
+		return buffer.position();
+	}
+
+	/**
+	 * Builds a PCAP frame containing an SCTP packet with one single DATA chunk
+	 *
+	 * @param	seconds			the timestamp of the frame (seconds)
+	 * @param	microseconds	the microseconds to be added to the timestamp
+	 * @param	vid				the vlan ID (will take value=-1 in case of no VLAN tag)
+	 * @param	srcIpHigh		the upper 64 bits of the source IP address (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow		the lower 64 bits of the source IP address
+	 * @param	dstIpHigh		the upper 64 bits of the destination IP address
+	 * @param	dstIpLow		the lower 64 bits of the destination IP address
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	seqNum			the sequence number (used both as TSN and as stream sequence number)
+	 * @param	payload			the array holding the payload
+	 * @param	payloadOffset	the offset of the payload within the array
+	 * @param	payloadLength	the length of the payload
+	 * @return					the length of the PCAP frame
+	 */
+	public int buildSctpFrame(int seconds, int microseconds, int vid, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow, int srcPort, int dstPort, int seqNum, byte[] payload, int payloadOffset, int payloadLength) {
+		return this.buildSctpFrame(seconds, microseconds, vid, srcIpHigh, srcIpLow, dstIpHigh, dstIpLow, srcPort, dstPort, seqNum, new ArrayPayload(payload, payloadOffset, payloadLength));
+	}
+
+	/**
+	 * Builds a PCAP frame containing an SCTP packet with one single DATA chunk
+	 *
+	 * @param	seconds			the timestamp of the frame (seconds)
+	 * @param	microseconds	the microseconds to be added to the timestamp
+	 * @param	vid				the vlan ID (will take value=-1 in case of no VLAN tag)
+	 * @param	srcIpHigh		the upper 64 bits of the source IP address (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow		the lower 64 bits of the source IP address
+	 * @param	dstIpHigh		the upper 64 bits of the destination IP address
+	 * @param	dstIpLow		the lower 64 bits of the destination IP address
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	seqNum			the sequence number (used both as TSN and as stream sequence number)
+	 * @param	payload			the payload
+	 * @return					the length of the PCAP frame
+	 */
+	public int buildSctpFrame(int seconds, int microseconds, int vid, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow, int srcPort, int dstPort, int seqNum, Payload payload) {
+		int payloadLength = payload.getPayloadLength();
+		int chunkLength = 16 + payloadLength;
+		int paddingLength = (4 - chunkLength % 4) % 4;
+		this.writeHeaders(seconds, microseconds, vid, srcIpHigh, srcIpLow, dstIpHigh, dstIpLow, Pcap.IP_PROTOCOL_SCTP, SCTP_HEADER_LENGTH + payloadLength + paddingLength);
+		ByteBuffer buffer = this.buffer;
+		buffer.putShort((short) srcPort);			// source port
+		buffer.putShort((short) dstPort);			// destination port
+		buffer.putInt(0);							// verification tag
+		buffer.putInt(0);							// checksum
+		buffer.putShort((short) 0x0003);			// chunk type and flags
+		buffer.putShort((short) chunkLength);		// chunk length
+		buffer.putInt(seqNum);						// transmission sequence number (TSN)
+		buffer.putShort((short) 0);					// stream ID
+		buffer.putShort((short) seqNum);			// stream sequence number
+		buffer.putInt(0);							// payload protocol ID
+		payload.writePayload(buffer);
+		for(int i = 0; i < paddingLength; i++) {
+			buffer.put(SCTP_PADDING_BYTE);			// padding bytes
+		};
+		return buffer.position();
+	}
+
+	/**
+	 * Overwrites the sequence number, the ack number and the flags of a frame built by
+	 * buildTcpFrame(), so frames can be built before their sequence numbers are known
+	 *
+	 * @param	frames		the array holding the frame
+	 * @param	frameOffset	the offset of the frame (its PCAP record header) within the array
+	 * @param	seqNum		the TCP sequence number
+	 * @param	ackNum		the TCP sequence number to be acknowledged (0 if none)
+	 */
+	public static void patchTcpFrame(byte[] frames, int frameOffset, long seqNum, long ackNum) {
+		ByteBuffer buffer = ByteBuffer.wrap(frames);
+		int transportOffset = getTransportOffset(buffer, frameOffset);
+		buffer.putInt(transportOffset + 4, (int) seqNum);
+		buffer.putInt(transportOffset + 8, (int) ackNum);
+		buffer.put(transportOffset + 13, (ackNum == 0) ? TCP_FLAGS_PSH : TCP_FLAGS_PSH_ACK);
+	}
+
+	/**
+	 * Overwrites the sequence numbers (TSN and stream sequence number) of a frame built by
+	 * buildSctpFrame(), so frames can be built before their sequence numbers are known
+	 *
+	 * @param	frames		the array holding the frame
+	 * @param	frameOffset	the offset of the frame (its PCAP record header) within the array
+	 * @param	seqNum		the sequence number
+	 */
+	public static void patchSctpFrame(byte[] frames, int frameOffset, int seqNum) {
+		ByteBuffer buffer = ByteBuffer.wrap(frames);
+		int transportOffset = getTransportOffset(buffer, frameOffset);
+		buffer.putInt(transportOffset + 16, seqNum);
+		buffer.putShort(transportOffset + 22, (short) seqNum);
+	}
+
+	/**
+	 * Gets the offset of the transport header of a frame, which depends on whether it has a VLAN tag and on its IP version
+	 *
+	 * @param	buffer		the buffer holding the frame (big endian)
+	 * @param	frameOffset	the offset of the frame (its PCAP record header) within the buffer
+	 * @return				the offset of the transport header
+	 */
+	private static int getTransportOffset(ByteBuffer buffer, int frameOffset) {
+		int etherTypeOffset = frameOffset + PCAP_RECORD_HEADER_LENGTH + ETHERNET_HEADER_LENGTH - 2;
+		if(buffer.getShort(etherTypeOffset) == (short) TPID_8021Q) {
+			etherTypeOffset += VLAN_TAG_LENGTH;
+		};
+		boolean isIpv6 = (buffer.getShort(etherTypeOffset) == (short) ETHERTYPE_IPV6);
+		return etherTypeOffset + 2 + (isIpv6 ? IPV6_HEADER_LENGTH : IPV4_HEADER_LENGTH);
+	}
+
+	/**
+	 * Resets the buffer and writes the PCAP record, Ethernet and IP headers of a frame
+	 * whose transport packet (header plus payload) will have the given length (the IP header
+	 * is an IPv6 one unless both addresses are IPv4 ones). The buffer is grown beforehand if the whole frame would not fit in it.
+	 *
+	 * @param	seconds			the timestamp of the frame (seconds)
+	 * @param	microseconds	the microseconds to be added to the timestamp
+	 * @param	vid				the vlan ID (will take value=-1 in case of no VLAN tag)
+	 * @param	srcIpHigh		the upper 64 bits of the source IP address (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow		the lower 64 bits of the source IP address
+	 * @param	dstIpHigh		the upper 64 bits of the destination IP address
+	 * @param	dstIpLow		the lower 64 bits of the destination IP address
+	 * @param	protocol		the IP protocol of the transport packet
+	 * @param	transportLength	the length of the transport packet
+	 */
+	private void writeHeaders(int seconds, int microseconds, int vid, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow, int protocol, int transportLength) {
+		boolean isIpv4 = Pcap.isIpv4(srcIpHigh, srcIpLow) && Pcap.isIpv4(dstIpHigh, dstIpLow);
+		int ipLength = (isIpv4 ? IPV4_HEADER_LENGTH : IPV6_HEADER_LENGTH) + transportLength;
+		int ethernetLength = ETHERNET_HEADER_LENGTH + ((vid > -1) ? VLAN_TAG_LENGTH : 0) + ipLength;
+		this.ensureCapacity(PCAP_RECORD_HEADER_LENGTH + ethernetLength);
+		ByteBuffer buffer = this.buffer;
+		buffer.clear();
+		// PCAP record header (little endian)
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(seconds);						// date
+		buffer.putInt(microseconds);				// microseconds
+		buffer.putInt(ethernetLength);				// saved frame size
+		buffer.putInt(ethernetLength);				// original frame size
+		// Ethernet header (network byte order from now on)
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		buffer.putInt(0);							// source MAC
+		buffer.putLong(0L);							// source MAC (cont.) and destination MAC
+		if(vid > -1) {
+			buffer.putShort((short) TPID_8021Q);	// TPID
+			buffer.putShort((short) vid);			// TCI (with PCP=0, DEI=0, VID=vid)
+		};
+		if(!isIpv4) {
+			buffer.putShort((short) ETHERTYPE_IPV6);	// protocol
+			// IPv6 header
+			buffer.putInt(0x60000000);				// version, traffic class, flow label
+			buffer.putShort((short) transportLength);	// payload length
+			buffer.put((byte) protocol);			// next header
+			buffer.put((byte) 0x40);				// hop limit
+			buffer.putLong(srcIpHigh);				// source IP
+			buffer.putLong(srcIpLow);
+			buffer.putLong(dstIpHigh);				// destination IP
+			buffer.putLong(dstIpLow);
+			return;
+		};
+		buffer.putShort((short) ETHERTYPE_IPV4);		// protocol
+		// IPv4 header
+		buffer.putShort((short) 0x4500);			// version, header length, type of service
+		buffer.putShort((short) ipLength);			// total length
+		buffer.putInt(0x00004000);					// identification, flags, fragment offset
+		buffer.put((byte) 0x40);					// time to live
+		buffer.put((byte) protocol);				// protocol
+		buffer.putShort((short) 0);					// checksum
+		buffer.putInt((int) srcIpLow);				// source IP
+		buffer.putInt((int) dstIpLow);				// destination IP
+	}
+
+	/**
+	 * Makes sure the buffer can hold a frame of the given length
+	 *
+	 * @param	frameLength	the length of the frame to be built
+	 */
+	private void ensureCapacity(int frameLength) {
+		if(this.buffer.capacity() < frameLength) {
+			int capacity = this.buffer.capacity();
+			while(capacity < frameLength) {
+				capacity = 2 * capacity;
+			};
+			this.buffer = ByteBuffer.allocate(capacity);
+		};
+	}
+
+}
@@ -0,0 +1,328 @@
+package apktlog2pcap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * PcapOutput object writes the PCAP frames of a conversion (as built by PcapFrameBuilder) into
+ * its output file, either as a classic PCAP file or as a pcapng one (see PcapngWriter).
+ *
+ * The output can also be rotated, that is, split into several files (shards) so none of them
+ * is too big for Wireshark to open: a new shard is started before a frame which would take the
+ * current one over ConversionOptions.rotateSize bytes, beyond ConversionOptions.rotateDuration
+ * milliseconds after its first frame, or over ConversionOptions.rotateFrames frames. Shards
+ * are named after the output file, with their number before the extension (e.g.
+ * sipmsg.log_00001.pcap), and each one of them is a complete PCAP (or pcapng) file, with its
+ * own file header. Nothing else is reset between shards: in particular, the TCP and SCTP
+ * sequence numbers (see PcapSession) go on from one shard to the next one, so flows can still
+ * be reassembled once the shards are merged back (e.g. with mergecap).
+ *
+ * Rotated outputs get a manifest file (the output file path plus MANIFEST_SUFFIX), listing the
+ * shards along with the time of their first and last frames and their number of frames, so
+ * the shard holding a given moment can be opened directly. It is rewritten every time a shard
+ * is completed, so it is also up to date while the conversion goes on. Times are written in the
+ * time zone of the logs, in the format of the --from and --to options of Cli.
+ *
+ * Files are written by a WriteBehindOutputStream, so writing them overlaps with parsing and
+ * encoding the log frames, and can be preallocated (see ConversionOptions.preallocate).
+ * Streaming outputs (see AppCore.isStreamingOutput()) are never rotated, and are written
+ * straight away (so their readers get each frame as soon as it is flushed).
+ */
+public class PcapOutput {
+
+	/** Suffix of the manifest files, appended to the path of their output files. */
+	public static final String MANIFEST_SUFFIX = ".manifest";
+
+	private static final String TIME_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+
+	/**
+	 * Shard object is one of the files a rotated output is split into
+	 */
+	private static class Shard {
+		final String path;
+		long firstTime = Long.MAX_VALUE; // epoch milliseconds
+		long lastTime = Long.MIN_VALUE; // epoch milliseconds
+		long frameCount = 0;
+		long length = 0;
+		Shard(String path) {
+			this.path = path;
+		}
+	}
+
+	/*
+	 * Instance variables
+	 */
+	private final String outputFilePath;
+	private final String logType;
+	private final List<String> sourceFilePaths;
+	private final ConversionOptions options;
+	private final boolean isRotated;
+	private final List<Shard> shards;
+	private Shard shard;
+	private long completedLength; // length of the shards before the current one
+	private OutputStream outputStream;
+	private PcapngWriter pcapngWriter;
+
+	/**
+	 * Constructs the PcapOutput, opening the output file (or the first shard) and writing its file header
+	 *
+	 * @param	outputFilePath	path to the output file (or the standard output, see AppCore.STDOUT_PATH)
+	 * @param	logType			the log type of the files (one of ApktLog.LOGTYPES, or several of them for merged outputs)
+	 * @param	sourceFilePaths	the paths to the log files (recorded in pcapng files)
+	 * @param	options			the conversion options (output format and rotation limits)
+	 * @throws	IOException		if the output file cannot be opened or written
+	 */
+	public PcapOutput(String outputFilePath, String logType, List<String> sourceFilePaths, ConversionOptions options) throws IOException {
+		this.outputFilePath = outputFilePath;
+		this.logType = logType;
+		this.sourceFilePaths = sourceFilePaths;
+		this.options = options;
+		this.isRotated = ((options.rotateSize > 0) || (options.rotateDuration > 0) || (options.rotateFrames > 0)) && !AppCore.isStreamingOutput(outputFilePath);
+		this.shards = new ArrayList<Shard>();
+		this.shard = null;
+		this.completedLength = 0;
+		this.outputStream = null;
+		this.pcapngWriter = null;
+		this.openShard();
+	}
+
+	/**
+	 * Returns the path to a shard of a rotated output
+	 *
+	 * @param	outputFilePath	path to the output file
+	 * @param	shardNumber		the number of the shard (starting at 1)
+	 * @return					the path to the shard
+	 */
+	public static String getShardPath(String outputFilePath, int shardNumber) {
+		File file = new File(outputFilePath);
+		String name = file.getName();
+		int extensionStart = name.lastIndexOf('.');
+		if(extensionStart <= 0) {
+			extensionStart = name.length();
+		};
+		String shardName = name.substring(0, extensionStart) + String.format("_%05d", shardNumber) + name.substring(extensionStart);
+		return (file.getParent() != null) ? (new File(file.getParent(), shardName)).getPath() : shardName;
+	}
+
+	/**
+	 * Opens the next shard (or the output file itself, if it is not rotated) and writes its file header
+	 *
+	 * @throws	IOException	if the file cannot be opened or written
+	 */
+	private void openShard() throws IOException {
+		if(this.shard != null) {
+			this.completedLength += this.shard.length;
+		};
+		this.shard = new Shard(this.isRotated ? getShardPath(this.outputFilePath, this.shards.size() + 1) : this.outputFilePath);
+		this.shards.add(this.shard);
+		if(AppCore.isStreamingOutput(this.shard.path)) {
+			this.outputStream = AppCore.openOutputFile(this.shard.path, false);
+		} else {
+			this.outputStream = new WriteBehindOutputStream(new File(this.shard.path), this.options.preallocate ? this.getExpectedLength() : 0);
+		};
+		try {
+			if(this.options.pcapng) {
+				this.pcapngWriter = new PcapngWriter(this.outputStream, this.logType, this.sourceFilePaths, this.options.packetComments);
+			} else {
+				byte[] pcapFileHeader = Pcap.createPcapFileHeader(Pcap.LINKTYPE_ETHERNET);
+				this.outputStream.write(pcapFileHeader);
+				this.shard.length = pcapFileHeader.length;
+			};
+		} catch(IOException ioe) {
+			this.abort();
+			throw(ioe);
+		}
+	}
+
+	/**
+	 * Returns the length the current shard is expected to take, out of the size of the log files
+	 * (PCAP frames take about as many bytes as the log lines they come from) and the rotation size
+	 *
+	 * @return	the length in bytes (0 if unknown)
+	 */
+	private long getExpectedLength() {
+		long length = 0;
+		for(String sourceFilePath: this.sourceFilePaths) {
+			length += (new File(sourceFilePath)).length();
+		};
+		return ((this.options.rotateSize > 0) && this.isRotated) ? Math.min(length, this.options.rotateSize) : length;
+	}
+
+	/**
+	 * Completes the current shard, closing its file (and rewriting the manifest, if the output is rotated)
+	 *
+	 * @throws	IOException	if the file cannot be written
+	 */
+	private void closeShard() throws IOException {
+		try {
+			if(this.pcapngWriter != null) {
+				this.pcapngWriter.flush();
+				this.shard.length = this.pcapngWriter.getLength();
+			};
+		} finally {
+			this.outputStream.close();
+			this.pcapngWriter = null;
+		}
+		if(this.isRotated) {
+			this.writeManifest();
+		};
+	}
+
+	/**
+	 * Writes the manifest of a rotated output, listing its shards so far
+	 *
+	 * @throws	IOException	if the manifest cannot be written
+	 */
+	private void writeManifest() throws IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat(TIME_FORMAT);
+		dateFormat.setTimeZone(this.options.timeZone);
+		StringBuilder manifest = new StringBuilder();
+		manifest.append("# Shards of " + this.outputFilePath + " (apktlog2pcap.v" + AppCore.BUILD + ", times in " + this.options.timeZone.getID() + ")\n");
+		manifest.append("# file\tfirst frame\tlast frame\tframes\tbytes\n");
+		for(Shard shard: this.shards) {
+			manifest.append((new File(shard.path)).getName());
+			manifest.append('\t');
+			manifest.append((shard.frameCount > 0) ? dateFormat.format(new Date(shard.firstTime)) : "-");
+			manifest.append('\t');
+			manifest.append((shard.frameCount > 0) ? dateFormat.format(new Date(shard.lastTime)) : "-");
+			manifest.append('\t');
+			manifest.append(Long.toString(shard.frameCount));
+			manifest.append('\t');
+			manifest.append(Long.toString(shard.length));
+			manifest.append('\n');
+		};
+		Writer writer = new OutputStreamWriter(new FileOutputStream(this.outputFilePath + MANIFEST_SUFFIX), "UTF-8");
+		try {
+			writer.write(manifest.toString());
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Returns the length of the current shard so far
+	 *
+	 * @return	the length in bytes
+	 */
+	private long getShardLength() {
+		return (this.pcapngWriter != null) ? this.pcapngWriter.getLength() : this.shard.length;
+	}
+
+	/**
+	 * Returns the number of bytes written so far, adding up all the shards
+	 *
+	 * @return	the length in bytes
+	 */
+	public long getLength() {
+		return this.completedLength + this.getShardLength();
+	}
+
+	/**
+	 * Writes one PCAP frame, starting a new shard first if the frame does not fit in the current one
+	 *
+	 * @param	ifc				the SBC interface of the frame (-1 for the frames with no network data; only for pcapng output)
+	 * @param	vid				the VLAN ID of the frame (-1 if none; only for pcapng output)
+	 * @param	comment			the comment of the packet (only for pcapng output, null means none)
+	 * @param	frames			the buffer holding the PCAP frame (with its PCAP record header)
+	 * @param	frameOffset		the offset of the PCAP frame within the buffer
+	 * @return					the length of the PCAP frame (so the next one can be found)
+	 * @throws	IOException		if the frame cannot be written
+	 */
+	public int writeFrame(int ifc, int vid, String comment, byte[] frames, int frameOffset) throws IOException {
+		ByteBuffer frame = ByteBuffer.wrap(frames).order(ByteOrder.LITTLE_ENDIAN);
+		long time = (frame.getInt(frameOffset) & 0xFFFFFFFFL) * 1000L + (frame.getInt(frameOffset + 4) & 0xFFFFFFFFL) / 1000L;
+		int frameLength = PcapFrameBuilder.PCAP_RECORD_HEADER_LENGTH + frame.getInt(frameOffset + 8);
+		if(this.isRotated && (this.shard.frameCount > 0)
+				&& (((this.options.rotateSize > 0) && (this.getShardLength() + frameLength > this.options.rotateSize))
+				|| ((this.options.rotateDuration > 0) && (time - this.shard.firstTime >= this.options.rotateDuration))
+				|| ((this.options.rotateFrames > 0) && (this.shard.frameCount >= this.options.rotateFrames)))) {
+			this.closeShard();
+			this.openShard();
+		};
+		if(this.pcapngWriter != null) {
+			this.pcapngWriter.writeFrame(ifc, vid, comment, frames, frameOffset);
+		} else {
+			this.outputStream.write(frames, frameOffset, frameLength);
+			this.shard.length += frameLength;
+		};
+		this.shard.firstTime = Math.min(this.shard.firstTime, time);
+		this.shard.lastTime = Math.max(this.shard.lastTime, time);
+		this.shard.frameCount++;
+		return frameLength;
+	}
+
+	/**
+	 * Writes a LogFrame already encoded as a PCAP frame (see writeFrame())
+	 *
+	 * @param	logFrame		the LogFrame
+	 * @param	frames			the buffer holding the PCAP frame
+	 * @param	frameOffset		the offset of the PCAP frame within the buffer
+	 * @return					the length of the PCAP frame
+	 * @throws	IOException		if the frame cannot be written
+	 */
+	public int writeFrame(ApktLog.LogFrame logFrame, byte[] frames, int frameOffset) throws IOException {
+		ApktLog.ParsedHeaderLine parsedHeaderLine = logFrame.getParsedHeaderLine();
+		String comment = (this.options.pcapng && this.options.packetComments) ? PcapngWriter.getComment(logFrame) : null;
+		return this.writeFrame(parsedHeaderLine.ifc, parsedHeaderLine.vid, comment, frames, frameOffset);
+	}
+
+	/**
+	 * Writes a sequence of PCAP frames, all of them at once unless the output is rotated
+	 * (only for classic PCAP output, since pcapng needs the interface of each frame)
+	 *
+	 * @param	frames	the buffer holding the PCAP frames
+	 * @param	length	the length of the PCAP frames
+	 * @throws	IOException		if the frames cannot be written
+	 */
+	public void writeFrames(byte[] frames, int length) throws IOException {
+		if(!this.isRotated) {
+			this.outputStream.write(frames, 0, length);
+			this.shard.length += length;
+			return;
+		};
+		int frameOffset = 0;
+		while(frameOffset < length) {
+			frameOffset += this.writeFrame(-1, -1, null, frames, frameOffset);
+		};
+	}
+
+	/**
+	 * Flushes the frames written so far, so readers of streaming outputs get them
+	 *
+	 * @throws	IOException	if the frames cannot be written
+	 */
+	public void flush() throws IOException {
+		if(this.pcapngWriter != null) {
+			this.pcapngWriter.flush();
+		} else {
+			this.outputStream.flush();
+		};
+	}
+
+	/**
+	 * Completes the output, closing its file (and writing the manifest, if the output is rotated)
+	 *
+	 * @throws	IOException	if the file cannot be written
+	 */
+	public void close() throws IOException {
+		this.closeShard();
+	}
+
+	/**
+	 * Closes the output file after a failure, with no further writing
+	 */
+	public void abort() {
+		try{ this.outputStream.close(); } catch(IOException ioe) {};
+	}
+
+}
@@ -0,0 +1,199 @@
+package apktlog2pcap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * PcapSession object keeps track of the sequence numbers of the TCP and SCTP packets
+ * encoded into one PCAP file, so they can be filled in consistently (otherwise Wireshark
+ * would mark them as resent or out of order frames).
+ *
+ * Each conversion uses its own PcapSession, so several conversions can run at the same
+ * time even if they encode traffic for equivalent (same IPs and ports) sockets. A PcapSession
+ * object must not be shared among threads, though.
+ *
+ * Sequence numbers are kept in FlowTables keyed on the packed addresses and ports of each
+ * direction: two longs (IP and port of each endpoint) for IPv4 flows, and five longs for IPv6
+ * ones. If a flow idle timeout is given, flows with no frames for longer than that (as per the
+ * timestamps given to setTime()) are forgotten, so their sequence numbers start from 0 again.
+ *
+ * Regarding SCTP, note that we are storing just a generic sequence number, whereas SCTP needs to manage
+ * not just one but two different sequence numbers (Transmission Sequence Number and Stream Sequence Number).
+ * However, since we only use one stream, one sequence number is enough to easily generate both
+ * Transmission Sequence Number and Stream Sequence Number
+ */
+public class PcapSession {
+
+	private static final int IPV4_KEY_WIDTH = 2;
+	private static final int IPV6_KEY_WIDTH = 5;
+
+	/*
+	 * Instance variables
+	 */
+	private final FlowTable tcpIpv4Flows;
+	private final FlowTable tcpIpv6Flows;
+	private final FlowTable sctpIpv4Flows;
+	private final FlowTable sctpIpv6Flows;
+	private final long[] ipv4Key = new long[IPV4_KEY_WIDTH];
+	private final long[] ipv6Key = new long[IPV6_KEY_WIDTH];
+	private long time;
+
+	/**
+	 * Constructs a PcapSession whose flows never expire
+	 */
+	public PcapSession() {
+		this(0);
+	}
+
+	/**
+	 * Constructs a PcapSession
+	 *
+	 * @param	flowIdleTimeout	the time (milliseconds) after which a flow with no frames is forgotten (0 means never)
+	 */
+	public PcapSession(long flowIdleTimeout) {
+		this.tcpIpv4Flows = new FlowTable(IPV4_KEY_WIDTH, flowIdleTimeout);
+		this.tcpIpv6Flows = new FlowTable(IPV6_KEY_WIDTH, flowIdleTimeout);
+		this.sctpIpv4Flows = new FlowTable(IPV4_KEY_WIDTH, flowIdleTimeout);
+		this.sctpIpv6Flows = new FlowTable(IPV6_KEY_WIDTH, flowIdleTimeout);
+		this.time = 0;
+	}
+
+	/**
+	 * Sets the timestamp of the frame being encoded, which is the time flows expire against
+	 *
+	 * @param	timestamp	the timestamp (epoch milliseconds)
+	 */
+	public void setTime(long timestamp) {
+		this.time = timestamp;
+	}
+
+	/**
+	 * Resets all TCP sequence numbering
+	 */
+	public void resetTcpSeqNums() {
+		this.tcpIpv4Flows.clear();
+		this.tcpIpv6Flows.clear();
+	}
+
+	/**
+	 * Returns the TCP Sequence Number for the new TCP packet to be created with the provided parameters
+	 *
+	 * @param	srcPort		the source port of the TCP packet to be created
+	 * @param	dstPort		the destination port of the TCP packet to be created
+	 * @param	bodyLength	the body length of the TCP packet to be created
+	 * @param	srcIpHigh	the upper 64 bits of the source IP of the TCP packet to be created (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow	the lower 64 bits of the source IP of the TCP packet to be created
+	 * @param	dstIpHigh	the upper 64 bits of the destination IP of the TCP packet to be created
+	 * @param	dstIpLow	the lower 64 bits of the destination IP of the TCP packet to be created
+	 * @return				the TCP sequence number
+	 */
+	public long getTcpSeqNum(int srcPort, int dstPort, int bodyLength, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow) {
+		long[] key = this.flowKey(srcIpHigh, srcIpLow, srcPort, dstIpHigh, dstIpLow, dstPort);
+		FlowTable flows = (key == this.ipv4Key) ? this.tcpIpv4Flows : this.tcpIpv6Flows;
+		long currentSeqNum = flows.get(key, this.time, 0);
+		flows.put(key, (currentSeqNum + (long)bodyLength) % 4294967296L, this.time);
+		return currentSeqNum;
+	}
+
+	/**
+	 * Returns the TCP Sequence Number to be acknowled by the new TCP packet to be created with the provided parameters
+	 * (the opposite direction of the flow is then considered active too)
+	 *
+	 * @param	srcPort		the source port of the TCP packet to be created
+	 * @param	dstPort		the destination port of the TCP packet to be created
+	 * @param	bodyLength	the body length of the TCP packet to be created
+	 * @param	srcIpHigh	the upper 64 bits of the source IP of the TCP packet to be created (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow	the lower 64 bits of the source IP of the TCP packet to be created
+	 * @param	dstIpHigh	the upper 64 bits of the destination IP of the TCP packet to be created
+	 * @param	dstIpLow	the lower 64 bits of the destination IP of the TCP packet to be created
+	 * @return				the TCP sequence number to be acknowledged
+	 */
+	public long getTcpAckNum(int srcPort, int dstPort, int bodyLength, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow) {
+		long[] key = this.flowKey(dstIpHigh, dstIpLow, dstPort, srcIpHigh, srcIpLow, srcPort);
+		FlowTable flows = (key == this.ipv4Key) ? this.tcpIpv4Flows : this.tcpIpv6Flows;
+		long ackNum = flows.get(key, this.time, 0);
+		flows.touch(key, this.time);
+		return ackNum;
+	}
+
+	/**
+	 * Resets all SCTP sequence numbering
+	 */
+	public void resetSctpSeqNums() {
+		this.sctpIpv4Flows.clear();
+		this.sctpIpv6Flows.clear();
+	}
+
+	/**
+	 * Returns the SCTP Sequence Number for the new SCTP packet to be created with the provided parameters
+	 *
+	 * @param	srcPort		the source port of the SCTP packet to be created
+	 * @param	dstPort		the destination port of the SCTP packet to be created
+	 * @param	bodyLength	the body length of the SCTP packet to be created
+	 * @param	srcIpHigh	the upper 64 bits of the source IP of the SCTP packet to be created (see Pcap.IPV4_MAPPED_PREFIX)
+	 * @param	srcIpLow	the lower 64 bits of the source IP of the SCTP packet to be created
+	 * @param	dstIpHigh	the upper 64 bits of the destination IP of the SCTP packet to be created
+	 * @param	dstIpLow	the lower 64 bits of the destination IP of the SCTP packet to be created
+	 * @return				the SCTP sequence number
+	 */
+	public int getSctpSeqNum(int srcPort, int dstPort, int bodyLength, long srcIpHigh, long srcIpLow, long dstIpHigh, long dstIpLow) {
+		long[] key = this.flowKey(srcIpHigh, srcIpLow, srcPort, dstIpHigh, dstIpLow, dstPort);
+		FlowTable flows = (key == this.ipv4Key) ? this.sctpIpv4Flows : this.sctpIpv6Flows;
+		int currentSeqNum = (int) flows.get(key, this.time, 0);
+		flows.put(key, (currentSeqNum + 1) % 65536, this.time);
+		return currentSeqNum;
+	}
+
+	/**
+	 * Writes the state of the session, so a conversion can be resumed later on (see readFrom())
+	 *
+	 * @param	output	the output the state is written to
+	 * @throws	IOException	if it cannot be written
+	 */
+	public void writeTo(DataOutput output) throws IOException {
+		this.tcpIpv4Flows.writeTo(output);
+		this.tcpIpv6Flows.writeTo(output);
+		this.sctpIpv4Flows.writeTo(output);
+		this.sctpIpv6Flows.writeTo(output);
+	}
+
+	/**
+	 * Replaces the state of the session with the one written by writeTo()
+	 *
+	 * @param	input	the input the state is read from
+	 * @throws	IOException	if it cannot be read
+	 */
+	public void readFrom(DataInput input) throws IOException {
+		this.tcpIpv4Flows.readFrom(input);
+		this.tcpIpv6Flows.readFrom(input);
+		this.sctpIpv4Flows.readFrom(input);
+		this.sctpIpv6Flows.readFrom(input);
+	}
+
+	/**
+	 * Packs the addresses and ports of one direction of a flow into one of the (reused) key arrays
+	 *
+	 * @param	srcIpHigh	the upper 64 bits of the source IP
+	 * @param	srcIpLow	the lower 64 bits of the source IP
+	 * @param	srcPort		the source port
+	 * @param	dstIpHigh	the upper 64 bits of the destination IP
+	 * @param	dstIpLow	the lower 64 bits of the destination IP
+	 * @param	dstPort		the destination port
+	 * @return				ipv4Key if both addresses are IPv4 ones, or ipv6Key otherwise
+	 */
+	private long[] flowKey(long srcIpHigh, long srcIpLow, int srcPort, long dstIpHigh, long dstIpLow, int dstPort) {
+		if(Pcap.isIpv4(srcIpHigh, srcIpLow) && Pcap.isIpv4(dstIpHigh, dstIpLow)) {
+			this.ipv4Key[0] = ((srcIpLow & 0xFFFFFFFFL) << 16) | (srcPort & 0xFFFF);
+			this.ipv4Key[1] = ((dstIpLow & 0xFFFFFFFFL) << 16) | (dstPort & 0xFFFF);
+			return this.ipv4Key;
+		};
+		this.ipv6Key[0] = srcIpHigh;
+		this.ipv6Key[1] = srcIpLow;
+		this.ipv6Key[2] = dstIpHigh;
+		this.ipv6Key[3] = dstIpLow;
+		this.ipv6Key[4] = ((long)(srcPort & 0xFFFF) << 16) | (dstPort & 0xFFFF);
+		return this.ipv6Key;
+	}
+
+}
@@ -0,0 +1,285 @@
+package apktlog2pcap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * PcapngWriter object writes a pcapng file (see the PCAP Next Generation Dump File Format) out
+ * of the PCAP frames built by PcapFrameBuilder, so the same frames can be written either as
+ * a classic PCAP file or as a pcapng one:
+ *     - The Section Header Block records the log type and the source log files
+ *     - Each SBC interface and VLAN found in the "[ifc:vlan]" field of the header lines gets
+ *       its own Interface Description Block (written just before its first packet), and so do
+ *       the frames with no network data (the events of the daemon logs)
+ *     - Each PCAP frame becomes an Enhanced Packet Block, optionally with a comment telling the
+ *       log file and offset the frame was read from
+ *
+ * Blocks are assembled in place in one large reusable buffer, which is only written to the
+ * output stream when it is full (or flushed), so no array is allocated per block.
+ */
+public class PcapngWriter {
+
+	private static final int BLOCK_BUFFER_SIZE = 1024 * 1024;
+	private static final int BLOCK_TYPE_SHB = 0x0A0D0D0A;
+	private static final int BLOCK_TYPE_IDB = 0x00000001;
+	private static final int BLOCK_TYPE_EPB = 0x00000006;
+	private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+	private static final int OPTION_END = 0;
+	private static final int OPTION_COMMENT = 1;
+	private static final int OPTION_SHB_USERAPPL = 4;
+	private static final int OPTION_IF_NAME = 2;
+	private static final int OPTION_IF_DESCRIPTION = 3;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/*
+	 * Instance variables
+	 */
+	private final OutputStream outputStream;
+	private final String logType;
+	private final boolean isCommented;
+	private final HashMap<Long,Integer> interfaceIds;
+	private ByteBuffer buffer;
+	private long writtenLength;
+
+	/**
+	 * Constructs the PcapngWriter, writing the Section Header Block
+	 *
+	 * @param	outputStream	the output stream
+	 * @param	logType			the log type of the files (one of ApktLog.LOGTYPES)
+	 * @param	sourceFilePaths	the paths to the log files
+	 * @param	isCommented		whether the packets get a comment with the log file and offset they come from
+	 * @throws	IOException		if the Section Header Block cannot be written
+	 */
+	public PcapngWriter(OutputStream outputStream, String logType, List<String> sourceFilePaths, boolean isCommented) throws IOException {
+		this.outputStream = outputStream;
+		this.logType = logType;
+		this.isCommented = isCommented;
+		this.interfaceIds = new HashMap<Long,Integer>();
+		this.buffer = ByteBuffer.allocate(BLOCK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.writtenLength = 0;
+		byte[][] options = new byte[2 + sourceFilePaths.size()][];
+		options[0] = ("apktlog2pcap.v" + AppCore.BUILD).getBytes(UTF_8);
+		options[1] = ("Log type: " + logType).getBytes(UTF_8);
+		for(int i = 0; i < sourceFilePaths.size(); i++) {
+			options[2 + i] = ("Source file: " + sourceFilePaths.get(i)).getBytes(UTF_8);
+		};
+		int blockLength = 28 + optionLength(options[0]);
+		for(int i = 1; i < options.length; i++) {
+			blockLength += optionLength(options[i]);
+		};
+		blockLength += 4; // End of options
+		this.startBlock(BLOCK_TYPE_SHB, blockLength);
+		this.buffer.putInt(BYTE_ORDER_MAGIC);
+		this.buffer.putShort((short) 1); // Major version
+		this.buffer.putShort((short) 0); // Minor version
+		this.buffer.putLong(-1L); // Section length (not specified)
+		this.putOption(OPTION_SHB_USERAPPL, options[0]);
+		for(int i = 1; i < options.length; i++) {
+			this.putOption(OPTION_COMMENT, options[i]);
+		};
+		this.endBlock(blockLength);
+	}
+
+	/**
+	 * Returns the length of an option (header and padding included)
+	 *
+	 * @param	value	the value of the option
+	 * @return			the length in bytes
+	 */
+	private static int optionLength(byte[] value) {
+		return 4 + ((value.length + 3) & ~3);
+	}
+
+	/**
+	 * Makes room in the buffer for a block and writes its type and length
+	 *
+	 * @param	blockType	the block type
+	 * @param	blockLength	the block length
+	 */
+	private void startBlock(int blockType, int blockLength) throws IOException {
+		if(this.buffer.remaining() < blockLength) {
+			this.flushBuffer();
+			if(this.buffer.capacity() < blockLength) {
+				this.buffer = ByteBuffer.allocate(blockLength).order(ByteOrder.LITTLE_ENDIAN);
+			};
+		};
+		this.buffer.putInt(blockType);
+		this.buffer.putInt(blockLength);
+	}
+
+	/**
+	 * Writes the end of options and the trailing block length
+	 *
+	 * @param	blockLength	the block length
+	 */
+	private void endBlock(int blockLength) {
+		this.buffer.putShort((short) OPTION_END);
+		this.buffer.putShort((short) 0);
+		this.buffer.putInt(blockLength);
+	}
+
+	/**
+	 * Writes an option (padded to 32 bits)
+	 *
+	 * @param	code	the option code
+	 * @param	value	the option value
+	 */
+	private void putOption(int code, byte[] value) {
+		this.buffer.putShort((short) code);
+		this.buffer.putShort((short) value.length);
+		this.buffer.put(value);
+		this.pad(value.length);
+	}
+
+	private void pad(int length) {
+		for(int i = length; (i & 3) != 0; i++) {
+			this.buffer.put((byte) 0);
+		};
+	}
+
+	/**
+	 * Returns the Interface ID of an SBC interface and VLAN, writing its Interface Description
+	 * Block if it is the first time it is seen
+	 *
+	 * @param	ifc		the SBC interface (-1 for the frames with no network data)
+	 * @param	vid		the VLAN ID (-1 if none)
+	 * @return			the Interface ID
+	 */
+	public int getInterfaceId(int ifc, int vid) throws IOException {
+		Long key = Long.valueOf(((long) ifc << 32) | (vid & 0xFFFFFFFFL));
+		Integer interfaceId = this.interfaceIds.get(key);
+		if(interfaceId == null) {
+			interfaceId = Integer.valueOf(this.interfaceIds.size());
+			this.interfaceIds.put(key, interfaceId);
+			byte[] name;
+			byte[] description;
+			if(ifc < 0) {
+				name = this.logType.getBytes(UTF_8);
+				description = ("Events from " + this.logType).getBytes(UTF_8);
+			} else {
+				name = (Integer.toString(ifc) + ":" + Integer.toString(Math.max(vid, 0))).getBytes(UTF_8);
+				description = ("SBC interface " + Integer.toString(ifc) + ((vid >= 0) ? ", VLAN " + Integer.toString(vid) : ", no VLAN")).getBytes(UTF_8);
+			};
+			int blockLength = 20 + optionLength(name) + optionLength(description) + 4;
+			this.startBlock(BLOCK_TYPE_IDB, blockLength);
+			this.buffer.putShort((short) Pcap.LINKTYPE_ETHERNET);
+			this.buffer.putShort((short) 0); // Reserved
+			this.buffer.putInt(0); // Snapshot length (no limit)
+			this.putOption(OPTION_IF_NAME, name);
+			this.putOption(OPTION_IF_DESCRIPTION, description);
+			this.endBlock(blockLength);
+		};
+		return interfaceId.intValue();
+	}
+
+	/**
+	 * Writes a PCAP frame (as built by PcapFrameBuilder) as an Enhanced Packet Block
+	 *
+	 * @param	ifc				the SBC interface of the frame (-1 for the frames with no network data)
+	 * @param	vid				the VLAN ID of the frame (-1 if none)
+	 * @param	comment			the comment of the packet (ignored unless comments were requested, null means none)
+	 * @param	frames			the buffer holding the PCAP frame
+	 * @param	frameOffset		the offset of the PCAP frame within the buffer
+	 * @return					the length of the PCAP frame (so the next one can be found)
+	 * @throws	IOException		if the block cannot be written
+	 */
+	public int writeFrame(int ifc, int vid, String comment, byte[] frames, int frameOffset) throws IOException {
+		ByteBuffer frame = ByteBuffer.wrap(frames).order(ByteOrder.LITTLE_ENDIAN);
+		long seconds = frame.getInt(frameOffset) & 0xFFFFFFFFL;
+		long microseconds = frame.getInt(frameOffset + 4) & 0xFFFFFFFFL;
+		int capturedLength = frame.getInt(frameOffset + 8);
+		int originalLength = frame.getInt(frameOffset + 12);
+		int interfaceId = this.getInterfaceId(ifc, vid);
+		byte[] commentBytes = (this.isCommented && (comment != null)) ? comment.getBytes(UTF_8) : null;
+		int blockLength = 32 + ((capturedLength + 3) & ~3) + ((commentBytes != null) ? optionLength(commentBytes) : 0) + 4;
+		long timestamp = seconds * 1000000L + microseconds;
+		this.startBlock(BLOCK_TYPE_EPB, blockLength);
+		this.buffer.putInt(interfaceId);
+		this.buffer.putInt((int) (timestamp >>> 32));
+		this.buffer.putInt((int) timestamp);
+		this.buffer.putInt(capturedLength);
+		this.buffer.putInt(originalLength);
+		this.buffer.put(frames, frameOffset + PcapFrameBuilder.PCAP_RECORD_HEADER_LENGTH, capturedLength);
+		this.pad(capturedLength);
+		if(commentBytes != null) {
+			this.putOption(OPTION_COMMENT, commentBytes);
+		};
+		this.endBlock(blockLength);
+		return PcapFrameBuilder.PCAP_RECORD_HEADER_LENGTH + capturedLength;
+	}
+
+	/**
+	 * Writes a LogFrame already encoded as a PCAP frame, commenting it with the log file and
+	 * offset of its header line
+	 *
+	 * @param	logFrame		the LogFrame
+	 * @param	frames			the buffer holding the PCAP frame
+	 * @param	frameOffset		the offset of the PCAP frame within the buffer
+	 * @return					the length of the PCAP frame
+	 * @throws	IOException		if the block cannot be written
+	 */
+	public int writeFrame(ApktLog.LogFrame logFrame, byte[] frames, int frameOffset) throws IOException {
+		ApktLog.ParsedHeaderLine parsedHeaderLine = logFrame.getParsedHeaderLine();
+		return this.writeFrame(parsedHeaderLine.ifc, parsedHeaderLine.vid, this.isCommented ? getComment(logFrame) : null, frames, frameOffset);
+	}
+
+	/**
+	 * Returns the comment telling where a LogFrame comes from, that is, the log file and
+	 * offset of its header line (for compressed files, the offset within the inflated bytes)
+	 *
+	 * @param	logFrame	the LogFrame
+	 * @return				the comment, or null if the origin of the LogFrame is not known
+	 */
+	public static String getComment(ApktLog.LogFrame logFrame) {
+		CharSequence headerLine = logFrame.getLines().get(0);
+		if(!(headerLine instanceof ByteLine) || (((ByteLine) headerLine).getFile() == null)) {
+			return null;
+		};
+		return getComment(((ByteLine) headerLine).getFile().getPath(), ((ByteLine) headerLine).getOffset());
+	}
+
+	/**
+	 * Returns the comment telling where a frame comes from
+	 *
+	 * @param	filePath	the path to the log file
+	 * @param	offset		the offset of the header line within the log file
+	 * @return				the comment
+	 */
+	public static String getComment(String filePath, long offset) {
+		return filePath + " @ offset " + Long.toString(offset);
+	}
+
+	/**
+	 * Writes the blocks held in the buffer to the output stream
+	 */
+	private void flushBuffer() throws IOException {
+		this.outputStream.write(this.buffer.array(), 0, this.buffer.position());
+		this.writtenLength += this.buffer.position();
+		this.buffer.clear();
+	}
+
+	/**
+	 * Returns the length of the pcapng file written so far (blocks still held in the buffer included)
+	 *
+	 * @return	the length in bytes
+	 */
+	public long getLength() {
+		return this.writtenLength + this.buffer.position();
+	}
+
+	/**
+	 * Writes the blocks held in the buffer and flushes the output stream
+	 *
+	 * @throws	IOException	if the blocks cannot be written
+	 */
+	public void flush() throws IOException {
+		this.flushBuffer();
+		this.outputStream.flush();
+	}
+
+}
@@ -0,0 +1,207 @@
+package apktlog2pcap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+import java.lang.UnsupportedOperationException;
+
+/**
+ * RangeLineIterator object represents an iteration of the lines of some of the LogFrames of a
+ * log file, as found in its LogIndex, so just their bytes are read (those of the rest of the
+ * file are not even touched).
+ *
+ * The byte ranges of the LogFrames are read with positional reads into blocks, consecutive
+ * ranges (those just separated by a line terminator) being coalesced into the same block up to
+ * BLOCK_SIZE bytes, so a selection of whole stretches of the file takes a few big reads rather
+ * than one per LogFrame. Blocks are never overwritten (every read takes a new buffer), so the
+ * ByteLines returned stay valid as long as they are referenced, just like those of
+ * MappedLineIterator. Lines are terminated by LF, CR or CRLF, and by the end of each block (so
+ * a block ending with a line terminator, whose last LogFrame ends with an empty line, gets that
+ * empty line returned too).
+ *
+ * Since the LogFrames read are not consecutive, the years of their timestamps cannot be inferred
+ * from those of the LogFrames before them (which may have been skipped), so the TimestampCalculator
+ * parsing the lines (if given) is resumed at the timestamp of the first LogFrame of each block
+ * when the block is read (that is, right before its first header line is parsed).
+ */
+public class RangeLineIterator implements ByteLineIterator {
+
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	/*
+	 * Instance variables
+	 */
+	private final LogIndex index;
+	private final int[] entries;
+	private final TimestampCalculator timestampCalculator;
+	private final File file;
+	private FileChannel channel;
+	private int nextEntry;
+	private ByteBuffer block;
+	private long blockOffset;
+	private int blockLimit;
+	private int position;
+	private boolean isEmptyLinePending;
+	private ByteLine cachedNext;
+
+	/**
+	 * Constructor method taking the index of a log file and the entries to be read as input parameters
+	 *
+	 * @param	index				the LogIndex of the log file
+	 * @param	entries				the indexes of the entries to be read (in ascending order)
+	 * @param	timestampCalculator	the TimestampCalculator of the parser of the lines (null if none is to be resumed)
+	 */
+	public RangeLineIterator(LogIndex index, int[] entries, TimestampCalculator timestampCalculator) {
+		this.index = index;
+		this.entries = entries;
+		this.timestampCalculator = timestampCalculator;
+		this.file = index.getLogFile();
+		this.channel = null;
+		this.nextEntry = 0;
+		this.block = null;
+		this.blockOffset = 0;
+		this.blockLimit = 0;
+		this.position = 0;
+		this.isEmptyLinePending = false;
+		this.cachedNext = null;
+	}
+
+	/**
+	 * Reads the next block, made of the byte ranges of as many of the next entries as can be coalesced
+	 *
+	 * @return	whether there was a block to read
+	 */
+	private boolean readBlock() {
+		if(this.nextEntry >= this.entries.length) {
+			this.close();
+			return false;
+		};
+		int firstEntry = this.entries[this.nextEntry];
+		long start = this.index.getOffset(firstEntry);
+		long end = start + this.index.getLength(firstEntry);
+		this.nextEntry++;
+		int entry;
+		long entryEnd;
+		while(this.nextEntry < this.entries.length) {
+			entry = this.entries[this.nextEntry];
+			entryEnd = this.index.getOffset(entry) + this.index.getLength(entry);
+			if((this.index.getOffset(entry) > end + 2) || (entryEnd - start > BLOCK_SIZE)) {
+				break;
+			};
+			end = entryEnd;
+			this.nextEntry++;
+		};
+		byte[] bytes = new byte[(int) (end - start)];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		try {
+			if(this.channel == null) {
+				this.channel = (new FileInputStream(this.file)).getChannel();
+			};
+			while(buffer.hasRemaining()) {
+				if(this.channel.read(buffer, start + buffer.position()) < 0) {
+					throw(new IOException("Unexpected end of file (the index is outdated)"));
+				};
+			};
+		} catch(IOException ioe) {
+			this.close();
+			throw(new RuntimeException("IOException while reading " + this.file.getPath(), ioe));
+		};
+		if(this.timestampCalculator != null) {
+			this.timestampCalculator.resumeAt(this.index.getTimestamp(firstEntry));
+		};
+		this.block = ByteBuffer.wrap(bytes);
+		this.blockOffset = start;
+		this.blockLimit = bytes.length;
+		this.position = 0;
+		this.isEmptyLinePending = (bytes.length > 0) && ((bytes[bytes.length - 1] == '\n') || (bytes[bytes.length - 1] == '\r'));
+		return true;
+	}
+
+	/**
+	 * Closes the underlying channel, so no more lines will be returned
+	 * (there is no need to invoke it once the iteration has been completed)
+	 */
+	public void close() {
+		if(this.channel != null) {
+			try{ this.channel.close(); } catch(IOException ioe) {};
+			this.channel = null;
+		};
+		this.nextEntry = this.entries.length;
+		this.block = null;
+		this.cachedNext = null;
+	}
+
+	private ByteLine getNext() {
+		ByteLine next = null;
+		if(this.cachedNext != null) {
+			next = this.cachedNext; // We get the value cached at a previous invocaton of hasNext() method
+			this.cachedNext = null; // We consume the cached one so it won't be available in next read
+		} else {
+			if((this.block != null) && (this.position >= this.blockLimit) && this.isEmptyLinePending) {
+				this.isEmptyLinePending = false;
+				return new ByteLine(this.block, this.blockLimit, 0, this.blockOffset + this.blockLimit, this.file);
+			};
+			while((this.block == null) || (this.position >= this.blockLimit)) {
+				if(!this.readBlock()) {
+					return null;
+				};
+			};
+			int lineStart = this.position;
+			int index = lineStart;
+			byte b = 0;
+			while(index < this.blockLimit) {
+				b = this.block.get(index);
+				if((b == '\n') || (b == '\r')) {
+					break;
+				};
+				index++;
+			};
+			next = new ByteLine(this.block, lineStart, index - lineStart, this.blockOffset + lineStart, this.file);
+			if(index < this.blockLimit) {
+				index++;
+				if((b == '\r') && (index < this.blockLimit) && (this.block.get(index) == '\n')) {
+					index++;
+				};
+			};
+			this.position = index;
+		};
+		return next;
+	}
+
+	/**
+	 * Returns true if the iteration has more elements.
+	 * (In other words, returns true if next would return an element rather than throwing an exception.)
+	 *
+	 * @return	whether the iteration has more elements
+	 */
+	public boolean hasNext() {
+		this.cachedNext = this.getNext();
+		return (this.cachedNext != null);
+	}
+
+	/**
+	 * Returns the next element in the iteration.
+	 *
+	 * @return	the next element in the iteration.
+	 */
+	public ByteLine next() {
+		ByteLine next = this.getNext();
+		if(next == null) {
+			throw(new NoSuchElementException());
+		};
+		return next;
+	}
+
+	/**
+	 * Removes from the underlying collection the last element returned by the iterator (optional operation). This method can be called only once per call to next.
+	 * The behavior of an iterator is unspecified if the underlying collection is modified while the iteration is in progress in any way other than by calling this method.
+	 *
+	 */
+	public void remove() {
+		throw(new UnsupportedOperationException());
+	}
+
+}
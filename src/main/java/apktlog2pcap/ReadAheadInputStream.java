@@ -0,0 +1,179 @@
+package apktlog2pcap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * ReadAheadInputStream object reads another InputStream on a thread of its own, a few blocks
+ * ahead of its consumer, so the cost of producing the bytes (e.g. inflating a compressed log)
+ * overlaps with the cost of consuming them (parsing and encoding the log frames).
+ *
+ * The underlying stream is only ever read (and closed) by the read-ahead thread, and any
+ * IOException it throws is rethrown to the consumer once the blocks read before it have
+ * been consumed.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+	private static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+	private static final int DEFAULT_BLOCK_COUNT = 4;
+
+	/**
+	 * Block object is a piece of the underlying stream (or its end, or the error found while reading it)
+	 */
+	private static class Block {
+		final byte[] bytes;
+		final int length;
+		final IOException exception;
+		Block(byte[] bytes, int length, IOException exception) {
+			this.bytes = bytes;
+			this.length = length;
+			this.exception = exception;
+		}
+	}
+
+	/*
+	 * Instance variables
+	 */
+	private final InputStream source;
+	private final int blockSize;
+	private final BlockingQueue<Block> blocks;
+	private final Thread thread;
+	private Block block;
+	private int position;
+	private volatile boolean closed;
+
+	/**
+	 * Constructs the ReadAheadInputStream, starting its read-ahead thread
+	 *
+	 * @param	source	the underlying stream
+	 * @param	name	the name of the thread (e.g. the path of the file being read)
+	 */
+	public ReadAheadInputStream(InputStream source, String name) {
+		this(source, name, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT);
+	}
+
+	/**
+	 * Constructs the ReadAheadInputStream, starting its read-ahead thread
+	 *
+	 * @param	source		the underlying stream
+	 * @param	name		the name of the thread (e.g. the path of the file being read)
+	 * @param	blockSize	the size of the blocks read from the underlying stream
+	 * @param	blockCount	the maximum number of blocks read ahead
+	 */
+	public ReadAheadInputStream(InputStream source, String name, int blockSize, int blockCount) {
+		this.source = source;
+		this.blockSize = blockSize;
+		this.blocks = new ArrayBlockingQueue<Block>(blockCount);
+		this.block = null;
+		this.position = 0;
+		this.closed = false;
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				ReadAheadInputStream.this.readAhead();
+			}
+		}, "read-ahead " + name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Body of the read-ahead thread
+	 */
+	private void readAhead() {
+		try {
+			byte[] bytes;
+			int length;
+			int count;
+			while(!this.closed) {
+				bytes = new byte[this.blockSize];
+				length = 0;
+				count = 0;
+				// We fill in the whole block, since inflaters tend to return small pieces
+				while((length < bytes.length) && ((count = this.source.read(bytes, length, bytes.length - length)) >= 0)) {
+					length += count;
+				};
+				if(length > 0) {
+					this.blocks.put(new Block(bytes, length, null));
+				};
+				if(count < 0) {
+					this.blocks.put(new Block(null, -1, null));
+					break;
+				};
+			};
+		} catch(IOException ioe) {
+			try {
+				this.blocks.put(new Block(null, -1, ioe));
+			} catch(InterruptedException ie) {};
+		} catch(InterruptedException ie) {
+			// The stream has been closed
+		} finally {
+			try{ this.source.close(); } catch(IOException ioe) {};
+		}
+	}
+
+	/**
+	 * Gets the block to read from, waiting for the read-ahead thread if needed
+	 *
+	 * @return	the block (whose length is -1 at the end of the stream)
+	 */
+	private Block currentBlock() throws IOException {
+		if(this.closed) {
+			throw(new IOException("Stream closed"));
+		};
+		if((this.block == null) || ((this.block.length >= 0) && (this.position >= this.block.length))) {
+			try {
+				this.block = this.blocks.take();
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw(new InterruptedIOException("Interrupted while waiting for " + this.thread.getName()));
+			};
+			this.position = 0;
+		};
+		if(this.block.exception != null) {
+			throw(new IOException(this.block.exception.getMessage(), this.block.exception));
+		};
+		return this.block;
+	}
+
+	public int read() throws IOException {
+		Block block = this.currentBlock();
+		if(block.length < 0) {
+			return -1;
+		};
+		return block.bytes[this.position++] & 0xFF;
+	}
+
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if(length == 0) {
+			return 0;
+		};
+		Block block = this.currentBlock();
+		if(block.length < 0) {
+			return -1;
+		};
+		int count = Math.min(length, block.length - this.position);
+		System.arraycopy(block.bytes, this.position, bytes, offset, count);
+		this.position += count;
+		return count;
+	}
+
+	public int available() throws IOException {
+		return ((this.block != null) && (this.block.length >= 0)) ? this.block.length - this.position : 0;
+	}
+
+	/**
+	 * Closes the stream, stopping the read-ahead thread (which closes the underlying stream)
+	 */
+	public void close() {
+		if(!this.closed) {
+			this.closed = true;
+			this.thread.interrupt();
+			this.blocks.clear();
+			this.block = null;
+		};
+	}
+
+}
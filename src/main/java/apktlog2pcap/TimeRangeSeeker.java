@@ -0,0 +1,293 @@
+package apktlog2pcap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * TimeRangeSeeker object finds where the frames of a time range (such as a few minutes out of
+ * a big rotated log set) are in the log files, so just that part of them needs to be converted:
+ *     - Files whose first header line is later than the range end the search (the log files
+ *       are in time order), and files whose last header line is earlier than the range start
+ *       (or followed by a file whose first header line is not later than it) are skipped
+ *     - Within the file holding the range start, the offset to start at is found by a binary
+ *       search over byte offsets: at each step the next header line after the middle offset
+ *       is looked for (resynchronizing to the frame boundaries) and its timestamp compared
+ *       against the range start
+ *     - Then a FrameFilter drops the frames before the range start (those between the offset
+ *       found and the range start), and ends the iteration at the first frame after the range
+ *       end, so the rest of the files are not even read
+ *
+ * Compressed files cannot be searched (their offsets are those of the inflated bytes), so they
+ * are only skipped out of the first header lines of the files, and read from the beginning otherwise.
+ *
+ * The timestamps of the header lines found when seeking get their years inferred out of the
+ * first header line of each file, in file order (just like ParallelConverter does when splitting),
+ * and getYear() and getMonth() tell the state the TimestampCalculator of the conversion has to be
+ * resumed with, so it infers the same years than a conversion of the whole files would.
+ */
+public class TimeRangeSeeker {
+
+	private static final int SCAN_WINDOW_SIZE = 64 * 1024; // header lines are looked for in small windows, since they are usually close
+	private static final long MIN_SEARCH_RANGE = 64 * 1024; // below this, reading the lines is faster than going on with the search
+
+	/**
+	 * Start object is a log file to be converted, along with the offset the conversion starts at
+	 */
+	public static class Start {
+		public final File file;
+		public final long offset;
+		public Start(File file, long offset) {
+			this.file = file;
+			this.offset = offset;
+		}
+	}
+
+	/*
+	 * Instance variables
+	 */
+	private final String logType;
+	private final TimeZone timeZone;
+	private final long referenceTime;
+	private final long fromTime;
+	private final long toTime;
+	private int year;
+	private int month;
+
+	/**
+	 * Constructs the TimeRangeSeeker
+	 *
+	 * @param	logType		the log type of the files (one of ApktLog.LOGTYPES)
+	 * @param	timeZone	the time zone in which the SBC wrote the logs
+	 * @param	fromTime	the start of the time range (epoch milliseconds, Long.MIN_VALUE means none)
+	 * @param	toTime		the end of the time range (epoch milliseconds, Long.MAX_VALUE means none)
+	 */
+	public TimeRangeSeeker(String logType, TimeZone timeZone, long fromTime, long toTime) {
+		this.logType = logType;
+		this.timeZone = timeZone;
+		this.referenceTime = System.currentTimeMillis();
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+		this.year = -1;
+		this.month = -1;
+	}
+
+	/**
+	 * Returns the year of the header line the conversion starts at (as found by seek())
+	 *
+	 * @return	the year, or -1 if there is none
+	 */
+	public int getYear() {
+		return this.year;
+	}
+
+	/**
+	 * Returns the month of the header line the conversion starts at (as found by seek())
+	 *
+	 * @return	the month (1 to 12), or -1 if there is none
+	 */
+	public int getMonth() {
+		return this.month;
+	}
+
+	/**
+	 * Finds the log files to be converted, and the offset the conversion starts at in the first one
+	 *
+	 * @param	logFiles	the log files (already sorted, see AppCore.sortLogFiles())
+	 * @return				the log files to be converted, in order (the first one may start at a
+	 * 						non-zero offset, and the rest of them start at 0)
+	 */
+	public List<Start> seek(List<File> logFiles) {
+		TimestampCalculator timestampCalculator = new TimestampCalculator(this.timeZone, this.referenceTime);
+		LogProtoParser<ApktLog.ParsedHeaderLine> parser = ApktLog.createLogParser(this.logType, timestampCalculator);
+		TimestampCalculator probeCalculator = new TimestampCalculator(this.timeZone, this.referenceTime);
+		LogProtoParser<ApktLog.ParsedHeaderLine> probeParser = ApktLog.createLogParser(this.logType, probeCalculator);
+		// The first header lines are parsed in file order, so the TimestampCalculator infers their years
+		int fileCount = logFiles.size();
+		long[] firstTimes = new long[fileCount];
+		int[] firstYears = new int[fileCount];
+		int[] firstMonths = new int[fileCount];
+		ByteLine line;
+		for(int i = 0; i < fileCount; i++) {
+			line = findHeaderLine(parser, logFiles.get(i), 0, Long.MAX_VALUE, SCAN_WINDOW_SIZE);
+			firstYears[i] = -1;
+			if(line != null) {
+				firstTimes[i] = parser.parseHeaderLine(line).timestamp;
+				firstYears[i] = timestampCalculator.getYear();
+				firstMonths[i] = timestampCalculator.getLastMonth();
+			};
+		};
+		List<Start> starts = new ArrayList<Start>();
+		File file;
+		long offset;
+		this.year = -1;
+		this.month = -1;
+		for(int i = 0; i < fileCount; i++) {
+			file = logFiles.get(i);
+			if(firstYears[i] < 0) {
+				if(starts.size() > 0) {
+					starts.add(new Start(file, 0)); // Just the end of a frame started in the previous file
+				};
+				continue;
+			};
+			if(firstTimes[i] > this.toTime) {
+				break; // This file and the next ones are after the time range
+			};
+			if(starts.size() > 0) {
+				starts.add(new Start(file, 0));
+				continue;
+			};
+			if(isBeforeNextFile(firstTimes, firstYears, i, this.fromTime)) {
+				continue; // The whole file is before the time range, since the next one starts before it
+			};
+			offset = 0;
+			if(!AppCore.isCompressedLogFile(file) && (firstTimes[i] < this.fromTime)) {
+				line = findLastHeaderLine(probeParser, file);
+				probeCalculator.resume(firstYears[i], firstMonths[i]);
+				if(probeParser.parseHeaderLine(line).timestamp < this.fromTime) {
+					continue; // The whole file is before the time range
+				};
+				offset = this.search(probeParser, probeCalculator, file, firstYears[i], firstMonths[i]);
+			};
+			if(offset == 0) {
+				this.year = firstYears[i];
+				this.month = firstMonths[i];
+			} else {
+				this.year = probeCalculator.getYear();
+				this.month = probeCalculator.getLastMonth();
+			};
+			starts.add(new Start(file, offset));
+		};
+		return starts;
+	}
+
+	/**
+	 * Tells whether the next file with header lines starts no later than the given time (and
+	 * no earlier than the current one, as files in time order do)
+	 *
+	 * @param	firstTimes	the timestamps of the first header lines of the files
+	 * @param	firstYears	the years of the first header lines of the files (-1 for files with no header lines)
+	 * @param	index		the index of the current file
+	 * @param	time		the time
+	 * @return				whether the next file starts between the current one and the time
+	 */
+	private static boolean isBeforeNextFile(long[] firstTimes, int[] firstYears, int index, long time) {
+		for(int i = index + 1; i < firstTimes.length; i++) {
+			if(firstYears[i] >= 0) {
+				return (firstTimes[index] <= firstTimes[i]) && (firstTimes[i] <= time);
+			};
+		};
+		return false;
+	}
+
+	/**
+	 * Looks for the offset of the last header line earlier than the range start, by a binary
+	 * search over the byte offsets of a file (leaving the probe calculator with the year and
+	 * month of that header line)
+	 *
+	 * @param	probeParser		the parser of the header lines
+	 * @param	probeCalculator	the TimestampCalculator of the parser
+	 * @param	file			the log file
+	 * @param	fileYear		the year of the first header line of the file
+	 * @param	fileMonth		the month of the first header line of the file
+	 * @return					the offset (0 if it is the first header line, or if there is none)
+	 */
+	private long search(LogProtoParser<ApktLog.ParsedHeaderLine> probeParser, TimestampCalculator probeCalculator, File file, int fileYear, int fileMonth) {
+		long low = 0; // Either 0 or the offset of a header line earlier than the range start
+		long high = file.length(); // No header line from here on is earlier than the range start
+		int lowYear = fileYear;
+		int lowMonth = fileMonth;
+		long middle;
+		ByteLine line;
+		while(high - low > MIN_SEARCH_RANGE) {
+			middle = low + (high - low) / 2;
+			probeCalculator.resume(fileYear, fileMonth);
+			line = findHeaderLine(probeParser, file, middle, high, SCAN_WINDOW_SIZE);
+			if((line == null) || (probeParser.parseHeaderLine(line).timestamp >= this.fromTime)) {
+				high = middle;
+			} else {
+				low = line.getOffset();
+				lowYear = probeCalculator.getYear();
+				lowMonth = probeCalculator.getLastMonth();
+			};
+		};
+		probeCalculator.resume(lowYear, lowMonth);
+		return low;
+	}
+
+	/**
+	 * Looks for the first header line starting within the given byte range of a file
+	 * (parsing it with the given parser, so its TimestampCalculator gets updated)
+	 *
+	 * @param	parser		the parser
+	 * @param	file		the log file
+	 * @param	start		the offset the search starts at (not necessarily at the beginning of a line, and ignored for compressed files)
+	 * @param	end			the offset the search ends at
+	 * @param	windowSize	the size of the windows the file is mapped in
+	 * @return				the header line, or null if none was found
+	 */
+	static ByteLine findHeaderLine(LogProtoParser<ApktLog.ParsedHeaderLine> parser, File file, long start, long end, int windowSize) {
+		// We start one byte earlier, so the first line we get is either partial or an empty one ending at start
+		boolean isCompressed = AppCore.isCompressedLogFile(file);
+		ByteLineIterator lines = isCompressed ? new GzipLineIterator(file) : new MappedLineIterator(file, Math.max(0, start - 1), Long.MAX_VALUE, windowSize);
+		try {
+			if(!isCompressed && (start > 0) && lines.hasNext()) {
+				lines.next();
+			};
+			ByteLine line;
+			while(lines.hasNext()) {
+				line = lines.next();
+				if(line.getOffset() >= end) {
+					break;
+				};
+				if(parser.isHeaderCandidate(line) && (parser.parseHeaderLine(line) != null)) {
+					return line;
+				};
+			};
+			return null;
+		} finally {
+			lines.close();
+		}
+	}
+
+	/**
+	 * Looks for the last header line of a (not compressed) file, in windows growing backwards from its end
+	 *
+	 * @param	parser	the parser
+	 * @param	file	the log file
+	 * @return			the header line, or null if none was found
+	 */
+	private static ByteLine findLastHeaderLine(LogProtoParser<ApktLog.ParsedHeaderLine> parser, File file) {
+		long fileSize = file.length();
+		long start = fileSize;
+		long end;
+		ByteLine lastLine = null;
+		ByteLine line;
+		ByteLineIterator lines;
+		for(long windowSize = SCAN_WINDOW_SIZE; (lastLine == null) && (start > 0); windowSize *= 2) {
+			end = start;
+			start = Math.max(0, fileSize - windowSize);
+			// We start one byte earlier, so the first line we get is either partial or an empty one ending at start
+			lines = new MappedLineIterator(file, Math.max(0, start - 1), end, SCAN_WINDOW_SIZE);
+			try {
+				if((start > 0) && lines.hasNext()) {
+					lines.next();
+				};
+				while(lines.hasNext()) {
+					line = lines.next();
+					if(line.getOffset() >= end) {
+						break;
+					};
+					if(parser.isHeaderCandidate(line) && (parser.parseHeaderLine(line) != null)) {
+						lastLine = line;
+					};
+				};
+			} finally {
+				lines.close();
+			}
+		};
+		return lastLine;
+	}
+
+}
@@ -0,0 +1,183 @@
+package apktlog2pcap;
+
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * TimestampCalculator object computes the epoch time (milliseconds) of the timestamps found
+ * in the header lines of the SBC logs, such as "Jul  4 11:29:22.360".
+ *
+ * These timestamps do not include the year, so it is inferred:
+ *     - The first timestamp is assumed to belong to the current year, unless its month is
+ *       later than the current one (logs cannot come from the future), in which case it is
+ *       assumed to belong to the previous year
+ *     - Then, whenever the month goes backwards by more than half a year (as it happens
+ *       when a rotated log set crosses from December to January), the year is increased
+ *       (and conversely, it is decreased when the month goes forwards by more than half a year)
+ *
+ * In order to avoid working with calendars for every line, the start of the hour of the
+ * last computed timestamp is cached, so consecutive timestamps within the same hour only
+ * need an addition.
+ *
+ * Note that a TimestampCalculator object keeps state between invocations, so it must be used
+ * for just one sequence of log lines and must not be shared among threads. That state (the
+ * year and month of the last timestamp) can be read and set with getYear(), getLastMonth()
+ * and resume(), so a sequence can be split into pieces handled by different calculators.
+ */
+public class TimestampCalculator {
+
+	private static final long MILLIS_PER_SECOND = 1000L;
+	private static final long MILLIS_PER_MINUTE = 60L * MILLIS_PER_SECOND;
+	private static final int HALF_A_YEAR = 6; // months
+
+	/*
+	 * Instance variables
+	 */
+	private final TimeZone timeZone;
+	private final GregorianCalendar calendar;
+	private final int referenceYear;
+	private final int referenceMonth;
+	private int year;
+	private int lastMonth;
+	private int cachedYear;
+	private int cachedMonth;
+	private int cachedDay;
+	private int cachedHours;
+	private long cachedHourStart;
+
+	/**
+	 * Constructs a TimestampCalculator inferring the years with regard to the current time
+	 *
+	 * @param	timeZone	the time zone in which the logs were written
+	 */
+	public TimestampCalculator(TimeZone timeZone) {
+		this(timeZone, System.currentTimeMillis());
+	}
+
+	/**
+	 * Constructs a TimestampCalculator inferring the years with regard to the given time
+	 *
+	 * @param	timeZone		the time zone in which the logs were written
+	 * @param	referenceTime	the time (epoch milliseconds) no log timestamp can be later than
+	 */
+	public TimestampCalculator(TimeZone timeZone, long referenceTime) {
+		this.timeZone = timeZone;
+		this.calendar = new GregorianCalendar(timeZone);
+		this.calendar.setTimeInMillis(referenceTime);
+		this.referenceYear = this.calendar.get(GregorianCalendar.YEAR);
+		this.referenceMonth = this.calendar.get(GregorianCalendar.MONTH) + 1;
+		this.year = -1;
+		this.lastMonth = -1;
+		this.cachedHours = -1;
+	}
+
+	/**
+	 * Returns the time zone in which the logs were written
+	 *
+	 * @return	the time zone
+	 */
+	public TimeZone getTimeZone() {
+		return this.timeZone;
+	}
+
+	/**
+	 * Returns the year inferred for the last computed timestamp
+	 *
+	 * @return	the year, or -1 if no timestamp has been computed yet
+	 */
+	public int getYear() {
+		return this.year;
+	}
+
+	/**
+	 * Returns the month of the last computed timestamp
+	 *
+	 * @return	the month (1 to 12), or -1 if no timestamp has been computed yet
+	 */
+	public int getLastMonth() {
+		return this.lastMonth;
+	}
+
+	/**
+	 * Makes the calculator go on as if the last computed timestamp had the given year and month
+	 *
+	 * @param	year	the year of the last timestamp
+	 * @param	month	the month of the last timestamp (1 to 12)
+	 */
+	public void resume(int year, int month) {
+		this.year = year;
+		this.lastMonth = month;
+	}
+
+	/**
+	 * Makes the calculator go on as if the last computed timestamp had been the given one
+	 *
+	 * @param	timestamp	the epoch time (milliseconds) of the last timestamp
+	 */
+	public void resumeAt(long timestamp) {
+		GregorianCalendar calendar = new GregorianCalendar(this.timeZone);
+		calendar.setTimeInMillis(timestamp);
+		this.resume(calendar.get(GregorianCalendar.YEAR), calendar.get(GregorianCalendar.MONTH) + 1);
+	}
+
+	/**
+	 * Returns the year that would be inferred for a timestamp of the given month, without
+	 * changing the state of the calculator
+	 *
+	 * @param	month	the month (1 to 12)
+	 * @return			the year
+	 */
+	public int inferYear(int month) {
+		if(this.year < 0) {
+			return (month > this.referenceMonth) ? (this.referenceYear - 1) : this.referenceYear;
+		} else if(month < (this.lastMonth - HALF_A_YEAR)) {
+			return this.year + 1;
+		} else if(month > (this.lastMonth + HALF_A_YEAR)) {
+			return this.year - 1;
+		};
+		return this.year;
+	}
+
+	/**
+	 * Returns the epoch time of a log timestamp, inferring its year
+	 *
+	 * @param	month		the month component (1 to 12)
+	 * @param	day			the day component
+	 * @param	hours		the hour component
+	 * @param	minutes		the minute component
+	 * @param	seconds		the second component
+	 * @param	miliseconds	the milisecond component
+	 * @return				the epoch time (milliseconds)
+	 */
+	public long getTimeMillis(int month, int day, int hours, int minutes, int seconds, int miliseconds) {
+		this.year = this.inferYear(month);
+		this.lastMonth = month;
+		return this.getTimeMillis(this.year, month, day, hours, minutes, seconds, miliseconds);
+	}
+
+	/**
+	 * Returns the epoch time of a date whose year is known
+	 *
+	 * @param	year		the year component
+	 * @param	month		the month component (1 to 12)
+	 * @param	day			the day component
+	 * @param	hours		the hour component
+	 * @param	minutes		the minute component
+	 * @param	seconds		the second component
+	 * @param	miliseconds	the milisecond component
+	 * @return				the epoch time (milliseconds)
+	 */
+	public long getTimeMillis(int year, int month, int day, int hours, int minutes, int seconds, int miliseconds) {
+		if((hours != this.cachedHours) || (day != this.cachedDay) || (month != this.cachedMonth) || (year != this.cachedYear)) {
+			this.calendar.clear();
+			this.calendar.set(year, month - 1, day, hours, 0, 0);
+			this.cachedHourStart = this.calendar.getTimeInMillis();
+			this.cachedYear = year;
+			this.cachedMonth = month;
+			this.cachedDay = day;
+			this.cachedHours = hours;
+		};
+		return this.cachedHourStart + (minutes * MILLIS_PER_MINUTE) + (seconds * MILLIS_PER_SECOND) + miliseconds;
+	}
+
+}
@@ -0,0 +1,242 @@
+package apktlog2pcap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * WriteBehindOutputStream object writes a file on a thread of its own, a few blocks behind its
+ * producer, so the cost of producing the bytes (parsing and encoding the log frames) overlaps
+ * with the cost of writing them (which may be high on network filesystems). It is the output
+ * counterpart of ReadAheadInputStream.
+ *
+ * Bytes are copied into direct ByteBuffers (blocks), and full blocks are handed over to the
+ * write-behind thread through a bounded queue, so at most DEFAULT_BLOCK_COUNT blocks are held in
+ * memory and a producer faster than the disk just waits. The write-behind thread writes all the
+ * blocks queued at once with a single gathering write on the FileChannel of the file, and then
+ * gives them back to the producer to be filled again.
+ *
+ * The file can be preallocated to the length it is expected to take, so the filesystem gets the
+ * chance to lay it out in one go rather than growing it block by block; the file is truncated
+ * to the length actually written when the stream is closed.
+ *
+ * The file is only ever written (and closed) by the write-behind thread, and any IOException
+ * it throws is rethrown to the producer at its next write, flush or close.
+ */
+public class WriteBehindOutputStream extends OutputStream {
+
+	private static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+	private static final int DEFAULT_BLOCK_COUNT = 4;
+	private static final ByteBuffer END = ByteBuffer.allocate(0); // queued once the stream is closed
+
+	/*
+	 * Instance variables
+	 */
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long preallocatedLength;
+	private final BlockingQueue<ByteBuffer> fullBlocks;
+	private final BlockingQueue<ByteBuffer> freeBlocks;
+	private final Thread thread;
+	private ByteBuffer block;
+	private long writtenLength; // only updated by the write-behind thread, read once it has ended
+	private volatile IOException exception;
+	private boolean closed;
+
+	/**
+	 * Constructs the WriteBehindOutputStream, opening the file (truncated) and starting its write-behind thread
+	 *
+	 * @param	file				the file
+	 * @param	preallocatedLength	the length the file is expected to take (0 means it is not preallocated)
+	 * @throws	IOException			if the file cannot be opened or preallocated
+	 */
+	public WriteBehindOutputStream(File file, long preallocatedLength) throws IOException {
+		this(file, preallocatedLength, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT);
+	}
+
+	/**
+	 * Constructs the WriteBehindOutputStream, opening the file (truncated) and starting its write-behind thread
+	 *
+	 * @param	file				the file
+	 * @param	preallocatedLength	the length the file is expected to take (0 means it is not preallocated)
+	 * @param	blockSize			the size of the blocks written to the file
+	 * @param	blockCount			the number of blocks (those being filled and written included)
+	 * @throws	IOException			if the file cannot be opened or preallocated
+	 */
+	public WriteBehindOutputStream(File file, long preallocatedLength, int blockSize, int blockCount) throws IOException {
+		this.file = new RandomAccessFile(file, "rw");
+		try {
+			this.file.setLength(0);
+			if(preallocatedLength > 0) {
+				this.file.setLength(preallocatedLength);
+			};
+		} catch(IOException ioe) {
+			try{ this.file.close(); } catch(IOException ioe2) {};
+			throw(ioe);
+		}
+		this.channel = this.file.getChannel();
+		this.preallocatedLength = preallocatedLength;
+		this.fullBlocks = new ArrayBlockingQueue<ByteBuffer>(blockCount + 1);
+		this.freeBlocks = new ArrayBlockingQueue<ByteBuffer>(blockCount);
+		for(int i = 1; i < blockCount; i++) {
+			this.freeBlocks.add(ByteBuffer.allocateDirect(blockSize));
+		};
+		this.block = ByteBuffer.allocateDirect(blockSize);
+		this.writtenLength = 0;
+		this.exception = null;
+		this.closed = false;
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				WriteBehindOutputStream.this.writeBehind();
+			}
+		}, "write-behind " + file.getPath());
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Body of the write-behind thread
+	 */
+	private void writeBehind() {
+		List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+		boolean isEnded = false;
+		try {
+			while(!isEnded) {
+				blocks.add(this.fullBlocks.take());
+				this.fullBlocks.drainTo(blocks);
+				if(blocks.get(blocks.size() - 1) == END) {
+					blocks.remove(blocks.size() - 1);
+					isEnded = true;
+				};
+				if((this.exception == null) && !blocks.isEmpty()) {
+					try {
+						ByteBuffer[] gather = blocks.toArray(new ByteBuffer[blocks.size()]);
+						ByteBuffer last = gather[gather.length - 1];
+						while(last.hasRemaining()) {
+							this.writtenLength += this.channel.write(gather);
+						};
+					} catch(IOException ioe) {
+						this.exception = ioe; // Later blocks are just given back, unwritten
+					};
+				};
+				for(ByteBuffer block: blocks) {
+					block.clear();
+					this.freeBlocks.add(block);
+				};
+				blocks.clear();
+			};
+			if((this.exception == null) && (this.preallocatedLength > 0)) {
+				this.channel.truncate(this.writtenLength);
+			};
+		} catch(IOException ioe) {
+			this.exception = ioe;
+		} catch(RuntimeException re) {
+			this.exception = new IOException(re.getMessage(), re);
+		} catch(InterruptedException ie) {
+			// The producer has gone
+		} finally {
+			try{ this.file.close(); } catch(IOException ioe) {};
+		}
+	}
+
+	/**
+	 * Rethrows the IOException found by the write-behind thread, if any
+	 */
+	private void checkException() throws IOException {
+		if(this.closed) {
+			throw(new IOException("Stream closed"));
+		};
+		if(this.exception != null) {
+			throw(new IOException(this.exception.getMessage(), this.exception));
+		};
+	}
+
+	/**
+	 * Hands the current block over to the write-behind thread (if anything has been written
+	 * into it), taking a free one to go on with, waiting for the write-behind thread if needed
+	 */
+	private void handOver() throws IOException {
+		if(this.block.position() == 0) {
+			return;
+		};
+		this.block.flip();
+		this.fullBlocks.add(this.block);
+		this.block = null;
+		try {
+			this.block = this.freeBlocks.take();
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw(new InterruptedIOException("Interrupted while waiting for " + this.thread.getName()));
+		};
+	}
+
+	public void write(int b) throws IOException {
+		this.checkException();
+		if(!this.block.hasRemaining()) {
+			this.handOver();
+		};
+		this.block.put((byte) b);
+	}
+
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		this.checkException();
+		int count;
+		while(length > 0) {
+			if(!this.block.hasRemaining()) {
+				this.handOver();
+			};
+			count = Math.min(length, this.block.remaining());
+			this.block.put(bytes, offset, count);
+			offset += count;
+			length -= count;
+		};
+	}
+
+	/**
+	 * Hands the bytes written so far over to the write-behind thread
+	 * (which does not wait for them to be actually written)
+	 */
+	public void flush() throws IOException {
+		this.checkException();
+		this.handOver();
+	}
+
+	/**
+	 * Closes the stream, waiting for the write-behind thread to write all the bytes and close the file
+	 *
+	 * @throws	IOException	if any of the bytes could not be written
+	 */
+	public void close() throws IOException {
+		if(this.closed) {
+			return;
+		};
+		this.closed = true;
+		if(this.block != null) {
+			this.block.flip();
+			if(this.block.hasRemaining()) {
+				this.fullBlocks.add(this.block);
+			};
+			this.block = null;
+		};
+		this.fullBlocks.add(END);
+		try {
+			this.thread.join();
+		} catch(InterruptedException ie) {
+			this.thread.interrupt();
+			Thread.currentThread().interrupt();
+			throw(new InterruptedIOException("Interrupted while waiting for " + this.thread.getName()));
+		};
+		if(this.exception != null) {
+			throw(new IOException(this.exception.getMessage(), this.exception));
+		};
+	}
+
+}